@@ -29,10 +29,15 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // 连接逻辑的单元测试在 protocol-core 中；这里的本地测试仍让 android.* 返回默认值
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
 
+    implementation(project(":protocol-core"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
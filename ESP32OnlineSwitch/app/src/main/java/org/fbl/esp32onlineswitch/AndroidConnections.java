@@ -0,0 +1,64 @@
+// AndroidConnections.java
+package org.fbl.esp32onlineswitch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.concurrent.Executor;
+
+/**
+ * protocol-core 的 Android 绑定：RFCOMM 传输通道 + 主线程回调
+ */
+public final class AndroidConnections {
+    private static final String PREFS_NAME = "connections";
+    private static final String KEY_LAST_DEVICE = "last_device";
+
+    private AndroidConnections() {
+    }
+
+    /**
+     * @return 在 Android 主线程执行回调的执行器
+     */
+    public static Executor mainThreadExecutor() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /**
+     * 经典蓝牙连接，回调在主线程执行
+     */
+    public static BluetoothSerialService newService(Context context) {
+        return new BluetoothSerialService(new RfcommTransport.Factory(), mainThreadExecutor());
+    }
+
+    /**
+     * 多设备连接，回调在主线程执行
+     */
+    public static DeviceFleet newFleet(Context context) {
+        return new DeviceFleet(new RfcommTransport.Factory(), mainThreadExecutor());
+    }
+
+    /**
+     * @return 上次连接成功的设备地址，没有时为 defaultAddress
+     */
+    public static String getLastDevice(Context context, String defaultAddress) {
+        return prefs(context).getString(KEY_LAST_DEVICE, defaultAddress);
+    }
+
+    /**
+     * 记住连接成功的设备，下次启动直接连接（异步写入，不阻塞主线程）
+     */
+    public static void setLastDevice(Context context, String address) {
+        prefs(context).edit().putString(KEY_LAST_DEVICE, address).apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
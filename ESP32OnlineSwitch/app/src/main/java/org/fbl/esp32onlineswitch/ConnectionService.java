@@ -0,0 +1,167 @@
+// ConnectionService.java
+package org.fbl.esp32onlineswitch;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.graphics.drawable.Icon;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+
+/**
+ * 持有进程内唯一蓝牙连接的前台服务
+ * 界面通过 bindService 取得连接，Activity 重建、旋转或返回都不会断开，
+ * 命令队列、状态镜像和运行统计随连接一起保留。
+ * 连接中和已连接时以前台服务运行；连接结束后退出前台，没有界面绑定时服务随之销毁。
+ */
+public class ConnectionService extends Service implements BluetoothSerialService.ConnectionCallback {
+    static final String ACTION_DISCONNECT = "org.fbl.esp32onlineswitch.action.DISCONNECT";
+    private static final String CHANNEL_ID = "connection";
+    private static final int NOTIFICATION_ID = 1;
+
+    public class LocalBinder extends Binder {
+        public ConnectionService getService() {
+            return ConnectionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private BluetoothSerialService connection;
+    // 以下字段只在主线程访问
+    private BluetoothSerialService.ConnectionCallback client;
+    private boolean foreground;
+    // 最近一次 onStartCommand 的 startId，退出时只停止到这一次启动为止
+    private int lastStartId;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        connection = AndroidConnections.newService(this);
+        connection.addConnectionListener(this);
+        getSystemService(NotificationManager.class).createNotificationChannel(new NotificationChannel(
+                CHANNEL_ID, getString(R.string.connection_channel_name), NotificationManager.IMPORTANCE_LOW));
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+        if (intent != null && ACTION_DISCONNECT.equals(intent.getAction())) {
+            // 断开后状态回调会退出前台
+            connection.disconnect();
+            return START_NOT_STICKY;
+        }
+        // startForegroundService() 之后必须调用 startForeground()；
+        // 蓝牙关闭等情况下连接在启动命令送达前已经失败，进入前台后立即退出
+        enterForeground();
+        int state = connection.getConnectionState();
+        if (state != BluetoothSerialService.STATE_CONNECTING && state != BluetoothSerialService.STATE_CONNECTED) {
+            exitForeground();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        connection.removeConnectionListener(this);
+        connection.disconnect();
+        super.onDestroy();
+    }
+
+    /**
+     * @return 进程内唯一的连接，服务销毁前一直有效
+     */
+    public BluetoothSerialService getConnection() {
+        return connection;
+    }
+
+    /**
+     * 设置界面的状态和数据回调（主线程执行），界面解绑前传 null
+     */
+    public void setClient(BluetoothSerialService.ConnectionCallback callback) {
+        this.client = callback;
+    }
+
+    /**
+     * 在后台连接设备并进入前台运行；正在连接或已连接时保持现有连接
+     * @return true: 发起了新的连接
+     */
+    public boolean connect(String macAddress) {
+        int state = connection.getConnectionState();
+        if (state == BluetoothSerialService.STATE_CONNECTING || state == BluetoothSerialService.STATE_CONNECTED) {
+            return false;
+        }
+        // 先作为已启动的服务运行，界面解绑后连接仍然保留
+        startForegroundService(new Intent(this, ConnectionService.class));
+        return connection.connectToDevice(macAddress);
+    }
+
+    @Override
+    public void onConnectionStateChanged(int state) {
+        if (state == BluetoothSerialService.STATE_CONNECTING || state == BluetoothSerialService.STATE_CONNECTED) {
+            if (foreground) {
+                getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, buildNotification(state));
+            }
+        } else {
+            // 断开或出错（自动重连期间保持连接中状态，不会走到这里）
+            exitForeground();
+        }
+        BluetoothSerialService.ConnectionCallback current = client;
+        if (current != null) {
+            current.onConnectionStateChanged(state);
+        }
+    }
+
+    @Override
+    public void onFramesReceived(FrameBatch batch) {
+        BluetoothSerialService.ConnectionCallback current = client;
+        if (current != null) {
+            current.onFramesReceived(batch);
+        }
+    }
+
+    private void enterForeground() {
+        Notification notification = buildNotification(connection.getConnectionState());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        foreground = true;
+    }
+
+    // 之后又有新的启动命令时 stopSelf(startId) 不生效，由那次 onStartCommand 决定
+    private void exitForeground() {
+        foreground = false;
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf(lastStartId);
+    }
+
+    private Notification buildNotification(int state) {
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent disconnect = PendingIntent.getService(this, 1,
+                new Intent(this, ConnectionService.class).setAction(ACTION_DISCONNECT), PendingIntent.FLAG_IMMUTABLE);
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(state == BluetoothSerialService.STATE_CONNECTED
+                        ? R.string.connection_notification_connected
+                        : R.string.connection_notification_connecting))
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentIntent(open)
+                .addAction(new Notification.Action.Builder(Icon.createWithResource(this, R.mipmap.ic_launcher),
+                        getString(R.string.connection_notification_disconnect), disconnect).build())
+                .build();
+    }
+}
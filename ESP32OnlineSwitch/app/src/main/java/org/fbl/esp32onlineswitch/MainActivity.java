@@ -3,9 +3,13 @@ package org.fbl.esp32onlineswitch;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -17,11 +21,20 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 public class MainActivity extends AppCompatActivity implements BluetoothSerialService.ConnectionCallback{
 
     private static final int REQUEST_BLUETOOTH_PERMISSIONS = 100;
+    // 还没有连接过任何设备时使用
+    private static final String DEFAULT_DEVICE_ADDRESS = "78:42:1C:18:E8:0A";
+    // 连接由 ConnectionService 持有，绑定期间有效，解绑后为 null
+    private ConnectionService connectionService;
     private BluetoothSerialService bluetoothService;
+    // 命令响应在读线程上完成，提示切回主线程显示
+    private final Executor mainExecutor = AndroidConnections.mainThreadExecutor();
 
     private TextView MainActivityConnectStatu;
     private Button MainActivityButtonOpenLight;
@@ -38,17 +51,77 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
 
         ButtonOnClickTaskCreate();
 
-        // 检查并请求权限
-        if (!checkBluetoothPermissions()) {
+        // 界面先显示未连接，绑定连接服务后按实际状态更新，不等待蓝牙
+        renderConnectionState(BluetoothSerialService.STATE_NONE);
+
+        if (!checkBluetoothPermissions() || !checkNotificationPermission()) {
             requestBluetoothPermissions();
         }
+    }
 
-        // 初始化蓝牙服务
-        bluetoothService = new BluetoothSerialService(this);
-        bluetoothService.setConnectionCallback(this);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, ConnectionService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
 
-        // 测试连接函数
-        testConnectionFunctions();
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // 只解绑，连接留在服务中，Activity 重建后直接复用
+        if (connectionService != null) {
+            connectionService.setClient(null);
+            bluetoothService.getDeviceState().setListener(null);
+            connectionService = null;
+            bluetoothService = null;
+        }
+        unbindService(serviceConnection);
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            connectionService = ((ConnectionService.LocalBinder) binder).getService();
+            bluetoothService = connectionService.getConnection();
+            connectionService.setClient(MainActivity.this);
+            bluetoothService.getDeviceState().setListener(deviceStateListener);
+            renderConnectionState(bluetoothService.getConnectionState());
+
+            // 有权限时在后台连接上次使用的设备，否则等授权结果
+            if (checkBluetoothPermissions()) {
+                connectLastDevice();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            connectionService = null;
+            bluetoothService = null;
+            renderConnectionState(BluetoothSerialService.STATE_NONE);
+        }
+    };
+
+    // 继电器状态和闹钟表由状态镜像维护，设备主动上报的闹钟事件也会更新
+    private final DeviceState.Listener deviceStateListener = new DeviceState.Listener() {
+        @Override
+        public void onRelayChanged(boolean on) {
+            Log.d("DeviceState", "继电器: " + (on ? "开" : "关"));
+        }
+
+        @Override
+        public void onAlarmFired(int alarmId, Command task) {
+            Toast.makeText(MainActivity.this, "闹钟 #" + alarmId + " 已执行: " + task,
+                    Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    /**
+     * 在后台发起一次连接，结果通过 onConnectionStateChanged 更新界面；已有连接时直接复用
+     */
+    private void connectLastDevice() {
+        if (connectionService != null) {
+            connectionService.connect(AndroidConnections.getLastDevice(this, DEFAULT_DEVICE_ADDRESS));
+        }
     }
 
     private boolean checkBluetoothPermissions() {
@@ -88,6 +161,13 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
         return permissionsNeeded.isEmpty();
     }
 
+    // Android 13+ 没有通知权限时前台服务的通知（含断开按钮）不显示，连接本身不受影响
+    private boolean checkNotificationPermission() {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU
+                || ContextCompat.checkSelfPermission(this,
+                Manifest.permission.POST_NOTIFICATIONS) == PackageManager.PERMISSION_GRANTED;
+    }
+
     private void requestBluetoothPermissions() {
         List<String> permissionsToRequest = new ArrayList<>();
 
@@ -120,6 +200,11 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
             }
         }
 
+        // 与蓝牙权限一起请求连接通知的权限
+        if (!checkNotificationPermission()) {
+            permissionsToRequest.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
+
         if (!permissionsToRequest.isEmpty()) {
             ActivityCompat.requestPermissions(this,
                     permissionsToRequest.toArray(new String[0]),
@@ -135,15 +220,21 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
 
         if (requestCode == REQUEST_BLUETOOTH_PERMISSIONS) {
             boolean allGranted = true;
-            for (int result : grantResults) {
-                if (result != PackageManager.PERMISSION_GRANTED) {
+            for (int i = 0; i < grantResults.length; i++) {
+                if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                    continue;
+                }
+                // 通知权限不是连接必需的
+                if (Manifest.permission.POST_NOTIFICATIONS.equals(permissions[i])) {
+                    Toast.makeText(this, "未授予通知权限，连接通知不会显示", Toast.LENGTH_SHORT).show();
+                } else {
                     allGranted = false;
-                    break;
                 }
             }
 
             if (allGranted) {
                 Toast.makeText(this, "权限已授予", Toast.LENGTH_SHORT).show();
+                connectLastDevice();
             } else {
                 Toast.makeText(this, "需要权限才能使用蓝牙功能", Toast.LENGTH_LONG).show();
             }
@@ -151,45 +242,13 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     }
 
     /**
-     * 测试连接功能的示例方法
-     */
-    private void testConnectionFunctions() {
-        // 示例MAC地址
-        String testMac = "78:42:1C:18:E8:0A";
-
-        // 1. 使用简单的connect函数
-        boolean isConnected = connectToDeviceSimple(testMac);
-        Log.d("BluetoothTest", "简单连接结果: " + isConnected);
-
-        // 2. 使用带超时的同步连接
-        boolean isConnectedSync = connectToDeviceWithTimeout(testMac, 5000);
-        Log.d("BluetoothTest", "同步连接结果: " + isConnectedSync);
-
-        // 3. 使用异步连接
-        connectToDeviceAsync(testMac, new BluetoothSerialService.ConnectionResultCallback() {
-            @Override
-            public void onConnectionResult(boolean isSuccess) {
-                Log.d("BluetoothTest", "异步连接结果: " + isSuccess);
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(MainActivity.this,
-                                "连接" + (isSuccess ? "成功" : "失败"),
-                                Toast.LENGTH_SHORT).show();
-                    }
-                });
-            }
-        });
-    }
-
-    /**
-     * 简单的连接函数 - 您要的主要函数
+     * 简单的连接函数 - 您要的主要函数（阻塞，不要在主线程调用）
      * @param macAddress 目标设备的MAC地址
      * @return true: 连接成功 | false: 连接失败
      */
     public boolean connectToDeviceSimple(String macAddress) {
         if (bluetoothService == null) {
-            bluetoothService = new BluetoothSerialService(this);
+            return false;
         }
 
         // 使用内置的简单连接方法
@@ -197,14 +256,14 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     }
 
     /**
-     * 带超时的连接函数
+     * 带超时的连接函数（阻塞，不要在主线程调用）
      * @param macAddress 目标设备的MAC地址
      * @param timeoutMs 超时时间（毫秒）
      * @return true: 连接成功 | false: 连接失败
      */
     public boolean connectToDeviceWithTimeout(String macAddress, long timeoutMs) {
         if (bluetoothService == null) {
-            bluetoothService = new BluetoothSerialService(this);
+            return false;
         }
 
         return bluetoothService.connectToDeviceSync(macAddress, timeoutMs);
@@ -218,11 +277,10 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     public void connectToDeviceAsync(String macAddress,
                                      BluetoothSerialService.ConnectionResultCallback callback) {
         if (bluetoothService == null) {
-            bluetoothService = new BluetoothSerialService(this);
+            return;
         }
 
-        bluetoothService.setConnectionResultCallback(callback);
-        bluetoothService.connectToDevice(macAddress);
+        bluetoothService.connectToDeviceAsync(macAddress, callback);
     }
 
     /**
@@ -245,7 +303,7 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     }
 
     /**
-     * 断开当前连接
+     * 断开当前连接（连接服务随之退出前台）
      */
     public void disconnectDevice() {
         if (bluetoothService != null) {
@@ -268,54 +326,59 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     // 实现ConnectionCallback接口
     @Override
     public void onConnectionStateChanged(int state) {
+        renderConnectionState(state);
         String stateText = "";
         switch (state) {
             case BluetoothSerialService.STATE_CONNECTING:
-                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_CON));
                 stateText = "正在连接...";
                 break;
             case BluetoothSerialService.STATE_CONNECTED:
-                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_OK));
                 stateText = "已连接";
+                // 下次启动直接连接这台设备
+                String address = bluetoothService.getConnectedDeviceAddress();
+                if (address != null) {
+                    AndroidConnections.setLastDevice(this, address);
+                }
+                // 连接后读取一次状态，之后由响应和事件更新
+                bluetoothService.getDeviceState().readRelayState();
                 break;
             case BluetoothSerialService.STATE_DISCONNECTED:
-                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_NO));
                 stateText = "已断开";
                 break;
             case BluetoothSerialService.STATE_ERROR:
-                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_NO));
                 stateText = "连接错误";
                 break;
         }
 
-        final String finalStateText = stateText;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(MainActivity.this, "连接状态: " + finalStateText,
-                        Toast.LENGTH_SHORT).show();
-            }
-        });
+        // 回调已在主线程执行
+        Toast.makeText(MainActivity.this, "连接状态: " + stateText,
+                Toast.LENGTH_SHORT).show();
     }
 
-    @Override
-    public void onDataReceived(byte[] data) {
-        String receivedText = new String(data);
-        Log.d("BluetoothData", "收到数据: " + receivedText);
-
-        // 在UI线程更新接收到的数据
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                // 这里可以更新UI显示接收到的数据
-            }
-        });
+    // 连接状态文字和按钮可用状态只由这里设置
+    private void renderConnectionState(int state) {
+        switch (state) {
+            case BluetoothSerialService.STATE_CONNECTING:
+                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_CON));
+                break;
+            case BluetoothSerialService.STATE_CONNECTED:
+                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_OK));
+                break;
+            default:
+                MainActivityConnectStatu.setText(getString(R.string.main_activity_connect_status_NO));
+                break;
+        }
+        boolean connected = state == BluetoothSerialService.STATE_CONNECTED;
+        MainActivityButtonOpenLight.setEnabled(connected);
+        MainActivityButtonCloseLight.setEnabled(connected);
     }
 
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        disconnectDevice();
+    public void onFramesReceived(FrameBatch batch) {
+        // 回调已在主线程执行，整批处理，不逐帧复制
+        for (int i = 0; i < batch.size(); i++) {
+            Log.d("BluetoothData", "收到数据: " + batch.toString(i));
+        }
     }
 
     private void ButtonOnClickTaskCreate(){
@@ -335,78 +398,34 @@ public class MainActivity extends AppCompatActivity implements BluetoothSerialSe
     }
 
     private void MainActivityButtonOpenLight_onClick(View v){
-        if (bluetoothService == null || !bluetoothService.isConnected()) {
-            Toast.makeText(MainActivity.this, "请先连接蓝牙设备", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        try {
-            // 示例：发送十六进制数据 0x01 0x02 0x03
-            byte[] hexData = new byte[] {
-                    (byte) 0xAA,  // 协议头
-                    (byte) 0x55,
-                    (byte) 0x08,
-                    (byte) 0x52,  // 指令类型：开灯
-                    (byte) 0x45,
-                    (byte) 0x4C,
-                    (byte) 0x41,
-                    (byte) 0x59,
-                    (byte) 0x5F,
-                    (byte) 0x4F,
-                    (byte) 0x4E,
-                    (byte) 0x79   // 校验位
-            };
-
-            boolean success = bluetoothService.write(hexData);
-
-            if (success) {
-                Toast.makeText(MainActivity.this, "开灯指令发送成功", Toast.LENGTH_SHORT).show();
-                Log.d("BluetoothSend", "发送十六进制开灯指令");
-            } else {
-                Toast.makeText(MainActivity.this, "指令发送失败", Toast.LENGTH_SHORT).show();
-            }
-        } catch (Exception e) {
-            Toast.makeText(MainActivity.this, "指令发送异常: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            Log.e("BluetoothSend", "发送指令异常", e);
-        }
+        sendRelayCommand(Command.RELAY_ON, "开灯");
     }
 
     private void MainActivityButtonCloseLight_onClick(View v){
+        sendRelayCommand(Command.RELAY_OFF, "关灯");
+    }
+
+    // 经命令流水线发送（继电器命令为 INTERACTIVE，排在后台同步之前），收到响应后提示结果
+    private void sendRelayCommand(Command command, final String label) {
         if (bluetoothService == null || !bluetoothService.isConnected()) {
             Toast.makeText(MainActivity.this, "请先连接蓝牙设备", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        try {
-            // 示例：发送十六进制数据 0x01 0x02 0x03
-            byte[] hexData = new byte[] {
-                    (byte) 0xAA,  // 协议头
-                    (byte) 0x55,
-                    (byte) 0x09,
-                    (byte) 0x52,  // 指令类型：关灯
-                    (byte) 0x45,
-                    (byte) 0x4C,
-                    (byte) 0x41,
-                    (byte) 0x59,
-                    (byte) 0x5F,
-                    (byte) 0x4F,
-                    (byte) 0x46,
-                    (byte) 0x46,
-                    (byte) 0xB7   // 校验位
-            };
-
-            boolean success = bluetoothService.write(hexData);
-
-            if (success) {
-                Toast.makeText(MainActivity.this, "关灯指令发送成功", Toast.LENGTH_SHORT).show();
-                Log.d("BluetoothSend", "发送十六进制关灯指令");
-            } else {
-                Toast.makeText(MainActivity.this, "指令发送失败", Toast.LENGTH_SHORT).show();
+        bluetoothService.send(command).whenCompleteAsync(new BiConsumer<Response, Throwable>() {
+            @Override
+            public void accept(Response response, Throwable error) {
+                if (error == null) {
+                    Toast.makeText(MainActivity.this, label + "成功", Toast.LENGTH_SHORT).show();
+                    Log.d("BluetoothSend", label + "响应: " + response.getText());
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                Toast.makeText(MainActivity.this, label + "失败: " + cause.getMessage(), Toast.LENGTH_SHORT).show();
+                Log.e("BluetoothSend", label + "指令失败", cause);
             }
-        } catch (Exception e) {
-            Toast.makeText(MainActivity.this, "指令发送异常: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            Log.e("BluetoothSend", "发送指令异常", e);
-        }
+        }, mainExecutor);
     }
 
-}
\ No newline at end of file
+}
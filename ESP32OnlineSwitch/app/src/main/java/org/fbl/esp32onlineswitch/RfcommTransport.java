@@ -0,0 +1,112 @@
+// RfcommTransport.java
+package org.fbl.esp32onlineswitch;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于经典蓝牙 RFCOMM 的传输通道
+ */
+public class RfcommTransport implements SerialTransport {
+    private static final String TAG = "RfcommTransport";
+
+    // 串口服务UUID
+    private static final UUID SERIAL_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final BluetoothDevice bluetoothDevice;
+    private final BluetoothSocket bluetoothSocket;
+
+    @SuppressLint("MissingPermission")
+    public RfcommTransport(BluetoothAdapter adapter, BluetoothDevice device) throws IOException {
+        this.bluetoothAdapter = adapter;
+        this.bluetoothDevice = device;
+        // 使用串口服务UUID创建Socket
+        this.bluetoothSocket = device.createRfcommSocketToServiceRecord(SERIAL_UUID);
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void connect() throws IOException {
+        // 取消发现以加快连接速度
+        bluetoothAdapter.cancelDiscovery();
+        bluetoothSocket.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return bluetoothSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return bluetoothSocket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return bluetoothSocket.isConnected();
+    }
+
+    @Override
+    public void close() throws IOException {
+        bluetoothSocket.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return bluetoothDevice.getAddress();
+    }
+
+    public static class Factory implements SerialTransport.Factory {
+        private final BluetoothAdapter bluetoothAdapter;
+        // 已解析的设备，重连时直接复用
+        private final ConcurrentHashMap<String, BluetoothDevice> devices = new ConcurrentHashMap<>();
+
+        public Factory() {
+            this(BluetoothAdapter.getDefaultAdapter());
+        }
+
+        public Factory(BluetoothAdapter adapter) {
+            this.bluetoothAdapter = adapter;
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean isAvailable() {
+            if (bluetoothAdapter == null) {
+                Log.e(TAG, "设备不支持蓝牙");
+                return false;
+            }
+
+            if (!bluetoothAdapter.isEnabled()) {
+                Log.e(TAG, "蓝牙未开启");
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public SerialTransport create(String address) throws IOException {
+            BluetoothDevice device = devices.get(address);
+            if (device == null) {
+                // 通过MAC地址获取设备
+                device = bluetoothAdapter.getRemoteDevice(address);
+
+                if (device == null) {
+                    throw new IOException("找不到指定MAC地址的设备: " + address);
+                }
+                devices.put(address, device);
+            }
+            return new RfcommTransport(bluetoothAdapter, device);
+        }
+    }
+}
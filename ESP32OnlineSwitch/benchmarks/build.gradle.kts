@@ -0,0 +1,28 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+// JMH 基准测试，普通 JVM 上无界面运行：
+//   ./gradlew :benchmarks:jmh                         全部基准，结果在 build/results/jmh/results.json
+//   ./gradlew :benchmarks:jmh -Pjmh.includes=Codec    只运行名称匹配的基准
+//   ./gradlew :benchmarks:jmhJar && java -jar benchmarks/build/libs/benchmarks-jmh.jar -prof gc
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    jmhImplementation(project(":protocol-core"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    includes.set(listOf((project.findProperty("jmh.includes") as String?) ?: ".*"))
+    // GC 分析器输出每次操作的分配字节数（gc.alloc.rate.norm）
+    profilers.set(listOf("gc"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+}
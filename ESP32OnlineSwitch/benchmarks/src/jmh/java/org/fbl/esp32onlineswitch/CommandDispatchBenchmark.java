@@ -0,0 +1,74 @@
+// CommandDispatchBenchmark.java
+package org.fbl.esp32onlineswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandPipeline：登记在途命令、写出、按响应匹配并完成 Future（不经过传输通道）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandDispatchBenchmark {
+    private static final int WINDOW = CommandPipeline.DEFAULT_MAX_IN_FLIGHT;
+
+    private final byte[] relayResponse = "RELAY_ON_OK".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] statusResponse = "STATUS:RELAY=ON,TIME=07:30:00".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] binaryStatusResponse = {
+            (byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_STATUS), 0, 1, 7, 30, 0, 3, 0x10, 0x0E, 0, 0};
+    @SuppressWarnings("unchecked")
+    private final CompletableFuture<Response>[] futures = new CompletableFuture[WINDOW];
+    private CommandPipeline pipeline;
+
+    @Setup
+    public void setUp() {
+        pipeline = new CommandPipeline(new CommandPipeline.FrameSink() {
+            @Override
+            public boolean write(OutgoingFrame frame) {
+                frame.release();
+                return true;
+            }
+        }, BluetoothSerialService.TIMER);
+    }
+
+    @Benchmark
+    public Response singleCommand() {
+        CompletableFuture<Response> future = pipeline.send(FrameEncoder.encode(Command.RELAY_ON));
+        pipeline.onFrame(relayResponse, 0, relayResponse.length);
+        return future.getNow(null);
+    }
+
+    /**
+     * 窗口填满后响应按序到达，匹配时需要跳过不同类型的在途命令
+     */
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public Object pipelinedMixed() {
+        for (int i = 0; i < WINDOW; i++) {
+            futures[i] = pipeline.send(FrameEncoder.encode(i % 2 == 0 ? Command.RELAY_ON : Command.GET_STATUS));
+        }
+        for (int i = 0; i < WINDOW; i++) {
+            byte[] response = i % 2 == 0 ? relayResponse : statusResponse;
+            pipeline.onFrame(response, 0, response.length);
+        }
+        return futures[WINDOW - 1].getNow(null);
+    }
+
+    @Benchmark
+    public Response singleBinaryCommand() {
+        CompletableFuture<Response> future = pipeline.send(ProtocolV2.encode(Command.GET_STATUS));
+        pipeline.onFrame(binaryStatusResponse, 0, binaryStatusResponse.length);
+        return future.getNow(null);
+    }
+}
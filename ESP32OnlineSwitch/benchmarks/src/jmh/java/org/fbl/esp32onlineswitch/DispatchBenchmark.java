@@ -0,0 +1,106 @@
+// DispatchBenchmark.java
+package org.fbl.esp32onlineswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读线程到回调线程的接收分发，单位为每帧
+ * baselineCopyAndPost 复现最初 ConnectedThread 的做法：每次 read 复制一个 byte[] 并 post 一个 Runnable，
+ * 不分帧；decodeAndBatch 是当前的 FrameDecoder + InboundDispatcher。
+ * 主线程 Handler 用单线程队列模拟，每次调用后排空，只计入入队和回调本身的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+    private static final int FRAMES = FrameCodecBenchmark.FRAMES_PER_STREAM;
+
+    // 每帧一次 read，与 RFCOMM 上逐条响应到达的情况一致
+    private byte[][] reads;
+    private final byte[] readBuffer = new byte[1024];
+    private final QueueExecutor looper = new QueueExecutor();
+    private FrameDecoder decoder;
+    private InboundDispatcher dispatcher;
+    private Blackhole blackhole;
+
+    // 模拟 Handler.post：入队，稍后在“主线程”上执行
+    static final class QueueExecutor implements Executor {
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void drain() {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private final FrameDecoder.FrameListener toDispatcher = new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            dispatcher.add(buffer, offset, length);
+        }
+    };
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        reads = FrameCodecBenchmark.responseFrames(FRAMES);
+        decoder = new FrameDecoder();
+        dispatcher = new InboundDispatcher(looper, new InboundDispatcher.Consumer() {
+            @Override
+            public void onFrames(FrameBatch batch) {
+                for (int i = 0; i < batch.size(); i++) {
+                    blackhole.consume(batch.buffer()[batch.offset(i)]);
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void baselineCopyAndPost() {
+        for (byte[] read : reads) {
+            int bytes = read.length;
+            System.arraycopy(read, 0, readBuffer, 0, bytes);
+            byte[] data = new byte[bytes];
+            System.arraycopy(readBuffer, 0, data, 0, bytes);
+            final byte[] finalData = data;
+            looper.execute(new Runnable() {
+                @Override
+                public void run() {
+                    blackhole.consume(finalData);
+                }
+            });
+        }
+        looper.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decodeAndBatch() {
+        for (byte[] read : reads) {
+            System.arraycopy(read, 0, readBuffer, 0, read.length);
+            decoder.feed(readBuffer, 0, read.length, toDispatcher);
+            dispatcher.flush();
+        }
+        looper.drain();
+    }
+}
@@ -0,0 +1,121 @@
+// FrameCodecBenchmark.java
+package org.fbl.esp32onlineswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧编码、解码和校验和
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameCodecBenchmark {
+    static final int FRAMES_PER_STREAM = 32;
+
+    private final byte[] out = new byte[FrameFormat.MAX_PAYLOAD_LENGTH + FrameFormat.OVERHEAD];
+    private final byte[] payload = new byte[FrameFormat.DEVICE_MAX_DATA_LENGTH];
+    private byte[] stream;
+    private FrameDecoder decoder;
+    private Blackhole blackhole;
+    private final FrameDecoder.FrameListener listener = new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            blackhole.consume(buffer[offset]);
+        }
+    };
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        stream = responseStream(FRAMES_PER_STREAM);
+        decoder = new FrameDecoder();
+    }
+
+    /**
+     * 典型的接收帧：ASCII 状态响应、二进制响应和闹钟事件交替
+     */
+    static byte[][] responseFrames(int frames) {
+        byte[][] payloads = {
+                "STATUS:RELAY=ON,TIME=07:30:00,ALARMS=3".getBytes(StandardCharsets.US_ASCII),
+                {(byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_STATUS), 0, 1, 7, 30, 0, 3, 0x10, 0x0E, 0, 0},
+                "EVENT:ALARM=1,TASK=RELAY_OFF,RELAY=OFF,TIME=22:00:00".getBytes(StandardCharsets.US_ASCII),
+                "RELAY_ON_OK".getBytes(StandardCharsets.US_ASCII)
+        };
+        byte[][] result = new byte[frames][];
+        for (int i = 0; i < frames; i++) {
+            byte[] data = payloads[i % payloads.length];
+            byte[] frame = new byte[data.length + FrameFormat.OVERHEAD];
+            frame[0] = (byte) FrameFormat.HEADER_1;
+            frame[1] = (byte) FrameFormat.HEADER_2;
+            frame[2] = (byte) data.length;
+            System.arraycopy(data, 0, frame, 3, data.length);
+            frame[frame.length - 1] = (byte) FrameFormat.checksum(data, 0, data.length);
+            result[i] = frame;
+        }
+        return result;
+    }
+
+    static byte[] responseStream(int frames) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : responseFrames(frames)) {
+            stream.write(frame, 0, frame.length);
+        }
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeFixedAscii() {
+        EncodedFrame frame = FrameEncoder.encode(Command.GET_STATUS);
+        frame.copyTo(out, 0);
+        return frame.length();
+    }
+
+    @Benchmark
+    public int encodeSetTimeAscii() {
+        FrameBuffer frame = FrameEncoder.setTime(12, 34, 56);
+        frame.copyTo(out, 0);
+        int length = frame.length();
+        frame.release();
+        return length;
+    }
+
+    @Benchmark
+    public int encodeSetTimeBinary() {
+        FrameBuffer frame = ProtocolV2.setTime(12, 34, 56);
+        frame.copyTo(out, 0);
+        int length = frame.length();
+        frame.release();
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_STREAM)
+    public void decodeStream() {
+        decoder.feed(stream, 0, stream.length, listener);
+    }
+
+    @Benchmark
+    public int checksum8() {
+        return FrameFormat.checksum(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public int crc16() {
+        return Crc16.compute(payload, 0, payload.length);
+    }
+}
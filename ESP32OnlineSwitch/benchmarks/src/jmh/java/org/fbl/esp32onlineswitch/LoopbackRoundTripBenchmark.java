@@ -0,0 +1,65 @@
+// LoopbackRoundTripBenchmark.java
+package org.fbl.esp32onlineswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的命令往返：编码、写出、SimulatedSwitch 解析执行、回复、读线程解码、匹配并完成 Future
+ * 回环通道没有无线延迟，结果反映的是两端的软件开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoopbackRoundTripBenchmark {
+    // ascii: 协议 v1 | binary: 二进制 v2 | reliable: 二进制 v2 + CRC-16 可靠帧
+    @Param({"ascii", "binary", "reliable"})
+    public String mode;
+
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch),
+                DispatchExecutors.direct());
+        int protocolVersion = mode.equals("ascii") ? ProtocolV2.ASCII_VERSION : ProtocolV2.VERSION;
+        service.setPreferredProtocolVersion(protocolVersion);
+        service.setReliableFramingPreferred(mode.equals("reliable"));
+        if (!service.connectToDeviceSync("00:11:22:33:44:55", 1000)) {
+            throw new IllegalStateException("回环连接失败");
+        }
+        // 等待版本协商完成
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (service.getCodec().getVersion() != protocolVersion && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Benchmark
+    public Response getStatus() throws Exception {
+        return service.send(Command.GET_STATUS).get(1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Response setTime() throws Exception {
+        return service.send(service.getCodec().setTime(12, 0, 0)).get(1, TimeUnit.SECONDS);
+    }
+}
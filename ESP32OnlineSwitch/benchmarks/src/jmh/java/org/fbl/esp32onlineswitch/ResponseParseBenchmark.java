@@ -0,0 +1,117 @@
+// ResponseParseBenchmark.java
+package org.fbl.esp32onlineswitch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应解析：命令匹配、二进制转文本、字节解析和状态镜像更新
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseParseBenchmark {
+    private final byte[] asciiStatus = "STATUS:RELAY=ON,TIME=07:30:00".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] binaryStatus = {
+            (byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_STATUS), 0, 1, 7, 30, 0, 3, 0x10, 0x0E, 0, 0};
+    private final byte[] asciiAlarms = ("ALARMS_COUNT:3 LIST:ALARM_LIST:#0=6:30:0-RELAY_ON-ENABLED;"
+            + "#1=22:0:0-RELAY_OFF-ENABLED").getBytes(StandardCharsets.US_ASCII);
+    private final byte[] binaryAlarms = {
+            (byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_ALARMS), 0, 3,
+            0, 6, 30, 0, 1,
+            1, 22, 0, 0, 2,
+            2, 12, 0, 0, 3};
+    private final ResponseParser parser = new ResponseParser();
+    private BluetoothSerialService service;
+    private DeviceState state;
+
+    @Setup
+    public void setUp() {
+        // 未连接的服务，只用它的状态镜像
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(new SimulatedSwitch()),
+                DispatchExecutors.direct());
+        state = service.getDeviceState();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.disconnect();
+    }
+
+    @Benchmark
+    public boolean matchAscii() {
+        return Command.GET_STATUS.matchesResponse(asciiStatus, 0, asciiStatus.length);
+    }
+
+    @Benchmark
+    public boolean matchBinary() {
+        return Command.GET_STATUS.matchesResponse(binaryStatus, 0, binaryStatus.length);
+    }
+
+    @Benchmark
+    public String textAscii() {
+        return ProtocolV2.toString(asciiStatus, 0, asciiStatus.length);
+    }
+
+    @Benchmark
+    public String textBinary() {
+        return ProtocolV2.toString(binaryStatus, 0, binaryStatus.length);
+    }
+
+    @Benchmark
+    public int parseStatusAscii() {
+        parser.parse(asciiStatus, 0, asciiStatus.length);
+        return parser.getSecondOfDay();
+    }
+
+    @Benchmark
+    public int parseStatusBinary() {
+        parser.parse(binaryStatus, 0, binaryStatus.length);
+        return parser.getSecondOfDay();
+    }
+
+    @Benchmark
+    public int parseAlarmsAscii() {
+        parser.parse(asciiAlarms, 0, asciiAlarms.length);
+        return parser.getEntryCount();
+    }
+
+    @Benchmark
+    public int parseAlarmsBinary() {
+        parser.parse(binaryAlarms, 0, binaryAlarms.length);
+        return parser.getEntryCount();
+    }
+
+    @Benchmark
+    public Boolean mirrorStatusAscii() {
+        state.onFrame(asciiStatus, 0, asciiStatus.length);
+        return state.getRelayState();
+    }
+
+    @Benchmark
+    public Boolean mirrorStatusBinary() {
+        state.onFrame(binaryStatus, 0, binaryStatus.length);
+        return state.getRelayState();
+    }
+
+    @Benchmark
+    public Object mirrorAlarmsAscii() {
+        state.onFrame(asciiAlarms, 0, asciiAlarms.length);
+        return state.getAlarms();
+    }
+
+    @Benchmark
+    public Object mirrorAlarmsBinary() {
+        state.onFrame(binaryAlarms, 0, binaryAlarms.length);
+        return state.getAlarms();
+    }
+}
@@ -0,0 +1,13 @@
+plugins {
+    `java-library`
+}
+
+// 协议和连接逻辑，不依赖 Android，可在普通 JVM 上测试和复用
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
@@ -0,0 +1,231 @@
+// AlarmScheduler.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按下次触发时间排序的闹钟调度器（固件 sched* 函数的参考实现，SimulatedSwitch 和闹钟预览共用）
+ * 时间是 RTC 秒数：从 RTC 当天 0 点起算，跨天继续累加，当天时刻 = 秒数 % 86400。
+ * 每个闹钟的下次触发时间放在以 ID 为下标的数组里，ID 组成一个按触发时间排列的二叉小顶堆，
+ * 主循环只比较堆顶：没有到期的闹钟时 O(1)，触发、新增、删除为 O(log n)，与闹钟总数无关。
+ * 只用定长 int/long 数组，便于逐行移植到固件。非线程安全。
+ */
+public final class AlarmScheduler {
+    public static final int SECONDS_PER_DAY = 86400;
+    // 主循环被阻塞时，超过这么久的触发不再补执行，顺延到下一天
+    public static final int MAX_LATENESS_SECONDS = 60;
+
+    /**
+     * 预览中的一次触发
+     */
+    public static final class Firing {
+        private final int alarmId;
+        private final long time;
+
+        Firing(int alarmId, long time) {
+            this.alarmId = alarmId;
+            this.time = time;
+        }
+
+        public int getAlarmId() {
+            return alarmId;
+        }
+
+        /**
+         * @return 触发时的 RTC 秒数，跨天时大于 86400
+         */
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + alarmId + "@" + time;
+        }
+    }
+
+    private final int[] heap;
+    // ID -> 堆中位置，-1 表示未调度
+    private final int[] position;
+    private final int[] secondOfDay;
+    private final long[] fireAt;
+    private int size = 0;
+
+    /**
+     * @param capacity 闹钟 ID 上限（固件 MAX_ALARMS）
+     */
+    public AlarmScheduler(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        secondOfDay = new int[capacity];
+        fireAt = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            position[i] = -1;
+        }
+    }
+
+    private AlarmScheduler(AlarmScheduler other) {
+        heap = other.heap.clone();
+        position = other.position.clone();
+        secondOfDay = other.secondOfDay.clone();
+        fireAt = other.fireAt.clone();
+        size = other.size;
+    }
+
+    /**
+     * @return 不早于 now、当天时刻为 secondOfDay 的第一个 RTC 秒数
+     */
+    public static long nextOccurrence(int secondOfDay, long now) {
+        long time = Math.floorDiv(now, SECONDS_PER_DAY) * SECONDS_PER_DAY + secondOfDay;
+        return time < now ? time + SECONDS_PER_DAY : time;
+    }
+
+    /**
+     * 新增或修改闹钟，当前这一秒的闹钟也会触发
+     */
+    public void schedule(int id, int secondOfDay, long now) {
+        this.secondOfDay[id] = secondOfDay;
+        fireAt[id] = nextOccurrence(secondOfDay, now);
+        if (position[id] < 0) {
+            heap[size] = id;
+            position[id] = size;
+            size++;
+            siftUp(size - 1);
+        } else {
+            siftUp(position[id]);
+            siftDown(position[id]);
+        }
+    }
+
+    /**
+     * 删除或禁用闹钟
+     */
+    public void cancel(int id) {
+        int index = position[id];
+        if (index < 0) {
+            return;
+        }
+        position[id] = -1;
+        size--;
+        if (index == size) {
+            return;
+        }
+        heap[index] = heap[size];
+        position[heap[index]] = index;
+        siftUp(index);
+        siftDown(index);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * RTC 被重新设置后，按新的时间重新计算所有闹钟
+     */
+    public void rebase(long now) {
+        for (int i = 0; i < size; i++) {
+            fireAt[heap[i]] = nextOccurrence(secondOfDay[heap[i]], now);
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return 最早的触发时间，没有闹钟时返回 -1
+     */
+    public long nextDeadline() {
+        return size == 0 ? -1 : fireAt[heap[0]];
+    }
+
+    /**
+     * 取出一个到期的闹钟并顺延到下一天；同一时刻的多个闹钟按 ID 顺序逐次取出
+     * @return 闹钟 ID，没有到期的返回 -1
+     */
+    public int poll(long now) {
+        while (size > 0 && fireAt[heap[0]] <= now) {
+            int id = heap[0];
+            long late = now - fireAt[id];
+            fireAt[id] += (late / SECONDS_PER_DAY + 1) * SECONDS_PER_DAY;
+            siftDown(0);
+            if (late <= MAX_LATENESS_SECONDS) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isScheduled(int id) {
+        return position[id] >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 从 now 起接下来的 count 次触发（不改变调度状态）
+     */
+    public List<Firing> preview(long now, int count) {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        AlarmScheduler copy = new AlarmScheduler(this);
+        copy.rebase(now);
+        List<Firing> firings = new ArrayList<>(count);
+        while (firings.size() < count) {
+            long time = copy.nextDeadline();
+            firings.add(new Firing(copy.poll(time), time));
+        }
+        return firings;
+    }
+
+    // ========== 二叉堆 ==========
+
+    // 触发时间相同时 ID 小的在前
+    private boolean before(int a, int b) {
+        return fireAt[a] < fireAt[b] || (fireAt[a] == fireAt[b] && a < b);
+    }
+
+    private void siftUp(int index) {
+        int id = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!before(id, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            position[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+
+    private void siftDown(int index) {
+        int id = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], id)) {
+                break;
+            }
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+}
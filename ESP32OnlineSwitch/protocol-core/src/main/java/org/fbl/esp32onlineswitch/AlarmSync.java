@@ -0,0 +1,400 @@
+// AlarmSync.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 闹钟表增量同步
+ * 把期望的闹钟表与 DeviceState 缓存的设备闹钟表比较，只发送需要的删除、启停和新增。
+ * 固件支持 ALARM_BATCH 时合并为批量帧（超过帧长才拆分，最后一帧提交），一次同步只写一次 FLASH；
+ * 批量帧因槽位不足失败时固件整批回滚，改用 CLEAR + 全量新增的批量帧重试。
+ * 旧固件逐条发送单个命令，仍只发送差异部分。
+ */
+public final class AlarmSync {
+    // 批量帧数据部分：操作码 + 标志之后的操作序列上限
+    static final int MAX_BATCH_OPS_LENGTH = FrameFormat.DEVICE_MAX_DATA_LENGTH - 2;
+
+    /**
+     * 一次同步的结果
+     */
+    public static final class Result {
+        private final int added;
+        private final int deleted;
+        private final int toggled;
+        private final int frames;
+        private final boolean batched;
+        private final List<DeviceState.Alarm> alarms;
+
+        Result(Plan plan, int frames, boolean batched, List<DeviceState.Alarm> alarms) {
+            this.added = plan.adds.size();
+            this.deleted = plan.deletes.size();
+            this.toggled = plan.toggles.size();
+            this.frames = frames;
+            this.batched = batched;
+            this.alarms = alarms;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return 只改变启用状态的闹钟数
+         */
+        public int getToggled() {
+            return toggled;
+        }
+
+        /**
+         * @return 发送的命令帧数，闹钟表已一致时为 0
+         */
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return true: 使用了 ALARM_BATCH
+         */
+        public boolean isBatched() {
+            return batched;
+        }
+
+        /**
+         * @return 同步后的闹钟表
+         */
+        public List<DeviceState.Alarm> getAlarms() {
+            return alarms;
+        }
+
+        @Override
+        public String toString() {
+            return "+" + added + " -" + deleted + " ~" + toggled + " (" + frames + " 帧"
+                    + (batched ? "，批量" : "") + ")";
+        }
+    }
+
+    /**
+     * 差异：按删除、启停、新增的顺序执行
+     */
+    static final class Plan {
+        final boolean clear;
+        final List<DeviceState.Alarm> deletes;
+        final List<DeviceState.Alarm> toggles;
+        final List<DeviceState.Alarm> adds;
+
+        Plan(boolean clear, List<DeviceState.Alarm> deletes, List<DeviceState.Alarm> toggles,
+             List<DeviceState.Alarm> adds) {
+            this.clear = clear;
+            this.deletes = deletes;
+            this.toggles = toggles;
+            this.adds = adds;
+        }
+
+        boolean isEmpty() {
+            return !clear && deletes.isEmpty() && toggles.isEmpty() && adds.isEmpty();
+        }
+    }
+
+    private final BluetoothSerialService service;
+
+    public AlarmSync(BluetoothSerialService service) {
+        this.service = service;
+    }
+
+    /**
+     * 把设备闹钟表同步为期望的闹钟表
+     * @param desired 期望的闹钟（ID 忽略，按时间、任务和启用状态比较），设备上多余的闹钟会被删除
+     * @return 同步结果；失败时闹钟缓存标记为过期
+     */
+    public CompletableFuture<Result> sync(List<DeviceState.Alarm> desired) {
+        for (DeviceState.Alarm alarm : desired) {
+            FrameEncoder.checkTime(alarm.getHour(), alarm.getMinute(), alarm.getSecond());
+            ProtocolV2.taskCodeOf(alarm.getTask());
+        }
+        final List<DeviceState.Alarm> target = new ArrayList<>(desired);
+        return service.getDeviceState().readAlarms()
+                .thenCompose(new Function<List<DeviceState.Alarm>, CompletionStage<Result>>() {
+                    @Override
+                    public CompletionStage<Result> apply(List<DeviceState.Alarm> current) {
+                        Plan plan = diff(current, target);
+                        if (plan.isEmpty()) {
+                            return CompletableFuture.completedFuture(new Result(plan, 0, false, current));
+                        }
+                        if ((service.getDeviceFeatures() & ProtocolV2.FEATURE_ALARM_BATCH) != 0) {
+                            return syncBatched(plan, current, target);
+                        }
+                        return syncCommands(plan);
+                    }
+                });
+    }
+
+    /**
+     * 计算差异：时间和任务相同的闹钟保留（启用状态不同则启停），其余删除或新增
+     */
+    static Plan diff(List<DeviceState.Alarm> current, List<DeviceState.Alarm> desired) {
+        List<DeviceState.Alarm> unmatched = new ArrayList<>(current);
+        List<DeviceState.Alarm> pending = new ArrayList<>();
+        // 先匹配完全相同的，再匹配只有启用状态不同的
+        for (DeviceState.Alarm wanted : desired) {
+            int index = find(unmatched, wanted, true);
+            if (index >= 0) {
+                unmatched.remove(index);
+            } else {
+                pending.add(wanted);
+            }
+        }
+        List<DeviceState.Alarm> toggles = new ArrayList<>();
+        List<DeviceState.Alarm> adds = new ArrayList<>();
+        for (DeviceState.Alarm wanted : pending) {
+            int index = find(unmatched, wanted, false);
+            if (index >= 0) {
+                toggles.add(unmatched.remove(index).withEnabled(wanted.isEnabled()));
+            } else {
+                adds.add(wanted);
+            }
+        }
+        return new Plan(false, unmatched, toggles, adds);
+    }
+
+    private static int find(List<DeviceState.Alarm> list, DeviceState.Alarm wanted, boolean sameEnabled) {
+        for (int i = 0; i < list.size(); i++) {
+            DeviceState.Alarm alarm = list.get(i);
+            if (alarm.getSecondOfDay() == wanted.getSecondOfDay() && alarm.getTask() == wanted.getTask()
+                    && (!sameEnabled || alarm.isEnabled() == wanted.isEnabled())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ========== ALARM_BATCH ==========
+
+    private CompletableFuture<Result> syncBatched(final Plan plan, final List<DeviceState.Alarm> current,
+                                                  final List<DeviceState.Alarm> target) {
+        final List<byte[]> chunks = pack(plan);
+        return sendChunks(chunks, 0, new ArrayList<Integer>())
+                .handle(new BiFunction<List<Integer>, Throwable, CompletableFuture<Result>>() {
+                    @Override
+                    public CompletableFuture<Result> apply(List<Integer> ids, Throwable error) {
+                        if (error == null) {
+                            return CompletableFuture.completedFuture(finish(plan, current, ids, chunks.size()));
+                        }
+                        if (!plan.clear && isListFull(error)) {
+                            // 空槽位不够（固件只回收末尾的槽位），整表重写仍只写一次 FLASH
+                            final Plan rewrite = new Plan(true, Collections.<DeviceState.Alarm>emptyList(),
+                                    Collections.<DeviceState.Alarm>emptyList(), target);
+                            final List<byte[]> rewriteChunks = pack(rewrite);
+                            return sendChunks(rewriteChunks, 0, new ArrayList<Integer>())
+                                    .thenApply(new Function<List<Integer>, Result>() {
+                                        @Override
+                                        public Result apply(List<Integer> rewriteIds) {
+                                            return finish(rewrite, current, rewriteIds,
+                                                    chunks.size() + rewriteChunks.size());
+                                        }
+                                    })
+                                    .whenComplete(invalidateOnError());
+                        }
+                        service.getDeviceState().invalidateAlarms();
+                        CompletableFuture<Result> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(error);
+                        return failed;
+                    }
+                })
+                .thenCompose(new Function<CompletableFuture<Result>, CompletionStage<Result>>() {
+                    @Override
+                    public CompletionStage<Result> apply(CompletableFuture<Result> result) {
+                        return result;
+                    }
+                });
+    }
+
+    // 依次发送，前一帧成功才发下一帧；只有最后一帧带提交标志
+    private CompletableFuture<List<Integer>> sendChunks(final List<byte[]> chunks, final int index,
+                                                        final List<Integer> ids) {
+        final boolean last = index == chunks.size() - 1;
+        byte[] chunk = chunks.get(index);
+        OutgoingFrame frame = ProtocolV2.alarmBatch(last ? ProtocolV2.BATCH_FLAG_COMMIT : 0, chunk, 0, chunk.length);
+        return service.send(frame).thenCompose(new Function<Response, CompletionStage<List<Integer>>>() {
+            @Override
+            public CompletionStage<List<Integer>> apply(Response response) {
+                parseIds(response.getText(), ids);
+                if (last) {
+                    return CompletableFuture.completedFuture(ids);
+                }
+                return sendChunks(chunks, index + 1, ids);
+            }
+        });
+    }
+
+    /**
+     * 把差异编码为批量操作序列，按帧长上限拆分
+     */
+    static List<byte[]> pack(Plan plan) {
+        List<byte[]> ops = new ArrayList<>();
+        if (plan.clear) {
+            ops.add(new byte[] {ProtocolV2.BATCH_CLEAR});
+        }
+        for (DeviceState.Alarm alarm : plan.deletes) {
+            ops.add(new byte[] {ProtocolV2.BATCH_DELETE, (byte) alarm.getId()});
+        }
+        for (DeviceState.Alarm alarm : plan.toggles) {
+            ops.add(new byte[] {ProtocolV2.BATCH_ENABLE, (byte) alarm.getId(), (byte) (alarm.isEnabled() ? 1 : 0)});
+        }
+        for (DeviceState.Alarm alarm : plan.adds) {
+            ops.add(new byte[] {ProtocolV2.BATCH_ADD, (byte) alarm.getHour(), (byte) alarm.getMinute(),
+                    (byte) alarm.getSecond(), (byte) ProtocolV2.taskCodeOf(alarm.getTask()),
+                    (byte) (alarm.isEnabled() ? 1 : 0)});
+        }
+
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk = new byte[MAX_BATCH_OPS_LENGTH];
+        int length = 0;
+        for (byte[] op : ops) {
+            if (length + op.length > MAX_BATCH_OPS_LENGTH) {
+                chunks.add(copyOf(chunk, length));
+                length = 0;
+            }
+            System.arraycopy(op, 0, chunk, length, op.length);
+            length += op.length;
+        }
+        chunks.add(copyOf(chunk, length));
+        return chunks;
+    }
+
+    private static byte[] copyOf(byte[] data, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+    // ALARM_BATCH_OK:APPLIED=n,IDS=3,4
+    static void parseIds(String text, List<Integer> ids) {
+        int start = text.indexOf("IDS=");
+        if (start < 0) {
+            return;
+        }
+        for (String id : text.substring(start + "IDS=".length()).split(",")) {
+            int value = DeviceState.parseInt(id);
+            if (value >= 0) {
+                ids.add(value);
+            }
+        }
+    }
+
+    // 按差异和固件分配的 ID 算出同步后的闹钟表，写回 DeviceState
+    private Result finish(Plan plan, List<DeviceState.Alarm> current, List<Integer> ids, int frames) {
+        List<DeviceState.Alarm> table = new ArrayList<>();
+        if (!plan.clear) {
+            for (DeviceState.Alarm alarm : current) {
+                if (!containsId(plan.deletes, alarm.getId()) && !containsId(plan.toggles, alarm.getId())) {
+                    table.add(alarm);
+                }
+            }
+            table.addAll(plan.toggles);
+        }
+        if (ids.size() != plan.adds.size()) {
+            // 响应不完整，无法确定新增闹钟的 ID
+            service.getDeviceState().invalidateAlarms();
+            return new Result(plan, frames, true, service.getDeviceState().getAlarms());
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            DeviceState.Alarm alarm = plan.adds.get(i);
+            table.add(new DeviceState.Alarm(ids.get(i), alarm.getHour(), alarm.getMinute(), alarm.getSecond(),
+                    alarm.getTask(), alarm.isEnabled()));
+        }
+        // 固件删除末尾的闹钟时会连带回收末尾禁用闹钟的槽位，新增的可能覆盖它们，以后写入的为准
+        DeviceState state = service.getDeviceState();
+        state.onAlarmsSynced(dedupe(table));
+        return new Result(plan, frames, true, state.getAlarms());
+    }
+
+    private static List<DeviceState.Alarm> dedupe(List<DeviceState.Alarm> table) {
+        List<DeviceState.Alarm> result = new ArrayList<>();
+        for (int i = table.size() - 1; i >= 0; i--) {
+            if (!containsId(result, table.get(i).getId())) {
+                result.add(table.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static boolean containsId(List<DeviceState.Alarm> list, int id) {
+        for (DeviceState.Alarm alarm : list) {
+            if (alarm.getId() == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isListFull(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof CommandException
+                && cause.getMessage().contains(ProtocolV2.errorMessage(ProtocolV2.STATUS_LIST_FULL));
+    }
+
+    private BiConsumer<Result, Throwable> invalidateOnError() {
+        return new BiConsumer<Result, Throwable>() {
+            @Override
+            public void accept(Result result, Throwable error) {
+                if (error != null) {
+                    service.getDeviceState().invalidateAlarms();
+                }
+            }
+        };
+    }
+
+    // ========== 单条命令（旧固件） ==========
+
+    private CompletableFuture<Result> syncCommands(final Plan plan) {
+        final CommandCodec codec = service.getCodec();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (DeviceState.Alarm alarm : plan.deletes) {
+            pending.add(service.send(codec.deleteAlarm(alarm.getId())));
+        }
+        for (DeviceState.Alarm alarm : plan.toggles) {
+            pending.add(service.send(codec.enableAlarm(alarm.getId(), alarm.isEnabled())));
+        }
+        int frames = pending.size();
+        for (final DeviceState.Alarm alarm : plan.adds) {
+            CompletableFuture<Response> add = service.send(
+                    codec.addAlarm(alarm.getHour(), alarm.getMinute(), alarm.getSecond(), alarm.getTask()));
+            frames++;
+            if (alarm.isEnabled()) {
+                pending.add(add);
+                continue;
+            }
+            // 新增的闹钟默认启用，拿到 ID 后再禁用
+            frames++;
+            pending.add(add.thenCompose(new Function<Response, CompletionStage<Response>>() {
+                @Override
+                public CompletionStage<Response> apply(Response response) {
+                    int id = DeviceState.parseInt(DeviceState.field(response.getText(), "ID="));
+                    return service.send(codec.enableAlarm(id, false));
+                }
+            }));
+        }
+        final int sent = frames;
+        // 闹钟表由 DeviceState 根据各命令的确认更新
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, Result>() {
+                    @Override
+                    public Result apply(Void ignored) {
+                        return new Result(plan, sent, false, service.getDeviceState().getAlarms());
+                    }
+                })
+                .whenComplete(invalidateOnError());
+    }
+}
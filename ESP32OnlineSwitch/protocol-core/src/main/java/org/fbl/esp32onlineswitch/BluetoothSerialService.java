@@ -0,0 +1,1047 @@
+// BluetoothSerialService.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class BluetoothSerialService {
+    private static final Logger LOG = Logger.getLogger("BluetoothSerialService");
+
+    // 状态常量
+    public static final int STATE_NONE = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_DISCONNECTED = 3;
+    public static final int STATE_ERROR = 4;
+
+    // 命令超时计时，所有服务实例共用一个守护线程
+    static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BluetoothSerialService-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private String macAddress;
+    private SerialTransport.Factory transportFactory;
+    private volatile SerialTransport transport;
+    private volatile ConnectedLink connectedLink;
+
+    // 状态和数据监听者，写时复制：通知时遍历快照，不加锁，增删不影响正在进行的通知
+    private final CopyOnWriteArrayList<ConnectionCallback> connectionListeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<ConnectionResultCallback> resultListeners = new CopyOnWriteArrayList<>();
+    // setConnectionCallback / setConnectionResultCallback 设置的那一个，替换时从列表中移除
+    private ConnectionCallback connectionCallback;
+    private ConnectionResultCallback connectionResultCallback;
+
+    private final ConnectionStateMachine stateMachine = new ConnectionStateMachine();
+    private volatile Executor callbackExecutor;
+
+    // 连接尝试、读循环和发送批次在共用的 I/O 线程池上执行
+    private volatile IoExecutor ioExecutor = IoExecutor.shared();
+    private volatile Future<?> pendingConnect;
+    // 每次断开加一，开始于之前的连接尝试据此作废；连接完成和断开在 connectLock 上互斥
+    private final AtomicInteger connectGeneration = new AtomicInteger();
+    private final Object connectLock = new Object();
+
+    // 接收数据帧解码器，连接之间复用；固件发出的帧不超过 DEVICE_MAX_DATA_LENGTH，长度字段出错时立即重新同步
+    private final FrameDecoder frameDecoder = new FrameDecoder(FrameFormat.DEVICE_MAX_DATA_LENGTH);
+
+    // 接收帧按批分发到回调执行器
+    private final InboundDispatcher inboundDispatcher;
+
+    // 请求/响应流水线
+    private final CommandPipeline commandPipeline = new CommandPipeline(new CommandPipeline.FrameSink() {
+        @Override
+        public boolean write(OutgoingFrame frame) {
+            return BluetoothSerialService.this.write(frame);
+        }
+    }, TIMER);
+
+    // 链路中断后自动重连
+    private final ReconnectSupervisor reconnectSupervisor = new ReconnectSupervisor(this);
+
+    // 设备时钟同步
+    private final ClockSync clockSync = new ClockSync(this);
+
+    // 运行统计
+    private final LinkMetrics metrics = new LinkMetrics(this);
+
+    // 设备状态镜像
+    private final DeviceState deviceState = new DeviceState(this);
+
+    // 链路字节记录，为 null 时不记录
+    private volatile TrafficRecorder trafficRecorder;
+
+    // 命令编码，连接后按协商结果在 ASCII 和二进制 v2 之间切换
+    private volatile CommandCodec codec = FrameEncoder.CODEC;
+    // HELLO 响应中的功能位（ProtocolV2.FEATURE_*），未协商时为 0
+    private volatile int deviceFeatures = 0;
+    private volatile int preferredProtocolVersion = ProtocolV2.ASCII_VERSION;
+    // 协商时固件支持则启用 CRC-16 可靠帧
+    private volatile boolean reliableFramingPreferred = false;
+    private static final long HELLO_TIMEOUT_MS = 1000;
+
+    public interface ConnectionCallback {
+        void onConnectionStateChanged(int state);
+
+        /**
+         * @param data 一个完整数据帧的数据部分（已去掉帧头、长度和校验和）
+         */
+        default void onDataReceived(byte[] data) {
+        }
+
+        /**
+         * 一次分发的一批数据帧，默认逐帧复制后调用 onDataReceived
+         * 覆盖此方法可直接读取批次缓冲区，避免每帧分配
+         * @param batch 本批数据帧，仅在回调期间有效
+         */
+        default void onFramesReceived(FrameBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                onDataReceived(batch.copyOf(i));
+            }
+        }
+    }
+
+    public interface ConnectionResultCallback {
+        void onConnectionResult(boolean isSuccess);
+    }
+
+    /**
+     * Android 上用 AndroidConnections.newService(context) 创建（RFCOMM、主线程回调）
+     * @param transportFactory 传输通道工厂（RFCOMM、回环、TCP等）
+     * @param callbackExecutor 回调执行器
+     */
+    public BluetoothSerialService(SerialTransport.Factory transportFactory, Executor callbackExecutor) {
+        this.transportFactory = transportFactory;
+        this.callbackExecutor = callbackExecutor;
+        this.commandPipeline.setObserver(metrics.pipelineObserver);
+        this.inboundDispatcher = new InboundDispatcher(callbackExecutor, new InboundDispatcher.Consumer() {
+            @Override
+            public void onFrames(FrameBatch batch) {
+                for (ConnectionCallback listener : connectionListeners) {
+                    listener.onFramesReceived(batch);
+                }
+            }
+        });
+    }
+
+    // 设置连接结果回调，替换上一次设置的（不影响 addConnectionResultListener 添加的）
+    public synchronized void setConnectionResultCallback(ConnectionResultCallback callback) {
+        if (connectionResultCallback != null) {
+            resultListeners.remove(connectionResultCallback);
+        }
+        connectionResultCallback = callback;
+        if (callback != null) {
+            resultListeners.addIfAbsent(callback);
+        }
+    }
+
+    // 设置数据回调，替换上一次设置的（不影响 addConnectionListener 添加的）
+    public synchronized void setConnectionCallback(ConnectionCallback callback) {
+        if (connectionCallback != null) {
+            connectionListeners.remove(connectionCallback);
+        }
+        connectionCallback = callback;
+        if (callback != null) {
+            connectionListeners.addIfAbsent(callback);
+        }
+    }
+
+    /**
+     * 添加状态和数据监听者，每个监听者都收到全部状态变化和数据帧（同一批次依次回调）
+     */
+    public void addConnectionListener(ConnectionCallback listener) {
+        connectionListeners.addIfAbsent(listener);
+    }
+
+    public void removeConnectionListener(ConnectionCallback listener) {
+        connectionListeners.remove(listener);
+    }
+
+    /**
+     * 添加连接结果监听者，每次连接尝试（自动重连除外）结束时回调
+     */
+    public void addConnectionResultListener(ConnectionResultCallback listener) {
+        resultListeners.addIfAbsent(listener);
+    }
+
+    public void removeConnectionResultListener(ConnectionResultCallback listener) {
+        resultListeners.remove(listener);
+    }
+
+    /**
+     * 设置回调执行器（连接状态、连接结果和数据帧回调）
+     * @param executor AndroidConnections.mainThreadExecutor()、DispatchExecutors.background(...) 或 DispatchExecutors.direct()
+     */
+    public void setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+        inboundDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * 设置执行连接尝试和收发任务的线程池，默认 IoExecutor.shared()；在连接前调用
+     */
+    public void setIoExecutor(IoExecutor executor) {
+        this.ioExecutor = executor;
+    }
+
+    public IoExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * 连接指定MAC地址的设备
+     * @param macAddress 设备的MAC地址
+     * @return true: 开始连接尝试 | false: 连接失败
+     */
+    public boolean connectToDevice(String macAddress) {
+        return startConnect(macAddress, null) >= 0;
+    }
+
+    /**
+     * @param callback 只接收本次尝试结果的回调，可以为 null
+     * @return 本次尝试的 connectGeneration，传给 cancelConnect(int) 只取消这一次；没有开始尝试时为 -1
+     */
+    int startConnect(String macAddress, final ConnectionResultCallback callback) {
+        this.macAddress = macAddress;
+
+        if (!transportFactory.isAvailable()) {
+            moveTo(STATE_ERROR);
+            return -1;
+        }
+
+        // 如果有正在进行的连接，先断开
+        int state = stateMachine.get();
+        if (state == STATE_CONNECTED || state == STATE_CONNECTING) {
+            disconnect();
+        }
+
+        synchronized (connectLock) {
+            // 与其他线程同时发起连接时只有一个能从空闲状态进入连接中
+            state = stateMachine.get();
+            if (state == STATE_CONNECTING || state == STATE_CONNECTED || !transition(state, STATE_CONNECTING)) {
+                LOG.warning("已有连接尝试在进行: " + ConnectionStateMachine.name(stateMachine.get()));
+                return -1;
+            }
+
+            // 在共用 I/O 线程池上执行连接操作，避免阻塞UI；disconnect() 或 cancelConnect() 可以取消
+            final int generation = connectGeneration.get();
+            try {
+                pendingConnect = ioExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        performConnection(false, generation, callback);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.warning("没有可用的 I/O 线程，无法连接: " + macAddress);
+                transition(STATE_CONNECTING, STATE_ERROR);
+                return -1;
+            }
+            // 表示连接尝试已开始
+            return generation;
+        }
+    }
+
+    /**
+     * 建立连接（阻塞）
+     * @param reconnecting true: 自动重连的一次尝试，不回调连接结果，失败时保持连接中状态
+     * @param generation 发起尝试时的 connectGeneration，之后调用过 disconnect() 则本次尝试作废
+     * @param callback 本次尝试的结果回调，可以为 null
+     * @return true: 连接成功
+     */
+    private boolean performConnection(boolean reconnecting, int generation, ConnectionResultCallback callback) {
+        long startNanos = System.nanoTime();
+        SerialTransport created = null;
+        try {
+            // 通过地址创建传输通道；disconnect() 关闭它即可打断阻塞中的 connect()
+            created = transportFactory.create(macAddress);
+            transport = created;
+            if (abandoned(generation, created)) {
+                return false;
+            }
+
+            LOG.fine("正在连接设备: " + macAddress);
+
+            // 设置连接超时
+            try {
+                // 尝试连接，设置超时时间
+                created.connect();
+
+                synchronized (connectLock) {
+                    if (abandoned(generation, created)) {
+                        return false;
+                    }
+
+                    // 启动数据接收任务
+                    connectedLink = new ConnectedLink(created);
+                    try {
+                        connectedLink.start();
+                    } catch (IOException e) {
+                        connectedLink = null;
+                        throw e;
+                    }
+
+                    // 连接成功
+                    metrics.recordConnect(System.nanoTime() - startNanos, true);
+                    LOG.fine("蓝牙连接成功: " + macAddress);
+                    transition(STATE_CONNECTING, STATE_CONNECTED);
+
+                    // 断开期间闹钟可能已触发，缓存的状态需要重新确认
+                    deviceState.invalidate();
+                }
+
+                // 发送重连期间保留的命令
+                commandPipeline.resume();
+
+                // 固件可能已更新，每次连接重新协商协议版本
+                codec = FrameEncoder.CODEC;
+                deviceFeatures = 0;
+                if (preferredProtocolVersion >= ProtocolV2.VERSION || reliableFramingPreferred) {
+                    negotiate(preferredProtocolVersion >= ProtocolV2.VERSION);
+                }
+
+                // 回调连接成功
+                if (!reconnecting) {
+                    postConnectionResult(true, callback);
+                }
+                return true;
+
+            } catch (IOException e) {
+                if (abandoned(generation, created)) {
+                    return false;
+                }
+                LOG.severe("连接超时或失败: " + e.getMessage());
+                metrics.recordConnect(System.nanoTime() - startNanos, false);
+                closeQuietly(created);
+                cleanup();
+                if (reconnecting) {
+                    return false;
+                }
+                transition(STATE_CONNECTING, STATE_ERROR);
+
+                // 回调连接失败
+                postConnectionResult(false, callback);
+            }
+
+        } catch (Exception e) {
+            if (abandoned(generation, created)) {
+                return false;
+            }
+            LOG.log(Level.SEVERE, "连接过程中发生异常: " + e.getMessage(), e);
+            metrics.recordConnect(System.nanoTime() - startNanos, false);
+            closeQuietly(created);
+            cleanup();
+            if (reconnecting) {
+                return false;
+            }
+            transition(STATE_CONNECTING, STATE_ERROR);
+
+            // 回调连接失败
+            postConnectionResult(false, callback);
+        }
+        return false;
+    }
+
+    /**
+     * 尝试开始后调用过 disconnect()：关闭本次尝试创建的传输通道，不再改变连接状态
+     */
+    private boolean abandoned(int generation, SerialTransport created) {
+        if (connectGeneration.get() == generation) {
+            return false;
+        }
+        closeQuietly(created);
+        LOG.fine("连接尝试已取消: " + macAddress);
+        return true;
+    }
+
+    /**
+     * 自动重连的一次尝试，沿用上次的MAC地址
+     * 与 startConnect 一样提交到 I/O 线程池并记录在 pendingConnect，disconnect() 或 cancelConnect() 可以取消
+     * @param done 尝试结束后在 I/O 线程上调用，参数为是否连接成功；还没开始就被取消时不调用
+     * @return false: 没有可用的 I/O 线程
+     */
+    boolean startReconnect(final Consumer<Boolean> done) {
+        synchronized (connectLock) {
+            final int generation = connectGeneration.get();
+            try {
+                pendingConnect = ioExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.accept(performConnection(true, generation, null));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.warning("没有可用的 I/O 线程，稍后重连: " + macAddress);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 取消正在进行的连接尝试（含自动重连），已建立的连接不受影响
+     * 被取消的尝试不再回调连接结果
+     * @return true: 有连接尝试被取消，状态变为 STATE_DISCONNECTED
+     */
+    public boolean cancelConnect() {
+        if (stateMachine.get() != STATE_CONNECTING) {
+            return false;
+        }
+        disconnect();
+        return true;
+    }
+
+    /**
+     * 只取消 startConnect 返回的那一次尝试；之后已有新的尝试或连接已建立时不做任何事
+     * @return true: 这次尝试被取消
+     */
+    boolean cancelConnect(int generation) {
+        synchronized (connectLock) {
+            if (connectGeneration.get() != generation || stateMachine.get() != STATE_CONNECTING) {
+                return false;
+            }
+            disconnect();
+            return true;
+        }
+    }
+
+    private void postConnectionResult(final boolean isSuccess, final ConnectionResultCallback callback) {
+        if (callback == null && resultListeners.isEmpty()) {
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (callback != null) {
+                    callback.onConnectionResult(isSuccess);
+                }
+                for (ConnectionResultCallback listener : resultListeners) {
+                    listener.onConnectionResult(isSuccess);
+                }
+            }
+        });
+    }
+
+    /**
+     * 同步连接方法（阻塞直到连接完成或超时）
+     * @param macAddress 设备的MAC地址
+     * @param timeoutMs 超时时间（毫秒）
+     * @return true: 连接成功 | false: 连接失败
+     */
+    public boolean connectToDeviceSync(String macAddress, long timeoutMs) {
+        // 本次尝试自己的结果，不占用 setConnectionResultCallback 的位置
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        // 开始连接
+        if (startConnect(macAddress, new ConnectionResultCallback() {
+            @Override
+            public void onConnectionResult(boolean isSuccess) {
+                result.complete(isSuccess);
+            }
+        }) < 0) {
+            return false;
+        }
+
+        // 等待连接结果或超时
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LOG.severe("连接等待被中断: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // 超时未完成
+        }
+
+        // 如果超时未完成，断开连接并返回失败
+        disconnect();
+        return false;
+    }
+
+    /**
+     * 异步连接方法（使用回调）
+     * @param macAddress 设备的MAC地址
+     * @param callback 只接收本次尝试结果的回调；被取消的尝试不回调
+     * @return true: 开始连接尝试 | false: 连接失败
+     */
+    public boolean connectToDeviceAsync(String macAddress, final ConnectionResultCallback callback) {
+        return startConnect(macAddress, callback) >= 0;
+    }
+
+    /**
+     * 简单连接方法 - 您要的主要函数
+     * @param macAddress 设备的MAC地址
+     * @return true: 连接成功 | false: 连接失败
+     */
+    public boolean connect(final String macAddress) {
+        // 使用默认3秒超时
+        return connectToDeviceSync(macAddress, 3000);
+    }
+
+    public void disconnect() {
+        reconnectSupervisor.cancel();
+        synchronized (connectLock) {
+            // 作废进行中的连接尝试；还没开始执行的直接取消，阻塞在 connect() 的随传输通道关闭而返回
+            connectGeneration.incrementAndGet();
+            Future<?> pending = pendingConnect;
+            pendingConnect = null;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            try {
+                // 先置空再关闭，读任务据此区分主动断开和链路中断
+                ConnectedLink thread = connectedLink;
+                connectedLink = null;
+                if (thread != null) {
+                    thread.cancel();
+                }
+
+                if (transport != null) {
+                    transport.close();
+                    transport = null;
+                }
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "断开连接时出错", e);
+            } finally {
+                cleanup();
+                commandPipeline.failAll(new IOException("连接已断开"));
+                moveTo(STATE_DISCONNECTED);
+            }
+        }
+    }
+
+    /**
+     * 把数据放入发送队列，由发送任务写出，不阻塞调用线程
+     * @return true: 已入队 | false: 未连接
+     */
+    public boolean write(byte[] data) {
+        ConnectedLink thread = connectedLink;
+        if (thread != null) {
+            return thread.write(data);
+        }
+        return false;
+    }
+
+    public boolean write(String text) {
+        return write(text.getBytes());
+    }
+
+    /**
+     * 把编码好的数据帧放入发送队列，写出后释放池化缓冲区
+     * @param frame FrameEncoder 生成的帧
+     * @return true: 已入队 | false: 未连接
+     */
+    public boolean write(OutgoingFrame frame) {
+        ConnectedLink thread = connectedLink;
+        if (thread != null) {
+            return thread.write(frame);
+        }
+        frame.release();
+        return false;
+    }
+
+    /**
+     * @param version ProtocolV2.VERSION: 每次连接后自动协商二进制协议 | ProtocolV2.ASCII_VERSION: 只用 ASCII（默认）
+     */
+    public void setPreferredProtocolVersion(int version) {
+        this.preferredProtocolVersion = version;
+    }
+
+    /**
+     * @param preferred true: 每次连接后协商，固件支持时改用 CRC-16 + 序号的可靠帧，
+     *                  丢帧或误码时一个往返内选择重传，而不是等命令超时（默认 false）
+     */
+    public void setReliableFramingPreferred(boolean preferred) {
+        this.reliableFramingPreferred = preferred;
+    }
+
+    /**
+     * 发送 HELLO 协商协议版本，固件不支持时继续使用 ASCII
+     * HELLO 会让固件重置可靠帧序号，本连接的可靠帧也随之重新开始
+     * @return 协商后的协议版本
+     */
+    public CompletableFuture<Integer> negotiateProtocol() {
+        return negotiate(true);
+    }
+
+    /**
+     * @param useBinary false: 只为可靠帧协商，命令继续用 ASCII 编码
+     */
+    private CompletableFuture<Integer> negotiate(final boolean useBinary) {
+        final ConnectedLink thread = connectedLink;
+        if (thread != null) {
+            thread.setReliableLink(null);
+        }
+        return commandPipeline.send(ProtocolV2.hello(), HELLO_TIMEOUT_MS)
+                .handle(new BiFunction<Response, Throwable, Integer>() {
+                    @Override
+                    public Integer apply(Response response, Throwable error) {
+                        int version = ProtocolV2.ASCII_VERSION;
+                        int features = 0;
+                        if (error == null) {
+                            version = ProtocolV2.parseHelloVersion(response.getText());
+                            features = ProtocolV2.parseHelloFeatures(response.getText());
+                        }
+                        deviceFeatures = features;
+                        codec = useBinary && version >= ProtocolV2.VERSION
+                                ? ProtocolV2.CODEC : FrameEncoder.CODEC;
+                        if (reliableFramingPreferred && thread != null && thread == connectedLink
+                                && (features & ProtocolV2.FEATURE_RELIABLE_FRAMING) != 0) {
+                            thread.setReliableLink(new ReliableLink(thread.frameOutput, TIMER));
+                        }
+                        LOG.fine("协议版本: " + codec.getVersion()
+                                + (getReliableLink() != null ? "，可靠帧" : ""));
+                        return codec.getVersion();
+                    }
+                });
+    }
+
+    /**
+     * @return 当前连接的可靠帧 ARQ，未启用时为 null，可读取重传和 NAK 次数
+     */
+    public ReliableLink getReliableLink() {
+        ConnectedLink thread = connectedLink;
+        return thread == null ? null : thread.reliableLink;
+    }
+
+    /**
+     * @return 当前连接使用的命令编码，用它编码带参数的命令
+     */
+    public CommandCodec getCodec() {
+        return codec;
+    }
+
+    public int getProtocolVersion() {
+        return codec.getVersion();
+    }
+
+    /**
+     * @return 固件在 HELLO 中声明的功能位（ProtocolV2.FEATURE_*），未协商或旧固件为 0
+     */
+    public int getDeviceFeatures() {
+        return deviceFeatures;
+    }
+
+    /**
+     * 发送固定命令并等待响应
+     * @param command 不带参数的命令，如 RELAY_ON、GET_STATUS
+     * @return 响应的 Future，在读线程上完成
+     */
+    public CompletableFuture<Response> send(Command command) {
+        return commandPipeline.send(codec.encode(command));
+    }
+
+    /**
+     * 发送命令帧并等待响应，可连续调用，多条命令在同一往返时间内流水线发送
+     * @param frame FrameEncoder 生成的命令帧
+     * @return 响应的 Future，在读线程上完成
+     */
+    public CompletableFuture<Response> send(OutgoingFrame frame) {
+        return commandPipeline.send(frame);
+    }
+
+    /**
+     * @param timeoutMs 本条命令的超时时间（毫秒）
+     */
+    public CompletableFuture<Response> send(OutgoingFrame frame, long timeoutMs) {
+        return commandPipeline.send(frame, timeoutMs);
+    }
+
+    /**
+     * @param priority 排队优先级，不指定时按命令类型（CommandPriority.of）
+     */
+    public CompletableFuture<Response> send(OutgoingFrame frame, long timeoutMs, CommandPriority priority) {
+        return commandPipeline.send(frame, timeoutMs, priority);
+    }
+
+    /**
+     * @return 请求/响应流水线，可设置在途窗口大小和默认超时
+     */
+    public CommandPipeline getCommandPipeline() {
+        return commandPipeline;
+    }
+
+    /**
+     * @return 当前连接状态（STATE_*），界面启动时据此显示，之后跟随 onConnectionStateChanged
+     */
+    public int getConnectionState() {
+        return stateMachine.get();
+    }
+
+    public boolean isConnected() {
+        SerialTransport current = transport;
+        return stateMachine.get() == STATE_CONNECTED &&
+                current != null &&
+                current.isConnected();
+    }
+
+    public String getConnectedDeviceAddress() {
+        SerialTransport current = transport;
+        if (isConnected() && current != null) {
+            return current.getAddress();
+        }
+        return null;
+    }
+
+    /**
+     * @return 自动重连管理，可设置退避参数、订阅命令或关闭自动重连
+     */
+    public ReconnectSupervisor getReconnectSupervisor() {
+        return reconnectSupervisor;
+    }
+
+    /**
+     * @return 设备时钟同步，可单次同步或定期复查
+     */
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    /**
+     * @return 设备状态镜像，读取继电器状态、设备时钟和闹钟表时优先用它，不必每次查询
+     */
+    public DeviceState getDeviceState() {
+        return deviceState;
+    }
+
+    /**
+     * @return 运行统计，toJson() 可导出快照
+     */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 记录之后收发的原始字节，可随时设置或取消（null），记录器由调用方关闭
+     */
+    public void setTrafficRecorder(TrafficRecorder recorder) {
+        this.trafficRecorder = recorder;
+    }
+
+    public TrafficRecorder getTrafficRecorder() {
+        return trafficRecorder;
+    }
+
+    /**
+     * @return 发送队列中尚未写出的帧数
+     */
+    public int getWriteQueueDepth() {
+        ConnectedLink thread = connectedLink;
+        return thread == null ? 0 : thread.frameWriter.getQueuedFrames();
+    }
+
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * @return 接收解码器，可读取帧数、重新同步次数和校验失败次数
+     */
+    public FrameDecoder getFrameDecoder() {
+        return frameDecoder;
+    }
+
+    /**
+     * @return 接收帧分发器，可读取分发帧数和批次数
+     */
+    public InboundDispatcher getInboundDispatcher() {
+        return inboundDispatcher;
+    }
+
+    private void cleanup() {
+        transport = null;
+    }
+
+    /**
+     * 读任务退出时调用：主动断开时 connectedLink 已被置空，否则是链路意外中断
+     */
+    private void connectionLost(ConnectedLink thread) {
+        synchronized (connectLock) {
+            if (connectedLink != thread) {
+                return;
+            }
+            if (!reconnectSupervisor.isEnabled() || macAddress == null) {
+                disconnect();
+                return;
+            }
+            if (!transition(STATE_CONNECTED, STATE_CONNECTING)) {
+                return;
+            }
+
+            connectedLink = null;
+            thread.cancel();
+            closeQuietly(transport);
+            cleanup();
+
+            // 保留排队命令，重连成功后继续发送
+            commandPipeline.suspend();
+            deviceState.invalidate();
+            LOG.warning("连接中断，开始自动重连: " + macAddress);
+            reconnectSupervisor.onConnectionLost();
+        }
+    }
+
+    private static void closeQuietly(SerialTransport current) {
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "关闭传输通道失败", e);
+            }
+        }
+    }
+
+    /**
+     * CAS 校验起始状态后转换并通知监听者
+     * @return false: 当前状态不是 from 或转换不合法，没有通知
+     */
+    private boolean transition(int from, int to) {
+        if (!stateMachine.transition(from, to)) {
+            LOG.fine("忽略状态转换 " + ConnectionStateMachine.name(from) + " -> "
+                    + ConnectionStateMachine.name(to) + "，当前 " + ConnectionStateMachine.name(stateMachine.get()));
+            return false;
+        }
+        notifyStateChanged(to);
+        return true;
+    }
+
+    // 从任意允许的状态转换（主动断开、传输通道不可用）
+    private boolean moveTo(int to) {
+        if (stateMachine.moveTo(to) < 0) {
+            return false;
+        }
+        notifyStateChanged(to);
+        return true;
+    }
+
+    private void notifyStateChanged(final int state) {
+        if (connectionListeners.isEmpty()) {
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectionCallback listener : connectionListeners) {
+                    listener.onConnectionStateChanged(state);
+                }
+            }
+        });
+    }
+
+    // 一条链路的收发：读循环作为任务占用一个 I/O 线程，发送只在有帧时提交任务
+    private class ConnectedLink implements Runnable {
+        private final SerialTransport socket;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private final FrameWriter frameWriter;
+        private volatile ReliableLink reliableLink;
+        // 占用在线链路名额的线程池，读循环退出时归还
+        private volatile IoExecutor linkExecutor;
+
+        // 可靠帧直接进入发送队列
+        final ReliableLink.Output frameOutput = new ReliableLink.Output() {
+            @Override
+            public boolean write(OutgoingFrame frame) {
+                return enqueue(frame);
+            }
+        };
+
+        public ConnectedLink(SerialTransport socket) {
+            this.socket = socket;
+            InputStream tmpIn = null;
+            OutputStream tmpOut = null;
+
+            try {
+                tmpIn = socket.getInputStream();
+                tmpOut = socket.getOutputStream();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "创建流失败", e);
+            }
+
+            inputStream = tmpIn;
+            outputStream = tmpOut == null ? null : new FilterOutputStream(tmpOut) {
+                // 发送任务每批一次 write，记录的就是实际写出的字节；
+                // 先记录再写，对端的响应不会比这批数据先进入记录
+                @Override
+                public void write(byte[] data, int offset, int length) throws IOException {
+                    TrafficRecorder recorder = trafficRecorder;
+                    if (recorder != null) {
+                        recorder.record(TrafficRecorder.OUT, data, offset, length);
+                    }
+                    out.write(data, offset, length);
+                }
+            };
+            frameWriter = new FrameWriter(outputStream, new FrameWriter.ErrorListener() {
+                @Override
+                public void onWriteError(IOException e) {
+                    LOG.log(Level.SEVERE, "写入数据失败", e);
+                    // 关闭连接，读任务随后退出并断开
+                    cancel();
+                }
+            });
+        }
+
+        /**
+         * 占用一个在线链路名额，把读循环提交到 I/O 线程池，发送队列按需提交任务
+         * @throws IOException 在线链路数已达上限或线程池已满
+         */
+        void start() throws IOException {
+            IoExecutor executor = ioExecutor;
+            if (!executor.acquireLink()) {
+                throw new IOException("在线设备数已达 I/O 线程池上限 " + executor.getMaxLinks()
+                        + "（每条链路的读循环占用一个线程），无法再连接");
+            }
+            linkExecutor = executor;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                linkExecutor = null;
+                executor.releaseLink();
+                throw new IOException("没有可用的 I/O 线程", e);
+            }
+            frameWriter.start(executor);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[1024];
+            int bytes;
+
+            frameDecoder.reset();
+            final FrameDecoder.FrameListener frameListener = new FrameDecoder.FrameListener() {
+                @Override
+                public void onFrame(byte[] frameBuffer, int offset, int length) {
+                    dispatchFrame(frameBuffer, offset, length);
+                }
+
+                @Override
+                public void onReliableFrame(int seq, int ack, byte[] frameBuffer, int offset, int length) {
+                    ReliableLink link = reliableLink;
+                    if (link != null) {
+                        link.onFrame(seq, ack, frameBuffer, offset, length, this);
+                    } else if (length > 0) {
+                        dispatchFrame(frameBuffer, offset, length);
+                    }
+                }
+
+                @Override
+                public void onCorruptFrame() {
+                    ReliableLink link = reliableLink;
+                    if (link != null) {
+                        link.onCorruptFrame();
+                    }
+                }
+            };
+
+            try {
+                while (socket.isConnected()) {
+                    try {
+                        // 读取数据
+                        bytes = inputStream.read(buffer);
+
+                        // 对端关闭
+                        if (bytes < 0) {
+                            break;
+                        }
+
+                        // 拼接/拆分数据帧，本次读到的帧作为一批分发
+                        if (bytes > 0) {
+                            metrics.recordBytesIn(bytes);
+                            TrafficRecorder recorder = trafficRecorder;
+                            if (recorder != null) {
+                                recorder.record(TrafficRecorder.IN, buffer, 0, bytes);
+                            }
+                            frameDecoder.feed(buffer, 0, bytes, frameListener);
+                            inboundDispatcher.flush();
+                        }
+                    } catch (IOException e) {
+                        LOG.log(Level.SEVERE, "读取数据时连接断开", e);
+                        break;
+                    }
+                }
+            } finally {
+                // 先归还名额，自动重连可以立即使用
+                linkExecutor.releaseLink();
+            }
+            connectionLost(this);
+        }
+
+        private void dispatchFrame(byte[] frameBuffer, int offset, int length) {
+            metrics.recordFrameIn();
+
+            // 先更新状态镜像，命令 Future 完成时读到的已是新值
+            deviceState.onFrame(frameBuffer, offset, length);
+
+            // 对应在途命令
+            commandPipeline.onFrame(frameBuffer, offset, length);
+
+            // 回调数据
+            if (!connectionListeners.isEmpty()) {
+                inboundDispatcher.add(frameBuffer, offset, length);
+            }
+        }
+
+        public boolean write(byte[] data) {
+            // 复制一份，调用方可以立即复用数组；原始数据不一定是完整帧，不经过可靠帧封装
+            return enqueue(new EncodedFrame(null, data.clone()));
+        }
+
+        public boolean write(OutgoingFrame frame) {
+            ReliableLink link = reliableLink;
+            if (link != null) {
+                return link.send(frame);
+            }
+            return enqueue(frame);
+        }
+
+        private boolean enqueue(OutgoingFrame frame) {
+            // 入队后帧可能立即被写出并回收，先取长度
+            int length = frame.length();
+            if (frameWriter.enqueue(frame)) {
+                metrics.recordFrameOut(length);
+                return true;
+            }
+            return false;
+        }
+
+        void setReliableLink(ReliableLink link) {
+            ReliableLink previous = reliableLink;
+            reliableLink = link;
+            if (previous != null) {
+                previous.close();
+            }
+        }
+
+        public void cancel() {
+            setReliableLink(null);
+            frameWriter.close();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "关闭Socket失败", e);
+            }
+        }
+    }
+}
\ No newline at end of file
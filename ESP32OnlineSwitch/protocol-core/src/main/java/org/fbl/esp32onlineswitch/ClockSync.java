@@ -0,0 +1,372 @@
+// ClockSync.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.TIMER;
+
+/**
+ * 设备时钟同步
+ * 固件 RTC 只有秒分辨率，一次 GET_TIME 只说明设备在这次往返期间处于某一秒内：
+ * 设备与手机的时钟偏差落在 [秒起点 - 收到响应时刻, 秒终点 - 写出命令时刻] 之间（NTP 式用往返两端的时间戳）。
+ * 多次探测取交集，之后的探测按当前估计安排在设备秒边界到达，每次约把区间减半。
+ * 偏差超过阈值才发送 SET_TIME：固件收到时把时间置为整秒，所以在手机下一个整秒减去单程延迟时发出。
+ * 上次的结果作为先验，定期复查时探测集中在先验附近，通常两三次即可。
+ * 固件的 TIME_RECV 闹钟上报事件时自动同步一次。
+ */
+public class ClockSync {
+    private static final Logger LOG = Logger.getLogger("ClockSync");
+
+    public static final long DEFAULT_THRESHOLD_MS = 50;
+    public static final long DEFAULT_ACCURACY_MS = 10;
+    public static final int DEFAULT_MAX_PROBES = 8;
+
+    static final long DAY_MS = 86400000L;
+    // 定时发送的最小提前量，留给调度和排队
+    private static final long SCHEDULE_MARGIN_MS = 20;
+    private static final long COMMAND_TIMEOUT_MS = 2000;
+
+    /**
+     * 一次同步的结果
+     */
+    public static final class Result {
+        private final long offsetMs;
+        private final long uncertaintyMs;
+        private final long oneWayMs;
+        private final int probes;
+        private final boolean adjusted;
+
+        Result(long offsetMs, long uncertaintyMs, long oneWayMs, int probes, boolean adjusted) {
+            this.offsetMs = offsetMs;
+            this.uncertaintyMs = uncertaintyMs;
+            this.oneWayMs = oneWayMs;
+            this.probes = probes;
+            this.adjusted = adjusted;
+        }
+
+        /**
+         * @return 同步前设备时钟比手机快多少毫秒（负数为慢）
+         */
+        public long getOffsetMs() {
+            return offsetMs;
+        }
+
+        /**
+         * @return 偏差估计的误差范围（±毫秒）
+         */
+        public long getUncertaintyMs() {
+            return uncertaintyMs;
+        }
+
+        /**
+         * @return 估计的单程延迟（最小往返时间的一半）
+         */
+        public long getOneWayMs() {
+            return oneWayMs;
+        }
+
+        /**
+         * @return 发送的 GET_TIME 次数
+         */
+        public int getProbes() {
+            return probes;
+        }
+
+        /**
+         * @return true: 偏差超过阈值，已发送 SET_TIME
+         */
+        public boolean isAdjusted() {
+            return adjusted;
+        }
+
+        @Override
+        public String toString() {
+            return "offset=" + offsetMs + "ms ±" + uncertaintyMs + "ms, oneWay=" + oneWayMs
+                    + "ms, probes=" + probes + (adjusted ? ", adjusted" : "");
+        }
+    }
+
+    private final BluetoothSerialService service;
+    private volatile long thresholdMs = DEFAULT_THRESHOLD_MS;
+    private volatile long accuracyMs = DEFAULT_ACCURACY_MS;
+    private volatile int maxProbes = DEFAULT_MAX_PROBES;
+    private volatile Result lastResult;
+
+    // 以下字段由 this 保护
+    private CompletableFuture<Result> running;
+    private ScheduledFuture<?> periodic;
+
+    ClockSync(BluetoothSerialService service) {
+        this.service = service;
+    }
+
+    /**
+     * @param thresholdMs 偏差超过这么多毫秒才重新设置设备时间
+     */
+    public void setThresholdMs(long thresholdMs) {
+        this.thresholdMs = Math.max(1, thresholdMs);
+    }
+
+    public long getThresholdMs() {
+        return thresholdMs;
+    }
+
+    /**
+     * @param accuracyMs 偏差区间缩小到 ±accuracyMs 后停止探测，受往返时间限制可能达不到
+     */
+    public void setAccuracyMs(long accuracyMs) {
+        this.accuracyMs = Math.max(1, accuracyMs);
+    }
+
+    public long getAccuracyMs() {
+        return accuracyMs;
+    }
+
+    /**
+     * @param maxProbes 一次同步最多发送的 GET_TIME 次数
+     */
+    public void setMaxProbes(int maxProbes) {
+        this.maxProbes = Math.max(1, maxProbes);
+    }
+
+    public int getMaxProbes() {
+        return maxProbes;
+    }
+
+    /**
+     * @return 最近一次同步的结果，还没有同步过时为 null
+     */
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * 测量设备时钟偏差，超过阈值时设置设备时间
+     * 同步进行中再次调用返回同一个 Future
+     * @return 同步结果的 Future，链路断开或命令失败时异常完成
+     */
+    public synchronized CompletableFuture<Result> sync() {
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+        Run run = new Run(lastResult);
+        running = run.future;
+        run.start();
+        return running;
+    }
+
+    /**
+     * 定期复查设备时钟，只有偏差超过阈值时才发送 SET_TIME
+     * @param intervalMs 两次同步之间的间隔，立即开始第一次
+     */
+    public synchronized void start(long intervalMs) {
+        stop();
+        periodic = TIMER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (service.isConnected()) {
+                    syncInBackground();
+                }
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 固件 TIME_RECV 闹钟上报事件、请求主机时间时由 DeviceState 调用
+     */
+    void onTimeRequested() {
+        LOG.fine("设备请求主机时间，开始同步");
+        syncInBackground();
+    }
+
+    private void syncInBackground() {
+        sync().whenComplete(new BiConsumer<Result, Throwable>() {
+            @Override
+            public void accept(Result result, Throwable error) {
+                if (error != null) {
+                    LOG.warning("时钟同步失败: " + error);
+                }
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (periodic != null) {
+            periodic.cancel(false);
+            periodic = null;
+        }
+    }
+
+    /**
+     * @return 手机本地时间（毫秒），取当天部分与设备时间比较
+     */
+    long localMillis() {
+        long now = System.currentTimeMillis();
+        return now + TimeZone.getDefault().getOffset(now);
+    }
+
+    // 把偏差换算到 reference 前后半天内，跨过午夜的两个时钟仍得到小的偏差
+    static long wrap(long offsetMs, long reference) {
+        return reference + Math.floorMod(offsetMs - reference + DAY_MS / 2, DAY_MS) - DAY_MS / 2;
+    }
+
+    // 一次同步：偏差区间 [lo, hi)，每个样本与之取交集
+    private final class Run {
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        // 先验：上次设置过时间则为 0，否则为上次测得的偏差
+        final boolean hasPrior;
+        final long priorOffset;
+        final long priorOneWay;
+        boolean bounded = false;
+        long lo;
+        long hi;
+        long minRttMs = Long.MAX_VALUE;
+        int probes = 0;
+
+        Run(Result prior) {
+            hasPrior = prior != null;
+            priorOffset = prior == null || prior.isAdjusted() ? 0 : prior.getOffsetMs();
+            priorOneWay = prior == null ? 0 : prior.getOneWayMs();
+        }
+
+        void start() {
+            if (hasPrior) {
+                probeAt(priorOffset);
+            } else {
+                sendProbe();
+            }
+        }
+
+        long oneWay() {
+            return minRttMs == Long.MAX_VALUE ? priorOneWay : minRttMs / 2;
+        }
+
+        // 安排下一次探测在设备时钟（按 offset 估计）走到整秒时到达
+        void probeAt(long offset) {
+            long oneWay = oneWay();
+            long now = localMillis();
+            long arrival = now + SCHEDULE_MARGIN_MS + oneWay;
+            long boundary = Math.floorDiv(arrival + offset + 999, 1000) * 1000;
+            TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendProbe();
+                }
+            }, boundary - offset - oneWay - now, TimeUnit.MILLISECONDS);
+        }
+
+        void sendProbe() {
+            probes++;
+            OutgoingFrame frame = service.getCodec().encode(Command.GET_TIME);
+            service.send(frame, COMMAND_TIMEOUT_MS, CommandPriority.CONFIGURATION)
+                    .whenComplete(new BiConsumer<Response, Throwable>() {
+                        @Override
+                        public void accept(Response response, Throwable error) {
+                            long received = localMillis();
+                            if (error != null) {
+                                future.completeExceptionally(error);
+                                return;
+                            }
+                            try {
+                                onSample(response, received);
+                            } catch (RuntimeException e) {
+                                future.completeExceptionally(e);
+                            }
+                        }
+                    });
+        }
+
+        void onSample(Response response, long received) {
+            String text = response.getText();
+            int seconds = DeviceState.parseTime(text.substring(text.indexOf(':') + 1));
+            if (seconds < 0) {
+                future.completeExceptionally(new CommandException(Command.GET_TIME, "无法解析时间: " + text));
+                return;
+            }
+            long rttMs = (response.getRoundTripNanos() + 999999) / 1000000;
+            minRttMs = Math.min(minRttMs, rttMs);
+
+            // 设备在 [received - rtt, received] 之间读取 RTC，读数所在的秒为 [seconds, seconds + 1)
+            long reference = bounded ? (lo + hi) / 2 : priorOffset;
+            long sampleLo = wrap(seconds * 1000L - received, reference);
+            long sampleHi = sampleLo + 1000 + rttMs;
+            if (bounded && sampleLo < hi && sampleHi > lo) {
+                lo = Math.max(lo, sampleLo);
+                hi = Math.min(hi, sampleHi);
+            } else {
+                if (bounded) {
+                    // 与之前的样本矛盾，设备时间被改动过（重启、其他主机设置），从这个样本重新开始
+                    LOG.info("设备时间在同步期间改变，重新测量");
+                }
+                lo = sampleLo;
+                hi = sampleHi;
+                bounded = true;
+            }
+
+            if (hi - lo <= 2 * accuracyMs || probes >= maxProbes) {
+                finish();
+            } else {
+                probeAt(nextTarget());
+            }
+        }
+
+        // 在区间中点探测；先验落在区间内时只在先验 ± 阈值范围内二分
+        long nextTarget() {
+            long searchLo = lo;
+            long searchHi = hi;
+            if (hasPrior) {
+                long priorLo = Math.max(lo, priorOffset - thresholdMs);
+                long priorHi = Math.min(hi, priorOffset + thresholdMs);
+                if (priorLo < priorHi) {
+                    searchLo = priorLo;
+                    searchHi = priorHi;
+                }
+            }
+            return (searchLo + searchHi) / 2;
+        }
+
+        void finish() {
+            final long offset = (lo + hi) / 2;
+            final long uncertainty = (hi - lo + 1) / 2;
+            final long oneWay = oneWay();
+            if (Math.abs(offset) <= thresholdMs) {
+                complete(new Result(offset, uncertainty, oneWay, probes, false));
+                return;
+            }
+
+            // 手机走到第 second 秒时设备刚好收到，固件把时间置为该秒的起点
+            long now = localMillis();
+            final long second = Math.floorDiv(now + SCHEDULE_MARGIN_MS + oneWay + 999, 1000);
+            TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    int secondOfDay = (int) Math.floorMod(second, DAY_MS / 1000);
+                    OutgoingFrame frame = service.getCodec().setTime(
+                            secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60);
+                    service.send(frame, COMMAND_TIMEOUT_MS, CommandPriority.INTERACTIVE)
+                            .whenComplete(new BiConsumer<Response, Throwable>() {
+                                @Override
+                                public void accept(Response response, Throwable error) {
+                                    if (error != null) {
+                                        future.completeExceptionally(error);
+                                    } else {
+                                        complete(new Result(offset, uncertainty, oneWay, probes, true));
+                                    }
+                                }
+                            });
+                }
+            }, second * 1000 - oneWay - now, TimeUnit.MILLISECONDS);
+        }
+
+        void complete(Result result) {
+            lastResult = result;
+            LOG.fine("时钟同步: " + result);
+            future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+// Command.java
+package org.fbl.esp32onlineswitch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 固件支持的命令（与 ArduinoProject.ino 的 handleTaskRun 及 CRC_CAL/crc.py 一致）
+ */
+public enum Command {
+    // 基础命令
+    RELAY_ON("RELAY_ON", false, true, "RELAY_ON_OK"),
+    RELAY_OFF("RELAY_OFF", false, true, "RELAY_OFF_OK"),
+    RELAY_TOGGLE("RELAY_TOGGLE", false, true, "RELAY_TOGGLE_OK"),
+    GET_STATUS("GET_STATUS", false, false, "STATUS:"),
+    RESTART("RESTART", false, true, "RESTART_OK"),
+
+    // 时间命令
+    TIME_SEND("TIME_SEND", false, true, "RTC_TIME:"),
+    TIME_RECV("TIME_RECV", false, true, "REQUEST_HOST_TIME:"),
+    SET_TIME("SET_TIME=", true, false, "SET_TIME_OK"),
+    GET_TIME("GET_TIME", false, false, "TIME:"),
+
+    // 闹钟命令
+    ADD_ALARM("ADD_ALARM=", true, false, "ADD_ALARM_OK"),
+    GET_ALARMS("GET_ALARMS", false, false, "ALARMS_COUNT:"),
+    ENABLE_ALARM("ENABLE_ALARM=", true, false, "ALARM_ENABLED_OK", "ALARM_DISABLED_OK"),
+    DELETE_ALARM("DELETE_ALARM=", true, false, "DELETE_ALARM_OK"),
+    CLEAR_ALARMS("CLEAR_ALARMS", false, false, "CLEAR_ALARMS_OK"),
+    // 批量修改闹钟，只有二进制编码（ProtocolV2.alarmBatch）
+    ALARM_BATCH("ALARM_BATCH=", true, false, "ALARM_BATCH_OK"),
+    // 分页读取闹钟表，只有二进制编码（ProtocolV2.getAlarmsPage）
+    GET_ALARMS_PAGE("GET_ALARMS_PAGE=", true, false, "ALARMS_COUNT:"),
+
+    // 协议版本握手（旧固件回复 ERROR:Unknown command）
+    HELLO("HELLO", false, false, "HELLO_OK");
+
+    // 固件 sendErrorResponse 的响应前缀
+    static final byte[] ERROR_PREFIX = {'E', 'R', 'R', 'O', 'R', ':'};
+
+    private final String keyword;
+    private final byte[] keywordBytes;
+    private final boolean parameterized;
+    private final boolean alarmTask;
+    private final byte[][] responsePrefixes;
+
+    Command(String keyword, boolean parameterized, boolean alarmTask, String... responsePrefixes) {
+        this.keyword = keyword;
+        this.keywordBytes = keyword.getBytes(StandardCharsets.US_ASCII);
+        this.parameterized = parameterized;
+        this.alarmTask = alarmTask;
+        this.responsePrefixes = new byte[responsePrefixes.length][];
+        for (int i = 0; i < responsePrefixes.length; i++) {
+            this.responsePrefixes[i] = responsePrefixes[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * @return 命令关键字，带参数的命令包含 '='
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    byte[] keywordBytes() {
+        return keywordBytes;
+    }
+
+    /**
+     * @return true: 需要参数（SET_TIME=HH,MM,SS 等）| false: 固定帧
+     */
+    public boolean isParameterized() {
+        return parameterized;
+    }
+
+    /**
+     * @return 能否作为 ADD_ALARM 的任务类型
+     */
+    public boolean isAlarmTask() {
+        return alarmTask;
+    }
+
+    /**
+     * @return 重复执行是否与执行一次效果相同；连接中断后结果未知的命令只有幂等的才会重发
+     */
+    public boolean isIdempotent() {
+        switch (this) {
+            case RELAY_TOGGLE:
+            case RESTART:
+            case ADD_ALARM:
+            case DELETE_ALARM:
+            case ALARM_BATCH:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 判断一个响应帧是否是本命令的成功响应
+     */
+    public boolean matchesResponse(byte[] buffer, int offset, int length) {
+        if (ProtocolV2.isBinaryResponse(buffer, offset, length)) {
+            return ProtocolV2.isResponseTo(this, buffer, offset, length);
+        }
+        for (byte[] prefix : responsePrefixes) {
+            if (startsWith(buffer, offset, length, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isErrorResponse(byte[] buffer, int offset, int length) {
+        return startsWith(buffer, offset, length, ERROR_PREFIX)
+                || ProtocolV2.isErrorResponse(buffer, offset, length);
+    }
+
+    static boolean startsWith(byte[] buffer, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
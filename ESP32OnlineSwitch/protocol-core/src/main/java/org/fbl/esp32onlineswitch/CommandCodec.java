@@ -0,0 +1,26 @@
+// CommandCodec.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 命令编码方式：ASCII 文本（FrameEncoder.CODEC）或二进制 v2（ProtocolV2.CODEC）
+ * 连接建立后由 BluetoothSerialService 按协商结果选择，调用方通过 getCodec() 编码命令即可
+ */
+public interface CommandCodec {
+    /**
+     * @return 协议版本，1 为 ASCII
+     */
+    int getVersion();
+
+    /**
+     * @param command 不带参数的命令
+     */
+    OutgoingFrame encode(Command command);
+
+    OutgoingFrame setTime(int hour, int minute, int second);
+
+    OutgoingFrame addAlarm(int hour, int minute, int second, Command task);
+
+    OutgoingFrame enableAlarm(int alarmId, boolean enable);
+
+    OutgoingFrame deleteAlarm(int alarmId);
+}
@@ -0,0 +1,25 @@
+// CommandException.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 命令执行失败：固件返回 ERROR:...，或命令未得到响应
+ */
+public class CommandException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Command command;
+
+    public CommandException(Command command, String message) {
+        super(command + ": " + message);
+        this.command = command;
+    }
+
+    public CommandException(Command command, String message, Throwable cause) {
+        super(command + ": " + message, cause);
+        this.command = command;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+}
@@ -0,0 +1,419 @@
+// CommandPipeline.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 请求/响应流水线
+ * 固件按接收顺序逐条处理命令并回复，因此响应按发送顺序与在途命令对应。
+ * 最多 maxInFlight 条命令同时在途，超出的命令排队，收到响应或超时后补发。
+ * 排队命令按 CommandPriority 分类，同类先进先出，补发时选优先级最高的一类；
+ * 每排队 agingMs 提升一级，后台同步不会被持续的操作饿死。
+ * 交互命令另有 INTERACTIVE_HEADROOM 个窗口余量，窗口被同步命令占满时也能立即写出，
+ * 只需等待已在链路上的命令，而不是排在整个同步队列之后。
+ */
+public class CommandPipeline {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    public static final long DEFAULT_AGING_MS = 500;
+    // 交互命令可以超出 maxInFlight 的条数
+    public static final int INTERACTIVE_HEADROOM = 1;
+
+    /**
+     * 帧发送出口
+     */
+    public interface FrameSink {
+        /**
+         * @return true: 已写出 | false: 写出失败（帧已被释放）
+         */
+        boolean write(OutgoingFrame frame);
+    }
+
+    /**
+     * 命令结果观察者（用于统计），在完成命令的线程上调用
+     */
+    public interface Observer {
+        /**
+         * @param error true: 固件返回 ERROR
+         */
+        void onResponse(Command command, long roundTripNanos, boolean error);
+
+        void onTimeout(Command command);
+
+        /**
+         * 命令在链路上丢失（后续命令已响应）
+         */
+        void onLost(Command command);
+
+        /**
+         * 命令从队列中取出写出
+         * @param queuedNanos 在队列中等待的时间
+         */
+        default void onDispatched(Command command, CommandPriority priority, long queuedNanos) {
+        }
+    }
+
+    private static final class PendingCommand {
+        final OutgoingFrame frame;
+        final Command command;
+        final long timeoutMs;
+        final CommandPriority priority;
+        final long queuedNanos = System.nanoTime();
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeoutTask;
+        long sentNanos;
+
+        PendingCommand(OutgoingFrame frame, long timeoutMs, CommandPriority priority) {
+            this.frame = frame;
+            this.command = frame.getCommand();
+            this.timeoutMs = timeoutMs;
+            this.priority = priority;
+        }
+    }
+
+    private final FrameSink sink;
+    private final ScheduledExecutorService timer;
+    private final ArrayDeque<PendingCommand> inFlight = new ArrayDeque<>();
+    // 按 CommandPriority 的顺序，每类一个队列
+    private final List<ArrayDeque<PendingCommand>> waiting = new ArrayList<>();
+    private int waitingCount = 0;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long defaultTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private long agingNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_AGING_MS);
+    // 因等待较久而先于更高优先级命令写出的次数
+    private long agedDispatches = 0;
+    // 链路中断等待重连期间暂停写出，新命令只排队
+    private boolean suspended = false;
+    private volatile Observer observer;
+
+    public CommandPipeline(FrameSink sink, ScheduledExecutorService timer) {
+        this.sink = sink;
+        this.timer = timer;
+        for (int i = 0; i < CommandPriority.values().length; i++) {
+            waiting.add(new ArrayDeque<PendingCommand>());
+        }
+    }
+
+    /**
+     * @param maxInFlight 同时在途的最大命令数，1 表示逐条等待响应
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        pump();
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    public synchronized void setDefaultTimeoutMs(long defaultTimeoutMs) {
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    /**
+     * @param agingMs 排队命令每等待这么久提升一级优先级
+     */
+    public synchronized void setAgingMs(long agingMs) {
+        if (agingMs <= 0) {
+            throw new IllegalArgumentException("agingMs: " + agingMs);
+        }
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMs);
+    }
+
+    public synchronized long getAgingMs() {
+        return TimeUnit.NANOSECONDS.toMillis(agingNanos);
+    }
+
+    public CompletableFuture<Response> send(OutgoingFrame frame) {
+        long timeoutMs;
+        synchronized (this) {
+            timeoutMs = defaultTimeoutMs;
+        }
+        return send(frame, timeoutMs);
+    }
+
+    /**
+     * 以命令的默认优先级发送（CommandPriority.of）
+     */
+    public CompletableFuture<Response> send(OutgoingFrame frame, long timeoutMs) {
+        Command command = frame.getCommand();
+        return send(frame, timeoutMs, command == null ? CommandPriority.CONFIGURATION : CommandPriority.of(command));
+    }
+
+    /**
+     * 发送命令并返回响应的 Future
+     * 成功时得到 Response；固件返回 ERROR 或命令丢失时以 CommandException 结束；超时以 TimeoutException 结束。
+     * Future 在读线程上完成，耗时的后续处理应使用 *Async 方法切换线程。
+     * @param frame FrameEncoder 生成的命令帧
+     * @param timeoutMs 从写出到收到响应的超时时间
+     * @param priority 排队时的优先级
+     */
+    public CompletableFuture<Response> send(OutgoingFrame frame, long timeoutMs, CommandPriority priority) {
+        if (frame.getCommand() == null) {
+            frame.release();
+            throw new IllegalArgumentException("原始文本帧无法对应响应");
+        }
+        PendingCommand pending = new PendingCommand(frame, timeoutMs, priority);
+        synchronized (this) {
+            waiting.get(priority.ordinal()).add(pending);
+            waitingCount++;
+            pump();
+        }
+        return pending.future;
+    }
+
+    // 在窗口允许的范围内写出排队的命令，调用方持有锁
+    private void pump() {
+        while (!suspended) {
+            final PendingCommand pending = next();
+            if (pending == null) {
+                return;
+            }
+            pending.sentNanos = System.nanoTime();
+            Observer current = observer;
+            if (current != null) {
+                current.onDispatched(pending.command, pending.priority, pending.sentNanos - pending.queuedNanos);
+            }
+            inFlight.add(pending);
+            if (!sink.write(pending.frame)) {
+                inFlight.remove(pending);
+                pending.future.completeExceptionally(
+                        new CommandException(pending.command, "写入失败", new IOException("连接不可用")));
+                continue;
+            }
+            pending.timeoutTask = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout(pending);
+                }
+            }, pending.timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 取出下一条可以写出的命令，窗口已满或没有排队命令时返回 null；调用方持有锁
+     * 每类只看队首：级别 = 类别序号 - 已排队时间 / agingMs，取级别最小的，相同时取类别高的
+     */
+    private PendingCommand next() {
+        if (waitingCount == 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        int best = -1;
+        long bestLevel = 0;
+        int highestWaiting = -1;
+        for (int i = 0; i < waiting.size(); i++) {
+            PendingCommand head = waiting.get(i).peek();
+            if (head == null) {
+                continue;
+            }
+            if (highestWaiting < 0) {
+                highestWaiting = i;
+            }
+            int limit = i == CommandPriority.INTERACTIVE.ordinal() ? maxInFlight + INTERACTIVE_HEADROOM : maxInFlight;
+            if (inFlight.size() >= limit) {
+                continue;
+            }
+            long level = i - (now - head.queuedNanos) / agingNanos;
+            if (best < 0 || level < bestLevel) {
+                best = i;
+                bestLevel = level;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        if (best > highestWaiting) {
+            agedDispatches++;
+        }
+        waitingCount--;
+        return waiting.get(best).poll();
+    }
+
+    private void onTimeout(PendingCommand pending) {
+        synchronized (this) {
+            if (!inFlight.remove(pending)) {
+                return;
+            }
+            pump();
+        }
+        Observer current = observer;
+        if (current != null) {
+            current.onTimeout(pending.command);
+        }
+        pending.future.completeExceptionally(
+                new TimeoutException(pending.command + " 在 " + pending.timeoutMs + "ms 内无响应"));
+    }
+
+    /**
+     * 处理一个接收到的数据帧
+     * @return true: 该帧是某条在途命令的响应 | false: 主动上报或无法对应的帧
+     */
+    public boolean onFrame(byte[] buffer, int offset, int length) {
+        boolean error = Command.isErrorResponse(buffer, offset, length);
+        PendingCommand matched = null;
+        List<PendingCommand> lost = null;
+
+        synchronized (this) {
+            if (inFlight.isEmpty()) {
+                return false;
+            }
+            if (error) {
+                // 错误响应没有命令名，属于最早的在途命令
+                matched = inFlight.poll();
+            } else {
+                Iterator<PendingCommand> iterator = inFlight.iterator();
+                while (iterator.hasNext()) {
+                    PendingCommand pending = iterator.next();
+                    if (pending.command.matchesResponse(buffer, offset, length)) {
+                        matched = pending;
+                        break;
+                    }
+                }
+                if (matched == null) {
+                    return false;
+                }
+                // 固件按顺序响应，排在前面却没有响应的命令已在链路上丢失（如校验和错误被丢弃）
+                while (inFlight.peek() != matched) {
+                    if (lost == null) {
+                        lost = new ArrayList<>();
+                    }
+                    lost.add(inFlight.poll());
+                }
+                inFlight.poll();
+            }
+            pump();
+        }
+
+        Observer current = observer;
+        if (lost != null) {
+            for (PendingCommand pending : lost) {
+                cancelTimeout(pending);
+                if (current != null) {
+                    current.onLost(pending.command);
+                }
+                pending.future.completeExceptionally(new CommandException(pending.command, "命令丢失，未收到响应"));
+            }
+        }
+
+        cancelTimeout(matched);
+        Response response = new Response(matched.command, buffer, offset, length,
+                System.nanoTime() - matched.sentNanos);
+        if (current != null) {
+            current.onResponse(matched.command, response.getRoundTripNanos(), error);
+        }
+        if (error) {
+            matched.future.completeExceptionally(new CommandException(matched.command, response.getText()));
+        } else {
+            matched.future.complete(response);
+        }
+        return true;
+    }
+
+    /**
+     * 链路中断、准备重连时调用：暂停写出，排队命令保留到 resume() 后发送
+     * 在途命令已写出但响应丢失，固定帧的幂等命令放回队首重发，其余命令结果未知，以 CommandException 结束
+     */
+    public void suspend() {
+        List<PendingCommand> unknown = null;
+        synchronized (this) {
+            suspended = true;
+            PendingCommand pending;
+            while ((pending = inFlight.pollLast()) != null) {
+                cancelTimeout(pending);
+                // 池化帧写出后已回收，只有缓存的固定帧可以再次写出
+                if (pending.command.isIdempotent() && pending.frame instanceof EncodedFrame) {
+                    waiting.get(pending.priority.ordinal()).addFirst(pending);
+                    waitingCount++;
+                } else {
+                    if (unknown == null) {
+                        unknown = new ArrayList<>();
+                    }
+                    unknown.add(pending);
+                }
+            }
+        }
+        if (unknown != null) {
+            for (PendingCommand pending : unknown) {
+                pending.future.completeExceptionally(new CommandException(pending.command, "连接中断，命令结果未知"));
+            }
+        }
+    }
+
+    /**
+     * 重连成功后恢复写出，暂停期间保留的命令按优先级、同类按原顺序发送
+     */
+    public synchronized void resume() {
+        suspended = false;
+        pump();
+    }
+
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * 连接断开时结束所有在途和排队的命令
+     */
+    public void failAll(Throwable cause) {
+        List<PendingCommand> failed = new ArrayList<>();
+        synchronized (this) {
+            suspended = false;
+            failed.addAll(inFlight);
+            inFlight.clear();
+            for (ArrayDeque<PendingCommand> queue : waiting) {
+                for (PendingCommand pending : queue) {
+                    pending.frame.release();
+                    failed.add(pending);
+                }
+                queue.clear();
+            }
+            waitingCount = 0;
+        }
+        for (PendingCommand pending : failed) {
+            cancelTimeout(pending);
+            pending.future.completeExceptionally(new CommandException(pending.command, "连接已断开", cause));
+        }
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public synchronized int getWaitingCount() {
+        return waitingCount;
+    }
+
+    public synchronized int getWaitingCount(CommandPriority priority) {
+        return waiting.get(priority.ordinal()).size();
+    }
+
+    /**
+     * @return 因排队较久而先于更高优先级的排队命令写出的次数
+     */
+    public synchronized long getAgedDispatches() {
+        return agedDispatches;
+    }
+
+    private static void cancelTimeout(PendingCommand pending) {
+        if (pending.timeoutTask != null) {
+            pending.timeoutTask.cancel(false);
+        }
+    }
+}
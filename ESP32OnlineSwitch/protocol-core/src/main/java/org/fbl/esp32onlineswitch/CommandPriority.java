@@ -0,0 +1,34 @@
+// CommandPriority.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 命令发送优先级，CommandPipeline 按此顺序从排队命令中选出下一条写出
+ * 排队较久的命令逐级提升（见 CommandPipeline.setAgingMs），低优先级命令不会一直等待
+ */
+public enum CommandPriority {
+    // 用户直接操作继电器，要求尽快执行
+    INTERACTIVE,
+    // 闹钟、时间等设置
+    CONFIGURATION,
+    // 状态轮询、闹钟表读取等后台同步
+    BACKGROUND;
+
+    /**
+     * @return 命令的默认优先级
+     */
+    public static CommandPriority of(Command command) {
+        switch (command) {
+            case RELAY_ON:
+            case RELAY_OFF:
+            case RELAY_TOGGLE:
+                return INTERACTIVE;
+            case GET_STATUS:
+            case GET_TIME:
+            case GET_ALARMS:
+            case GET_ALARMS_PAGE:
+                return BACKGROUND;
+            default:
+                return CONFIGURATION;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// ConnectionStateMachine.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.STATE_CONNECTED;
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.STATE_CONNECTING;
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.STATE_DISCONNECTED;
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.STATE_ERROR;
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.STATE_NONE;
+
+/**
+ * 连接生命周期状态机
+ * 状态保存在一个 AtomicInteger 中，每次转换用 CAS 校验起始状态：
+ * 连接任务、读任务和界面同时改变状态时只有一方成功，失败方据此放弃后续动作。
+ *
+ *   NONE / DISCONNECTED / ERROR -> CONNECTING   开始连接
+ *   CONNECTING -> CONNECTED / ERROR             连接结果
+ *   CONNECTED -> CONNECTING                     链路中断，自动重连
+ *   NONE / DISCONNECTED -> ERROR                传输通道不可用
+ *   除 DISCONNECTED 外 -> DISCONNECTED          主动断开
+ */
+public final class ConnectionStateMachine {
+    private final AtomicInteger state = new AtomicInteger(STATE_NONE);
+
+    public int get() {
+        return state.get();
+    }
+
+    /**
+     * 仅当当前状态为 from 时转换到 to
+     * @return true: 转换成功 | false: 当前状态不是 from 或转换不合法
+     */
+    public boolean transition(int from, int to) {
+        return isAllowed(from, to) && state.compareAndSet(from, to);
+    }
+
+    /**
+     * 从当前状态转换到 to（主动断开等不关心起始状态的操作）
+     * @return 转换前的状态，转换不合法时返回 -1
+     */
+    public int moveTo(int to) {
+        while (true) {
+            int from = state.get();
+            if (!isAllowed(from, to)) {
+                return -1;
+            }
+            if (state.compareAndSet(from, to)) {
+                return from;
+            }
+        }
+    }
+
+    public static boolean isAllowed(int from, int to) {
+        switch (to) {
+            case STATE_CONNECTING:
+                return from == STATE_NONE || from == STATE_DISCONNECTED || from == STATE_ERROR
+                        || from == STATE_CONNECTED;
+            case STATE_CONNECTED:
+                return from == STATE_CONNECTING;
+            case STATE_ERROR:
+                return from == STATE_CONNECTING || from == STATE_NONE || from == STATE_DISCONNECTED;
+            case STATE_DISCONNECTED:
+                return from == STATE_NONE || from == STATE_CONNECTING || from == STATE_CONNECTED
+                        || from == STATE_ERROR;
+            default:
+                return false;
+        }
+    }
+
+    public static String name(int state) {
+        switch (state) {
+            case STATE_NONE:
+                return "NONE";
+            case STATE_CONNECTING:
+                return "CONNECTING";
+            case STATE_CONNECTED:
+                return "CONNECTED";
+            case STATE_DISCONNECTED:
+                return "DISCONNECTED";
+            case STATE_ERROR:
+                return "ERROR";
+            default:
+                return String.valueOf(state);
+        }
+    }
+}
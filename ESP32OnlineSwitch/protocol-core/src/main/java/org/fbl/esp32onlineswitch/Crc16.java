@@ -0,0 +1,41 @@
+// Crc16.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * CRC-16/CCITT-FALSE（多项式 0x1021，初值 0xFFFF），与固件 crc16Update 一致
+ * 能检出所有单、双比特错误、奇数个比特错误、长度不超过 16 的突发错误以及字节交换，
+ * 这些都是求和校验和检不出或容易漏检的
+ */
+public final class Crc16 {
+    public static final int INITIAL = 0xFFFF;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    public static int update(int crc, int b) {
+        return ((crc << 8) ^ TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+    public static int update(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = update(crc, data[i]);
+        }
+        return crc;
+    }
+
+    public static int compute(byte[] data, int offset, int length) {
+        return update(INITIAL, data, offset, length);
+    }
+}
@@ -0,0 +1,247 @@
+// DeviceFleet.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * 多设备管理：每个MAC地址对应一个独立的 BluetoothSerialService，
+ * 命令并行发往各设备，总耗时约等于最慢设备的往返时间而不是各设备之和
+ */
+public class DeviceFleet {
+    private static final Logger LOG = Logger.getLogger("DeviceFleet");
+
+    // 按需连接的默认超时
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 3000;
+
+    /**
+     * 为每台设备生成命令帧（池化帧只能写出一次，群发时每台设备各编码一份）
+     */
+    public interface FrameSupplier {
+        OutgoingFrame frameFor(String address);
+    }
+
+    private final SerialTransport.Factory transportFactory;
+    private final Executor callbackExecutor;
+    private final ConcurrentHashMap<String, BluetoothSerialService> services = new ConcurrentHashMap<>();
+    // 进行中的按需连接，同一设备的并发调用共用一次尝试
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> connecting = new ConcurrentHashMap<>();
+    private volatile long connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    /**
+     * Android 上用 AndroidConnections.newFleet(context) 创建
+     * @param transportFactory 所有设备共用的传输通道工厂
+     * @param callbackExecutor 各设备连接状态和数据回调的执行器
+     */
+    public DeviceFleet(SerialTransport.Factory transportFactory, Executor callbackExecutor) {
+        this.transportFactory = transportFactory;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public void setConnectTimeoutMs(long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /**
+     * 添加设备，已存在时返回原有实例
+     */
+    public BluetoothSerialService add(String address) {
+        BluetoothSerialService service = services.get(address);
+        if (service == null) {
+            BluetoothSerialService created = new BluetoothSerialService(transportFactory, callbackExecutor);
+            service = services.putIfAbsent(address, created);
+            if (service == null) {
+                service = created;
+            }
+        }
+        return service;
+    }
+
+    /**
+     * 移除设备并断开连接
+     */
+    public void remove(String address) {
+        BluetoothSerialService service = services.remove(address);
+        if (service != null) {
+            service.disconnect();
+        }
+    }
+
+    public BluetoothSerialService get(String address) {
+        return services.get(address);
+    }
+
+    public Set<String> getAddresses() {
+        return services.keySet();
+    }
+
+    public int size() {
+        return services.size();
+    }
+
+    /**
+     * 并行连接所有未连接的设备
+     * @return 各设备连接结果，按MAC地址索引
+     */
+    public CompletableFuture<Map<String, Boolean>> connectAll() {
+        final Map<String, CompletableFuture<Boolean>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, BluetoothSerialService> entry : services.entrySet()) {
+            pending.put(entry.getKey(), ensureConnected(entry.getKey(), entry.getValue()));
+        }
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, Map<String, Boolean>>() {
+                    @Override
+                    public Map<String, Boolean> apply(Void ignored) {
+                        Map<String, Boolean> results = new LinkedHashMap<>();
+                        for (Map.Entry<String, CompletableFuture<Boolean>> entry : pending.entrySet()) {
+                            results.put(entry.getKey(), entry.getValue().join());
+                        }
+                        return results;
+                    }
+                });
+    }
+
+    /**
+     * 向所有设备发送固定命令
+     */
+    public CompletableFuture<FleetResult> broadcast(final Command command) {
+        return broadcast(services.keySet(), new FrameSupplier() {
+            @Override
+            public OutgoingFrame frameFor(String address) {
+                // 按各设备协商的协议编码
+                return add(address).getCodec().encode(command);
+            }
+        });
+    }
+
+    /**
+     * 向所有设备发送命令帧
+     */
+    public CompletableFuture<FleetResult> broadcast(FrameSupplier supplier) {
+        return broadcast(services.keySet(), supplier);
+    }
+
+    /**
+     * 向指定设备并行发送命令，未连接的设备先按需连接
+     * 单台设备失败（连接失败、ERROR 响应、超时）只记录在其结果中，不影响其他设备
+     * @param addresses 目标设备MAC地址，未添加的地址会自动添加
+     * @param supplier 每台设备的命令帧
+     * @return 汇总结果，所有设备都完成后完成
+     */
+    public CompletableFuture<FleetResult> broadcast(Collection<String> addresses, final FrameSupplier supplier) {
+        final long start = System.nanoTime();
+        final List<String> targets = new ArrayList<>(addresses);
+        final List<CompletableFuture<FleetResult.DeviceResult>> futures = new ArrayList<>(targets.size());
+
+        for (final String address : targets) {
+            final BluetoothSerialService service = add(address);
+            CompletableFuture<FleetResult.DeviceResult> future = ensureConnected(address, service)
+                    .thenCompose(new Function<Boolean, CompletableFuture<Response>>() {
+                        @Override
+                        public CompletableFuture<Response> apply(Boolean connected) {
+                            if (!connected) {
+                                CompletableFuture<Response> failed = new CompletableFuture<>();
+                                failed.completeExceptionally(new IOException("连接失败: " + address));
+                                return failed;
+                            }
+                            return service.send(supplier.frameFor(address));
+                        }
+                    })
+                    .handle(new BiFunction<Response, Throwable, FleetResult.DeviceResult>() {
+                        @Override
+                        public FleetResult.DeviceResult apply(Response response, Throwable error) {
+                            Throwable cause = error;
+                            if (cause instanceof CompletionException && cause.getCause() != null) {
+                                cause = cause.getCause();
+                            }
+                            if (cause != null) {
+                                LOG.warning("设备命令失败: " + address + " " + cause.getMessage());
+                            }
+                            return new FleetResult.DeviceResult(address, cause == null ? response : null,
+                                    cause, System.nanoTime() - start);
+                        }
+                    });
+            futures.add(future);
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, FleetResult>() {
+                    @Override
+                    public FleetResult apply(Void ignored) {
+                        Map<String, FleetResult.DeviceResult> results = new LinkedHashMap<>();
+                        for (int i = 0; i < targets.size(); i++) {
+                            results.put(targets.get(i), futures.get(i).join());
+                        }
+                        return new FleetResult(results, System.nanoTime() - start);
+                    }
+                });
+    }
+
+    /**
+     * 断开所有设备
+     */
+    public void disconnectAll() {
+        for (BluetoothSerialService service : services.values()) {
+            service.disconnect();
+        }
+    }
+
+    private CompletableFuture<Boolean> ensureConnected(final String address, final BluetoothSerialService service) {
+        if (service.isConnected()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> inFlight = connecting.putIfAbsent(address, result);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        result.whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean connected, Throwable error) {
+                connecting.remove(address, result);
+            }
+        });
+        // 占位之前别的调用可能刚连接完成
+        if (service.isConnected()) {
+            result.complete(true);
+            return result;
+        }
+
+        final int attempt = service.startConnect(address, new BluetoothSerialService.ConnectionResultCallback() {
+            @Override
+            public void onConnectionResult(boolean isSuccess) {
+                result.complete(isSuccess);
+            }
+        });
+        if (attempt < 0) {
+            result.complete(false);
+            return result;
+        }
+
+        // 超时视为连接失败，与 connectToDeviceSync 一致取消未完成的连接；只取消自己发起的这次尝试
+        BluetoothSerialService.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.complete(false)) {
+                    LOG.warning("连接超时: " + address);
+                    service.cancelConnect(attempt);
+                }
+            }
+        }, connectTimeoutMs, TimeUnit.MILLISECONDS);
+        return result;
+    }
+}
@@ -0,0 +1,692 @@
+// DeviceState.java
+package org.fbl.esp32onlineswitch;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 设备状态镜像：继电器状态、设备时钟和闹钟表
+ * 由读线程根据命令响应和固件主动上报的 EVENT 帧更新，读取直接返回内存中的值；
+ * read*() 只在数据超过有效期（TTL）或未知时才向设备查询，并发的查询合并为一次。
+ * 连接建立或中断时全部标记为过期，值保留。
+ */
+public final class DeviceState {
+    public static final long DEFAULT_TTL_MS = 60000;
+
+    // 固件主动上报的事件前缀：EVENT:ALARM=ID,TASK=任务,RELAY=ON|OFF,TIME=HH:MM:SS
+    static final String EVENT_PREFIX = "EVENT:";
+
+    public interface Listener {
+        default void onRelayChanged(boolean on) {
+        }
+
+        /**
+         * 闹钟触发（设备主动上报）
+         * @param alarmId 闹钟 ID
+         * @param task 执行的任务
+         */
+        default void onAlarmFired(int alarmId, Command task) {
+        }
+
+        /**
+         * @param alarms 新的闹钟表快照
+         */
+        default void onAlarmsChanged(List<Alarm> alarms) {
+        }
+    }
+
+    /**
+     * 闹钟表中的一项（不可变）
+     */
+    public static final class Alarm {
+        private final int id;
+        private final int hour;
+        private final int minute;
+        private final int second;
+        private final Command task;
+        private final boolean enabled;
+
+        public Alarm(int id, int hour, int minute, int second, Command task, boolean enabled) {
+            this.id = id;
+            this.hour = hour;
+            this.minute = minute;
+            this.second = second;
+            this.task = task;
+            this.enabled = enabled;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getHour() {
+            return hour;
+        }
+
+        public int getMinute() {
+            return minute;
+        }
+
+        public int getSecond() {
+            return second;
+        }
+
+        public int getSecondOfDay() {
+            return hour * 3600 + minute * 60 + second;
+        }
+
+        public Command getTask() {
+            return task;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        Alarm withEnabled(boolean value) {
+            return value == enabled ? this : new Alarm(id, hour, minute, second, task, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Alarm)) {
+                return false;
+            }
+            Alarm other = (Alarm) o;
+            return id == other.id && hour == other.hour && minute == other.minute
+                    && second == other.second && task == other.task && enabled == other.enabled;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, hour, minute, second, task, enabled);
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + "=" + hour + ":" + minute + ":" + second + "-" + task
+                    + (enabled ? "-ENABLED" : "-DISABLED");
+        }
+    }
+
+    private final BluetoothSerialService service;
+    private volatile Listener listener;
+    private volatile long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MS);
+
+    // 以下字段由 this 保护；更新时间为 0 表示未知或已过期
+    private boolean hasRelay;
+    private boolean hasTime;
+    private boolean hasAlarms;
+    private boolean relayOn;
+    private long relayUpdatedNanos;
+    private int deviceSecondOfDay;
+    private long timeSampledNanos;
+    private long timeUpdatedNanos;
+    // 按 ID 排序，固件 GET_ALARMS 只列出启用的闹钟，禁用的来自 ENABLE_ALARM 确认
+    private List<Alarm> alarms = Collections.emptyList();
+    private long alarmsUpdatedNanos;
+    private CompletableFuture<Response> statusRefresh;
+    private CompletableFuture<Response> alarmsRefresh;
+    // 只由读线程使用
+    private final ResponseParser parser = new ResponseParser();
+
+    DeviceState(BluetoothSerialService service) {
+        this.service = service;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param ttlMs 缓存有效期，超过后 read*() 重新查询
+     */
+    public void setTtl(long ttlMs) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("ttlMs: " + ttlMs);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * @return 缓存的继电器状态，从未获知时为 null
+     */
+    public synchronized Boolean getRelayState() {
+        return hasRelay ? relayOn : null;
+    }
+
+    /**
+     * @return 按采样后经过的时间推算的设备时钟（当天秒数），未知时为 -1
+     */
+    public synchronized int getDeviceSecondOfDay() {
+        if (!hasTime) {
+            return -1;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - timeSampledNanos);
+        return (int) ((deviceSecondOfDay + elapsed) % 86400);
+    }
+
+    /**
+     * @return 设备时钟减去本机时钟的秒数，范围 [-43200, 43200)，未知时为 0
+     */
+    public int getTimeOffsetSeconds() {
+        int device = getDeviceSecondOfDay();
+        if (device < 0) {
+            return 0;
+        }
+        int offset = device - LocalTime.now().toSecondOfDay();
+        return Math.floorMod(offset + 43200, 86400) - 43200;
+    }
+
+    /**
+     * @return 缓存的闹钟表快照，从未获知时为空表
+     */
+    public synchronized List<Alarm> getAlarms() {
+        return alarms;
+    }
+
+    /**
+     * @return 闹钟表是否已从设备完整读取过
+     */
+    public synchronized boolean hasAlarms() {
+        return hasAlarms;
+    }
+
+    public synchronized boolean isRelayStale() {
+        return isStale(relayUpdatedNanos);
+    }
+
+    public synchronized boolean isTimeStale() {
+        return isStale(timeUpdatedNanos);
+    }
+
+    public synchronized boolean isAlarmsStale() {
+        return isStale(alarmsUpdatedNanos);
+    }
+
+    private boolean isStale(long updatedNanos) {
+        return updatedNanos == 0 || System.nanoTime() - updatedNanos >= ttlNanos;
+    }
+
+    /**
+     * @return 继电器状态，缓存有效时立即完成，否则发送 GET_STATUS
+     */
+    public CompletableFuture<Boolean> readRelayState() {
+        synchronized (this) {
+            if (!isStale(relayUpdatedNanos)) {
+                return CompletableFuture.completedFuture(relayOn);
+            }
+        }
+        return refreshStatus().thenApply(new Function<Response, Boolean>() {
+            @Override
+            public Boolean apply(Response response) {
+                return getRelayState();
+            }
+        });
+    }
+
+    /**
+     * @return 设备时钟（当天秒数），缓存有效时立即完成，否则发送 GET_STATUS
+     */
+    public CompletableFuture<Integer> readDeviceSecondOfDay() {
+        synchronized (this) {
+            if (!isStale(timeUpdatedNanos)) {
+                return CompletableFuture.completedFuture(getDeviceSecondOfDay());
+            }
+        }
+        return refreshStatus().thenApply(new Function<Response, Integer>() {
+            @Override
+            public Integer apply(Response response) {
+                return getDeviceSecondOfDay();
+            }
+        });
+    }
+
+    /**
+     * @return 闹钟表，缓存有效时立即完成，否则发送 GET_ALARMS（固件支持时分页读取）
+     */
+    public CompletableFuture<List<Alarm>> readAlarms() {
+        CompletableFuture<Response> refresh;
+        synchronized (this) {
+            if (!isStale(alarmsUpdatedNanos)) {
+                return CompletableFuture.completedFuture(alarms);
+            }
+            if (alarmsRefresh == null || alarmsRefresh.isDone()) {
+                alarmsRefresh = (service.getDeviceFeatures() & ProtocolV2.FEATURE_ALARM_PAGES) != 0
+                        ? readAlarmPages(0)
+                        : service.send(Command.GET_ALARMS);
+            }
+            refresh = alarmsRefresh;
+        }
+        return refresh.thenApply(new Function<Response, List<Alarm>>() {
+            @Override
+            public List<Alarm> apply(Response response) {
+                return getAlarms();
+            }
+        });
+    }
+
+    // 每页的响应由 onFrame 合并到镜像，读完最后一页后闹钟表才算完整
+    private CompletableFuture<Response> readAlarmPages(final int firstId) {
+        return service.send(ProtocolV2.getAlarmsPage(firstId)).thenCompose(
+                new Function<Response, CompletionStage<Response>>() {
+                    @Override
+                    public CompletionStage<Response> apply(Response response) {
+                        int next = parseInt(field(response.getText(), "NEXT="));
+                        if (next > firstId) {
+                            return readAlarmPages(next);
+                        }
+                        synchronized (DeviceState.this) {
+                            hasAlarms = true;
+                            alarmsUpdatedNanos = System.nanoTime();
+                        }
+                        return CompletableFuture.completedFuture(response);
+                    }
+                });
+    }
+
+    /**
+     * 按缓存的闹钟表和设备时钟预览接下来的触发（与固件调度顺序一致）
+     * @return 设备时间未知时为空表
+     */
+    public List<AlarmScheduler.Firing> previewAlarms(int count) {
+        List<Alarm> snapshot;
+        int now;
+        synchronized (this) {
+            if (!hasTime) {
+                return Collections.emptyList();
+            }
+            snapshot = alarms;
+            now = getDeviceSecondOfDay();
+        }
+        int capacity = 0;
+        for (Alarm alarm : snapshot) {
+            capacity = Math.max(capacity, alarm.getId() + 1);
+        }
+        AlarmScheduler scheduler = new AlarmScheduler(capacity);
+        for (Alarm alarm : snapshot) {
+            if (alarm.isEnabled()) {
+                scheduler.schedule(alarm.getId(),
+                        alarm.getHour() * 3600 + alarm.getMinute() * 60 + alarm.getSecond(), now);
+            }
+        }
+        return scheduler.preview(now, count);
+    }
+
+    private synchronized CompletableFuture<Response> refreshStatus() {
+        if (statusRefresh == null || statusRefresh.isDone()) {
+            statusRefresh = service.send(Command.GET_STATUS);
+        }
+        return statusRefresh;
+    }
+
+    /**
+     * 全部标记为过期（连接建立或中断时调用），缓存的值仍可读取
+     */
+    public synchronized void invalidate() {
+        relayUpdatedNanos = 0;
+        timeUpdatedNanos = 0;
+        alarmsUpdatedNanos = 0;
+    }
+
+    /**
+     * 闹钟表结果未知（如批量修改失败），下次 readAlarms() 重新查询
+     */
+    synchronized void invalidateAlarms() {
+        alarmsUpdatedNanos = 0;
+    }
+
+    /**
+     * AlarmSync 的批量修改成功后写入同步后的闹钟表（ALARM_BATCH 响应只带新增的 ID）
+     */
+    void onAlarmsSynced(List<Alarm> table) {
+        replaceAlarms(new ArrayList<>(table), true);
+    }
+
+    /**
+     * 读线程收到的每个数据帧，在命令 Future 完成之前调用，保证 read*() 拿到的是新值
+     */
+    void onFrame(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        int first = buffer[offset] & 0xFF;
+        // 只有这些首字母的 ASCII 响应会改变状态，其余帧不解析
+        if (first < ProtocolV2.RESPONSE_FLAG && "RSTADCE".indexOf(first) < 0) {
+            return;
+        }
+        if (parser.parse(buffer, offset, length)) {
+            apply(parser);
+        }
+    }
+
+    private void apply(ResponseParser response) {
+        switch (response.getType()) {
+            case RELAY:
+                updateRelay(response.getRelay() == 1);
+                break;
+            case STATUS:
+                if (response.getRelay() >= 0) {
+                    updateRelay(response.getRelay() == 1);
+                }
+                updateTime(response.getSecondOfDay());
+                break;
+            case TIME:
+                updateTime(response.getSecondOfDay());
+                break;
+            case ALARM_ADDED:
+                if (response.getAlarmId() >= 0 && response.getSecondOfDay() >= 0 && response.getTask() != null) {
+                    putAlarm(newAlarm(response.getAlarmId(), response.getSecondOfDay(), response.getTask(), true));
+                }
+                break;
+            case ALARM_ENABLED:
+                setAlarmEnabled(response.getAlarmId(), response.isEnabled());
+                break;
+            case ALARM_DELETED:
+                removeAlarm(response.getAlarmId());
+                break;
+            case ALARMS_CLEARED:
+                replaceAlarms(new ArrayList<Alarm>(), true);
+                break;
+            case ALARM_LIST:
+                onAlarmList(response);
+                break;
+            case EVENT:
+                onEvent(response);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onEvent(ResponseParser response) {
+        if (response.getRelay() >= 0) {
+            updateRelay(response.getRelay() == 1);
+        }
+        updateTime(response.getSecondOfDay());
+
+        final int alarmId = response.getAlarmId();
+        final Command task = response.getTask();
+        if (task == Command.TIME_RECV) {
+            // 固件只上报事件，由这里下发补偿后的 SET_TIME
+            service.getClockSync().onTimeRequested();
+        }
+        final Listener current = listener;
+        if (alarmId >= 0 && task != null && current != null) {
+            service.getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    current.onAlarmFired(alarmId, task);
+                }
+            });
+        }
+    }
+
+    private void updateRelay(final boolean on) {
+        boolean changed;
+        synchronized (this) {
+            changed = !hasRelay || relayOn != on;
+            relayOn = on;
+            hasRelay = true;
+            relayUpdatedNanos = System.nanoTime();
+        }
+        final Listener current = listener;
+        if (changed && current != null) {
+            service.getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    current.onRelayChanged(on);
+                }
+            });
+        }
+    }
+
+    private void updateTime(int secondOfDay) {
+        if (secondOfDay < 0) {
+            return;
+        }
+        synchronized (this) {
+            deviceSecondOfDay = secondOfDay;
+            hasTime = true;
+            timeSampledNanos = System.nanoTime();
+            timeUpdatedNanos = timeSampledNanos;
+        }
+    }
+
+    /**
+     * 完整列表刷新整张表；ASCII 响应最长 64 字节，闹钟多时列表被截断，只更新看到的项。
+     * 分页列表在 [from, next) 内是完整的，范围外保留已知的闹钟。
+     * 列表没有带来变化时只刷新有效期，不复制闹钟表。
+     */
+    private void onAlarmList(ResponseParser response) {
+        int count = response.getEntryCount();
+        boolean complete = response.getPageFrom() < 0 && count >= response.getAlarmCount();
+        // 列表按 ID 排列，截断时最后一个列出的 ID 之后的闹钟没有看到
+        int lastListed = count == 0 ? -1 : response.getEntryId(count - 1);
+        List<Alarm> merged;
+        synchronized (this) {
+            if (matchesMirror(response, complete, lastListed)) {
+                if (complete) {
+                    hasAlarms = true;
+                    alarmsUpdatedNanos = System.nanoTime();
+                }
+                return;
+            }
+            merged = new ArrayList<>(count + alarms.size());
+            for (int i = 0; i < count; i++) {
+                merged.add(newAlarm(response.getEntryId(i), response.getEntrySecondOfDay(i),
+                        response.getEntryTask(i), response.isEntryEnabled(i)));
+            }
+            for (Alarm alarm : alarms) {
+                if (entryIndex(response, alarm.getId()) < 0 && isRetained(response, alarm, complete, lastListed)) {
+                    merged.add(alarm);
+                }
+            }
+        }
+        replaceAlarms(merged, complete);
+    }
+
+    // 列表中没有的闹钟是否保留：禁用的仍占用槽位（固件只列出启用的），以及列表范围外的
+    private static boolean isRetained(ResponseParser response, Alarm alarm, boolean complete, int lastListed) {
+        int id = alarm.getId();
+        int from = response.getPageFrom();
+        if (from >= 0) {
+            int next = response.getPageNext();
+            boolean inPage = id >= from && (next == ProtocolV2.PAGE_END || id < next);
+            return !inPage || !alarm.isEnabled();
+        }
+        return !alarm.isEnabled() || (!complete && id > lastListed);
+    }
+
+    // 调用时持有 this
+    private boolean matchesMirror(ResponseParser response, boolean complete, int lastListed) {
+        for (int i = 0; i < response.getEntryCount(); i++) {
+            int index = indexOf(alarms, response.getEntryId(i));
+            if (index < 0) {
+                return false;
+            }
+            Alarm alarm = alarms.get(index);
+            if (alarm.getSecondOfDay() != response.getEntrySecondOfDay(i)
+                    || alarm.getTask() != response.getEntryTask(i)
+                    || alarm.isEnabled() != response.isEntryEnabled(i)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < alarms.size(); i++) {
+            Alarm alarm = alarms.get(i);
+            if (entryIndex(response, alarm.getId()) < 0 && !isRetained(response, alarm, complete, lastListed)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int entryIndex(ResponseParser response, int id) {
+        for (int i = 0; i < response.getEntryCount(); i++) {
+            if (response.getEntryId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void putAlarm(Alarm alarm) {
+        List<Alarm> updated;
+        synchronized (this) {
+            updated = new ArrayList<>(alarms);
+            int index = indexOf(updated, alarm.getId());
+            if (index >= 0) {
+                updated.set(index, alarm);
+            } else {
+                updated.add(alarm);
+            }
+        }
+        replaceAlarms(updated, false);
+    }
+
+    private void setAlarmEnabled(int id, boolean enabled) {
+        List<Alarm> updated;
+        synchronized (this) {
+            int index = indexOf(alarms, id);
+            if (index < 0) {
+                return;
+            }
+            updated = new ArrayList<>(alarms);
+            updated.set(index, alarms.get(index).withEnabled(enabled));
+        }
+        replaceAlarms(updated, false);
+    }
+
+    private void removeAlarm(int id) {
+        List<Alarm> updated;
+        synchronized (this) {
+            int index = indexOf(alarms, id);
+            if (index < 0) {
+                return;
+            }
+            updated = new ArrayList<>(alarms);
+            updated.remove(index);
+        }
+        replaceAlarms(updated, false);
+    }
+
+    /**
+     * @param complete true: 得到了完整的闹钟表，刷新有效期
+     */
+    private void replaceAlarms(List<Alarm> updated, boolean complete) {
+        Collections.sort(updated, ALARM_ORDER);
+        final List<Alarm> snapshot = Collections.unmodifiableList(updated);
+        boolean changed;
+        synchronized (this) {
+            changed = !alarms.equals(snapshot);
+            alarms = snapshot;
+            if (complete) {
+                hasAlarms = true;
+                alarmsUpdatedNanos = System.nanoTime();
+            }
+        }
+        final Listener current = listener;
+        if (changed && current != null) {
+            service.getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    current.onAlarmsChanged(snapshot);
+                }
+            });
+        }
+    }
+
+    private static final Comparator<Alarm> ALARM_ORDER = new Comparator<Alarm>() {
+        @Override
+        public int compare(Alarm a, Alarm b) {
+            return Integer.compare(a.getId(), b.getId());
+        }
+    };
+
+    private static int indexOf(List<Alarm> list, int id) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Alarm newAlarm(int id, int secondOfDay, Command task, boolean enabled) {
+        return new Alarm(id, secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, task, enabled);
+    }
+
+    /**
+     * @return key 之后到下一个 ',' 或空格之前的值，没有时为 null
+     */
+    static String field(String text, String key) {
+        int start = text.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = start;
+        while (end < text.length() && text.charAt(end) != ',' && text.charAt(end) != ' ') {
+            end++;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * @return 前导数字的值，没有数字时为 -1
+     */
+    static int parseInt(String text) {
+        if (text == null) {
+            return -1;
+        }
+        int value = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = (value < 0 ? 0 : value * 10) + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @param time H:M:S 或 HH:MM:SS，后面可以跟其他字符
+     * @return 当天秒数，格式不对时为 -1
+     */
+    static int parseTime(String time) {
+        if (time == null) {
+            return -1;
+        }
+        int[] parts = new int[3];
+        int part = 0;
+        boolean digit = false;
+        for (int i = 0; i < time.length() && part < 3; i++) {
+            char c = time.charAt(i);
+            if (c >= '0' && c <= '9') {
+                parts[part] = parts[part] * 10 + (c - '0');
+                digit = true;
+            } else if (c == ':' && digit && part < 2) {
+                part++;
+                digit = false;
+            } else {
+                break;
+            }
+        }
+        if (part != 2 || !digit || parts[0] > 23 || parts[1] > 59 || parts[2] > 59) {
+            return -1;
+        }
+        return parts[0] * 3600 + parts[1] * 60 + parts[2];
+    }
+}
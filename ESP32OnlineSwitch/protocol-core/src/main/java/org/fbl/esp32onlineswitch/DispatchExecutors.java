@@ -0,0 +1,42 @@
+// DispatchExecutors.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 常用的回调执行器（主线程执行器见 app 模块的 AndroidConnections.mainThreadExecutor()）
+ */
+public final class DispatchExecutors {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private DispatchExecutors() {
+    }
+
+    /**
+     * 直接在读线程上回调，延迟最低，回调中不能做耗时操作
+     */
+    public static Executor direct() {
+        return DIRECT;
+    }
+
+    /**
+     * 单个后台守护线程，按顺序回调
+     */
+    public static Executor background(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,53 @@
+// EncodedFrame.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 预先编码好的不可变数据帧，可被任意线程重复发送
+ */
+public final class EncodedFrame implements OutgoingFrame {
+    private final Command command;
+    private final byte[] bytes;
+
+    EncodedFrame(Command command, byte[] bytes) {
+        this.command = command;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public Command getCommand() {
+        return command;
+    }
+
+    @Override
+    public int length() {
+        return bytes.length;
+    }
+
+    public int byteAt(int index) {
+        return bytes[index] & 0xFF;
+    }
+
+    @Override
+    public void copyTo(byte[] destination, int offset) {
+        System.arraycopy(bytes, 0, destination, offset, bytes.length);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * @return 帧字节的副本
+     */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+}
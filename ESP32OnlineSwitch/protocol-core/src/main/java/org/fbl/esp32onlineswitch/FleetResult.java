@@ -0,0 +1,119 @@
+// FleetResult.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一次群发命令的汇总结果
+ */
+public final class FleetResult {
+
+    /**
+     * 单台设备的结果
+     */
+    public static final class DeviceResult {
+        private final String address;
+        private final Response response;
+        private final Throwable error;
+        private final long latencyNanos;
+
+        DeviceResult(String address, Response response, Throwable error, long latencyNanos) {
+            this.address = address;
+            this.response = response;
+            this.error = error;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return 设备响应，失败时为 null
+         */
+        public Response getResponse() {
+            return response;
+        }
+
+        /**
+         * @return 失败原因（连接失败、ERROR 响应、超时），成功时为 null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return 从群发开始到该设备完成的耗时（含按需连接），纳秒
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return address + (isSuccess() ? " OK " + response.getText() : " FAILED " + error)
+                    + " (" + latencyNanos / 1000000 + "ms)";
+        }
+    }
+
+    private final Map<String, DeviceResult> results;
+    private final long elapsedNanos;
+
+    FleetResult(Map<String, DeviceResult> results, long elapsedNanos) {
+        this.results = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return 按MAC地址索引的各设备结果
+     */
+    public Map<String, DeviceResult> getResults() {
+        return results;
+    }
+
+    public DeviceResult get(String address) {
+        return results.get(address);
+    }
+
+    public int getSuccessCount() {
+        int count = 0;
+        for (DeviceResult result : results.values()) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailureCount() {
+        return results.size() - getSuccessCount();
+    }
+
+    public boolean isAllSuccess() {
+        return getFailureCount() == 0;
+    }
+
+    /**
+     * @return 最慢设备的耗时（纳秒）
+     */
+    public long getMaxLatencyNanos() {
+        long max = 0;
+        for (DeviceResult result : results.values()) {
+            max = Math.max(max, result.getLatencyNanos());
+        }
+        return max;
+    }
+
+    /**
+     * @return 整次群发的耗时（纳秒）
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
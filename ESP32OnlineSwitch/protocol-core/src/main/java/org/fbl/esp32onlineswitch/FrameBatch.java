@@ -0,0 +1,110 @@
+// FrameBatch.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 一次分发的一批接收帧，所有帧的数据紧挨着存放在同一个缓冲区
+ * 实例由 InboundDispatcher 循环复用，只在 onFramesReceived 回调期间有效
+ */
+public final class FrameBatch {
+    private static final int INITIAL_BYTES = 4096;
+    private static final int INITIAL_FRAMES = 64;
+
+    private byte[] buffer = new byte[INITIAL_BYTES];
+    private int[] offsets = new int[INITIAL_FRAMES];
+    private int[] lengths = new int[INITIAL_FRAMES];
+    private int count = 0;
+    private int used = 0;
+
+    /**
+     * @return 本批帧数
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return 存放帧数据的缓冲区，配合 offset(i)/length(i) 读取
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int offset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public int length(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * @return 第 index 帧数据的副本
+     */
+    public byte[] copyOf(int index) {
+        checkIndex(index);
+        byte[] data = new byte[lengths[index]];
+        System.arraycopy(buffer, offsets[index], data, 0, lengths[index]);
+        return data;
+    }
+
+    /**
+     * @return 第 index 帧的文本，二进制 v2 响应转换为等价的 ASCII 文本
+     */
+    public String toString(int index) {
+        checkIndex(index);
+        return ProtocolV2.toString(buffer, offsets[index], lengths[index]);
+    }
+
+    void add(byte[] data, int offset, int length) {
+        // 容量只在流量峰值时扩大，之后一直复用
+        if (used + length > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, used + length)];
+            System.arraycopy(buffer, 0, grown, 0, used);
+            buffer = grown;
+        }
+        if (count == offsets.length) {
+            int[] grownOffsets = new int[count * 2];
+            int[] grownLengths = new int[count * 2];
+            System.arraycopy(offsets, 0, grownOffsets, 0, count);
+            System.arraycopy(lengths, 0, grownLengths, 0, count);
+            offsets = grownOffsets;
+            lengths = grownLengths;
+        }
+        System.arraycopy(data, offset, buffer, used, length);
+        offsets[count] = used;
+        lengths[count] = length;
+        count++;
+        used += length;
+    }
+
+    // 移除第 index 帧，后面的数据前移；只在接收队列溢出时使用
+    void remove(int index) {
+        checkIndex(index);
+        int start = offsets[index];
+        int length = lengths[index];
+        System.arraycopy(buffer, start + length, buffer, start, used - start - length);
+        for (int i = index + 1; i < count; i++) {
+            offsets[i - 1] = offsets[i] - length;
+            lengths[i - 1] = lengths[i];
+        }
+        count--;
+        used -= length;
+    }
+
+    void clear() {
+        count = 0;
+        used = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + count);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+// FrameBuffer.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 可复用的帧缓冲区，用于编码带参数的命令
+ * 从 FrameBufferPool 获取，发送完成后由发送方调用 release() 归还
+ */
+public final class FrameBuffer implements OutgoingFrame {
+    final byte[] array = new byte[FrameFormat.MAX_PAYLOAD_LENGTH + FrameFormat.OVERHEAD];
+    int length;
+    Command command;
+    private final FrameBufferPool pool;
+
+    FrameBuffer(FrameBufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Command getCommand() {
+        return command;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    public int byteAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return array[index] & 0xFF;
+    }
+
+    @Override
+    public void copyTo(byte[] destination, int offset) {
+        System.arraycopy(array, 0, destination, offset, length);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(array, 0, length);
+    }
+
+    @Override
+    public void release() {
+        length = 0;
+        command = null;
+        if (pool != null) {
+            pool.recycle(this);
+        }
+    }
+}
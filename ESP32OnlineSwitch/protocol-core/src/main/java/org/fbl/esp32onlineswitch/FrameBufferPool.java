@@ -0,0 +1,51 @@
+// FrameBufferPool.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 帧缓冲区池，稳定运行后获取/归还不再分配内存
+ */
+public final class FrameBufferPool {
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final FrameBuffer[] buffers;
+    private int size = 0;
+
+    public FrameBufferPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 池中最多保留的空闲缓冲区数量，超出部分交给GC
+     */
+    public FrameBufferPool(int capacity) {
+        this.buffers = new FrameBuffer[capacity];
+    }
+
+    public FrameBuffer acquire() {
+        synchronized (buffers) {
+            if (size > 0) {
+                FrameBuffer buffer = buffers[--size];
+                buffers[size] = null;
+                return buffer;
+            }
+        }
+        return new FrameBuffer(this);
+    }
+
+    void recycle(FrameBuffer buffer) {
+        synchronized (buffers) {
+            if (size < buffers.length) {
+                buffers[size++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * @return 当前空闲的缓冲区数量
+     */
+    public int getIdleCount() {
+        synchronized (buffers) {
+            return size;
+        }
+    }
+}
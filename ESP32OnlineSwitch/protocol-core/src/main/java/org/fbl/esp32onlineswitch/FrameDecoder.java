@@ -0,0 +1,249 @@
+// FrameDecoder.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 增量式数据帧解码器
+ * 读取到的字节块追加到可复用的环形缓冲区，按 AA 55 / AA 56 帧头重新同步、校验后逐帧回调。
+ * 回调参数是缓冲区视图，仅在回调期间有效；解码过程不按字节或按数据块分配内存。
+ * 非线程安全，每个连接的读线程独占一个实例。
+ */
+public class FrameDecoder {
+
+    public interface FrameListener {
+        /**
+         * @param buffer 数据所在缓冲区（只读，回调返回后可能被覆盖）
+         * @param offset 数据起始位置
+         * @param length 数据长度
+         */
+        void onFrame(byte[] buffer, int offset, int length);
+
+        /**
+         * CRC 校验通过的可靠帧（AA 56），默认按普通帧回调数据部分，忽略控制帧
+         * @param seq 序号，控制帧为控制类型
+         * @param ack 确认号
+         */
+        default void onReliableFrame(int seq, int ack, byte[] buffer, int offset, int length) {
+            if (length > 0) {
+                onFrame(buffer, offset, length);
+            }
+        }
+
+        /**
+         * 可靠帧 CRC 校验失败，接收方据此立即 NAK
+         */
+        default void onCorruptFrame() {
+        }
+    }
+
+    // 至少容纳两个最大帧，保证任意时刻缓冲区内能凑齐一个完整帧
+    private static final int RING_CAPACITY = 1024;
+    private static final int RING_MASK = RING_CAPACITY - 1;
+
+    private final byte[] ring = new byte[RING_CAPACITY];
+    // 跨越缓冲区末尾的帧拷贝到这里再回调
+    private final byte[] scratch = new byte[FrameFormat.MAX_PAYLOAD_LENGTH];
+    private final int maxPayloadLength;
+
+    private int head = 0;
+    private int tail = 0;
+    private boolean inSync = true;
+
+    // 统计（仅由读线程更新，其他线程可读）
+    private volatile long framesDecoded = 0;
+    private volatile long resyncCount = 0;
+    private volatile long checksumFailures = 0;
+    private volatile long bytesDiscarded = 0;
+
+    public FrameDecoder() {
+        this(FrameFormat.MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * @param maxPayloadLength 超过该长度的帧视为失步
+     */
+    public FrameDecoder(int maxPayloadLength) {
+        if (maxPayloadLength < 0 || maxPayloadLength > FrameFormat.MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("maxPayloadLength: " + maxPayloadLength);
+        }
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    /**
+     * 输入一段接收到的数据，每解出一个完整帧回调一次
+     */
+    public void feed(byte[] data, int offset, int length, FrameListener listener) {
+        while (length > 0) {
+            int free = RING_CAPACITY - (tail - head);
+            int n = Math.min(length, free);
+            int pos = tail & RING_MASK;
+            int first = Math.min(n, RING_CAPACITY - pos);
+            System.arraycopy(data, offset, ring, pos, first);
+            System.arraycopy(data, offset + first, ring, 0, n - first);
+            tail += n;
+            offset += n;
+            length -= n;
+
+            decode(listener);
+        }
+    }
+
+    private void decode(FrameListener listener) {
+        while (true) {
+            int available = tail - head;
+            if (available < 1) {
+                return;
+            }
+            if (byteAt(0) != FrameFormat.HEADER_1) {
+                skip();
+                continue;
+            }
+            if (available < 2) {
+                return;
+            }
+            boolean reliable = byteAt(1) == FrameFormat.HEADER_2_RELIABLE;
+            if (!reliable && byteAt(1) != FrameFormat.HEADER_2) {
+                skip();
+                continue;
+            }
+            if (available < 3) {
+                return;
+            }
+            int payloadLength = byteAt(2);
+            // 只有可靠帧的 ACK/NAK 控制帧长度为 0，固件不会发送空的普通帧
+            if ((!reliable && payloadLength == 0) || payloadLength > (reliable
+                    ? Math.min(maxPayloadLength, FrameFormat.MAX_RELIABLE_PAYLOAD_LENGTH) : maxPayloadLength)) {
+                // 帧头后的长度不可信，按失步处理
+                inSync = true;
+                skip();
+                continue;
+            }
+            if (reliable) {
+                if (!decodeReliable(available, payloadLength, listener)) {
+                    return;
+                }
+                continue;
+            }
+            int frameLength = payloadLength + FrameFormat.OVERHEAD;
+            if (available < frameLength) {
+                return;
+            }
+
+            int start = (head + 3) & RING_MASK;
+            int sum = 0;
+            for (int i = 0; i < payloadLength; i++) {
+                sum += ring[(start + i) & RING_MASK];
+            }
+            if ((sum & 0xFF) != byteAt(3 + payloadLength)) {
+                checksumFailures++;
+                // 从帧头的下一个字节重新同步
+                inSync = true;
+                skip();
+                continue;
+            }
+
+            inSync = true;
+            framesDecoded++;
+            head += frameLength;
+            if (start + payloadLength <= RING_CAPACITY) {
+                listener.onFrame(ring, start, payloadLength);
+            } else {
+                copyOut(start, payloadLength);
+                listener.onFrame(scratch, 0, payloadLength);
+            }
+        }
+    }
+
+    /**
+     * 解码一个 AA 56 可靠帧
+     * @return false: 数据不足，等待更多字节
+     */
+    private boolean decodeReliable(int available, int payloadLength, FrameListener listener) {
+        int frameLength = payloadLength + FrameFormat.RELIABLE_OVERHEAD;
+        if (available < frameLength) {
+            return false;
+        }
+
+        // CRC 覆盖长度、序号、确认号和数据
+        int crc = Crc16.INITIAL;
+        for (int i = 2; i < frameLength - 2; i++) {
+            crc = Crc16.update(crc, ring[(head + i) & RING_MASK]);
+        }
+        if (crc != ((byteAt(frameLength - 2) << 8) | byteAt(frameLength - 1))) {
+            checksumFailures++;
+            inSync = true;
+            skip();
+            listener.onCorruptFrame();
+            return true;
+        }
+
+        inSync = true;
+        framesDecoded++;
+        int seq = byteAt(3);
+        int ack = byteAt(4);
+        int start = (head + 5) & RING_MASK;
+        head += frameLength;
+        if (start + payloadLength <= RING_CAPACITY) {
+            listener.onReliableFrame(seq, ack, ring, start, payloadLength);
+        } else {
+            copyOut(start, payloadLength);
+            listener.onReliableFrame(seq, ack, scratch, 0, payloadLength);
+        }
+        return true;
+    }
+
+    // 跨越缓冲区末尾的数据拷贝到 scratch
+    private void copyOut(int start, int length) {
+        int first = RING_CAPACITY - start;
+        System.arraycopy(ring, start, scratch, 0, first);
+        System.arraycopy(ring, 0, scratch, first, length - first);
+    }
+
+    private int byteAt(int index) {
+        return ring[(head + index) & RING_MASK] & 0xFF;
+    }
+
+    // 丢弃一个字节，重新寻找帧头
+    private void skip() {
+        if (inSync) {
+            resyncCount++;
+            inSync = false;
+        }
+        bytesDiscarded++;
+        head++;
+    }
+
+    /**
+     * 清空缓冲区（新连接时调用），统计数据保留
+     */
+    public void reset() {
+        head = 0;
+        tail = 0;
+        inSync = true;
+    }
+
+    /**
+     * @return 缓冲区中尚未组成完整帧的字节数
+     */
+    public int getBufferedBytes() {
+        return tail - head;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    /**
+     * @return 失步后重新寻找帧头的次数
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    public long getChecksumFailures() {
+        return checksumFailures;
+    }
+
+    public long getBytesDiscarded() {
+        return bytesDiscarded;
+    }
+}
@@ -0,0 +1,212 @@
+// FrameEncoder.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 数据帧编码器（取代 CRC_CAL/crc.py 离线生成帧）
+ * 固定命令在类加载时编码为不可变帧并缓存，发送时不再计算校验和；
+ * 带参数的命令编码到池化的 FrameBuffer 中，不创建中间字符串
+ */
+public final class FrameEncoder {
+    private static final EncodedFrame[] FIXED_FRAMES = new EncodedFrame[Command.values().length];
+    private static final FrameBufferPool POOL = new FrameBufferPool();
+
+    private static final byte[] ENABLE = {'E', 'N', 'A', 'B', 'L', 'E'};
+    private static final byte[] DISABLE = {'D', 'I', 'S', 'A', 'B', 'L', 'E'};
+
+    /**
+     * ASCII 协议（版本 1），所有固件都支持
+     */
+    public static final CommandCodec CODEC = new CommandCodec() {
+        @Override
+        public int getVersion() {
+            return ProtocolV2.ASCII_VERSION;
+        }
+
+        @Override
+        public OutgoingFrame encode(Command command) {
+            return FrameEncoder.encode(command);
+        }
+
+        @Override
+        public OutgoingFrame setTime(int hour, int minute, int second) {
+            return FrameEncoder.setTime(hour, minute, second);
+        }
+
+        @Override
+        public OutgoingFrame addAlarm(int hour, int minute, int second, Command task) {
+            return FrameEncoder.addAlarm(hour, minute, second, task);
+        }
+
+        @Override
+        public OutgoingFrame enableAlarm(int alarmId, boolean enable) {
+            return FrameEncoder.enableAlarm(alarmId, enable);
+        }
+
+        @Override
+        public OutgoingFrame deleteAlarm(int alarmId) {
+            return FrameEncoder.deleteAlarm(alarmId);
+        }
+    };
+
+    static {
+        for (Command command : Command.values()) {
+            if (!command.isParameterized()) {
+                byte[] keyword = command.keywordBytes();
+                byte[] frame = new byte[keyword.length + FrameFormat.OVERHEAD];
+                frame[0] = (byte) FrameFormat.HEADER_1;
+                frame[1] = (byte) FrameFormat.HEADER_2;
+                frame[2] = (byte) keyword.length;
+                System.arraycopy(keyword, 0, frame, 3, keyword.length);
+                frame[frame.length - 1] = (byte) FrameFormat.checksum(keyword, 0, keyword.length);
+                FIXED_FRAMES[command.ordinal()] = new EncodedFrame(command, frame);
+            }
+        }
+    }
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * 获取固定命令的缓存帧
+     * @param command 不带参数的命令，如 RELAY_ON、RELAY_OFF、GET_STATUS
+     */
+    public static EncodedFrame encode(Command command) {
+        EncodedFrame frame = FIXED_FRAMES[command.ordinal()];
+        if (frame == null) {
+            throw new IllegalArgumentException(command + " 需要参数");
+        }
+        return frame;
+    }
+
+    /**
+     * SET_TIME=HH,MM,SS
+     */
+    public static FrameBuffer setTime(int hour, int minute, int second) {
+        checkTime(hour, minute, second);
+        FrameBuffer buffer = begin(Command.SET_TIME);
+        appendTwoDigits(buffer, hour);
+        append(buffer, ',');
+        appendTwoDigits(buffer, minute);
+        append(buffer, ',');
+        appendTwoDigits(buffer, second);
+        return finish(buffer);
+    }
+
+    /**
+     * ADD_ALARM=HH,MM,SS,TASK
+     * @param task 闹钟触发时执行的命令（RELAY_ON、RELAY_OFF、RELAY_TOGGLE、RESTART、TIME_SEND、TIME_RECV）
+     */
+    public static FrameBuffer addAlarm(int hour, int minute, int second, Command task) {
+        checkTime(hour, minute, second);
+        if (!task.isAlarmTask()) {
+            throw new IllegalArgumentException("不支持的闹钟任务: " + task);
+        }
+        FrameBuffer buffer = begin(Command.ADD_ALARM);
+        appendTwoDigits(buffer, hour);
+        append(buffer, ',');
+        appendTwoDigits(buffer, minute);
+        append(buffer, ',');
+        appendTwoDigits(buffer, second);
+        append(buffer, ',');
+        append(buffer, task.keywordBytes());
+        return finish(buffer);
+    }
+
+    /**
+     * ENABLE_ALARM=ID,ENABLE 或 ENABLE_ALARM=ID,DISABLE
+     */
+    public static FrameBuffer enableAlarm(int alarmId, boolean enable) {
+        checkAlarmId(alarmId);
+        FrameBuffer buffer = begin(Command.ENABLE_ALARM);
+        appendNumber(buffer, alarmId);
+        append(buffer, ',');
+        append(buffer, enable ? ENABLE : DISABLE);
+        return finish(buffer);
+    }
+
+    /**
+     * DELETE_ALARM=ID
+     */
+    public static FrameBuffer deleteAlarm(int alarmId) {
+        checkAlarmId(alarmId);
+        FrameBuffer buffer = begin(Command.DELETE_ALARM);
+        appendNumber(buffer, alarmId);
+        return finish(buffer);
+    }
+
+    /**
+     * 把任意ASCII文本编码为数据帧（调试用）
+     */
+    public static FrameBuffer text(CharSequence text) {
+        if (text.length() > FrameFormat.DEVICE_MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("数据超过 " + FrameFormat.DEVICE_MAX_DATA_LENGTH + " 字节");
+        }
+        FrameBuffer buffer = begin(null);
+        for (int i = 0; i < text.length(); i++) {
+            append(buffer, text.charAt(i));
+        }
+        return finish(buffer);
+    }
+
+    public static FrameBufferPool getPool() {
+        return POOL;
+    }
+
+    // ========== 编码辅助 ==========
+
+    private static FrameBuffer begin(Command command) {
+        FrameBuffer buffer = POOL.acquire();
+        buffer.command = command;
+        buffer.array[0] = (byte) FrameFormat.HEADER_1;
+        buffer.array[1] = (byte) FrameFormat.HEADER_2;
+        buffer.length = 3;
+        if (command != null) {
+            append(buffer, command.keywordBytes());
+        }
+        return buffer;
+    }
+
+    private static FrameBuffer finish(FrameBuffer buffer) {
+        int payloadLength = buffer.length - 3;
+        buffer.array[2] = (byte) payloadLength;
+        buffer.array[buffer.length] = (byte) FrameFormat.checksum(buffer.array, 3, payloadLength);
+        buffer.length++;
+        return buffer;
+    }
+
+    private static void append(FrameBuffer buffer, char c) {
+        buffer.array[buffer.length++] = (byte) c;
+    }
+
+    private static void append(FrameBuffer buffer, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer.array, buffer.length, bytes.length);
+        buffer.length += bytes.length;
+    }
+
+    private static void appendTwoDigits(FrameBuffer buffer, int value) {
+        append(buffer, (char) ('0' + value / 10));
+        append(buffer, (char) ('0' + value % 10));
+    }
+
+    private static void appendNumber(FrameBuffer buffer, int value) {
+        if (value >= 100) {
+            append(buffer, (char) ('0' + value / 100));
+        }
+        if (value >= 10) {
+            append(buffer, (char) ('0' + value / 10 % 10));
+        }
+        append(buffer, (char) ('0' + value % 10));
+    }
+
+    static void checkTime(int hour, int minute, int second) {
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            throw new IllegalArgumentException("时间无效: " + hour + ":" + minute + ":" + second);
+        }
+    }
+
+    static void checkAlarmId(int alarmId) {
+        if (alarmId < 0 || alarmId > 255) {
+            throw new IllegalArgumentException("闹钟ID无效: " + alarmId);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+// FrameFormat.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 数据帧格式定义，与固件 sendDataFrame / processReceivedData 一致
+ * 格式: AA 55 [长度] [数据...] [校验和]，校验和为数据部分求和取模256
+ * 可靠帧: AA 56 [长度] [序号] [确认号] [数据...] [CRC高] [CRC低]，CRC-16 覆盖长度到数据末尾，
+ * 长度为 0 的是控制帧，序号字段存放控制类型（ACK/NAK），见 ReliableLink
+ */
+public final class FrameFormat {
+    public static final int HEADER_1 = 0xAA;
+    public static final int HEADER_2 = 0x55;
+
+    public static final int HEADER_2_RELIABLE = 0x56;
+
+    // 帧头2字节 + 长度1字节 + 校验和1字节
+    public static final int OVERHEAD = 4;
+
+    // 帧头2字节 + 长度、序号、确认号各1字节 + CRC 2字节
+    public static final int RELIABLE_OVERHEAD = 7;
+
+    // 控制帧类型
+    public static final int CONTROL_ACK = 0x06;
+    public static final int CONTROL_NAK = 0x15;
+
+    // 长度字段为1字节
+    public static final int MAX_PAYLOAD_LENGTH = 255;
+
+    // 可靠帧的最大数据长度，保证整帧放得进 FrameBuffer
+    public static final int MAX_RELIABLE_PAYLOAD_LENGTH = MAX_PAYLOAD_LENGTH + OVERHEAD - RELIABLE_OVERHEAD;
+
+    // 固件接收/发送的最大数据长度（MAX_DATA_LENGTH）
+    public static final int DEVICE_MAX_DATA_LENGTH = 64;
+
+    private FrameFormat() {
+    }
+
+    /**
+     * 计算校验和（只对数据部分求和取模256）
+     */
+    public static int checksum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += data[i];
+        }
+        return sum & 0xFF;
+    }
+}
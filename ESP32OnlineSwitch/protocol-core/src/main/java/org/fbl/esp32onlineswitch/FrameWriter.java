@@ -0,0 +1,212 @@
+// FrameWriter.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个连接一个的发送队列
+ * 调用方只把帧放入无锁队列即返回，不会阻塞在 RFCOMM 写操作上；
+ * 发送任务把队列中积压的帧拼接到一个缓冲区，一次 write、一次 flush 发出。
+ * 发送任务提交到共用线程池（start(Executor)），只在有帧待发时占用线程，同一时刻最多一个任务在写。
+ * 线程池已满时帧留在队列中，下次入队或稍后重试时再提交，任何情况下都不在调用线程上写。
+ */
+public class FrameWriter {
+    // 单次写出的最大字节数
+    public static final int BATCH_SIZE = 4096;
+    // 线程池拒绝发送任务后的重试间隔
+    static final long RETRY_DELAY_MS = 10;
+
+    public interface ErrorListener {
+        void onWriteError(IOException e);
+    }
+
+    private final OutputStream outputStream;
+    private final ErrorListener errorListener;
+    private final ConcurrentLinkedQueue<OutgoingFrame> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    // 是否已有发送任务在排队或执行
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // 是否已安排拒绝后的重试
+    private final AtomicBoolean retryPending = new AtomicBoolean(false);
+    private final byte[] batch = new byte[BATCH_SIZE];
+
+    private volatile Executor executor;
+    private volatile boolean closed = false;
+
+    // 统计
+    private volatile long framesWritten = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long batchesWritten = 0;
+
+    public FrameWriter(OutputStream outputStream, ErrorListener errorListener) {
+        this.outputStream = outputStream;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * 开始发送：有帧入队且没有发送任务时，向 executor 提交一个，写完队列即退出
+     */
+    public void start(Executor executor) {
+        this.executor = executor;
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * 把帧放入发送队列
+     * @return true: 已入队 | false: 发送线程已关闭（帧已被释放）
+     */
+    public boolean enqueue(OutgoingFrame frame) {
+        if (closed) {
+            frame.release();
+            return false;
+        }
+        queuedFrames.incrementAndGet();
+        queue.offer(frame);
+        if (executor != null) {
+            schedule();
+        }
+        if (closed) {
+            drain();
+        }
+        return true;
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            // 线程池已满：调用方可能是界面、读任务或定时线程，不能在这里阻塞写，帧留在队列中稍后重试
+            scheduled.set(false);
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        if (!retryPending.compareAndSet(false, true)) {
+            return;
+        }
+        BluetoothSerialService.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                retryPending.set(false);
+                if (closed) {
+                    if (!scheduled.get()) {
+                        drain();
+                    }
+                } else if (!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                OutgoingFrame frame;
+                while (!closed && (frame = queue.poll()) != null) {
+                    writeBatch(frame);
+                }
+            } catch (IOException e) {
+                scheduled.set(false);
+                fail(e);
+                return;
+            }
+            scheduled.set(false);
+            // 清除标志后再检查一次，避免错过任务结束前入队的帧
+            if (closed) {
+                drain();
+            } else if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    };
+
+    private void fail(IOException e) {
+        if (!closed) {
+            closed = true;
+            errorListener.onWriteError(e);
+        }
+        drain();
+    }
+
+    // 拼接队列中积压的帧，一次写出
+    private void writeBatch(OutgoingFrame first) throws IOException {
+        int length = 0;
+        int frames = 0;
+        OutgoingFrame frame = first;
+        while (frame != null) {
+            int frameLength = frame.length();
+            if (length + frameLength > batch.length) {
+                outputStream.write(batch, 0, length);
+                bytesWritten += length;
+                length = 0;
+            }
+            frame.copyTo(batch, length);
+            length += frameLength;
+            frame.release();
+            frames++;
+            queuedFrames.decrementAndGet();
+            frame = queue.poll();
+        }
+        outputStream.write(batch, 0, length);
+        outputStream.flush();
+        bytesWritten += length;
+        framesWritten += frames;
+        batchesWritten++;
+    }
+
+    /**
+     * 停止发送，丢弃尚未发出的帧
+     */
+    public void close() {
+        closed = true;
+        if (!scheduled.get()) {
+            // 正在执行的发送任务结束时会自己清空队列
+            drain();
+        }
+    }
+
+    private void drain() {
+        OutgoingFrame frame;
+        while ((frame = queue.poll()) != null) {
+            frame.release();
+            queuedFrames.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return 尚未写出的帧数
+     */
+    public int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return 实际调用 write/flush 的批次数，framesWritten / batchesWritten 即平均合并帧数
+     */
+    public long getBatchesWritten() {
+        return batchesWritten;
+    }
+}
@@ -0,0 +1,261 @@
+// InboundDispatcher.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 接收帧分发器
+ * 读线程把解码出的帧追加到当前批次，每读完一块数据提交一次；
+ * 同一时刻最多只有一个分发任务在执行器中排队，消费者处理较慢时新帧并入下一批，
+ * 因此主线程上的 post 次数不随流量增长，批次对象也双缓冲循环复用。
+ * 等待分发的帧数有上限，消费者跟不上时按 OverflowPolicy 处理，内存不随积压增长
+ */
+public class InboundDispatcher {
+
+    public interface Consumer {
+        /**
+         * @param batch 本批接收帧，仅在回调期间有效
+         */
+        void onFrames(FrameBatch batch);
+    }
+
+    /**
+     * 等待分发的帧达到上限时的处理方式
+     */
+    public enum OverflowPolicy {
+        // 读线程等待消费者腾出空间，不再读取，RFCOMM 流控让设备端暂停发送
+        BLOCK,
+        // 丢弃最早的帧
+        DROP_OLDEST,
+        // 丢弃最早的一条已有更新版本的状态帧，没有时丢弃最早的帧
+        COALESCE_STATUS
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Consumer consumer;
+    private volatile Executor executor;
+
+    // 以下两项由 this 保护
+    private int capacity = DEFAULT_CAPACITY;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE_STATUS;
+
+    private FrameBatch filling = new FrameBatch();
+    private FrameBatch delivering = new FrameBatch();
+    private boolean dispatchPending = false;
+
+    // 统计
+    private volatile long framesDispatched = 0;
+    private volatile long batchesDispatched = 0;
+    private volatile long framesDropped = 0;
+    private volatile long framesCoalesced = 0;
+    private volatile long blockedNanos = 0;
+    private volatile int maxPendingFrames = 0;
+
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    public InboundDispatcher(Executor executor, Consumer consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @param executor 分发执行器：主线程、后台线程或 DispatchExecutors.direct()（直接在读线程回调）
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param capacity 尚未交给消费者的帧数上限（正在回调的批次不计入）
+     */
+    public synchronized void setCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = policy;
+        notifyAll();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 追加一帧（读线程调用，数据会被复制）
+     * 队列已满且策略为 BLOCK 时先提交当前批次，再等待消费者腾出空间
+     */
+    public void add(byte[] buffer, int offset, int length) {
+        synchronized (this) {
+            if (filling.size() < capacity || makeRoom(buffer, offset, length)) {
+                append(buffer, offset, length);
+                return;
+            }
+        }
+
+        flush();
+        synchronized (this) {
+            long start = System.nanoTime();
+            try {
+                while (filling.size() >= capacity) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                framesDropped++;
+                return;
+            } finally {
+                blockedNanos += System.nanoTime() - start;
+            }
+            append(buffer, offset, length);
+        }
+    }
+
+    // 调用时持有 this
+    private void append(byte[] buffer, int offset, int length) {
+        filling.add(buffer, offset, length);
+        int pending = filling.size() + (dispatchPending ? delivering.size() : 0);
+        if (pending > maxPendingFrames) {
+            maxPendingFrames = pending;
+        }
+    }
+
+    // 调用时持有 this；按策略丢弃一帧，BLOCK 时返回 false
+    private boolean makeRoom(byte[] buffer, int offset, int length) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                filling.remove(0);
+                framesDropped++;
+                return true;
+            case COALESCE_STATUS:
+                int stale = staleStatusFrame(isStatusFrame(buffer, offset, length));
+                if (stale >= 0) {
+                    filling.remove(stale);
+                    framesCoalesced++;
+                } else {
+                    filling.remove(0);
+                    framesDropped++;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param newerIncoming 新帧本身是状态帧
+     * @return 最早一条之后还有更新状态帧的状态帧下标，没有时返回 -1
+     */
+    private int staleStatusFrame(boolean newerIncoming) {
+        int first = -1;
+        byte[] data = filling.buffer();
+        for (int i = 0; i < filling.size(); i++) {
+            if (isStatusFrame(data, filling.offset(i), filling.length(i))) {
+                if (first >= 0 || newerIncoming) {
+                    return first >= 0 ? first : i;
+                }
+                first = i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isStatusFrame(byte[] buffer, int offset, int length) {
+        return Command.GET_STATUS.matchesResponse(buffer, offset, length);
+    }
+
+    /**
+     * 提交当前批次（读线程每读完一块数据调用一次）
+     */
+    public void flush() {
+        synchronized (this) {
+            if (dispatchPending || filling.isEmpty()) {
+                return;
+            }
+            swap();
+            dispatchPending = true;
+        }
+        executor.execute(deliverTask);
+    }
+
+    private void deliver() {
+        while (true) {
+            consumer.onFrames(delivering);
+            synchronized (this) {
+                framesDispatched += delivering.size();
+                batchesDispatched++;
+                delivering.clear();
+                if (filling.isEmpty()) {
+                    dispatchPending = false;
+                    return;
+                }
+                // 处理期间到达的帧直接作为下一批，等待空间的读线程可以继续
+                swap();
+                notifyAll();
+            }
+        }
+    }
+
+    private void swap() {
+        FrameBatch batch = delivering;
+        delivering = filling;
+        filling = batch;
+    }
+
+    /**
+     * @return 已入批但尚未分发的帧数
+     */
+    public synchronized int getPendingFrames() {
+        return filling.size() + (dispatchPending ? delivering.size() : 0);
+    }
+
+    public long getFramesDispatched() {
+        return framesDispatched;
+    }
+
+    public long getBatchesDispatched() {
+        return batchesDispatched;
+    }
+
+    /**
+     * @return 队列满时丢弃的帧数（DROP_OLDEST、COALESCE_STATUS 没有可合并的状态帧时，以及 BLOCK 等待被中断）
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * @return 队列满时被更新的状态帧替代的旧状态帧数
+     */
+    public long getFramesCoalesced() {
+        return framesCoalesced;
+    }
+
+    /**
+     * @return BLOCK 策略下读线程累计等待的纳秒数
+     */
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    /**
+     * @return 等待分发帧数的最高值
+     */
+    public int getMaxPendingFrames() {
+        return maxPendingFrames;
+    }
+}
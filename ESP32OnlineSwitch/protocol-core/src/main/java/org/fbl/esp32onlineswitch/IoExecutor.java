@@ -0,0 +1,134 @@
+// IoExecutor.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有连接共用的有界 I/O 线程池
+ * 连接建立、读循环和发送批次都作为任务提交到这里，不再为每次连接尝试或每条链路新建线程。
+ * 线程按需创建、空闲后回收，名称为 "名称-序号"；线程全部占用时新任务被拒绝，不会无限增长。
+ * RFCOMM 只提供阻塞流，读循环无法多路复用，每条在线链路固定占用一个线程，
+ * 因此同时在线的链路数有上限（getMaxLinks()），其余线程留给连接尝试和发送批次；
+ * 超过上限的连接直接失败，不会挤占已连接设备的发送。
+ */
+public final class IoExecutor implements Executor {
+    public static final int DEFAULT_MAX_THREADS = 32;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final IoExecutor SHARED = new IoExecutor("esp32-io", DEFAULT_MAX_THREADS);
+
+    private final ThreadPoolExecutor pool;
+    private final int maxLinks;
+    private final AtomicInteger links = new AtomicInteger();
+
+    /**
+     * @param name 线程名前缀
+     * @param maxThreads 线程数上限，至少 2；其中四分之一（至少一个）不给读循环使用
+     */
+    public IoExecutor(final String name, int maxThreads) {
+        if (maxThreads < 2) {
+            throw new IllegalArgumentException("maxThreads: " + maxThreads);
+        }
+        maxLinks = maxThreads - Math.max(1, maxThreads / 4);
+        final AtomicInteger sequence = new AtomicInteger();
+        // 不排队：有空闲线程时直接交给它，没有时新建，达到上限时拒绝
+        pool = new ThreadPoolExecutor(0, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, name + "-" + sequence.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return 进程内共用的实例，BluetoothSerialService 和 DeviceFleet 默认使用
+     */
+    public static IoExecutor shared() {
+        return SHARED;
+    }
+
+    /**
+     * @throws RejectedExecutionException 线程已全部占用
+     */
+    @Override
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    /**
+     * @return 可用于取消任务的 Future（取消会中断正在执行的线程）
+     * @throws RejectedExecutionException 线程已全部占用
+     */
+    public Future<?> submit(Runnable task) {
+        return pool.submit(task);
+    }
+
+    /**
+     * 为一条链路的读循环占用名额，链路断开后调用 releaseLink()
+     * @return false: 在线链路数已达上限
+     */
+    boolean acquireLink() {
+        while (true) {
+            int current = links.get();
+            if (current >= maxLinks) {
+                return false;
+            }
+            if (links.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseLink() {
+        links.decrementAndGet();
+    }
+
+    /**
+     * @return 同时在线的链路数上限
+     */
+    public int getMaxLinks() {
+        return maxLinks;
+    }
+
+    /**
+     * @return 当前在线的链路数（每条占用一个读线程）
+     */
+    public int getLinkCount() {
+        return links.get();
+    }
+
+    /**
+     * @return 当前线程数（含空闲等待回收的）
+     */
+    public int getThreadCount() {
+        return pool.getPoolSize();
+    }
+
+    /**
+     * @return 正在执行任务的线程数
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * @return 曾经同时存在的最大线程数
+     */
+    public int getLargestThreadCount() {
+        return pool.getLargestPoolSize();
+    }
+
+    public int getMaxThreads() {
+        return pool.getMaximumPoolSize();
+    }
+}
@@ -0,0 +1,245 @@
+// LinkMetrics.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个连接的运行统计：连接耗时、各命令往返时间、各优先级排队时间、双向字节/帧速率、校验失败、重连次数和队列深度
+ * 计数都是无锁的，可在读写线程上直接记录；toJson() 输出当前快照，便于上传或写日志
+ */
+public final class LinkMetrics {
+    private final BluetoothSerialService service;
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LongAdder connectAttempts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final LatencyHistogram[] commandRoundTrip = new LatencyHistogram[Command.values().length];
+    private final LongAdder commandErrors = new LongAdder();
+    private final LongAdder commandTimeouts = new LongAdder();
+    private final LongAdder commandsLost = new LongAdder();
+    private final LatencyHistogram[] queueWait = new LatencyHistogram[CommandPriority.values().length];
+
+    private final RateMeter bytesIn = new RateMeter();
+    private final RateMeter bytesOut = new RateMeter();
+    private final RateMeter framesIn = new RateMeter();
+    private final RateMeter framesOut = new RateMeter();
+
+    // 命令结果统计
+    final CommandPipeline.Observer pipelineObserver = new CommandPipeline.Observer() {
+        @Override
+        public void onResponse(Command command, long roundTripNanos, boolean error) {
+            roundTrip.record(roundTripNanos);
+            commandRoundTrip[command.ordinal()].record(roundTripNanos);
+            if (error) {
+                commandErrors.increment();
+            }
+        }
+
+        @Override
+        public void onTimeout(Command command) {
+            commandTimeouts.increment();
+        }
+
+        @Override
+        public void onLost(Command command) {
+            commandsLost.increment();
+        }
+
+        @Override
+        public void onDispatched(Command command, CommandPriority priority, long queuedNanos) {
+            queueWait[priority.ordinal()].record(queuedNanos);
+        }
+    };
+
+    LinkMetrics(BluetoothSerialService service) {
+        this.service = service;
+        for (int i = 0; i < commandRoundTrip.length; i++) {
+            commandRoundTrip[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < queueWait.length; i++) {
+            queueWait[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordConnect(long nanos, boolean success) {
+        connectAttempts.increment();
+        if (success) {
+            connectTime.record(nanos);
+        } else {
+            connectFailures.increment();
+        }
+    }
+
+    void recordBytesIn(int bytes) {
+        bytesIn.record(bytes);
+    }
+
+    void recordFrameIn() {
+        framesIn.record(1);
+    }
+
+    void recordFrameOut(int bytes) {
+        framesOut.record(1);
+        bytesOut.record(bytes);
+    }
+
+    /**
+     * @return 成功连接的耗时分布
+     */
+    public LatencyHistogram getConnectTime() {
+        return connectTime;
+    }
+
+    public long getConnectAttempts() {
+        return connectAttempts.sum();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    /**
+     * @return 所有命令的往返时间分布
+     */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    public LatencyHistogram getRoundTrip(Command command) {
+        return commandRoundTrip[command.ordinal()];
+    }
+
+    /**
+     * @return 该优先级的命令从排队到写出的时间分布
+     */
+    public LatencyHistogram getQueueWait(CommandPriority priority) {
+        return queueWait[priority.ordinal()];
+    }
+
+    public long getCommandErrors() {
+        return commandErrors.sum();
+    }
+
+    public long getCommandTimeouts() {
+        return commandTimeouts.sum();
+    }
+
+    public long getCommandsLost() {
+        return commandsLost.sum();
+    }
+
+    public RateMeter getBytesIn() {
+        return bytesIn;
+    }
+
+    public RateMeter getBytesOut() {
+        return bytesOut;
+    }
+
+    public RateMeter getFramesIn() {
+        return framesIn;
+    }
+
+    public RateMeter getFramesOut() {
+        return framesOut;
+    }
+
+    /**
+     * @return 当前统计快照的 JSON 文本，耗时单位微秒
+     */
+    public String toJson() {
+        FrameDecoder decoder = service.getFrameDecoder();
+        CommandPipeline pipeline = service.getCommandPipeline();
+        ReconnectSupervisor supervisor = service.getReconnectSupervisor();
+
+        StringBuilder out = new StringBuilder(1024);
+        out.append("{\"address\":");
+        String address = service.getConnectedDeviceAddress();
+        if (address == null) {
+            out.append("null");
+        } else {
+            out.append('"').append(address).append('"');
+        }
+        out.append(",\"connected\":").append(service.isConnected());
+
+        out.append(",\"connect\":{\"attempts\":").append(getConnectAttempts())
+                .append(",\"failures\":").append(getConnectFailures())
+                .append(",\"reconnects\":").append(supervisor.getReconnectCount())
+                .append(",\"lastDowntimeMs\":").append(supervisor.getLastDowntimeMs())
+                .append(",\"time\":");
+        connectTime.appendJson(out);
+        out.append('}');
+
+        out.append(",\"rx\":");
+        appendTraffic(out, bytesIn, framesIn);
+        out.setLength(out.length() - 1);
+        out.append(",\"checksumFailures\":").append(decoder.getChecksumFailures())
+                .append(",\"resyncs\":").append(decoder.getResyncCount())
+                .append(",\"bytesDiscarded\":").append(decoder.getBytesDiscarded())
+                .append('}');
+
+        out.append(",\"tx\":");
+        appendTraffic(out, bytesOut, framesOut);
+
+        out.append(",\"commands\":{\"errors\":").append(getCommandErrors())
+                .append(",\"timeouts\":").append(getCommandTimeouts())
+                .append(",\"lost\":").append(getCommandsLost())
+                .append(",\"rtt\":");
+        roundTrip.appendJson(out);
+        out.append(",\"byCommand\":{");
+        boolean first = true;
+        for (Command command : Command.values()) {
+            LatencyHistogram histogram = commandRoundTrip[command.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(command.name()).append("\":");
+            histogram.appendJson(out);
+        }
+        out.append("},\"queueWait\":{");
+        for (CommandPriority priority : CommandPriority.values()) {
+            if (priority.ordinal() > 0) {
+                out.append(',');
+            }
+            out.append('"').append(priority.name()).append("\":");
+            queueWait[priority.ordinal()].appendJson(out);
+        }
+        out.append("}}");
+
+        ReliableLink link = service.getReliableLink();
+        if (link != null) {
+            out.append(",\"arq\":{\"unacked\":").append(link.getUnackedFrames())
+                    .append(",\"retransmissions\":").append(link.getRetransmissions())
+                    .append(",\"naksSent\":").append(link.getNaksSent())
+                    .append(",\"naksReceived\":").append(link.getNaksReceived())
+                    .append(",\"duplicates\":").append(link.getDuplicates())
+                    .append(",\"corruptFrames\":").append(link.getCorruptFrames())
+                    .append('}');
+        }
+
+        InboundDispatcher inbound = service.getInboundDispatcher();
+        out.append(",\"queues\":{\"write\":").append(service.getWriteQueueDepth())
+                .append(",\"inFlight\":").append(pipeline.getInFlightCount())
+                .append(",\"waiting\":").append(pipeline.getWaitingCount())
+                .append(",\"inbound\":").append(inbound.getPendingFrames())
+                .append(",\"inboundMax\":").append(inbound.getMaxPendingFrames())
+                .append(",\"inboundDropped\":").append(inbound.getFramesDropped())
+                .append(",\"inboundCoalesced\":").append(inbound.getFramesCoalesced())
+                .append("}}");
+        return out.toString();
+    }
+
+    private static void appendTraffic(StringBuilder out, RateMeter bytes, RateMeter frames) {
+        out.append("{\"bytes\":").append(bytes.getTotal())
+                .append(",\"bytesPerSec\":").append(Math.round(bytes.getRatePerSecond()))
+                .append(",\"frames\":").append(frames.getTotal())
+                .append(",\"framesPerSec\":").append(Math.round(frames.getRatePerSecond()))
+                .append('}');
+    }
+}
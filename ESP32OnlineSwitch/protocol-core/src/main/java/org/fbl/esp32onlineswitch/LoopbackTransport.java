@@ -0,0 +1,233 @@
+// LoopbackTransport.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 进程内回环传输通道
+ * 由两条内存管道组成，app 端与 peer() 返回的设备端首尾相接，可直接接入 SimulatedSwitch
+ */
+public class LoopbackTransport implements SerialTransport {
+    // 默认管道容量，接近 RFCOMM 的发送窗口
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final String address;
+    private final BytePipe inbound;
+    private final BytePipe outbound;
+    private final LoopbackTransport peer;
+    private volatile boolean connected = false;
+
+    public LoopbackTransport(String address) {
+        this(address, DEFAULT_BUFFER_SIZE);
+    }
+
+    public LoopbackTransport(String address, int bufferSize) {
+        this.address = address;
+        this.inbound = new BytePipe(bufferSize);
+        this.outbound = new BytePipe(bufferSize);
+        this.peer = new LoopbackTransport(this);
+    }
+
+    // 设备端：收发方向与 app 端相反
+    private LoopbackTransport(LoopbackTransport appSide) {
+        this.address = appSide.address;
+        this.inbound = appSide.outbound;
+        this.outbound = appSide.inbound;
+        this.peer = appSide;
+        this.connected = true;
+    }
+
+    /**
+     * @return 对端（设备端）传输通道
+     */
+    public LoopbackTransport peer() {
+        return peer;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (inbound.isClosed() || outbound.isClosed()) {
+            throw new IOException("回环通道已关闭");
+        }
+        connected = true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inbound.inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outbound.outputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected && !inbound.isClosed() && !outbound.isClosed();
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        peer.connected = false;
+        inbound.close();
+        outbound.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * 对端接入点，连接建立时拿到设备端传输通道
+     */
+    public interface Endpoint {
+        void attach(SerialTransport deviceSide);
+    }
+
+    public static class Factory implements SerialTransport.Factory {
+        private final Endpoint endpoint;
+        private final int bufferSize;
+
+        public Factory(Endpoint endpoint) {
+            this(endpoint, DEFAULT_BUFFER_SIZE);
+        }
+
+        public Factory(Endpoint endpoint, int bufferSize) {
+            this.endpoint = endpoint;
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public SerialTransport create(String address) {
+            final LoopbackTransport transport = new LoopbackTransport(address, bufferSize);
+            endpoint.attach(transport.peer());
+            return transport;
+        }
+    }
+
+    /**
+     * 有界字节管道，写满时阻塞写方，为空时阻塞读方
+     */
+    private static final class BytePipe {
+        private final byte[] buffer;
+        private int readPos = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return BytePipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (BytePipe.this) {
+                    return count;
+                }
+            }
+
+            @Override
+            public void close() {
+                BytePipe.this.close();
+            }
+        };
+
+        final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                BytePipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                BytePipe.this.close();
+            }
+        };
+
+        BytePipe(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (count == 0) {
+                if (closed) {
+                    return -1;
+                }
+                waitInterruptibly();
+            }
+
+            int n = Math.min(len, count);
+            int first = Math.min(n, buffer.length - readPos);
+            System.arraycopy(buffer, readPos, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+            readPos = (readPos + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (closed) {
+                    throw new IOException("回环通道已关闭");
+                }
+                if (count == buffer.length) {
+                    waitInterruptibly();
+                    continue;
+                }
+
+                int writePos = (readPos + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, n);
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        private void waitInterruptibly() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("回环通道等待被中断", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// OutgoingFrame.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 待发送的完整数据帧（含帧头、长度和校验和）
+ */
+public interface OutgoingFrame {
+
+    /**
+     * @return 帧对应的命令，原始文本帧返回 null
+     */
+    Command getCommand();
+
+    /**
+     * @return 整帧字节数
+     */
+    int length();
+
+    void copyTo(byte[] destination, int offset);
+
+    void writeTo(OutputStream outputStream) throws IOException;
+
+    /**
+     * 发送完成后调用，池化缓冲区归还到池中，缓存帧无操作
+     */
+    void release();
+}
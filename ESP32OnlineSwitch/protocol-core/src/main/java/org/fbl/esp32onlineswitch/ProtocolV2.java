@@ -0,0 +1,572 @@
+// ProtocolV2.java
+package org.fbl.esp32onlineswitch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制命令协议 v2（与 ArduinoProject.ino 的 binaryCommands 表一致）
+ * 帧格式不变（AA 55 长度 数据 校验和），数据部分为：
+ *   命令: [操作码][定长参数]，操作码 0x01~0x1F，ASCII 命令都以大写字母开头，两者不会混淆
+ *   响应: [0x80|操作码][状态码][定长字段]，状态码非 0 时没有后续字段
+ * 固件按请求的格式回复，同一连接上 ASCII 和二进制命令可以混用。
+ * 连接后发送 HELLO 协商版本，旧固件回复 ERROR:Unknown command，此时继续使用 ASCII。
+ */
+public final class ProtocolV2 {
+    public static final int ASCII_VERSION = 1;
+    public static final int VERSION = 2;
+
+    // 首字节小于该值的数据帧是二进制命令
+    public static final int OPCODE_LIMIT = 0x20;
+    public static final int RESPONSE_FLAG = 0x80;
+
+    // 操作码
+    public static final int OP_HELLO = 0x01;
+    public static final int OP_RELAY_ON = 0x02;
+    public static final int OP_RELAY_OFF = 0x03;
+    public static final int OP_RELAY_TOGGLE = 0x04;
+    public static final int OP_GET_STATUS = 0x05;
+    public static final int OP_RESTART = 0x06;
+    public static final int OP_TIME_SEND = 0x07;
+    public static final int OP_TIME_RECV = 0x08;
+    public static final int OP_SET_TIME = 0x09;
+    public static final int OP_GET_TIME = 0x0A;
+    public static final int OP_ADD_ALARM = 0x0B;
+    public static final int OP_GET_ALARMS = 0x0C;
+    public static final int OP_ENABLE_ALARM = 0x0D;
+    public static final int OP_DELETE_ALARM = 0x0E;
+    public static final int OP_CLEAR_ALARMS = 0x0F;
+    public static final int OP_ALARM_BATCH = 0x10;
+    public static final int OP_GET_ALARMS_PAGE = 0x11;
+
+    // 状态码
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_UNKNOWN_OPCODE = 1;
+    public static final int STATUS_BAD_LENGTH = 2;
+    public static final int STATUS_INVALID_TIME = 3;
+    public static final int STATUS_INVALID_ALARM_ID = 4;
+    public static final int STATUS_LIST_FULL = 5;
+    public static final int STATUS_INVALID_TASK = 6;
+
+    // HELLO 响应的功能位
+    public static final int FEATURE_RELIABLE_FRAMING = 0x01;
+    public static final int FEATURE_ALARM_BATCH = 0x02;
+    public static final int FEATURE_ALARM_PAGES = 0x04;
+
+    // ALARM_BATCH 的标志和操作类型，见 alarmBatch()
+    public static final int BATCH_FLAG_COMMIT = 0x01;
+    public static final int BATCH_DELETE = 0x01;
+    public static final int BATCH_ENABLE = 0x02;
+    public static final int BATCH_ADD = 0x03;
+    public static final int BATCH_CLEAR = 0x04;
+
+    // GET_ALARMS 响应中每个闹钟占用的字节数：ID、时、分、秒、任务
+    static final int ALARM_ENTRY_LENGTH = 5;
+    // GET_ALARMS_PAGE 响应的 NEXT 为 0 表示已到闹钟表末尾
+    public static final int PAGE_END = 0;
+
+    private static final int[] OPCODES = new int[Command.values().length];
+    private static final Command[] COMMANDS = new Command[OPCODE_LIMIT];
+    private static final EncodedFrame[] FIXED_FRAMES = new EncodedFrame[Command.values().length];
+
+    // 闹钟任务编号，与固件 TaskType 一致
+    private static final Command[] TASKS = {
+            null, Command.RELAY_ON, Command.RELAY_OFF, Command.RELAY_TOGGLE,
+            Command.RESTART, Command.TIME_SEND, Command.TIME_RECV
+    };
+
+    static {
+        map(Command.HELLO, OP_HELLO);
+        map(Command.RELAY_ON, OP_RELAY_ON);
+        map(Command.RELAY_OFF, OP_RELAY_OFF);
+        map(Command.RELAY_TOGGLE, OP_RELAY_TOGGLE);
+        map(Command.GET_STATUS, OP_GET_STATUS);
+        map(Command.RESTART, OP_RESTART);
+        map(Command.TIME_SEND, OP_TIME_SEND);
+        map(Command.TIME_RECV, OP_TIME_RECV);
+        map(Command.SET_TIME, OP_SET_TIME);
+        map(Command.GET_TIME, OP_GET_TIME);
+        map(Command.ADD_ALARM, OP_ADD_ALARM);
+        map(Command.GET_ALARMS, OP_GET_ALARMS);
+        map(Command.ENABLE_ALARM, OP_ENABLE_ALARM);
+        map(Command.DELETE_ALARM, OP_DELETE_ALARM);
+        map(Command.CLEAR_ALARMS, OP_CLEAR_ALARMS);
+        map(Command.ALARM_BATCH, OP_ALARM_BATCH);
+        map(Command.GET_ALARMS_PAGE, OP_GET_ALARMS_PAGE);
+
+        for (Command command : Command.values()) {
+            if (!command.isParameterized()) {
+                // HELLO 携带客户端支持的最高版本
+                byte[] payload = command == Command.HELLO
+                        ? new byte[] {(byte) OP_HELLO, (byte) VERSION}
+                        : new byte[] {(byte) OPCODES[command.ordinal()]};
+                FIXED_FRAMES[command.ordinal()] = new EncodedFrame(command, frame(payload));
+            }
+        }
+    }
+
+    /**
+     * 二进制协议（版本 2），需要固件支持
+     */
+    public static final CommandCodec CODEC = new CommandCodec() {
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+
+        @Override
+        public OutgoingFrame encode(Command command) {
+            return ProtocolV2.encode(command);
+        }
+
+        @Override
+        public OutgoingFrame setTime(int hour, int minute, int second) {
+            return ProtocolV2.setTime(hour, minute, second);
+        }
+
+        @Override
+        public OutgoingFrame addAlarm(int hour, int minute, int second, Command task) {
+            return ProtocolV2.addAlarm(hour, minute, second, task);
+        }
+
+        @Override
+        public OutgoingFrame enableAlarm(int alarmId, boolean enable) {
+            return ProtocolV2.enableAlarm(alarmId, enable);
+        }
+
+        @Override
+        public OutgoingFrame deleteAlarm(int alarmId) {
+            return ProtocolV2.deleteAlarm(alarmId);
+        }
+    };
+
+    private ProtocolV2() {
+    }
+
+    private static void map(Command command, int opcode) {
+        OPCODES[command.ordinal()] = opcode;
+        COMMANDS[opcode] = command;
+    }
+
+    public static int opcodeOf(Command command) {
+        return OPCODES[command.ordinal()];
+    }
+
+    /**
+     * @return 操作码对应的命令，未知操作码返回 null
+     */
+    public static Command commandOf(int opcode) {
+        return opcode > 0 && opcode < OPCODE_LIMIT ? COMMANDS[opcode] : null;
+    }
+
+    /**
+     * @return 闹钟任务编号（1~6）
+     */
+    public static int taskCodeOf(Command task) {
+        for (int i = 1; i < TASKS.length; i++) {
+            if (TASKS[i] == task) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("不支持的闹钟任务: " + task);
+    }
+
+    /**
+     * @return 任务编号对应的命令，未知编号返回 null
+     */
+    public static Command taskOf(int code) {
+        return code > 0 && code < TASKS.length ? TASKS[code] : null;
+    }
+
+    // ========== 编码 ==========
+
+    /**
+     * 获取固定命令的缓存帧
+     */
+    public static EncodedFrame encode(Command command) {
+        EncodedFrame frame = FIXED_FRAMES[command.ordinal()];
+        if (frame == null) {
+            throw new IllegalArgumentException(command + " 需要参数");
+        }
+        return frame;
+    }
+
+    /**
+     * 版本握手帧
+     */
+    public static EncodedFrame hello() {
+        return FIXED_FRAMES[Command.HELLO.ordinal()];
+    }
+
+    /**
+     * [SET_TIME][时][分][秒]
+     */
+    public static FrameBuffer setTime(int hour, int minute, int second) {
+        FrameEncoder.checkTime(hour, minute, second);
+        FrameBuffer buffer = begin(Command.SET_TIME);
+        append(buffer, hour);
+        append(buffer, minute);
+        append(buffer, second);
+        return finish(buffer);
+    }
+
+    /**
+     * [ADD_ALARM][时][分][秒][任务]
+     */
+    public static FrameBuffer addAlarm(int hour, int minute, int second, Command task) {
+        FrameEncoder.checkTime(hour, minute, second);
+        int taskCode = taskCodeOf(task);
+        FrameBuffer buffer = begin(Command.ADD_ALARM);
+        append(buffer, hour);
+        append(buffer, minute);
+        append(buffer, second);
+        append(buffer, taskCode);
+        return finish(buffer);
+    }
+
+    /**
+     * [ENABLE_ALARM][ID][1: 启用 | 0: 禁用]
+     */
+    public static FrameBuffer enableAlarm(int alarmId, boolean enable) {
+        FrameEncoder.checkAlarmId(alarmId);
+        FrameBuffer buffer = begin(Command.ENABLE_ALARM);
+        append(buffer, alarmId);
+        append(buffer, enable ? 1 : 0);
+        return finish(buffer);
+    }
+
+    /**
+     * [DELETE_ALARM][ID]
+     */
+    public static FrameBuffer deleteAlarm(int alarmId) {
+        FrameEncoder.checkAlarmId(alarmId);
+        FrameBuffer buffer = begin(Command.DELETE_ALARM);
+        append(buffer, alarmId);
+        return finish(buffer);
+    }
+
+    /**
+     * [ALARM_BATCH][标志][操作...]，操作依次为：
+     *   [BATCH_DELETE][ID]、[BATCH_ENABLE][ID][1|0]、[BATCH_ADD][时][分][秒][任务][1|0]、[BATCH_CLEAR]
+     * 固件按顺序执行，任一操作失败时整批回滚；带 BATCH_FLAG_COMMIT 时执行后写一次 FLASH
+     * 响应: [已执行操作数][每个 BATCH_ADD 分配的 ID...]
+     * @param ops 编码好的操作序列
+     */
+    public static FrameBuffer alarmBatch(int flags, byte[] ops, int offset, int length) {
+        if (length + 2 > FrameFormat.DEVICE_MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("批量操作超过 " + (FrameFormat.DEVICE_MAX_DATA_LENGTH - 2) + " 字节");
+        }
+        FrameBuffer buffer = begin(Command.ALARM_BATCH);
+        append(buffer, flags);
+        System.arraycopy(ops, offset, buffer.array, buffer.length, length);
+        buffer.length += length;
+        return finish(buffer);
+    }
+
+    /**
+     * [GET_ALARMS_PAGE][起始 ID]，闹钟多于一帧能容纳的数量时分页读取
+     * 响应: [闹钟总数][起始 ID][下一页起始 ID][闹钟...]，列出 [起始 ID, 下一页起始 ID) 内启用的闹钟，
+     * 下一页起始 ID 为 PAGE_END 时已到末尾
+     */
+    public static FrameBuffer getAlarmsPage(int firstId) {
+        FrameEncoder.checkAlarmId(firstId);
+        FrameBuffer buffer = begin(Command.GET_ALARMS_PAGE);
+        append(buffer, firstId);
+        return finish(buffer);
+    }
+
+    /**
+     * @return 批量操作的字节数（含操作类型），未知类型返回 0
+     */
+    public static int batchOpLength(int op) {
+        switch (op) {
+            case BATCH_DELETE:
+                return 2;
+            case BATCH_ENABLE:
+                return 3;
+            case BATCH_ADD:
+                return 6;
+            case BATCH_CLEAR:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static byte[] frame(byte[] payload) {
+        byte[] frame = new byte[payload.length + FrameFormat.OVERHEAD];
+        frame[0] = (byte) FrameFormat.HEADER_1;
+        frame[1] = (byte) FrameFormat.HEADER_2;
+        frame[2] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 3, payload.length);
+        frame[frame.length - 1] = (byte) FrameFormat.checksum(payload, 0, payload.length);
+        return frame;
+    }
+
+    private static FrameBuffer begin(Command command) {
+        FrameBuffer buffer = FrameEncoder.getPool().acquire();
+        buffer.command = command;
+        buffer.array[0] = (byte) FrameFormat.HEADER_1;
+        buffer.array[1] = (byte) FrameFormat.HEADER_2;
+        buffer.length = 3;
+        append(buffer, opcodeOf(command));
+        return buffer;
+    }
+
+    private static FrameBuffer finish(FrameBuffer buffer) {
+        int payloadLength = buffer.length - 3;
+        buffer.array[2] = (byte) payloadLength;
+        buffer.array[buffer.length] = (byte) FrameFormat.checksum(buffer.array, 3, payloadLength);
+        buffer.length++;
+        return buffer;
+    }
+
+    private static void append(FrameBuffer buffer, int value) {
+        buffer.array[buffer.length++] = (byte) value;
+    }
+
+    // ========== 解码 ==========
+
+    /**
+     * ASCII 响应都是可打印字符，首字节最高位为 1 的是二进制响应
+     */
+    public static boolean isBinaryResponse(byte[] buffer, int offset, int length) {
+        return length >= 2 && (buffer[offset] & RESPONSE_FLAG) != 0;
+    }
+
+    static boolean isResponseTo(Command command, byte[] buffer, int offset, int length) {
+        return (buffer[offset] & 0x7F) == opcodeOf(command);
+    }
+
+    static boolean isErrorResponse(byte[] buffer, int offset, int length) {
+        return isBinaryResponse(buffer, offset, length) && buffer[offset + 1] != STATUS_OK;
+    }
+
+    /**
+     * 把二进制响应转换为 ASCII 协议中的等价文本，上层可以不区分协议版本
+     */
+    public static String toText(byte[] buffer, int offset, int length) {
+        int opcode = buffer[offset] & 0x7F;
+        int status = buffer[offset + 1] & 0xFF;
+        if (status != STATUS_OK) {
+            return "ERROR:" + errorMessage(status);
+        }
+
+        int p = offset + 2;
+        int available = length - 2;
+        StringBuilder text = new StringBuilder(48);
+        switch (opcode) {
+            case OP_HELLO:
+                // [版本][闹钟上限][功能位]，旧固件没有功能位
+                text.append("HELLO_OK:VERSION=").append(available >= 1 ? buffer[p] & 0xFF : VERSION);
+                if (available >= 3) {
+                    text.append(",FEATURES=").append(buffer[p + 2] & 0xFF);
+                }
+                return text.toString();
+            case OP_RELAY_ON:
+                return "RELAY_ON_OK";
+            case OP_RELAY_OFF:
+                return "RELAY_OFF_OK";
+            case OP_RELAY_TOGGLE:
+                if (available < 1) {
+                    break;
+                }
+                return "RELAY_TOGGLE_OK:" + (buffer[p] != 0 ? "ON" : "OFF");
+            case OP_GET_STATUS:
+                if (available < 9) {
+                    break;
+                }
+                text.append("STATUS:RELAY=").append(buffer[p] != 0 ? "ON" : "OFF")
+                        .append(",TIME=");
+                appendTime(text, buffer, p + 1);
+                text.append(",ALARMS=").append(buffer[p + 4] & 0xFF)
+                        .append(",UPTIME=").append(readUInt32(buffer, p + 5)).append('s');
+                return text.toString();
+            case OP_RESTART:
+                return "RESTART_OK:Device will restart in 1s";
+            case OP_TIME_SEND:
+                if (available < 7) {
+                    break;
+                }
+                text.append("RTC_TIME:");
+                appendTime(text, buffer, p);
+                text.append(" TOTAL_SEC:").append(readUInt32(buffer, p + 3));
+                return text.toString();
+            case OP_TIME_RECV:
+                return "REQUEST_HOST_TIME:Send SET_TIME=HH,MM,SS";
+            case OP_SET_TIME:
+            case OP_GET_TIME:
+                if (available < 3) {
+                    break;
+                }
+                text.append(opcode == OP_SET_TIME ? "SET_TIME_OK:" : "TIME:");
+                appendTime(text, buffer, p);
+                return text.toString();
+            case OP_ADD_ALARM:
+                if (available < 5) {
+                    break;
+                }
+                text.append("ADD_ALARM_OK:ID=").append(buffer[p] & 0xFF)
+                        .append(",TIME=").append(buffer[p + 1] & 0xFF)
+                        .append(':').append(buffer[p + 2] & 0xFF)
+                        .append(':').append(buffer[p + 3] & 0xFF)
+                        .append(",TASK=").append(taskName(buffer[p + 4] & 0xFF));
+                return text.toString();
+            case OP_GET_ALARMS:
+            case OP_GET_ALARMS_PAGE: {
+                int header = opcode == OP_GET_ALARMS ? 1 : 3;
+                if (available < header) {
+                    break;
+                }
+                int count = buffer[p] & 0xFF;
+                text.append("ALARMS_COUNT:").append(count);
+                if (opcode == OP_GET_ALARMS_PAGE) {
+                    text.append(" FROM=").append(buffer[p + 1] & 0xFF)
+                            .append(" NEXT=").append(buffer[p + 2] & 0xFF);
+                }
+                text.append(" LIST:ALARM_LIST:");
+                int entries = Math.min(count, (available - header) / ALARM_ENTRY_LENGTH);
+                for (int i = 0; i < entries; i++) {
+                    int e = p + header + i * ALARM_ENTRY_LENGTH;
+                    if (i > 0) {
+                        text.append(';');
+                    }
+                    text.append('#').append(buffer[e] & 0xFF)
+                            .append('=').append(buffer[e + 1] & 0xFF)
+                            .append(':').append(buffer[e + 2] & 0xFF)
+                            .append(':').append(buffer[e + 3] & 0xFF)
+                            .append('-').append(taskName(buffer[e + 4] & 0xFF))
+                            .append("-ENABLED");
+                }
+                if (entries == 0) {
+                    text.append("EMPTY");
+                }
+                return text.toString();
+            }
+            case OP_ENABLE_ALARM:
+                if (available < 2) {
+                    break;
+                }
+                return (buffer[p + 1] != 0 ? "ALARM_ENABLED_OK" : "ALARM_DISABLED_OK") + ":ID=" + (buffer[p] & 0xFF);
+            case OP_DELETE_ALARM:
+                if (available < 1) {
+                    break;
+                }
+                return "DELETE_ALARM_OK:ID=" + (buffer[p] & 0xFF);
+            case OP_CLEAR_ALARMS:
+                return "CLEAR_ALARMS_OK";
+            case OP_ALARM_BATCH: {
+                if (available < 1) {
+                    break;
+                }
+                text.append("ALARM_BATCH_OK:APPLIED=").append(buffer[p] & 0xFF).append(",IDS=");
+                for (int i = 1; i < available; i++) {
+                    if (i > 1) {
+                        text.append(',');
+                    }
+                    text.append(buffer[p + i] & 0xFF);
+                }
+                return text.toString();
+            }
+            default:
+                break;
+        }
+        return "ERROR:Malformed binary response 0x" + Integer.toHexString(buffer[offset] & 0xFF);
+    }
+
+    /**
+     * @return 状态码对应的错误信息（与固件 ASCII 错误响应一致）
+     */
+    public static String errorMessage(int status) {
+        switch (status) {
+            case STATUS_UNKNOWN_OPCODE:
+                return "Unknown command";
+            case STATUS_BAD_LENGTH:
+                return "Invalid format";
+            case STATUS_INVALID_TIME:
+                return "Invalid time";
+            case STATUS_INVALID_ALARM_ID:
+                return "Invalid alarm ID";
+            case STATUS_LIST_FULL:
+                return "Failed to add alarm: list full";
+            case STATUS_INVALID_TASK:
+                return "Invalid task type";
+            default:
+                return "Error " + status;
+        }
+    }
+
+    /**
+     * 从 HELLO 响应文本中读取固件支持的协议版本
+     * @return 版本号，无法识别时返回 ASCII_VERSION
+     */
+    public static int parseHelloVersion(String text) {
+        String prefix = "HELLO_OK:VERSION=";
+        if (!text.startsWith(prefix)) {
+            return ASCII_VERSION;
+        }
+        int version = 0;
+        for (int i = prefix.length(); i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            version = version * 10 + (c - '0');
+        }
+        return Math.max(ASCII_VERSION, version);
+    }
+
+    /**
+     * 从 HELLO 响应文本中读取固件支持的功能位（FEATURES=n）
+     * @return 功能位，没有时返回 0
+     */
+    public static int parseHelloFeatures(String text) {
+        String key = ",FEATURES=";
+        int start = text.startsWith("HELLO_OK:") ? text.indexOf(key) : -1;
+        if (start < 0) {
+            return 0;
+        }
+        int features = 0;
+        for (int i = start + key.length(); i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            features = features * 10 + (c - '0');
+        }
+        return features;
+    }
+
+    private static void appendTime(StringBuilder text, byte[] buffer, int p) {
+        appendTwoDigits(text, buffer[p] & 0xFF);
+        text.append(':');
+        appendTwoDigits(text, buffer[p + 1] & 0xFF);
+        text.append(':');
+        appendTwoDigits(text, buffer[p + 2] & 0xFF);
+    }
+
+    private static void appendTwoDigits(StringBuilder text, int value) {
+        if (value < 10) {
+            text.append('0');
+        }
+        text.append(value);
+    }
+
+    private static long readUInt32(byte[] buffer, int p) {
+        return (buffer[p] & 0xFFL)
+                | (buffer[p + 1] & 0xFFL) << 8
+                | (buffer[p + 2] & 0xFFL) << 16
+                | (buffer[p + 3] & 0xFFL) << 24;
+    }
+
+    private static String taskName(int code) {
+        Command task = taskOf(code);
+        return task == null ? "UNKNOWN" : task.getKeyword();
+    }
+
+    static String toString(byte[] buffer, int offset, int length) {
+        if (isBinaryResponse(buffer, offset, length)) {
+            return toText(buffer, offset, length);
+        }
+        return new String(buffer, offset, length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,134 @@
+// PtyTransport.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于字符设备的传输通道（Linux pty、USB串口等），地址为设备路径，如 /dev/pts/3
+ * 可配合 socat 把真实串口或 SimulatedSwitch 的TCP端口桥接成 pty
+ * 打开时用 stty 设为原始模式，终端行规程不再转换 0x0D/0x0A 或回显，二进制帧原样收发。
+ * 读写各用一个 FileChannel：close() 关闭通道时阻塞在 read 的读任务收到 AsynchronousCloseException 返回。
+ */
+public class PtyTransport implements SerialTransport {
+    private static final long STTY_TIMEOUT_MS = 5000;
+
+    private final String path;
+    private FileChannel readChannel;
+    private FileChannel writeChannel;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+    private volatile boolean connected = false;
+
+    public PtyTransport(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        File device = new File(path);
+        if (!device.exists()) {
+            throw new IOException("找不到设备: " + path);
+        }
+        makeRaw();
+        readChannel = FileChannel.open(device.toPath(), StandardOpenOption.READ);
+        try {
+            writeChannel = FileChannel.open(device.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            readChannel.close();
+            throw e;
+        }
+        inputStream = Channels.newInputStream(readChannel);
+        outputStream = Channels.newOutputStream(writeChannel);
+        connected = true;
+    }
+
+    // stty raw -echo：关闭 ICRNL、OPOST、ECHO 等转换
+    private void makeRaw() throws IOException {
+        Process process = new ProcessBuilder("stty", "-F", path, "raw", "-echo")
+                .redirectErrorStream(true)
+                .start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                output.write(buffer, 0, n);
+            }
+        }
+        try {
+            if (!process.waitFor(STTY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("stty 超时: " + path);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("设置原始模式被中断: " + path, e);
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("无法设置原始模式: " + path + " "
+                    + output.toString(Charset.defaultCharset().name()).trim());
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            throw new IOException("设备未打开: " + path);
+        }
+        return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            throw new IOException("设备未打开: " + path);
+        }
+        return outputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connected = false;
+        try {
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        } finally {
+            if (writeChannel != null) {
+                writeChannel.close();
+            }
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return path;
+    }
+
+    public static class Factory implements SerialTransport.Factory {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public SerialTransport create(String address) {
+            return new PtyTransport(address);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+// RateMeter.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁速率计：累计总量，并按秒分槽统计最近几秒的平均速率
+ * 换秒时的清零与并发累加之间不加锁，速率是近似值
+ */
+public final class RateMeter {
+    private static final int SLOTS = 8;
+    // 统计最近几个完整的秒
+    private static final int WINDOW_SECONDS = 5;
+
+    private final LongAdder total = new LongAdder();
+    private final AtomicLongArray slotSecond = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotCount = new AtomicLongArray(SLOTS);
+
+    public void record(long amount) {
+        total.add(amount);
+        long second = currentSecond();
+        int slot = (int) Math.floorMod(second, (long) SLOTS);
+        long tagged = slotSecond.get(slot);
+        if (tagged != second && slotSecond.compareAndSet(slot, tagged, second)) {
+            slotCount.set(slot, 0);
+        }
+        slotCount.addAndGet(slot, amount);
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * @return 最近 5 个完整秒的平均每秒数量
+     */
+    public double getRatePerSecond() {
+        long second = currentSecond();
+        long sum = 0;
+        for (int i = 1; i <= WINDOW_SECONDS; i++) {
+            long target = second - i;
+            int slot = (int) Math.floorMod(target, (long) SLOTS);
+            if (slotSecond.get(slot) == target) {
+                sum += slotCount.get(slot);
+            }
+        }
+        return (double) sum / WINDOW_SECONDS;
+    }
+
+    long currentSecond() {
+        return System.nanoTime() / 1000000000L;
+    }
+}
@@ -0,0 +1,268 @@
+// ReconnectSupervisor.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 自动重连
+ * 链路意外中断后立即重试一次，之后按带随机抖动的指数退避重试，直到成功或超过放弃时间。
+ * 重连期间命令流水线暂停，排队的命令在恢复后按原顺序发送，再补发订阅命令。
+ * 用户主动调用 disconnect() 不会触发重连。
+ * 退避等待在 BluetoothSerialService 的定时线程上，每次尝试与普通连接一样提交到该连接的 IoExecutor 执行，
+ * 多台设备同时中断时并行重连。
+ */
+public class ReconnectSupervisor {
+    private static final Logger LOG = Logger.getLogger("ReconnectSupervisor");
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+    public static final long DEFAULT_GIVE_UP_MS = 60000;
+
+    public interface Listener {
+        /**
+         * @param attempt 即将进行的第几次尝试
+         * @param delayMs 距离这次尝试的等待时间
+         */
+        default void onReconnecting(int attempt, long delayMs) {
+        }
+
+        /**
+         * @param attempts 共尝试次数
+         * @param downtimeMs 从中断到恢复的时间
+         */
+        default void onReconnected(int attempts, long downtimeMs) {
+        }
+
+        default void onGaveUp(int attempts) {
+        }
+    }
+
+    private final BluetoothSerialService service;
+    private final CopyOnWriteArrayList<Command> resumeCommands = new CopyOnWriteArrayList<>();
+    private volatile Listener listener;
+    private volatile boolean enabled = true;
+    private volatile long initialDelayMs = DEFAULT_INITIAL_DELAY_MS;
+    private volatile long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private volatile long giveUpMs = DEFAULT_GIVE_UP_MS;
+
+    // 以下字段由 this 保护；每次中断或取消递增 generation，过期的重试任务直接退出
+    private int generation = 0;
+    private boolean active = false;
+    private int attempts = 0;
+    private long lostAtNanos;
+
+    // 统计
+    private volatile long reconnectCount = 0;
+    private volatile long lastDowntimeMs = 0;
+
+    ReconnectSupervisor(BluetoothSerialService service) {
+        this.service = service;
+    }
+
+    /**
+     * @param enabled false: 链路中断后直接断开，与旧行为一致
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cancel();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param initialDelayMs 第二次尝试前的基础等待时间，之后每次翻倍
+     * @param maxDelayMs 等待时间上限
+     * @param giveUpMs 中断超过这个时间仍未恢复则放弃，排队命令全部失败
+     */
+    public void setBackoff(long initialDelayMs, long maxDelayMs, long giveUpMs) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || giveUpMs <= 0) {
+            throw new IllegalArgumentException("initialDelayMs: " + initialDelayMs
+                    + ", maxDelayMs: " + maxDelayMs + ", giveUpMs: " + giveUpMs);
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.giveUpMs = giveUpMs;
+    }
+
+    /**
+     * 添加订阅命令，每次重连成功后自动发送（如 GET_STATUS 刷新状态）
+     * @param command 不带参数的命令
+     */
+    public void addResumeCommand(Command command) {
+        if (command.isParameterized()) {
+            throw new IllegalArgumentException(command + " 需要参数");
+        }
+        resumeCommands.addIfAbsent(command);
+    }
+
+    public void removeResumeCommand(Command command) {
+        resumeCommands.remove(command);
+    }
+
+    /**
+     * @return 是否正在重连
+     */
+    public synchronized boolean isReconnecting() {
+        return active;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * @return 最近一次中断的持续时间（毫秒）
+     */
+    public long getLastDowntimeMs() {
+        return lastDowntimeMs;
+    }
+
+    /**
+     * 链路意外中断（读线程调用）
+     */
+    void onConnectionLost() {
+        int current;
+        synchronized (this) {
+            current = ++generation;
+            active = true;
+            attempts = 0;
+            lostAtNanos = System.nanoTime();
+        }
+        // 多数中断是瞬时的，第一次立即重试
+        schedule(current, 0);
+    }
+
+    /**
+     * 停止重连（用户主动断开或重新连接时调用）
+     */
+    synchronized void cancel() {
+        generation++;
+        active = false;
+    }
+
+    private void schedule(final int scheduledGeneration, long delayMs) {
+        BluetoothSerialService.TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(scheduledGeneration);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(final int scheduledGeneration) {
+        final int attempt;
+        synchronized (this) {
+            if (!active || scheduledGeneration != generation) {
+                return;
+            }
+            attempt = ++attempts;
+        }
+
+        // 在 I/O 线程上连接，结束后回到 onAttemptFinished；disconnect() 取消时不回调
+        boolean submitted = service.startReconnect(new Consumer<Boolean>() {
+            @Override
+            public void accept(Boolean success) {
+                onAttemptFinished(scheduledGeneration, attempt, success);
+            }
+        });
+        if (!submitted) {
+            // 线程池已满，按失败处理，退避后再试
+            onAttemptFinished(scheduledGeneration, attempt, false);
+        }
+    }
+
+    private void onAttemptFinished(int scheduledGeneration, int attempt, boolean success) {
+
+        long downtimeMs = 0;
+        long delayMs = 0;
+        boolean stale;
+        boolean giveUp = false;
+        synchronized (this) {
+            stale = !active || scheduledGeneration != generation;
+            if (!stale) {
+                downtimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostAtNanos);
+                if (success) {
+                    active = false;
+                } else if (downtimeMs >= giveUpMs) {
+                    active = false;
+                    giveUp = true;
+                } else {
+                    delayMs = nextDelay(attempt);
+                }
+            }
+        }
+        if (stale) {
+            // 尝试期间用户已断开，撤销刚建立的连接
+            if (success) {
+                service.disconnect();
+            }
+            return;
+        }
+
+        final Listener current = listener;
+        if (success) {
+            reconnectCount++;
+            lastDowntimeMs = downtimeMs;
+            LOG.fine("重连成功，第 " + attempt + " 次尝试，中断 " + downtimeMs + "ms");
+            for (Command command : resumeCommands) {
+                service.send(command);
+            }
+            if (current != null) {
+                final int attemptsUsed = attempt;
+                final long downtime = downtimeMs;
+                service.getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        current.onReconnected(attemptsUsed, downtime);
+                    }
+                });
+            }
+        } else if (giveUp) {
+            LOG.severe("重连失败，已放弃，共尝试 " + attempt + " 次");
+            service.disconnect();
+            if (current != null) {
+                final int attemptsUsed = attempt;
+                service.getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        current.onGaveUp(attemptsUsed);
+                    }
+                });
+            }
+        } else {
+            if (current != null) {
+                final int nextAttempt = attempt + 1;
+                final long delay = delayMs;
+                service.getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        current.onReconnecting(nextAttempt, delay);
+                    }
+                });
+            }
+            schedule(scheduledGeneration, delayMs);
+        }
+    }
+
+    // 指数退避，取值在 [base/2, base] 之间随机，避免多台设备同时重试
+    private long nextDelay(int attempt) {
+        long base = initialDelayMs << Math.min(attempt - 1, 20);
+        if (base <= 0 || base > maxDelayMs) {
+            base = maxDelayMs;
+        }
+        long half = base / 2;
+        return half + ThreadLocalRandom.current().nextLong(base - half + 1);
+    }
+}
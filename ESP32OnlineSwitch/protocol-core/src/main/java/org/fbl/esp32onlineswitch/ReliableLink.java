@@ -0,0 +1,312 @@
+// ReliableLink.java
+package org.fbl.esp32onlineswitch;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可靠帧模式的选择重传（ARQ），与固件 arq* 函数对称
+ * 每个数据帧带 1 字节序号和累计确认号（期望收到的下一个序号），用 CRC-16 校验：
+ * CRC 错误或序号跳变时接收方立即回 NAK(期望序号)，发送方只重传这一帧，一个往返即可恢复；
+ * 尾部丢失（之后没有帧可触发 NAK）由重传超时兜底。
+ * 收到的乱序帧暂存在窗口内，缺失帧补齐后按序交付。
+ * 接收相关的方法只在读线程调用；发送可在任意线程调用，由 this 保护。
+ */
+public class ReliableLink {
+    public interface Output {
+        /**
+         * @param frame 编码好的 AA 56 帧，写出后释放
+         */
+        boolean write(OutgoingFrame frame);
+    }
+
+    // 窗口大小，与固件 ARQ_WINDOW 一致；序号 0~255 循环，必须是 256 的约数
+    public static final int WINDOW = 8;
+    public static final long DEFAULT_RETRANSMIT_TIMEOUT_MS = 200;
+    // 收到数据后若一直没有要发送的帧，最迟这么久单独回一个 ACK
+    public static final long ACK_DELAY_MS = 40;
+
+    private final Output output;
+    private final FrameBufferPool pool = FrameEncoder.getPool();
+    private final ScheduledFuture<?> tick;
+    private volatile long retransmitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RETRANSMIT_TIMEOUT_MS);
+
+    // 发送窗口（this 保护）：[txBase, txNext) 已发送未确认
+    private final byte[] scratch = new byte[FrameFormat.MAX_PAYLOAD_LENGTH + FrameFormat.OVERHEAD];
+    private final byte[][] txPayload = new byte[WINDOW][FrameFormat.MAX_RELIABLE_PAYLOAD_LENGTH];
+    private final int[] txLength = new int[WINDOW];
+    private final Command[] txCommand = new Command[WINDOW];
+    private final long[] txSentNanos = new long[WINDOW];
+    // 窗口满时排队的帧
+    private final ArrayDeque<OutgoingFrame> backlog = new ArrayDeque<>();
+    private int txBase = 0;
+    private int txNext = 0;
+    private boolean closed = false;
+
+    // 接收窗口（读线程）
+    private final byte[][] rxPayload = new byte[WINDOW][FrameFormat.MAX_RELIABLE_PAYLOAD_LENGTH];
+    private final int[] rxLength = new int[WINDOW];
+    private final boolean[] rxBuffered = new boolean[WINDOW];
+    private volatile int rxExpected = 0;
+    private volatile boolean nakSent = false;
+    private volatile long nakSentNanos;
+    // 有未确认的已收数据帧时记录最早的接收时间，0 表示没有
+    private volatile long ackPendingSince = 0;
+
+    // 统计
+    private volatile long retransmissions = 0;
+    private volatile long naksSent = 0;
+    private volatile long naksReceived = 0;
+    private volatile long duplicates = 0;
+    private volatile long corruptFrames = 0;
+
+    /**
+     * @param output 帧的写出通道（发送队列）
+     * @param timer 用于重传超时和延迟确认的定时器
+     */
+    public ReliableLink(Output output, ScheduledExecutorService timer) {
+        this.output = output;
+        long period = ACK_DELAY_MS / 2;
+        this.tick = timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                onTick();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void setRetransmitTimeout(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs: " + timeoutMs);
+        }
+        this.retransmitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    /**
+     * 发送一个 AA 55 帧的数据部分，改用可靠帧封装；窗口满时排队，收到确认后再发
+     * @param frame FrameEncoder / ProtocolV2 编码的帧，由本方法负责释放
+     */
+    public synchronized boolean send(OutgoingFrame frame) {
+        if (closed) {
+            frame.release();
+            return false;
+        }
+        if (inFlight() >= WINDOW || !backlog.isEmpty()) {
+            backlog.add(frame);
+            return true;
+        }
+        return transmitNew(frame);
+    }
+
+    private boolean transmitNew(OutgoingFrame frame) {
+        frame.copyTo(scratch, 0);
+        int length = scratch[2] & 0xFF;
+        Command command = frame.getCommand();
+        frame.release();
+        if (length > FrameFormat.MAX_RELIABLE_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("数据过长: " + length);
+        }
+        int seq = txNext;
+        int slot = seq % WINDOW;
+        System.arraycopy(scratch, 3, txPayload[slot], 0, length);
+        txLength[slot] = length;
+        txCommand[slot] = command;
+        txNext = (txNext + 1) & 0xFF;
+        return transmit(seq);
+    }
+
+    // 写出窗口中的一帧，确认号取当前期望序号
+    private boolean transmit(int seq) {
+        int slot = seq % WINDOW;
+        txSentNanos[slot] = System.nanoTime();
+        return writeFrame(seq, txPayload[slot], txLength[slot], txCommand[slot]);
+    }
+
+    private boolean writeFrame(int seq, byte[] payload, int length, Command command) {
+        FrameBuffer buffer = pool.acquire();
+        byte[] array = buffer.array;
+        array[0] = (byte) FrameFormat.HEADER_1;
+        array[1] = (byte) FrameFormat.HEADER_2_RELIABLE;
+        array[2] = (byte) length;
+        array[3] = (byte) seq;
+        array[4] = (byte) rxExpected;
+        System.arraycopy(payload, 0, array, 5, length);
+        int crc = Crc16.compute(array, 2, length + 3);
+        array[5 + length] = (byte) (crc >>> 8);
+        array[6 + length] = (byte) crc;
+        buffer.length = length + FrameFormat.RELIABLE_OVERHEAD;
+        buffer.command = command;
+        // 每个帧都捎带确认
+        ackPendingSince = 0;
+        return output.write(buffer);
+    }
+
+    private synchronized void sendControl(int type) {
+        if (!closed) {
+            writeFrame(type, scratch, 0, null);
+        }
+    }
+
+    private int inFlight() {
+        return (txNext - txBase) & 0xFF;
+    }
+
+    /**
+     * 读线程收到 CRC 正确的可靠帧
+     * @param delivery 按序交付数据部分
+     */
+    public void onFrame(int seq, int ack, byte[] buffer, int offset, int length,
+                        FrameDecoder.FrameListener delivery) {
+        onAck(ack);
+        if (length == 0) {
+            if (seq == FrameFormat.CONTROL_NAK) {
+                naksReceived++;
+                retransmit(ack);
+            }
+            return;
+        }
+
+        int distance = (seq - rxExpected) & 0xFF;
+        if (distance == 0) {
+            // 先推进期望序号，交付期间发出的帧捎带的确认号才包含这一帧
+            advance();
+            delivery.onFrame(buffer, offset, length);
+            // 补齐后交付暂存的后续帧
+            int slot = rxExpected % WINDOW;
+            while (rxBuffered[slot]) {
+                rxBuffered[slot] = false;
+                advance();
+                delivery.onFrame(rxPayload[slot], 0, rxLength[slot]);
+                slot = rxExpected % WINDOW;
+            }
+        } else if (distance < WINDOW) {
+            // 前面有帧丢失：暂存并立即请求重传
+            int slot = seq % WINDOW;
+            System.arraycopy(buffer, offset, rxPayload[slot], 0, length);
+            rxLength[slot] = length;
+            rxBuffered[slot] = true;
+            requestRetransmit();
+        } else {
+            // 重复帧：对端没收到确认，尽快补发
+            duplicates++;
+            markAckPending();
+        }
+    }
+
+    /**
+     * 读线程发现 CRC 错误的帧
+     */
+    public void onCorruptFrame() {
+        corruptFrames++;
+        requestRetransmit();
+    }
+
+    private void advance() {
+        rxExpected = (rxExpected + 1) & 0xFF;
+        nakSent = false;
+        markAckPending();
+    }
+
+    private void markAckPending() {
+        if (ackPendingSince == 0) {
+            ackPendingSince = System.nanoTime();
+        }
+    }
+
+    // 同一个缺口只 NAK 一次，重传也丢失时超时后再 NAK
+    private void requestRetransmit() {
+        if (!nakSent) {
+            nakSent = true;
+            sendNak();
+        }
+    }
+
+    private void sendNak() {
+        nakSentNanos = System.nanoTime();
+        naksSent++;
+        sendControl(FrameFormat.CONTROL_NAK);
+    }
+
+    // 累计确认：ack 之前的帧都已送达
+    private synchronized void onAck(int ack) {
+        int acked = (ack - txBase) & 0xFF;
+        if (acked == 0 || acked > inFlight()) {
+            return;
+        }
+        for (int i = 0; i < acked; i++) {
+            txCommand[(txBase + i) % WINDOW] = null;
+        }
+        txBase = ack;
+        while (!closed && !backlog.isEmpty() && inFlight() < WINDOW) {
+            transmitNew(backlog.poll());
+        }
+    }
+
+    private synchronized void retransmit(int seq) {
+        if (closed || ((seq - txBase) & 0xFF) >= inFlight()) {
+            return;
+        }
+        retransmissions++;
+        transmit(seq);
+    }
+
+    private void onTick() {
+        long now = System.nanoTime();
+        long pending = ackPendingSince;
+        if (pending != 0 && now - pending >= TimeUnit.MILLISECONDS.toNanos(ACK_DELAY_MS)) {
+            sendControl(FrameFormat.CONTROL_ACK);
+        }
+        // 固件不做超时重传，缺口迟迟补不上时由这边重复 NAK
+        if (nakSent && now - nakSentNanos >= retransmitTimeoutNanos) {
+            sendNak();
+        }
+        synchronized (this) {
+            // 只重传最早的未确认帧，后续帧若也丢失，对端会 NAK
+            if (!closed && inFlight() > 0
+                    && now - txSentNanos[txBase % WINDOW] >= retransmitTimeoutNanos) {
+                retransmit(txBase);
+            }
+        }
+    }
+
+    /**
+     * 连接关闭时调用，释放排队的帧并停止定时器
+     */
+    public synchronized void close() {
+        closed = true;
+        tick.cancel(false);
+        OutgoingFrame frame;
+        while ((frame = backlog.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * @return 已发送未确认的帧数
+     */
+    public synchronized int getUnackedFrames() {
+        return inFlight();
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getNaksSent() {
+        return naksSent;
+    }
+
+    public long getNaksReceived() {
+        return naksReceived;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+}
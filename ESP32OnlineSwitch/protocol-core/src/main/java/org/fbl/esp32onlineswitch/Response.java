@@ -0,0 +1,41 @@
+// Response.java
+package org.fbl.esp32onlineswitch;
+
+/**
+ * 固件对一条命令的响应
+ */
+public final class Response {
+    private final Command command;
+    private final String text;
+    private final long roundTripNanos;
+
+    Response(Command command, byte[] buffer, int offset, int length, long roundTripNanos) {
+        this.command = command;
+        // 二进制 v2 响应转换为等价的 ASCII 文本
+        this.text = ProtocolV2.toString(buffer, offset, length);
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * @return 响应文本，如 RELAY_ON_OK、STATUS:RELAY=ON,...
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return 从写出命令到收到响应的耗时（纳秒）
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    @Override
+    public String toString() {
+        return command + " -> " + text;
+    }
+}
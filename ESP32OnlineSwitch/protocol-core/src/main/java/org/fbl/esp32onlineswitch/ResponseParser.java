@@ -0,0 +1,688 @@
+// ResponseParser.java
+package org.fbl.esp32onlineswitch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 响应解析器：直接从帧字节读出继电器状态、时间、闹钟列表和错误，结果保存在本对象中
+ * ASCII 和二进制 v2 响应得到相同的结果；解析时不生成 String，闹钟列表的数组按需扩容后复用。
+ * 非线程安全，由读线程持有，结果在下一次 parse() 之前有效。
+ */
+public final class ResponseParser {
+
+    public enum Type {
+        UNKNOWN,
+        HELLO,
+        RELAY,
+        STATUS,
+        TIME,
+        TIME_REQUEST,
+        RESTART,
+        ALARM_ADDED,
+        ALARM_ENABLED,
+        ALARM_DELETED,
+        ALARMS_CLEARED,
+        ALARM_LIST,
+        ALARM_BATCH,
+        EVENT,
+        ERROR
+    }
+
+    // ASCII 错误信息无法归类时的状态码
+    public static final int STATUS_UNKNOWN_ERROR = 0xFF;
+
+    private static final int MAX_ERROR_LENGTH = 64;
+
+    private static final byte[] HELLO_OK = ascii("HELLO_OK:");
+    private static final byte[] RELAY_ON_OK = ascii("RELAY_ON_OK");
+    private static final byte[] RELAY_OFF_OK = ascii("RELAY_OFF_OK");
+    private static final byte[] RELAY_TOGGLE_OK = ascii("RELAY_TOGGLE_OK:");
+    private static final byte[] STATUS = ascii("STATUS:");
+    private static final byte[] SET_TIME_OK = ascii("SET_TIME_OK:");
+    private static final byte[] TIME = ascii("TIME:");
+    private static final byte[] RTC_TIME = ascii("RTC_TIME:");
+    private static final byte[] REQUEST_HOST_TIME = ascii("REQUEST_HOST_TIME:");
+    private static final byte[] RESTART_OK = ascii("RESTART_OK");
+    private static final byte[] ADD_ALARM_OK = ascii("ADD_ALARM_OK:");
+    private static final byte[] ALARM_ENABLED_OK = ascii("ALARM_ENABLED_OK:");
+    private static final byte[] ALARM_DISABLED_OK = ascii("ALARM_DISABLED_OK:");
+    private static final byte[] DELETE_ALARM_OK = ascii("DELETE_ALARM_OK:");
+    private static final byte[] CLEAR_ALARMS_OK = ascii("CLEAR_ALARMS_OK");
+    private static final byte[] ALARMS_COUNT = ascii("ALARMS_COUNT:");
+    private static final byte[] ALARM_BATCH_OK = ascii("ALARM_BATCH_OK:");
+    private static final byte[] EVENT = ascii(DeviceState.EVENT_PREFIX);
+    private static final byte[] ERROR = ascii("ERROR:");
+
+    private static final byte[] KEY_VERSION = ascii("VERSION=");
+    private static final byte[] KEY_FEATURES = ascii(",FEATURES=");
+    private static final byte[] KEY_RELAY = ascii("RELAY=");
+    private static final byte[] KEY_TIME = ascii("TIME=");
+    private static final byte[] KEY_ALARMS = ascii("ALARMS=");
+    private static final byte[] KEY_UPTIME = ascii("UPTIME=");
+    private static final byte[] KEY_ID = ascii("ID=");
+    private static final byte[] KEY_TASK = ascii("TASK=");
+    private static final byte[] KEY_ALARM = ascii("ALARM=");
+    private static final byte[] KEY_FROM = ascii(" FROM=");
+    private static final byte[] KEY_NEXT = ascii(" NEXT=");
+    private static final byte[] KEY_LIST = ascii("ALARM_LIST:");
+    private static final byte[] KEY_APPLIED = ascii("APPLIED=");
+    private static final byte[] KEY_IDS = ascii("IDS=");
+    private static final byte[] EMPTY = ascii("EMPTY");
+    private static final byte[] DISABLED = ascii("DISABLED");
+
+    // 固件 sendErrorResponse 的信息前缀，与二进制状态码一一对应
+    private static final byte[][] ERROR_PREFIXES = {
+            ascii("Unknown command"),
+            ascii("Invalid format"),
+            ascii("Empty task data"),
+            ascii("Invalid time"),
+            ascii("Invalid alarm ID"),
+            ascii("Failed to add alarm: list full"),
+            ascii("Invalid task type")};
+    private static final int[] ERROR_CODES = {
+            ProtocolV2.STATUS_UNKNOWN_OPCODE,
+            ProtocolV2.STATUS_BAD_LENGTH,
+            ProtocolV2.STATUS_BAD_LENGTH,
+            ProtocolV2.STATUS_INVALID_TIME,
+            ProtocolV2.STATUS_INVALID_ALARM_ID,
+            ProtocolV2.STATUS_LIST_FULL,
+            ProtocolV2.STATUS_INVALID_TASK};
+
+    private static final Command[] TASKS;
+    private static final byte[][] TASK_NAMES;
+
+    static {
+        int count = 0;
+        for (Command command : Command.values()) {
+            if (command.isAlarmTask()) {
+                count++;
+            }
+        }
+        TASKS = new Command[count];
+        TASK_NAMES = new byte[count][];
+        int i = 0;
+        for (Command command : Command.values()) {
+            if (command.isAlarmTask()) {
+                TASKS[i] = command;
+                TASK_NAMES[i] = ascii(command.name());
+                i++;
+            }
+        }
+    }
+
+    private Type type = Type.UNKNOWN;
+    private int relay;
+    private int secondOfDay;
+    private long uptimeSeconds;
+    private int version;
+    private int features;
+    private int alarmCount;
+    private int alarmId;
+    private Command task;
+    private boolean enabled;
+    private int pageFrom;
+    private int pageNext;
+
+    private int entryCount;
+    private int[] entryIds = new int[8];
+    private int[] entryTimes = new int[8];
+    private Command[] entryTasks = new Command[8];
+    private boolean[] entryEnabled = new boolean[8];
+
+    private int errorCode;
+    private final byte[] errorMessage = new byte[MAX_ERROR_LENGTH];
+    private int errorLength;
+
+    // 解析 ASCII 响应时的输入范围，parse() 返回前清除
+    private byte[] in;
+    private int end;
+    private int cursor;
+
+    /**
+     * @return 能识别的响应为 true，结果从 getter 读取；否则类型为 UNKNOWN
+     */
+    public boolean parse(byte[] buffer, int offset, int length) {
+        reset();
+        if (length <= 0) {
+            return false;
+        }
+        if (ProtocolV2.isBinaryResponse(buffer, offset, length)) {
+            parseBinary(buffer, offset, length);
+        } else {
+            in = buffer;
+            end = offset + length;
+            try {
+                parseAscii(offset);
+            } finally {
+                in = null;
+            }
+        }
+        return type != Type.UNKNOWN;
+    }
+
+    private void reset() {
+        type = Type.UNKNOWN;
+        relay = -1;
+        secondOfDay = -1;
+        uptimeSeconds = -1;
+        version = -1;
+        features = 0;
+        alarmCount = -1;
+        alarmId = -1;
+        task = null;
+        enabled = false;
+        pageFrom = -1;
+        pageNext = -1;
+        entryCount = 0;
+        errorCode = ProtocolV2.STATUS_OK;
+        errorLength = 0;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return 继电器状态 1 开 / 0 关，响应不带时为 -1
+     */
+    public int getRelay() {
+        return relay;
+    }
+
+    /**
+     * @return 设备时钟（当天秒数），响应不带时为 -1
+     */
+    public int getSecondOfDay() {
+        return secondOfDay;
+    }
+
+    /**
+     * @return STATUS 中的运行秒数，没有时为 -1
+     */
+    public long getUptimeSeconds() {
+        return uptimeSeconds;
+    }
+
+    /**
+     * @return HELLO 中的协议版本，没有时为 -1
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return HELLO 中的功能位，没有时为 0
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return 闹钟总数（STATUS、闹钟列表）或批量修改应用的条数，没有时为 -1
+     */
+    public int getAlarmCount() {
+        return alarmCount;
+    }
+
+    /**
+     * @return 新增、启用、删除或触发的闹钟 ID，没有时为 -1
+     */
+    public int getAlarmId() {
+        return alarmId;
+    }
+
+    /**
+     * @return 新增或触发的闹钟任务
+     */
+    public Command getTask() {
+        return task;
+    }
+
+    /**
+     * @return ALARM_ENABLED 的新状态
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 分页列表的起始 ID，不是分页响应时为 -1
+     */
+    public int getPageFrom() {
+        return pageFrom;
+    }
+
+    /**
+     * @return 下一页的起始 ID（PAGE_END 表示末尾），不是分页响应时为 -1
+     */
+    public int getPageNext() {
+        return pageNext;
+    }
+
+    /**
+     * @return 闹钟列表的项数，ALARM_BATCH 时为新增的 ID 个数
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getEntryId(int index) {
+        return entryIds[index];
+    }
+
+    /**
+     * @return 第 index 项的时间（当天秒数），ALARM_BATCH 时为 -1
+     */
+    public int getEntrySecondOfDay(int index) {
+        return entryTimes[index];
+    }
+
+    public Command getEntryTask(int index) {
+        return entryTasks[index];
+    }
+
+    public boolean isEntryEnabled(int index) {
+        return entryEnabled[index];
+    }
+
+    /**
+     * @return 错误状态码（ProtocolV2.STATUS_*，无法归类为 STATUS_UNKNOWN_ERROR），成功为 STATUS_OK
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * 只在需要显示时调用，会生成 String
+     * @return 错误信息，没有错误时为 null
+     */
+    public String getErrorMessage() {
+        if (type != Type.ERROR) {
+            return null;
+        }
+        if (errorLength > 0) {
+            return new String(errorMessage, 0, errorLength, StandardCharsets.US_ASCII);
+        }
+        return ProtocolV2.errorMessage(errorCode);
+    }
+
+    private void parseBinary(byte[] buffer, int offset, int length) {
+        int opcode = buffer[offset] & 0x7F;
+        int status = buffer[offset + 1] & 0xFF;
+        if (status != ProtocolV2.STATUS_OK) {
+            type = Type.ERROR;
+            errorCode = status;
+            return;
+        }
+
+        int p = offset + 2;
+        int available = length - 2;
+        switch (opcode) {
+            case ProtocolV2.OP_HELLO:
+                version = available >= 1 ? buffer[p] & 0xFF : ProtocolV2.VERSION;
+                if (available >= 3) {
+                    features = buffer[p + 2] & 0xFF;
+                }
+                type = Type.HELLO;
+                break;
+            case ProtocolV2.OP_RELAY_ON:
+            case ProtocolV2.OP_RELAY_OFF:
+                relay = opcode == ProtocolV2.OP_RELAY_ON ? 1 : 0;
+                type = Type.RELAY;
+                break;
+            case ProtocolV2.OP_RELAY_TOGGLE:
+                if (available >= 1) {
+                    relay = buffer[p] != 0 ? 1 : 0;
+                    type = Type.RELAY;
+                }
+                break;
+            case ProtocolV2.OP_GET_STATUS:
+                if (available >= 9) {
+                    relay = buffer[p] != 0 ? 1 : 0;
+                    secondOfDay = binaryTime(buffer, p + 1);
+                    alarmCount = buffer[p + 4] & 0xFF;
+                    uptimeSeconds = (buffer[p + 5] & 0xFFL)
+                            | (buffer[p + 6] & 0xFFL) << 8
+                            | (buffer[p + 7] & 0xFFL) << 16
+                            | (buffer[p + 8] & 0xFFL) << 24;
+                    type = Type.STATUS;
+                }
+                break;
+            case ProtocolV2.OP_RESTART:
+                type = Type.RESTART;
+                break;
+            case ProtocolV2.OP_TIME_RECV:
+                type = Type.TIME_REQUEST;
+                break;
+            case ProtocolV2.OP_TIME_SEND:
+            case ProtocolV2.OP_SET_TIME:
+            case ProtocolV2.OP_GET_TIME:
+                if (available >= 3) {
+                    secondOfDay = binaryTime(buffer, p);
+                    type = Type.TIME;
+                }
+                break;
+            case ProtocolV2.OP_ADD_ALARM:
+                if (available >= 5) {
+                    alarmId = buffer[p] & 0xFF;
+                    secondOfDay = binaryTime(buffer, p + 1);
+                    task = ProtocolV2.taskOf(buffer[p + 4] & 0xFF);
+                    type = Type.ALARM_ADDED;
+                }
+                break;
+            case ProtocolV2.OP_GET_ALARMS:
+            case ProtocolV2.OP_GET_ALARMS_PAGE: {
+                int header = opcode == ProtocolV2.OP_GET_ALARMS ? 1 : 3;
+                if (available < header) {
+                    break;
+                }
+                alarmCount = buffer[p] & 0xFF;
+                if (opcode == ProtocolV2.OP_GET_ALARMS_PAGE) {
+                    pageFrom = buffer[p + 1] & 0xFF;
+                    pageNext = buffer[p + 2] & 0xFF;
+                }
+                int entries = Math.min(alarmCount, (available - header) / ProtocolV2.ALARM_ENTRY_LENGTH);
+                for (int i = 0; i < entries; i++) {
+                    int e = p + header + i * ProtocolV2.ALARM_ENTRY_LENGTH;
+                    Command entryTask = ProtocolV2.taskOf(buffer[e + 4] & 0xFF);
+                    int time = binaryTime(buffer, e + 1);
+                    if (entryTask != null && time >= 0) {
+                        // 固件列表只包含启用的闹钟
+                        addEntry(buffer[e] & 0xFF, time, entryTask, true);
+                    }
+                }
+                type = Type.ALARM_LIST;
+                break;
+            }
+            case ProtocolV2.OP_ENABLE_ALARM:
+                if (available >= 2) {
+                    alarmId = buffer[p] & 0xFF;
+                    enabled = buffer[p + 1] != 0;
+                    type = Type.ALARM_ENABLED;
+                }
+                break;
+            case ProtocolV2.OP_DELETE_ALARM:
+                if (available >= 1) {
+                    alarmId = buffer[p] & 0xFF;
+                    type = Type.ALARM_DELETED;
+                }
+                break;
+            case ProtocolV2.OP_CLEAR_ALARMS:
+                type = Type.ALARMS_CLEARED;
+                break;
+            case ProtocolV2.OP_ALARM_BATCH:
+                if (available >= 1) {
+                    alarmCount = buffer[p] & 0xFF;
+                    for (int i = 1; i < available; i++) {
+                        addEntry(buffer[p + i] & 0xFF, -1, null, true);
+                    }
+                    type = Type.ALARM_BATCH;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int binaryTime(byte[] buffer, int p) {
+        int h = buffer[p] & 0xFF;
+        int m = buffer[p + 1] & 0xFF;
+        int s = buffer[p + 2] & 0xFF;
+        if (h > 23 || m > 59 || s > 59) {
+            return -1;
+        }
+        return h * 3600 + m * 60 + s;
+    }
+
+    private void parseAscii(int start) {
+        if (startsWith(start, RELAY_ON_OK)) {
+            relay = 1;
+            type = Type.RELAY;
+        } else if (startsWith(start, RELAY_OFF_OK)) {
+            relay = 0;
+            type = Type.RELAY;
+        } else if (startsWith(start, RELAY_TOGGLE_OK)) {
+            relay = readOnOff(start + RELAY_TOGGLE_OK.length);
+            type = relay >= 0 ? Type.RELAY : Type.UNKNOWN;
+        } else if (startsWith(start, STATUS)) {
+            relay = readOnOff(find(start, KEY_RELAY));
+            secondOfDay = readTime(find(start, KEY_TIME));
+            alarmCount = readInt(find(start, KEY_ALARMS));
+            uptimeSeconds = readInt(find(start, KEY_UPTIME));
+            type = Type.STATUS;
+        } else if (startsWith(start, SET_TIME_OK)) {
+            readTimeResponse(start + SET_TIME_OK.length);
+        } else if (startsWith(start, TIME)) {
+            readTimeResponse(start + TIME.length);
+        } else if (startsWith(start, RTC_TIME)) {
+            readTimeResponse(start + RTC_TIME.length);
+        } else if (startsWith(start, REQUEST_HOST_TIME)) {
+            type = Type.TIME_REQUEST;
+        } else if (startsWith(start, ADD_ALARM_OK)) {
+            alarmId = readInt(find(start, KEY_ID));
+            secondOfDay = readTime(find(start, KEY_TIME));
+            task = readTask(find(start, KEY_TASK));
+            type = Type.ALARM_ADDED;
+        } else if (startsWith(start, ALARM_ENABLED_OK) || startsWith(start, ALARM_DISABLED_OK)) {
+            alarmId = readInt(find(start, KEY_ID));
+            enabled = startsWith(start, ALARM_ENABLED_OK);
+            type = Type.ALARM_ENABLED;
+        } else if (startsWith(start, DELETE_ALARM_OK)) {
+            alarmId = readInt(find(start, KEY_ID));
+            type = Type.ALARM_DELETED;
+        } else if (startsWith(start, CLEAR_ALARMS_OK)) {
+            type = Type.ALARMS_CLEARED;
+        } else if (startsWith(start, ALARMS_COUNT)) {
+            parseAlarmList(start);
+        } else if (startsWith(start, ALARM_BATCH_OK)) {
+            parseBatch(start);
+        } else if (startsWith(start, EVENT)) {
+            alarmId = readInt(find(start, KEY_ALARM));
+            task = readTask(find(start, KEY_TASK));
+            relay = readOnOff(find(start, KEY_RELAY));
+            secondOfDay = readTime(find(start, KEY_TIME));
+            type = Type.EVENT;
+        } else if (startsWith(start, HELLO_OK)) {
+            version = Math.max(ProtocolV2.ASCII_VERSION, readInt(find(start, KEY_VERSION)));
+            features = Math.max(0, readInt(find(start, KEY_FEATURES)));
+            type = Type.HELLO;
+        } else if (startsWith(start, RESTART_OK)) {
+            type = Type.RESTART;
+        } else if (startsWith(start, ERROR)) {
+            parseError(start + ERROR.length);
+        }
+    }
+
+    private void readTimeResponse(int p) {
+        secondOfDay = readTime(p);
+        type = secondOfDay >= 0 ? Type.TIME : Type.UNKNOWN;
+    }
+
+    // ALARMS_COUNT:n [FROM=a NEXT=b ]LIST:ALARM_LIST:#0=7:45:0-RELAY_ON-ENABLED;#1=...
+    private void parseAlarmList(int start) {
+        alarmCount = readInt(start + ALARMS_COUNT.length);
+        pageFrom = readInt(find(start, KEY_FROM));
+        if (pageFrom >= 0) {
+            pageNext = readInt(find(start, KEY_NEXT));
+        }
+        type = Type.ALARM_LIST;
+
+        int p = find(start, KEY_LIST);
+        if (p < 0 || startsWith(p, EMPTY)) {
+            return;
+        }
+        while (p < end) {
+            int next = p;
+            while (next < end && in[next] != ';') {
+                next++;
+            }
+            parseEntry(p, next);
+            p = next + 1;
+        }
+    }
+
+    // #id=H:M:S-TASK-ENABLED，格式不对的项跳过
+    private void parseEntry(int p, int entryEnd) {
+        if (p >= entryEnd || in[p] != '#') {
+            return;
+        }
+        int id = readInt(p + 1);
+        if (id < 0 || cursor >= entryEnd || in[cursor] != '=') {
+            return;
+        }
+        int time = readTime(cursor + 1);
+        if (time < 0 || cursor >= entryEnd || in[cursor] != '-') {
+            return;
+        }
+        Command entryTask = readTask(cursor + 1);
+        if (entryTask == null || cursor >= entryEnd || in[cursor] != '-') {
+            return;
+        }
+        addEntry(id, time, entryTask, !startsWith(cursor + 1, DISABLED));
+    }
+
+    // ALARM_BATCH_OK:APPLIED=n,IDS=a,b,c
+    private void parseBatch(int start) {
+        alarmCount = readInt(find(start, KEY_APPLIED));
+        int p = find(start, KEY_IDS);
+        while (p >= 0 && p < end) {
+            int id = readInt(p);
+            if (id < 0) {
+                break;
+            }
+            addEntry(id, -1, null, true);
+            p = cursor < end && in[cursor] == ',' ? cursor + 1 : end;
+        }
+        type = alarmCount >= 0 ? Type.ALARM_BATCH : Type.UNKNOWN;
+    }
+
+    private void parseError(int p) {
+        type = Type.ERROR;
+        errorLength = Math.min(end - p, MAX_ERROR_LENGTH);
+        System.arraycopy(in, p, errorMessage, 0, errorLength);
+        errorCode = STATUS_UNKNOWN_ERROR;
+        for (int i = 0; i < ERROR_PREFIXES.length; i++) {
+            if (startsWith(p, ERROR_PREFIXES[i])) {
+                errorCode = ERROR_CODES[i];
+                break;
+            }
+        }
+    }
+
+    private void addEntry(int id, int time, Command entryTask, boolean entryEnabledValue) {
+        if (entryCount == entryIds.length) {
+            int capacity = entryCount * 2;
+            entryIds = Arrays.copyOf(entryIds, capacity);
+            entryTimes = Arrays.copyOf(entryTimes, capacity);
+            entryTasks = Arrays.copyOf(entryTasks, capacity);
+            entryEnabled = Arrays.copyOf(entryEnabled, capacity);
+        }
+        entryIds[entryCount] = id;
+        entryTimes[entryCount] = time;
+        entryTasks[entryCount] = entryTask;
+        entryEnabled[entryCount] = entryEnabledValue;
+        entryCount++;
+    }
+
+    private boolean startsWith(int p, byte[] prefix) {
+        if (p < 0 || end - p < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (in[p + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return key 之后第一个字节的位置，没有时为 -1
+     */
+    private int find(int start, byte[] key) {
+        for (int p = start; p <= end - key.length; p++) {
+            if (startsWith(p, key)) {
+                return p + key.length;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取前导数字，cursor 停在数字之后
+     * @return 数值，没有数字时为 -1
+     */
+    private int readInt(int p) {
+        int value = -1;
+        cursor = p;
+        if (p < 0) {
+            return -1;
+        }
+        while (cursor < end && in[cursor] >= '0' && in[cursor] <= '9') {
+            value = (value < 0 ? 0 : value * 10) + (in[cursor] - '0');
+            cursor++;
+        }
+        return value;
+    }
+
+    /**
+     * 读取 H:M:S 或 HH:MM:SS，cursor 停在时间之后
+     * @return 当天秒数，格式不对时为 -1
+     */
+    private int readTime(int p) {
+        int h = readInt(p);
+        if (h < 0 || h > 23 || cursor >= end || in[cursor] != ':') {
+            return -1;
+        }
+        int m = readInt(cursor + 1);
+        if (m < 0 || m > 59 || cursor >= end || in[cursor] != ':') {
+            return -1;
+        }
+        int s = readInt(cursor + 1);
+        if (s < 0 || s > 59) {
+            return -1;
+        }
+        return h * 3600 + m * 60 + s;
+    }
+
+    /**
+     * @return ON 为 1，OFF 为 0，其他为 -1
+     */
+    private int readOnOff(int p) {
+        if (p < 0 || end - p < 2 || in[p] != 'O') {
+            return -1;
+        }
+        if (in[p + 1] == 'N') {
+            return 1;
+        }
+        return end - p >= 3 && in[p + 1] == 'F' && in[p + 2] == 'F' ? 0 : -1;
+    }
+
+    /**
+     * 读取任务名（到 ','、'-'、';'、空格或结尾），cursor 停在任务名之后
+     * @return 闹钟任务，无法识别时为 null
+     */
+    private Command readTask(int p) {
+        cursor = p;
+        if (p < 0) {
+            return null;
+        }
+        while (cursor < end && in[cursor] != ',' && in[cursor] != '-'
+                && in[cursor] != ';' && in[cursor] != ' ') {
+            cursor++;
+        }
+        int length = cursor - p;
+        for (int i = 0; i < TASKS.length; i++) {
+            byte[] name = TASK_NAMES[i];
+            if (name.length == length && startsWith(p, name)) {
+                return TASKS[i];
+            }
+        }
+        return null;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
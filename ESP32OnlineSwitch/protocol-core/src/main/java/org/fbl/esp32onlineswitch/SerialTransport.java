@@ -0,0 +1,43 @@
+// SerialTransport.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 串口传输层
+ * BluetoothSerialService 只通过该接口收发字节，RFCOMM、内存回环、本地TCP/pty 均可替换
+ */
+public interface SerialTransport {
+
+    /**
+     * 建立连接（阻塞直到连接完成或失败）
+     */
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+
+    void close() throws IOException;
+
+    /**
+     * @return 对端地址（MAC地址、host:port 或设备路径）
+     */
+    String getAddress();
+
+    /**
+     * 按地址创建传输通道
+     */
+    interface Factory {
+        /**
+         * @return true: 可以创建连接 | false: 底层不可用（如蓝牙未开启）
+         */
+        boolean isAvailable();
+
+        SerialTransport create(String address) throws IOException;
+    }
+}
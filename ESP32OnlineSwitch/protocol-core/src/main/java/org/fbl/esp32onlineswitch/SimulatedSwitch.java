@@ -0,0 +1,1417 @@
+// SimulatedSwitch.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * 纯Java的模拟开关，行为与 HardwareProgrammer/ArduinoProject/ArduinoProject.ino 保持一致
+ * 使用相同的 AA 55 长度 数据 校验和 帧格式、命令集和响应字符串，
+ * 可通过 LoopbackTransport 或 TCP 接入，在普通 JVM 上测量命令吞吐与延迟
+ */
+public class SimulatedSwitch implements LoopbackTransport.Endpoint {
+    // 数据帧定义
+    public static final int FRAME_HEADER_1 = 0xAA;
+    public static final int FRAME_HEADER_2 = 0x55;
+    public static final int FRAME_HEADER_2_RELIABLE = 0x56;
+    public static final int RELIABLE_OVERHEAD = 7;
+    public static final int ARQ_WINDOW = 8;
+    public static final int MAX_DATA_LENGTH = 64;
+    public static final int MAX_ALARMS = 32;
+
+    // 任务类型（与固件 TaskType 数值一致）
+    public static final int TASK_NONE = 0;
+    public static final int TASK_RELAY_ON = 1;
+    public static final int TASK_RELAY_OFF = 2;
+    public static final int TASK_RELAY_TOGGLE = 3;
+    public static final int TASK_RESTART = 4;
+    public static final int TASK_TIME_SEND = 5;
+    public static final int TASK_TIME_RECV = 6;
+
+    // HELLO 上报的功能位
+    private static final int FEATURES = ProtocolV2.FEATURE_RELIABLE_FRAMING
+            | ProtocolV2.FEATURE_ALARM_BATCH | ProtocolV2.FEATURE_ALARM_PAGES;
+
+    // 主循环最长休眠时间，对应固件 loop() 的 LOOP_MAX_SLEEP_MS
+    private static final long LOOP_MAX_SLEEP_MS = 1000;
+
+    // 闹钟任务项
+    private static final class AlarmTask {
+        int id;
+        boolean enabled;
+        int hour;
+        int minute;
+        int second;
+        int taskType;
+
+        void copyFrom(AlarmTask other) {
+            id = other.id;
+            enabled = other.enabled;
+            hour = other.hour;
+            minute = other.minute;
+            second = other.second;
+            taskType = other.taskType;
+        }
+    }
+
+    // FLASH中保存的闹钟
+    private static final class SavedAlarm {
+        final int hour;
+        final int minute;
+        final int second;
+        final int taskType;
+
+        SavedAlarm(int hour, int minute, int second, int taskType) {
+            this.hour = hour;
+            this.minute = minute;
+            this.second = second;
+            this.taskType = taskType;
+        }
+    }
+
+    private final String name;
+    private final long bootNanos = System.nanoTime();
+    private long bootOffsetMillis = 0;
+
+    private boolean relayState = false;
+
+    // RTC
+    private long rtcStartMillis;
+    private int rtcHour;
+    private int rtcMinute;
+    private int rtcSecond;
+    private boolean rtcRunning;
+
+    // 闹钟
+    private final AlarmTask[] alarmList = new AlarmTask[MAX_ALARMS];
+    private int nextAlarmId = 0;
+    // 启用的闹钟按下次触发时间排序
+    private final AlarmScheduler scheduler = new AlarmScheduler(MAX_ALARMS);
+    // ALARM_BATCH 失败时恢复
+    private final AlarmTask[] alarmSnapshot = new AlarmTask[MAX_ALARMS];
+    // 未提交的批量修改
+    private boolean alarmsDirty = false;
+
+    // 模拟FLASH
+    private SavedAlarm[] flash = new SavedAlarm[0];
+    private int flashWrites = 0;
+
+    // 接收缓冲区
+    private final int[] rxBuffer = new int[128];
+    private int rxIndex = 0;
+    private boolean frameStarted = false;
+    private int expectedLength = 0;
+
+    // 可靠帧 ARQ 状态（与固件 arq* 变量一致）
+    private boolean reliableMode = false;
+    private int arqTxSeq = 0;
+    private int arqTxBase = 0;
+    private final byte[][] arqTxData = new byte[ARQ_WINDOW][MAX_DATA_LENGTH];
+    private final int[] arqTxLength = new int[ARQ_WINDOW];
+    private int arqRxExpected = 0;
+    private final int[][] arqRxData = new int[ARQ_WINDOW][MAX_DATA_LENGTH];
+    private final int[] arqRxLength = new int[ARQ_WINDOW];
+    private final boolean[] arqRxBuffered = new boolean[ARQ_WINDOW];
+    private boolean arqNakSent = false;
+
+    // 统计
+    private long framesReceived = 0;
+    private long checksumErrors = 0;
+    private long framesSent = 0;
+    private long retransmissions = 0;
+
+    // 当前蓝牙会话
+    private SerialTransport session;
+    private OutputStream sessionOutput;
+    private Timer loopTimer;
+    private TimerTask loopWake;
+
+    public SimulatedSwitch() {
+        this("FBL-BedLight-Switch");
+    }
+
+    public SimulatedSwitch(String name) {
+        this.name = name;
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            alarmList[i] = new AlarmTask();
+            alarmSnapshot[i] = new AlarmTask();
+        }
+        setup();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // ========== 会话管理 ==========
+
+    /**
+     * 接入一个设备端传输通道，并在独立线程中处理收到的数据
+     */
+    @Override
+    public synchronized void attach(final SerialTransport deviceSide) {
+        try {
+            final InputStream in = deviceSide.getInputStream();
+            session = deviceSide;
+            sessionOutput = deviceSide.getOutputStream();
+            startLoopTimer();
+
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(deviceSide, in);
+                }
+            }, "SimulatedSwitch-" + name);
+            reader.setDaemon(true);
+            reader.start();
+        } catch (IOException e) {
+            closeQuietly(deviceSide);
+        }
+    }
+
+    private void serve(SerialTransport deviceSide, InputStream in) {
+        byte[] buffer = new byte[256];
+        try {
+            while (true) {
+                int n = in.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                synchronized (this) {
+                    for (int i = 0; i < n; i++) {
+                        onByte(buffer[i] & 0xFF);
+                    }
+                    // 命令可能改变了闹钟或时间，重新计算休眠时间
+                    scheduleLoop();
+                }
+            }
+        } catch (IOException e) {
+            // 连接断开
+        } finally {
+            synchronized (this) {
+                if (session == deviceSide) {
+                    session = null;
+                    sessionOutput = null;
+                }
+            }
+            closeQuietly(deviceSide);
+        }
+    }
+
+    /**
+     * 断开当前会话并停止主循环
+     */
+    public synchronized void shutdown() {
+        if (loopTimer != null) {
+            loopTimer.cancel();
+            loopTimer = null;
+            loopWake = null;
+        }
+        if (session != null) {
+            closeQuietly(session);
+            session = null;
+            sessionOutput = null;
+        }
+    }
+
+    private void startLoopTimer() {
+        if (loopTimer != null) {
+            return;
+        }
+        loopTimer = new Timer("SimulatedSwitch-loop-" + name, true);
+        scheduleLoop();
+    }
+
+    // 与固件 loop() 一致：休眠到下一个闹钟的触发时刻，收到的数据由会话线程立即处理
+    private void scheduleLoop() {
+        if (loopTimer == null) {
+            return;
+        }
+        if (loopWake != null) {
+            loopWake.cancel();
+        }
+        long delay = LOOP_MAX_SLEEP_MS;
+        long deadline = scheduler.nextDeadline();
+        if (rtcRunning && deadline >= 0) {
+            delay = Math.max(0, Math.min(delay, rtcStartMillis + deadline * 1000 - millis()));
+        }
+        loopWake = new TimerTask() {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+        loopTimer.schedule(loopWake, delay);
+    }
+
+    private static void closeQuietly(SerialTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 在TCP端口上提供模拟开关服务，配合 TcpTransport 使用
+     */
+    public void listen(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                attach(new SocketSession(socket));
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        System.out.println("SimulatedSwitch listening on port " + port);
+        new SimulatedSwitch().listen(port);
+    }
+
+    // 已接受的TCP连接
+    private static final class SocketSession implements SerialTransport {
+        private final Socket socket;
+
+        SocketSession(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !socket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public String getAddress() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+    }
+
+    // ========== 状态查询 ==========
+
+    public synchronized boolean isRelayOn() {
+        return relayState;
+    }
+
+    public synchronized int getAlarmCount() {
+        int count = 0;
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            if (alarmList[i].enabled) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized String getTimeString() {
+        updateSimpleRTC();
+        return getSimpleTimeString();
+    }
+
+    public synchronized int getFlashWrites() {
+        return flashWrites;
+    }
+
+    public synchronized long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public synchronized long getChecksumErrors() {
+        return checksumErrors;
+    }
+
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    // ========== 主程序 ==========
+
+    private void setup() {
+        relayState = false;
+        arqReset();
+        initSimpleRTC();
+        initAlarmList();
+    }
+
+    private synchronized void loop() {
+        updateSimpleRTC();
+        checkAndExecuteAlarms();
+        scheduleLoop();
+    }
+
+    /**
+     * 相当于固件的 millis()
+     */
+    protected long millis() {
+        return (System.nanoTime() - bootNanos) / 1000000L - bootOffsetMillis;
+    }
+
+    // 模拟重启：millis() 归零，FLASH保留
+    private void reboot() {
+        bootOffsetMillis += millis();
+        setup();
+        if (session != null) {
+            closeQuietly(session);
+            session = null;
+            sessionOutput = null;
+        }
+    }
+
+    // ========== RTC函数实现 ==========
+
+    private void initSimpleRTC() {
+        rtcStartMillis = millis();
+        rtcHour = 0;
+        rtcMinute = 0;
+        rtcSecond = 0;
+        rtcRunning = true;
+    }
+
+    private void updateSimpleRTC() {
+        if (!rtcRunning) return;
+
+        long totalSeconds = (millis() - rtcStartMillis) / 1000;
+        rtcHour = (int) (totalSeconds / 3600 % 24);
+        rtcMinute = (int) ((totalSeconds % 3600) / 60);
+        rtcSecond = (int) (totalSeconds % 60);
+    }
+
+    private String getSimpleTimeString() {
+        return String.format("%02d:%02d:%02d", rtcHour, rtcMinute, rtcSecond);
+    }
+
+    private long getTotalSeconds() {
+        return millis() / 1000;
+    }
+
+    // RTC 秒数：从 RTC 当天 0 点起算，跨天继续累加（AlarmScheduler 的时间基准）
+    private long getRtcSeconds() {
+        return (millis() - rtcStartMillis) / 1000;
+    }
+
+    private boolean setRTCTime(int hour, int minute, int second) {
+        if (hour > 23 || minute > 59 || second > 59) {
+            return false;
+        }
+
+        long targetSeconds = hour * 3600L + minute * 60L + second;
+        rtcStartMillis = millis() - targetSeconds * 1000L;
+        rtcHour = hour;
+        rtcMinute = minute;
+        rtcSecond = second;
+
+        // 设置时间后按新时间重新计算闹钟
+        resetAlarmsState();
+        return true;
+    }
+
+    // ========== FLASH存储函数实现 ==========
+
+    private void saveAlarmsToFlash() {
+        int activeCount = 0;
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            if (alarmList[i].enabled && alarmList[i].taskType != TASK_NONE) {
+                activeCount++;
+            }
+        }
+
+        SavedAlarm[] saved = new SavedAlarm[activeCount];
+        int savedIndex = 0;
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            AlarmTask alarm = alarmList[i];
+            if (alarm.enabled && alarm.taskType != TASK_NONE) {
+                saved[savedIndex++] = new SavedAlarm(alarm.hour, alarm.minute, alarm.second, alarm.taskType);
+            }
+        }
+        flash = saved;
+        flashWrites++;
+        alarmsDirty = false;
+    }
+
+    private void loadAlarmsFromFlash() {
+        for (int i = 0; i < flash.length && i < MAX_ALARMS; i++) {
+            SavedAlarm saved = flash[i];
+            if (saved.taskType != TASK_NONE) {
+                addAlarmTask(saved.hour, saved.minute, saved.second, saved.taskType, false);
+            }
+        }
+    }
+
+    private void resetAlarmsState() {
+        scheduler.rebase(getRtcSeconds());
+    }
+
+    // 按闹钟表重建调度（ALARM_BATCH 回滚后）
+    private void rebuildSchedule() {
+        scheduler.clear();
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            updateSchedule(i);
+        }
+    }
+
+    private void updateSchedule(int alarmId) {
+        AlarmTask alarm = alarmList[alarmId];
+        if (alarm.enabled && alarm.taskType != TASK_NONE) {
+            scheduler.schedule(alarmId, alarm.hour * 3600 + alarm.minute * 60 + alarm.second, getRtcSeconds());
+        } else {
+            scheduler.cancel(alarmId);
+        }
+    }
+
+    // ========== 闹钟任务列表函数 ==========
+
+    private void initAlarmList() {
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            AlarmTask alarm = alarmList[i];
+            alarm.id = i;
+            alarm.enabled = false;
+            alarm.hour = 0;
+            alarm.minute = 0;
+            alarm.second = 0;
+            alarm.taskType = TASK_NONE;
+        }
+        nextAlarmId = 0;
+        scheduler.clear();
+
+        loadAlarmsFromFlash();
+        resetAlarmsState();
+    }
+
+    private int addAlarmTask(int hour, int minute, int second, int taskType, boolean saveToFlash) {
+        if (nextAlarmId >= MAX_ALARMS) {
+            return -1;
+        }
+
+        if (hour > 23 || minute > 59 || second > 59) {
+            return -1;
+        }
+
+        AlarmTask alarm = alarmList[nextAlarmId];
+        alarm.enabled = true;
+        alarm.hour = hour;
+        alarm.minute = minute;
+        alarm.second = second;
+        alarm.taskType = taskType;
+
+        int addedId = nextAlarmId;
+        nextAlarmId++;
+        updateSchedule(addedId);
+
+        if (saveToFlash) {
+            saveAlarmsToFlash();
+        }
+        return addedId;
+    }
+
+    private boolean setAlarmEnabled(int alarmId, boolean enabled, boolean saveToFlash) {
+        if (alarmId >= MAX_ALARMS) {
+            return false;
+        }
+
+        alarmList[alarmId].enabled = enabled;
+        updateSchedule(alarmId);
+
+        if (saveToFlash) {
+            saveAlarmsToFlash();
+        }
+        return true;
+    }
+
+    private boolean deleteAlarm(int alarmId, boolean saveToFlash) {
+        if (alarmId >= MAX_ALARMS) {
+            return false;
+        }
+
+        alarmList[alarmId].enabled = false;
+        alarmList[alarmId].taskType = TASK_NONE;
+        scheduler.cancel(alarmId);
+
+        // 如果删除的是最后一个闹钟，调整nextAlarmId
+        if (alarmId == nextAlarmId - 1) {
+            while (nextAlarmId > 0 && !alarmList[nextAlarmId - 1].enabled) {
+                nextAlarmId--;
+            }
+        }
+
+        if (saveToFlash) {
+            saveAlarmsToFlash();
+        }
+        return true;
+    }
+
+    private void clearAllAlarms(boolean saveToFlash) {
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            alarmList[i].enabled = false;
+            alarmList[i].taskType = TASK_NONE;
+        }
+        nextAlarmId = 0;
+        scheduler.clear();
+
+        if (saveToFlash) {
+            flash = new SavedAlarm[0];
+            flashWrites++;
+            alarmsDirty = false;
+        }
+    }
+
+    // 只检查堆顶：没有到期的闹钟时不遍历闹钟表
+    private void checkAndExecuteAlarms() {
+        if (!rtcRunning) return;
+
+        int alarmId;
+        while ((alarmId = scheduler.poll(getRtcSeconds())) >= 0) {
+            int taskType = alarmList[alarmId].taskType;
+            executeTask(taskType, alarmId);
+            if (taskType == TASK_RESTART) {
+                // 已重启，闹钟表重新加载
+                return;
+            }
+        }
+    }
+
+    // 闹钟任务不发送命令响应，改为上报一个 EVENT 帧，避免与 app 的在途命令混淆
+    private void executeTask(int taskType, int alarmId) {
+        switch (taskType) {
+            case TASK_RELAY_ON:
+                relayState = true;
+                break;
+            case TASK_RELAY_OFF:
+                relayState = false;
+                break;
+            case TASK_RELAY_TOGGLE:
+                relayState = !relayState;
+                break;
+            case TASK_RESTART:
+                sendAlarmEvent(alarmId, taskType);
+                reboot();
+                return;
+            default:
+                // TIME_SEND / TIME_RECV：事件中带有设备时间
+                break;
+        }
+        sendAlarmEvent(alarmId, taskType);
+    }
+
+    // EVENT:ALARM=ID,TASK=任务,RELAY=ON|OFF,TIME=HH:MM:SS
+    private void sendAlarmEvent(int alarmId, int taskType) {
+        sendResponse("EVENT:ALARM=" + alarmId
+                + ",TASK=" + taskTypeToString(taskType)
+                + ",RELAY=" + (relayState ? "ON" : "OFF")
+                + ",TIME=" + getSimpleTimeString());
+    }
+
+    static String taskTypeToString(int taskType) {
+        switch (taskType) {
+            case TASK_NONE: return "NONE";
+            case TASK_RELAY_ON: return "RELAY_ON";
+            case TASK_RELAY_OFF: return "RELAY_OFF";
+            case TASK_RELAY_TOGGLE: return "RELAY_TOGGLE";
+            case TASK_RESTART: return "RESTART";
+            case TASK_TIME_SEND: return "TIME_SEND";
+            case TASK_TIME_RECV: return "TIME_RECV";
+            default: return "UNKNOWN";
+        }
+    }
+
+    private String getAlarmListString() {
+        StringBuilder listStr = new StringBuilder("ALARM_LIST:");
+        boolean first = true;
+
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            AlarmTask alarm = alarmList[i];
+            if (alarm.enabled && alarm.taskType != TASK_NONE) {
+                if (!first) listStr.append(';');
+                first = false;
+
+                listStr.append('#').append(i)
+                        .append('=').append(alarm.hour)
+                        .append(':').append(alarm.minute)
+                        .append(':').append(alarm.second)
+                        .append('-').append(taskTypeToString(alarm.taskType))
+                        .append('-').append(alarm.enabled ? "ENABLED" : "DISABLED");
+            }
+        }
+
+        if (first) {
+            listStr.append("EMPTY");
+        }
+        return listStr.toString();
+    }
+
+    // ========== 接收处理 ==========
+
+    private void onByte(int b) {
+        if (!processReceivedData(b)) {
+            return;
+        }
+
+        if (rxBuffer[1] == FRAME_HEADER_2_RELIABLE) {
+            framesReceived++;
+            handleReliableFrame(expectedLength);
+            rxIndex = 0;
+            frameStarted = false;
+            expectedLength = 0;
+            return;
+        }
+
+        int dataLength = rxBuffer[2];
+        int receivedChecksum = rxBuffer[3 + dataLength];
+
+        int calculatedChecksum = 0;
+        for (int i = 0; i < dataLength; i++) {
+            calculatedChecksum = (calculatedChecksum + rxBuffer[3 + i]) & 0xFF;
+        }
+
+        framesReceived++;
+        if (calculatedChecksum == receivedChecksum) {
+            // 按请求的帧格式回复
+            reliableMode = false;
+            dispatchPayload(3, dataLength);
+        } else {
+            checksumErrors++;
+        }
+
+        // 重置接收状态
+        rxIndex = 0;
+        frameStarted = false;
+        expectedLength = 0;
+    }
+
+    private boolean processReceivedData(int b) {
+        // 等待帧头
+        if (!frameStarted) {
+            if (b == FRAME_HEADER_1) {
+                rxBuffer[0] = b;
+                rxIndex = 1;
+            } else if (rxIndex == 1 && (b == FRAME_HEADER_2 || b == FRAME_HEADER_2_RELIABLE)) {
+                rxBuffer[1] = b;
+                rxIndex = 2;
+                frameStarted = true;
+            } else {
+                rxIndex = 0;
+            }
+            return false;
+        }
+
+        rxBuffer[rxIndex++] = b;
+
+        if (rxIndex == 3) {
+            expectedLength = b;
+            if (expectedLength > MAX_DATA_LENGTH) {
+                rxIndex = 0;
+                frameStarted = false;
+                return false;
+            }
+        }
+
+        if (rxBuffer[1] == FRAME_HEADER_2_RELIABLE) {
+            // 可靠帧允许长度为 0（控制帧）
+            return rxIndex == RELIABLE_OVERHEAD + expectedLength;
+        }
+
+        if (rxIndex >= 4 && expectedLength > 0) {
+            int totalLength = 4 + expectedLength;
+            if (rxIndex == totalLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatchPayload(int offset, int length) {
+        // 首字节是操作码的为二进制 v2 命令
+        if (length > 0 && rxBuffer[offset] < ProtocolV2.OPCODE_LIMIT) {
+            handleBinaryTask(offset, length);
+        } else {
+            handleTaskRun(offset, length);
+        }
+    }
+
+    // ========== 可靠帧 ARQ（与固件 handleReliableFrame 一致） ==========
+
+    private void handleReliableFrame(int length) {
+        int crc = Crc16.INITIAL;
+        for (int i = 2; i < 5 + length; i++) {
+            crc = Crc16.update(crc, rxBuffer[i]);
+        }
+        if (crc != ((rxBuffer[5 + length] << 8) | rxBuffer[6 + length])) {
+            checksumErrors++;
+            arqRequestRetransmit();
+            return;
+        }
+
+        reliableMode = true;
+        int seq = rxBuffer[3];
+        arqOnAck(rxBuffer[4]);
+        if (length == 0) {
+            if (seq == FrameFormat.CONTROL_NAK) {
+                arqResend(rxBuffer[4]);
+            }
+            return;
+        }
+
+        int distance = (seq - arqRxExpected) & 0xFF;
+        if (distance == 0) {
+            // 先推进期望序号，响应帧捎带的确认号才包含这一帧
+            arqRxExpected = (arqRxExpected + 1) & 0xFF;
+            arqNakSent = false;
+            dispatchPayload(5, length);
+            int slot = arqRxExpected % ARQ_WINDOW;
+            while (arqRxBuffered[slot]) {
+                arqRxBuffered[slot] = false;
+                arqRxExpected = (arqRxExpected + 1) & 0xFF;
+                System.arraycopy(arqRxData[slot], 0, rxBuffer, 5, arqRxLength[slot]);
+                dispatchPayload(5, arqRxLength[slot]);
+                slot = arqRxExpected % ARQ_WINDOW;
+            }
+        } else if (distance < ARQ_WINDOW) {
+            int slot = seq % ARQ_WINDOW;
+            System.arraycopy(rxBuffer, 5, arqRxData[slot], 0, length);
+            arqRxLength[slot] = length;
+            arqRxBuffered[slot] = true;
+            arqRequestRetransmit();
+        } else {
+            // 重复帧：对端没收到响应，重发所有未确认的帧
+            if (arqTxBase == arqTxSeq) {
+                sendControlFrame(FrameFormat.CONTROL_ACK);
+            }
+            for (int s = arqTxBase; s != arqTxSeq; s = (s + 1) & 0xFF) {
+                retransmissions++;
+                arqTransmit(s);
+            }
+        }
+    }
+
+    private void arqRequestRetransmit() {
+        if (!arqNakSent) {
+            arqNakSent = true;
+            sendControlFrame(FrameFormat.CONTROL_NAK);
+        }
+    }
+
+    private void arqOnAck(int ack) {
+        if (((ack - arqTxBase) & 0xFF) <= ((arqTxSeq - arqTxBase) & 0xFF)) {
+            arqTxBase = ack;
+        }
+    }
+
+    private void arqResend(int seq) {
+        if (((seq - arqTxBase) & 0xFF) < ((arqTxSeq - arqTxBase) & 0xFF)) {
+            retransmissions++;
+            arqTransmit(seq);
+        }
+    }
+
+    // HELLO 时双方从序号 0 重新开始
+    private void arqReset() {
+        reliableMode = false;
+        arqTxSeq = 0;
+        arqTxBase = 0;
+        arqRxExpected = 0;
+        arqNakSent = false;
+        for (int i = 0; i < ARQ_WINDOW; i++) {
+            arqRxBuffered[i] = false;
+        }
+    }
+
+    private void arqTransmit(int seq) {
+        int slot = seq % ARQ_WINDOW;
+        writeReliableFrame(seq, arqTxData[slot], arqTxLength[slot]);
+    }
+
+    // ========== 任务处理函数 ==========
+
+    private void handleTaskRun(int offset, int length) {
+        if (length == 0) {
+            sendErrorResponse("Empty task data");
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) rxBuffer[offset + i]);
+        }
+        String command = builder.toString();
+
+        if (command.equals("RELAY_ON")) {
+            executeRelayOn();
+        } else if (command.equals("RELAY_OFF")) {
+            executeRelayOff();
+        } else if (command.equals("RELAY_TOGGLE")) {
+            executeRelayToggle();
+        } else if (command.equals("GET_STATUS")) {
+            executeGetStatus();
+        } else if (command.equals("TIME_SEND")) {
+            executeTimeSend();
+        } else if (command.equals("TIME_RECV")) {
+            executeTimeRecv();
+        } else if (command.startsWith("SET_TIME=")) {
+            executeSetTime(command);
+        } else if (command.equals("GET_TIME")) {
+            executeGetTime();
+        } else if (command.startsWith("ADD_ALARM=")) {
+            executeAddAlarm(command);
+        } else if (command.equals("GET_ALARMS")) {
+            executeGetAlarms();
+        } else if (command.startsWith("ENABLE_ALARM=")) {
+            executeEnableAlarm(command);
+        } else if (command.startsWith("DELETE_ALARM=")) {
+            executeDeleteAlarm(command);
+        } else if (command.equals("CLEAR_ALARMS")) {
+            executeClearAlarms();
+        } else if (command.equals("RESTART")) {
+            executeRestart();
+        } else if (command.equals("HELLO")) {
+            arqReset();
+            sendResponse("HELLO_OK:VERSION=" + ProtocolV2.VERSION
+                    + ",FEATURES=" + FEATURES);
+        } else {
+            sendErrorResponse("Unknown command: " + command);
+        }
+    }
+
+    private void executeAddAlarm(String command) {
+        String params = command.substring(10);  // 跳过 "ADD_ALARM="
+
+        int comma1 = params.indexOf(',');
+        int comma2 = params.indexOf(',', comma1 + 1);
+        int comma3 = params.indexOf(',', comma2 + 1);
+
+        if (comma1 != -1 && comma2 != -1 && comma3 != -1) {
+            int hour = toUInt8(params.substring(0, comma1));
+            int minute = toUInt8(params.substring(comma1 + 1, comma2));
+            int second = toUInt8(params.substring(comma2 + 1, comma3));
+            String taskStr = params.substring(comma3 + 1);
+
+            int taskType = TASK_NONE;
+            if (taskStr.equals("RELAY_ON")) taskType = TASK_RELAY_ON;
+            else if (taskStr.equals("RELAY_OFF")) taskType = TASK_RELAY_OFF;
+            else if (taskStr.equals("RELAY_TOGGLE")) taskType = TASK_RELAY_TOGGLE;
+            else if (taskStr.equals("RESTART")) taskType = TASK_RESTART;
+            else if (taskStr.equals("TIME_SEND")) taskType = TASK_TIME_SEND;
+            else if (taskStr.equals("TIME_RECV")) taskType = TASK_TIME_RECV;
+
+            if (taskType != TASK_NONE) {
+                int alarmId = addAlarmTask(hour, minute, second, taskType, true);
+                if (alarmId >= 0) {
+                    sendResponse("ADD_ALARM_OK:ID=" + alarmId
+                            + ",TIME=" + hour + ":" + minute + ":" + second
+                            + ",TASK=" + taskStr);
+                } else {
+                    sendErrorResponse("Failed to add alarm: list full");
+                }
+            } else {
+                sendErrorResponse("Invalid task type. Use: RELAY_ON, RELAY_OFF, RELAY_TOGGLE, RESTART, TIME_SEND, TIME_RECV");
+            }
+        } else {
+            sendErrorResponse("Invalid format. Use: ADD_ALARM=HH,MM,SS,TASK");
+        }
+    }
+
+    private void executeGetAlarms() {
+        sendResponse("ALARMS_COUNT:" + getAlarmCount() + " LIST:" + getAlarmListString());
+    }
+
+    private void executeEnableAlarm(String command) {
+        String params = command.substring(13);  // 跳过 "ENABLE_ALARM="
+
+        int comma = params.indexOf(',');
+        if (comma != -1) {
+            int alarmId = toUInt8(params.substring(0, comma));
+            String stateStr = params.substring(comma + 1);
+
+            boolean enable = stateStr.equals("ENABLE");
+
+            if (setAlarmEnabled(alarmId, enable, true)) {
+                sendResponse((enable ? "ALARM_ENABLED_OK" : "ALARM_DISABLED_OK") + ":ID=" + alarmId);
+            } else {
+                sendErrorResponse("Invalid alarm ID");
+            }
+        } else {
+            sendErrorResponse("Invalid format. Use: ENABLE_ALARM=ID,STATE");
+        }
+    }
+
+    private void executeDeleteAlarm(String command) {
+        String params = command.substring(13);  // 跳过 "DELETE_ALARM="
+
+        int alarmId = toUInt8(params);
+
+        if (deleteAlarm(alarmId, true)) {
+            sendResponse("DELETE_ALARM_OK:ID=" + alarmId);
+        } else {
+            sendErrorResponse("Invalid alarm ID");
+        }
+    }
+
+    private void executeClearAlarms() {
+        clearAllAlarms(true);
+        sendResponse("CLEAR_ALARMS_OK");
+    }
+
+    private void executeTimeSend() {
+        sendResponse("RTC_TIME:" + getSimpleTimeString() + " TOTAL_SEC:" + getTotalSeconds());
+    }
+
+    private void executeTimeRecv() {
+        sendResponse("REQUEST_HOST_TIME:Send SET_TIME=HH,MM,SS");
+    }
+
+    private void executeSetTime(String command) {
+        String params = command.substring(9);  // 跳过 "SET_TIME="
+
+        int comma1 = params.indexOf(',');
+        int comma2 = params.indexOf(',', comma1 + 1);
+
+        if (comma1 != -1 && comma2 != -1) {
+            int hour = toUInt8(params.substring(0, comma1));
+            int minute = toUInt8(params.substring(comma1 + 1, comma2));
+            int second = toUInt8(params.substring(comma2 + 1));
+
+            if (setRTCTime(hour, minute, second)) {
+                sendResponse("SET_TIME_OK:" + getSimpleTimeString());
+            } else {
+                sendErrorResponse("Invalid time. Format: SET_TIME=HH,MM,SS (HH:0-23, MM:0-59, SS:0-59)");
+            }
+        } else {
+            sendErrorResponse("Invalid format. Use: SET_TIME=HH,MM,SS");
+        }
+    }
+
+    private void executeGetTime() {
+        // 固件收到数据时唤醒 loop() 先更新 RTC，这里直接更新
+        updateSimpleRTC();
+        sendResponse("TIME:" + getSimpleTimeString());
+    }
+
+    private void executeRelayOn() {
+        relayState = true;
+        sendResponse("RELAY_ON_OK");
+    }
+
+    private void executeRelayOff() {
+        relayState = false;
+        sendResponse("RELAY_OFF_OK");
+    }
+
+    private void executeRelayToggle() {
+        relayState = !relayState;
+        sendResponse("RELAY_TOGGLE_OK:" + (relayState ? "ON" : "OFF"));
+    }
+
+    private void executeGetStatus() {
+        updateSimpleRTC();
+        sendResponse("STATUS:"
+                + "RELAY=" + (relayState ? "ON" : "OFF") + ","
+                + "TIME=" + getSimpleTimeString() + ","
+                + "ALARMS=" + getAlarmCount() + ","
+                + "UPTIME=" + getTotalSeconds() + "s");
+    }
+
+    private void executeRestart() {
+        sendResponse("RESTART_OK:Device will restart in 1s");
+        reboot();
+    }
+
+    // ========== 二进制 v2 命令（与固件 binaryCommands 表一致） ==========
+
+    // 变长参数，由处理函数检查
+    private static final int VARIABLE_LENGTH = -2;
+
+    // 各操作码的参数长度，-1 表示未定义
+    private static final int[] BINARY_ARG_LENGTHS = {
+            -1, // 0x00
+            1,  // HELLO: 客户端版本
+            0, 0, 0, 0, 0, 0, 0,  // RELAY_ON ~ TIME_RECV
+            3,  // SET_TIME: 时 分 秒
+            0,  // GET_TIME
+            4,  // ADD_ALARM: 时 分 秒 任务
+            0,  // GET_ALARMS
+            2,  // ENABLE_ALARM: ID 状态
+            1,  // DELETE_ALARM: ID
+            0,  // CLEAR_ALARMS
+            VARIABLE_LENGTH, // ALARM_BATCH: 标志 操作...
+            1   // GET_ALARMS_PAGE: 起始 ID
+    };
+
+    private final byte[] binaryOut = new byte[MAX_DATA_LENGTH];
+    private int binaryOutLength;
+
+    // 从 firstId 起写入启用的闹钟直到响应装满，返回下一页起始 ID（写完为 PAGE_END）
+    private int putAlarmEntries(int firstId) {
+        for (int i = firstId; i < MAX_ALARMS; i++) {
+            AlarmTask alarm = alarmList[i];
+            if (!alarm.enabled || alarm.taskType == TASK_NONE) {
+                continue;
+            }
+            if (binaryOutLength + ProtocolV2.ALARM_ENTRY_LENGTH > MAX_DATA_LENGTH) {
+                return i;
+            }
+            put(i);
+            put(alarm.hour);
+            put(alarm.minute);
+            put(alarm.second);
+            put(alarm.taskType);
+        }
+        return ProtocolV2.PAGE_END;
+    }
+
+    private void handleBinaryTask(int offset, int length) {
+        int opcode = rxBuffer[offset];
+        int argLength = opcode < BINARY_ARG_LENGTHS.length ? BINARY_ARG_LENGTHS[opcode] : -1;
+        int status;
+        binaryOut[0] = (byte) (opcode | ProtocolV2.RESPONSE_FLAG);
+        binaryOutLength = 2;
+
+        if (argLength == -1) {
+            status = ProtocolV2.STATUS_UNKNOWN_OPCODE;
+        } else if (argLength != VARIABLE_LENGTH && length - 1 != argLength) {
+            status = ProtocolV2.STATUS_BAD_LENGTH;
+        } else {
+            status = executeBinary(opcode, offset + 1, length - 1);
+        }
+
+        binaryOut[1] = (byte) status;
+        sendDataFrame(binaryOut, status == ProtocolV2.STATUS_OK ? binaryOutLength : 2);
+
+        if (status == ProtocolV2.STATUS_OK && opcode == ProtocolV2.OP_RESTART) {
+            reboot();
+        }
+    }
+
+    private int executeBinary(int opcode, int args, int argLength) {
+        switch (opcode) {
+            case ProtocolV2.OP_HELLO:
+                arqReset();
+                put(ProtocolV2.VERSION);
+                put(MAX_ALARMS);
+                put(FEATURES);
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_RELAY_ON:
+                relayState = true;
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_RELAY_OFF:
+                relayState = false;
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_RELAY_TOGGLE:
+                relayState = !relayState;
+                put(relayState ? 1 : 0);
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_GET_STATUS:
+                updateSimpleRTC();
+                put(relayState ? 1 : 0);
+                putTime();
+                put(getAlarmCount());
+                putUInt32(getTotalSeconds());
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_RESTART:
+            case ProtocolV2.OP_TIME_RECV:
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_TIME_SEND:
+                putTime();
+                putUInt32(getTotalSeconds());
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_SET_TIME:
+                if (!setRTCTime(rxBuffer[args], rxBuffer[args + 1], rxBuffer[args + 2])) {
+                    return ProtocolV2.STATUS_INVALID_TIME;
+                }
+                putTime();
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_GET_TIME:
+                updateSimpleRTC();
+                putTime();
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_ADD_ALARM: {
+                int hour = rxBuffer[args];
+                int minute = rxBuffer[args + 1];
+                int second = rxBuffer[args + 2];
+                int taskType = rxBuffer[args + 3];
+                if (taskType <= TASK_NONE || taskType > TASK_TIME_RECV) {
+                    return ProtocolV2.STATUS_INVALID_TASK;
+                }
+                if (hour > 23 || minute > 59 || second > 59) {
+                    return ProtocolV2.STATUS_INVALID_TIME;
+                }
+                int alarmId = addAlarmTask(hour, minute, second, taskType, true);
+                if (alarmId < 0) {
+                    return ProtocolV2.STATUS_LIST_FULL;
+                }
+                put(alarmId);
+                put(hour);
+                put(minute);
+                put(second);
+                put(taskType);
+                return ProtocolV2.STATUS_OK;
+            }
+            case ProtocolV2.OP_GET_ALARMS:
+                put(getAlarmCount());
+                putAlarmEntries(0);
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_GET_ALARMS_PAGE: {
+                int firstId = rxBuffer[args] & 0xFF;
+                put(getAlarmCount());
+                put(firstId);
+                int nextIndex = binaryOutLength;
+                put(ProtocolV2.PAGE_END);
+                binaryOut[nextIndex] = (byte) putAlarmEntries(firstId);
+                return ProtocolV2.STATUS_OK;
+            }
+            case ProtocolV2.OP_ENABLE_ALARM: {
+                int alarmId = rxBuffer[args];
+                boolean enable = rxBuffer[args + 1] != 0;
+                if (!setAlarmEnabled(alarmId, enable, true)) {
+                    return ProtocolV2.STATUS_INVALID_ALARM_ID;
+                }
+                put(alarmId);
+                put(enable ? 1 : 0);
+                return ProtocolV2.STATUS_OK;
+            }
+            case ProtocolV2.OP_DELETE_ALARM: {
+                int alarmId = rxBuffer[args];
+                if (!deleteAlarm(alarmId, true)) {
+                    return ProtocolV2.STATUS_INVALID_ALARM_ID;
+                }
+                put(alarmId);
+                return ProtocolV2.STATUS_OK;
+            }
+            case ProtocolV2.OP_CLEAR_ALARMS:
+                clearAllAlarms(true);
+                return ProtocolV2.STATUS_OK;
+            case ProtocolV2.OP_ALARM_BATCH:
+                return executeAlarmBatch(args, argLength);
+            default:
+                return ProtocolV2.STATUS_UNKNOWN_OPCODE;
+        }
+    }
+
+    // [标志][操作...] -> [已执行操作数][新增闹钟 ID...]，任一操作失败时恢复执行前的闹钟表
+    private int executeAlarmBatch(int args, int argLength) {
+        if (argLength < 1) {
+            return ProtocolV2.STATUS_BAD_LENGTH;
+        }
+        for (int i = 0; i < MAX_ALARMS; i++) {
+            alarmSnapshot[i].copyFrom(alarmList[i]);
+        }
+        int savedNextId = nextAlarmId;
+
+        int status = ProtocolV2.STATUS_OK;
+        int applied = 0;
+        put(0);
+        int i = 1;
+        while (i < argLength && status == ProtocolV2.STATUS_OK) {
+            int opLength = ProtocolV2.batchOpLength(rxBuffer[args + i]);
+            if (opLength == 0 || i + opLength > argLength) {
+                status = ProtocolV2.STATUS_BAD_LENGTH;
+                break;
+            }
+            status = applyBatchOp(args + i);
+            i += opLength;
+            applied++;
+        }
+
+        if (status != ProtocolV2.STATUS_OK) {
+            for (int j = 0; j < MAX_ALARMS; j++) {
+                alarmList[j].copyFrom(alarmSnapshot[j]);
+            }
+            nextAlarmId = savedNextId;
+            rebuildSchedule();
+            return status;
+        }
+        binaryOut[2] = (byte) applied;
+        if (applied > 0) {
+            alarmsDirty = true;
+        }
+        if ((rxBuffer[args] & ProtocolV2.BATCH_FLAG_COMMIT) != 0 && alarmsDirty) {
+            saveAlarmsToFlash();
+        }
+        return ProtocolV2.STATUS_OK;
+    }
+
+    private int applyBatchOp(int op) {
+        switch (rxBuffer[op]) {
+            case ProtocolV2.BATCH_DELETE:
+                return deleteAlarm(rxBuffer[op + 1], false)
+                        ? ProtocolV2.STATUS_OK : ProtocolV2.STATUS_INVALID_ALARM_ID;
+            case ProtocolV2.BATCH_ENABLE:
+                return setAlarmEnabled(rxBuffer[op + 1], rxBuffer[op + 2] != 0, false)
+                        ? ProtocolV2.STATUS_OK : ProtocolV2.STATUS_INVALID_ALARM_ID;
+            case ProtocolV2.BATCH_ADD: {
+                int taskType = rxBuffer[op + 4];
+                if (taskType <= TASK_NONE || taskType > TASK_TIME_RECV) {
+                    return ProtocolV2.STATUS_INVALID_TASK;
+                }
+                if (rxBuffer[op + 1] > 23 || rxBuffer[op + 2] > 59 || rxBuffer[op + 3] > 59) {
+                    return ProtocolV2.STATUS_INVALID_TIME;
+                }
+                int alarmId = addAlarmTask(rxBuffer[op + 1], rxBuffer[op + 2], rxBuffer[op + 3], taskType, false);
+                if (alarmId < 0) {
+                    return ProtocolV2.STATUS_LIST_FULL;
+                }
+                if (rxBuffer[op + 5] == 0) {
+                    setAlarmEnabled(alarmId, false, false);
+                }
+                put(alarmId);
+                return ProtocolV2.STATUS_OK;
+            }
+            case ProtocolV2.BATCH_CLEAR:
+                clearAllAlarms(false);
+                return ProtocolV2.STATUS_OK;
+            default:
+                return ProtocolV2.STATUS_BAD_LENGTH;
+        }
+    }
+
+    private void put(int value) {
+        binaryOut[binaryOutLength++] = (byte) value;
+    }
+
+    private void putTime() {
+        put(rtcHour);
+        put(rtcMinute);
+        put(rtcSecond);
+    }
+
+    private void putUInt32(long value) {
+        put((int) value);
+        put((int) (value >>> 8));
+        put((int) (value >>> 16));
+        put((int) (value >>> 24));
+    }
+
+    // ========== 辅助函数 ==========
+
+    // 等价于 Arduino String::toInt() 后截断为 uint8_t
+    private static int toUInt8(String text) {
+        int i = 0;
+        int length = text.length();
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            value = value * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        return (int) ((negative ? -value : value) & 0xFF);
+    }
+
+    private void sendResponse(String message) {
+        int responseLen = Math.min(message.length(), MAX_DATA_LENGTH);
+        byte[] responseData = new byte[responseLen];
+        for (int i = 0; i < responseLen; i++) {
+            responseData[i] = (byte) message.charAt(i);
+        }
+        sendDataFrame(responseData, responseLen);
+    }
+
+    private void sendErrorResponse(String error) {
+        sendResponse("ERROR:" + error);
+    }
+
+    private void sendDataFrame(byte[] data, int length) {
+        if (reliableMode) {
+            sendReliableFrame(data, length);
+            return;
+        }
+
+        byte[] frame = new byte[4 + length];
+        int idx = 0;
+
+        frame[idx++] = (byte) FRAME_HEADER_1;
+        frame[idx++] = (byte) FRAME_HEADER_2;
+        frame[idx++] = (byte) length;
+
+        int checksum = 0;
+        for (int i = 0; i < length; i++) {
+            frame[idx++] = data[i];
+            checksum += data[i] & 0xFF;
+        }
+        frame[idx++] = (byte) checksum;
+        writeFrame(frame, idx);
+    }
+
+    // 可靠模式下发送的帧保留在窗口中，收到 NAK 或重复帧时重发
+    private void sendReliableFrame(byte[] data, int length) {
+        if (((arqTxSeq - arqTxBase) & 0xFF) >= ARQ_WINDOW) {
+            // 窗口已满，放弃最旧的未确认帧
+            arqTxBase = (arqTxBase + 1) & 0xFF;
+        }
+        int slot = arqTxSeq % ARQ_WINDOW;
+        System.arraycopy(data, 0, arqTxData[slot], 0, length);
+        arqTxLength[slot] = length;
+        int seq = arqTxSeq;
+        arqTxSeq = (arqTxSeq + 1) & 0xFF;
+        arqTransmit(seq);
+    }
+
+    private void sendControlFrame(int type) {
+        writeReliableFrame(type, null, 0);
+    }
+
+    private void writeReliableFrame(int seq, byte[] data, int length) {
+        byte[] frame = new byte[RELIABLE_OVERHEAD + length];
+        frame[0] = (byte) FRAME_HEADER_1;
+        frame[1] = (byte) FRAME_HEADER_2_RELIABLE;
+        frame[2] = (byte) length;
+        frame[3] = (byte) seq;
+        frame[4] = (byte) arqRxExpected;
+        if (length > 0) {
+            System.arraycopy(data, 0, frame, 5, length);
+        }
+        int crc = Crc16.compute(frame, 2, length + 3);
+        frame[5 + length] = (byte) (crc >>> 8);
+        frame[6 + length] = (byte) crc;
+        writeFrame(frame, frame.length);
+    }
+
+    private void writeFrame(byte[] frame, int idx) {
+        if (sessionOutput == null) {
+            return;
+        }
+        try {
+            sessionOutput.write(frame, 0, idx);
+            sessionOutput.flush();
+            framesSent++;
+        } catch (IOException e) {
+            // 连接已断开，丢弃响应
+        }
+    }
+}
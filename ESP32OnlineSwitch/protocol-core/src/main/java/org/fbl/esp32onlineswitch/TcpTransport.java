@@ -0,0 +1,93 @@
+// TcpTransport.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * 基于本地TCP的传输通道，地址格式 host:port
+ * 用于连接运行在 PC 上的 SimulatedSwitch 或 串口-TCP 桥
+ */
+public class TcpTransport implements SerialTransport {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 3000;
+
+    private final String address;
+    private final InetSocketAddress socketAddress;
+    private final int connectTimeoutMs;
+    private final Socket socket = new Socket();
+
+    public TcpTransport(String address, int connectTimeoutMs) throws IOException {
+        this.address = address;
+        this.socketAddress = parseAddress(address);
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.connect(socketAddress, connectTimeoutMs);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    private static InetSocketAddress parseAddress(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1) {
+            throw new IOException("地址格式无效，应为 host:port : " + address);
+        }
+        try {
+            int port = Integer.parseInt(address.substring(colon + 1));
+            return new InetSocketAddress(address.substring(0, colon), port);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("地址格式无效，应为 host:port : " + address, e);
+        }
+    }
+
+    public static class Factory implements SerialTransport.Factory {
+        private final int connectTimeoutMs;
+
+        public Factory() {
+            this(DEFAULT_CONNECT_TIMEOUT_MS);
+        }
+
+        public Factory(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public SerialTransport create(String address) throws IOException {
+            return new TcpTransport(address, connectTimeoutMs);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+// TrafficRecorder.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 链路原始字节记录器，挂在 BluetoothSerialService 的读/写边界上
+ * 记录追加到预先映射的分段文件（内存映射），读写线程只做一次内存拷贝；
+ * 下一个分段由后台线程提前创建并映射，切换时没准备好的记录直接丢弃并计数，不等待磁盘。
+ *
+ * 分段文件格式（小端）：
+ *   头部 [magic 4][格式版本 4][开始时的墙钟毫秒 8][开始时的 nanoTime 8]
+ *   记录 [相对开始的纳秒 8][方向 1][长度 2][数据]，方向为 0 表示后面没有记录
+ */
+public final class TrafficRecorder implements Closeable {
+    private static final Logger LOG = Logger.getLogger("TrafficRecorder");
+
+    // 设备 -> app
+    public static final int IN = 1;
+    // app -> 设备
+    public static final int OUT = 2;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    static final int MAGIC = 0x54575345;
+    static final int FORMAT_VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 24;
+    static final int RECORD_HEADER_LENGTH = 11;
+    static final int MAX_RECORD_LENGTH = 0xFFFF;
+    static final String SEGMENT_PREFIX = "traffic-";
+    static final String SEGMENT_SUFFIX = ".bin";
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final ExecutorService preparer;
+
+    // 以下两项只由 preparer 线程访问（构造时除外）
+    private final ArrayDeque<File> segmentFiles = new ArrayDeque<>();
+    private int nextIndex;
+
+    // 以下字段由 this 保护
+    private Segment current;
+    private Future<Segment> prepared;
+    private boolean closed;
+
+    // 统计
+    private volatile long recordsWritten = 0;
+    private volatile long bytesRecorded = 0;
+    private volatile long recordsDropped = 0;
+    private volatile long segmentsCreated = 0;
+
+    public TrafficRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param directory 分段文件所在目录，已有的记录不会被覆盖
+     * @param segmentSize 每个分段的字节数
+     * @param maxSegments 本次记录最多保留的分段数（含提前准备的一个），超过时删除最旧的
+     */
+    public TrafficRecorder(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_LENGTH + RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments: " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建记录目录: " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.nextIndex = lastSegmentIndex(directory) + 1;
+        this.preparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TrafficRecorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        current = createSegment();
+        prepared = prepareNext();
+    }
+
+    /**
+     * 追加一条记录，由读写线程调用；不做磁盘 I/O
+     * @param direction IN 或 OUT
+     */
+    public void record(int direction, byte[] data, int offset, int length) {
+        long time = System.nanoTime() - startNanos;
+        synchronized (this) {
+            if (closed || length <= 0) {
+                return;
+            }
+            int need = RECORD_HEADER_LENGTH + length;
+            if (length > MAX_RECORD_LENGTH || need > segmentSize - SEGMENT_HEADER_LENGTH
+                    || (current.buffer.remaining() < need && !rollOver())) {
+                recordsDropped++;
+                return;
+            }
+            MappedByteBuffer buffer = current.buffer;
+            int start = buffer.position();
+            buffer.putLong(time);
+            buffer.put((byte) 0);
+            buffer.putShort((short) length);
+            buffer.put(data, offset, length);
+            // 最后写方向，进程中途退出时读取方不会看到写了一半的记录
+            buffer.put(start + 8, (byte) direction);
+            recordsWritten++;
+            bytesRecorded += length;
+        }
+    }
+
+    // 调用时持有 this；只切换到已经准备好的分段
+    private boolean rollOver() {
+        if (!prepared.isDone()) {
+            return false;
+        }
+        Segment next;
+        try {
+            next = prepared.get();
+        } catch (ExecutionException | InterruptedException e) {
+            LOG.log(Level.WARNING, "创建记录分段失败", e);
+            prepared = prepareNext();
+            return false;
+        }
+        current = next;
+        prepared = prepareNext();
+        return true;
+    }
+
+    private Future<Segment> prepareNext() {
+        return preparer.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return createSegment();
+            }
+        });
+    }
+
+    private Segment createSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.ROOT, "%s%06d%s", SEGMENT_PREFIX, nextIndex++, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // 映射在通道关闭后仍然有效
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(startMillis);
+        buffer.putLong(startNanos);
+
+        segmentFiles.addLast(file);
+        while (segmentFiles.size() > maxSegments) {
+            File oldest = segmentFiles.removeFirst();
+            if (!oldest.delete()) {
+                LOG.warning("删除旧记录分段失败: " + oldest);
+            }
+        }
+        segmentsCreated++;
+        return new Segment(file, buffer);
+    }
+
+    /**
+     * 停止记录，把当前分段写回磁盘；提前准备但没有用到的分段被删除
+     */
+    @Override
+    public void close() {
+        final Segment last;
+        final Future<Segment> unused;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = current;
+            unused = prepared;
+        }
+        last.buffer.force();
+        preparer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File file = unused.get().file;
+                    segmentFiles.remove(file);
+                    if (!file.delete()) {
+                        LOG.warning("删除未使用的记录分段失败: " + file);
+                    }
+                } catch (ExecutionException | InterruptedException e) {
+                    // 没有创建成功，不需要删除
+                }
+            }
+        });
+        preparer.shutdown();
+    }
+
+    /**
+     * 等待后台的分段创建和清理完成（测试和导出前使用）
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return preparer.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public long getBytesRecorded() {
+        return bytesRecorded;
+    }
+
+    /**
+     * @return 因分段未准备好或记录过长而丢弃的记录数
+     */
+    public long getRecordsDropped() {
+        return recordsDropped;
+    }
+
+    public long getSegmentsCreated() {
+        return segmentsCreated;
+    }
+
+    static boolean isSegmentFile(String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static int lastSegmentIndex(File directory) {
+        int last = 0;
+        String[] names = directory.list();
+        if (names == null) {
+            return last;
+        }
+        for (String name : names) {
+            if (isSegmentFile(name)) {
+                int index = DeviceState.parseInt(name.substring(SEGMENT_PREFIX.length()));
+                last = Math.max(last, index);
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,231 @@
+// TrafficReplayer.java
+package org.fbl.esp32onlineswitch;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放 TrafficRecorder 记录的链路字节
+ * 可以按记录时的间隔（speed = WIRE_SPEED，或其倍数）或不等待（AS_FAST_AS_POSSIBLE）回放，
+ * 把设备发出的字节重新送入 FrameDecoder，或把 app 发出的字节写给 SimulatedSwitch。
+ * 现场抓到的记录因此可以直接作为回归测试和性能测试的输入。
+ */
+public final class TrafficReplayer {
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    public static final double WIRE_SPEED = 1;
+
+    public interface Listener {
+        /**
+         * @param direction TrafficRecorder.IN 或 OUT
+         * @param timeNanos 相对记录开始的纳秒数
+         * @param buffer 数据所在缓冲区（回调返回后会被覆盖）
+         */
+        void onRecord(int direction, long timeNanos, byte[] buffer, int offset, int length);
+    }
+
+    private final List<File> segments;
+    private final byte[] data = new byte[TrafficRecorder.MAX_RECORD_LENGTH];
+
+    // 回放节奏：本次记录会话的开始时间与对应的回放时间
+    private long sessionStartNanos;
+    private long firstRecordNanos;
+    private long replayStartNanos;
+
+    /**
+     * @param directory TrafficRecorder 的记录目录，按分段编号顺序回放
+     */
+    public TrafficReplayer(File directory) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return TrafficRecorder.isSegmentFile(name);
+            }
+        });
+        if (files == null) {
+            throw new IOException("无法读取记录目录: " + directory);
+        }
+        // 编号是定长的，按文件名排序即按记录顺序
+        Arrays.sort(files);
+        this.segments = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(files)));
+    }
+
+    public List<File> getSegments() {
+        return segments;
+    }
+
+    /**
+     * 按记录顺序回调每条记录（在调用线程上）
+     * @param speed 回放倍速，WIRE_SPEED 为原速，AS_FAST_AS_POSSIBLE 不等待
+     * @return 回放的记录数
+     */
+    public long replay(Listener listener, double speed) throws IOException, InterruptedException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed: " + speed);
+        }
+        sessionStartNanos = 0;
+        replayStartNanos = 0;
+        long records = 0;
+        for (File segment : segments) {
+            records += replaySegment(segment, listener, speed);
+        }
+        return records;
+    }
+
+    private long replaySegment(File segment, Listener listener, double speed)
+            throws IOException, InterruptedException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < TrafficRecorder.SEGMENT_HEADER_LENGTH
+                || buffer.getInt() != TrafficRecorder.MAGIC
+                || buffer.getInt() != TrafficRecorder.FORMAT_VERSION) {
+            throw new IOException("不是流量记录分段: " + segment);
+        }
+        buffer.getLong();
+        long sessionStart = buffer.getLong();
+        if (sessionStart != sessionStartNanos) {
+            // 新的记录会话，时间戳重新从 0 开始
+            sessionStartNanos = sessionStart;
+            replayStartNanos = 0;
+        }
+
+        long records = 0;
+        while (buffer.remaining() >= TrafficRecorder.RECORD_HEADER_LENGTH) {
+            long time = buffer.getLong();
+            int direction = buffer.get();
+            int length = buffer.getShort() & 0xFFFF;
+            if (direction == 0 || length > buffer.remaining()) {
+                break;
+            }
+            buffer.get(data, 0, length);
+            pace(time, speed);
+            listener.onRecord(direction, time, data, 0, length);
+            records++;
+        }
+        return records;
+    }
+
+    private void pace(long time, double speed) throws InterruptedException {
+        if (replayStartNanos == 0) {
+            replayStartNanos = System.nanoTime();
+            firstRecordNanos = time;
+            return;
+        }
+        if (speed == AS_FAST_AS_POSSIBLE) {
+            return;
+        }
+        long due = replayStartNanos + (long) ((time - firstRecordNanos) / speed);
+        long delay = due - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * 把设备发出的字节（IN）按原来的分块送入解码器
+     * @return 回放的记录数
+     */
+    public long decodeInbound(final FrameDecoder decoder, final FrameDecoder.FrameListener listener, double speed)
+            throws IOException, InterruptedException {
+        final long[] records = new long[1];
+        replay(new Listener() {
+            @Override
+            public void onRecord(int direction, long timeNanos, byte[] buffer, int offset, int length) {
+                if (direction == TrafficRecorder.IN) {
+                    decoder.feed(buffer, offset, length, listener);
+                    records[0]++;
+                }
+            }
+        }, speed);
+        return records[0];
+    }
+
+    /**
+     * 把 app 发出的字节（OUT）写给模拟器，模拟器的响应解码后在接收线程上回调。
+     * 可靠帧的序号和确认号按原样写出，模拟器的状态与现场设备不同时响应也可能不同。
+     * @param settleMs 写完后等待响应的静默时间，这段时间内没有新数据即结束
+     * @return 写给模拟器的字节数
+     */
+    public long replayToDevice(SimulatedSwitch device, final FrameDecoder.FrameListener responses,
+                               double speed, long settleMs) throws IOException, InterruptedException {
+        final LoopbackTransport transport = new LoopbackTransport("replay");
+        device.attach(transport.peer());
+        final InputStream in = transport.getInputStream();
+        final OutputStream out = transport.getOutputStream();
+        final long[] lastResponseNanos = {System.nanoTime()};
+
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameDecoder decoder = new FrameDecoder();
+                byte[] buffer = new byte[1024];
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        synchronized (lastResponseNanos) {
+                            lastResponseNanos[0] = System.nanoTime();
+                        }
+                        decoder.feed(buffer, 0, n, responses);
+                    }
+                } catch (IOException e) {
+                    // 回放结束，通道关闭
+                }
+            }
+        }, "TrafficReplayer-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        final long[] written = new long[1];
+        try {
+            replay(new Listener() {
+                @Override
+                public void onRecord(int direction, long timeNanos, byte[] buffer, int offset, int length) {
+                    if (direction != TrafficRecorder.OUT) {
+                        return;
+                    }
+                    try {
+                        out.write(buffer, offset, length);
+                        written[0] += length;
+                    } catch (IOException e) {
+                        throw new IllegalStateException("模拟器连接已断开", e);
+                    }
+                }
+            }, speed);
+
+            synchronized (lastResponseNanos) {
+                lastResponseNanos[0] = Math.max(lastResponseNanos[0], System.nanoTime());
+            }
+            long settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMs);
+            while (true) {
+                long idle;
+                synchronized (lastResponseNanos) {
+                    idle = System.nanoTime() - lastResponseNanos[0];
+                }
+                if (idle >= settleNanos) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(settleNanos - idle);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
+            transport.close();
+            receiver.join(settleMs + 1000);
+        }
+        return written[0];
+    }
+}
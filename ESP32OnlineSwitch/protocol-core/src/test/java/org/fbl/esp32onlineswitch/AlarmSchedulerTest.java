@@ -0,0 +1,99 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlarmSchedulerTest {
+    private static final int DAY = AlarmScheduler.SECONDS_PER_DAY;
+
+    @Test
+    public void poll_returnsAlarmsInFireOrder_andRollsToNextDay() {
+        AlarmScheduler scheduler = new AlarmScheduler(8);
+        long now = 12 * 3600;
+        scheduler.schedule(0, 13 * 3600, now);
+        scheduler.schedule(1, 6 * 3600, now);
+        scheduler.schedule(2, 12 * 3600, now);
+        scheduler.schedule(3, 13 * 3600, now);
+
+        // 当前这一秒的闹钟也会触发
+        assertEquals(12 * 3600, scheduler.nextDeadline());
+        assertEquals(2, scheduler.poll(now));
+        assertEquals(-1, scheduler.poll(now));
+        assertEquals(13 * 3600, scheduler.nextDeadline());
+
+        // 同一时刻按 ID 顺序
+        assertEquals(0, scheduler.poll(13 * 3600));
+        assertEquals(3, scheduler.poll(13 * 3600));
+        assertEquals(-1, scheduler.poll(13 * 3600));
+        assertEquals(DAY + 6 * 3600, scheduler.nextDeadline());
+        assertEquals(1, scheduler.poll(DAY + 6 * 3600));
+        assertEquals(DAY + 12 * 3600, scheduler.nextDeadline());
+        assertEquals(4, scheduler.size());
+    }
+
+    @Test
+    public void cancelAndReschedule_keepHeapOrder() {
+        AlarmScheduler scheduler = new AlarmScheduler(32);
+        for (int id = 0; id < 32; id++) {
+            scheduler.schedule(id, (id * 7919) % DAY, 0);
+        }
+        for (int id = 0; id < 32; id += 3) {
+            scheduler.cancel(id);
+        }
+        scheduler.schedule(1, 5, 0);
+        assertFalse(scheduler.isScheduled(3));
+        assertEquals(21, scheduler.size());
+
+        long last = -1;
+        int polled = 0;
+        while (scheduler.nextDeadline() < DAY) {
+            long deadline = scheduler.nextDeadline();
+            assertTrue(deadline >= last);
+            int id = scheduler.poll(deadline);
+            assertTrue(id % 3 != 0);
+            last = deadline;
+            polled++;
+        }
+        assertEquals(21, polled);
+
+        scheduler.clear();
+        assertEquals(-1, scheduler.nextDeadline());
+        assertFalse(scheduler.isScheduled(1));
+    }
+
+    @Test
+    public void poll_skipsFiringsTooLate() {
+        AlarmScheduler scheduler = new AlarmScheduler(2);
+        scheduler.schedule(0, 100, 0);
+        scheduler.schedule(1, 200, 0);
+
+        assertEquals(0, scheduler.poll(100 + AlarmScheduler.MAX_LATENESS_SECONDS));
+        // 主循环阻塞太久，#1 顺延到下一天
+        assertEquals(-1, scheduler.poll(200 + AlarmScheduler.MAX_LATENESS_SECONDS + 1));
+        assertEquals(DAY + 100, scheduler.nextDeadline());
+    }
+
+    @Test
+    public void rebase_recomputesAfterClockChange_andPreviewDoesNotConsume() {
+        AlarmScheduler scheduler = new AlarmScheduler(4);
+        scheduler.schedule(0, 8 * 3600, 0);
+        scheduler.schedule(1, 20 * 3600, 0);
+
+        scheduler.rebase(10 * 3600);
+        assertEquals(20 * 3600, scheduler.nextDeadline());
+
+        List<AlarmScheduler.Firing> firings = scheduler.preview(10 * 3600, 3);
+        assertEquals(3, firings.size());
+        assertEquals(1, firings.get(0).getAlarmId());
+        assertEquals(0, firings.get(1).getAlarmId());
+        assertEquals(DAY + 8 * 3600, firings.get(1).getTime());
+        assertEquals(1, firings.get(2).getAlarmId());
+        assertEquals(DAY + 20 * 3600, firings.get(2).getTime());
+        assertEquals(20 * 3600, scheduler.nextDeadline());
+
+        assertTrue(new AlarmScheduler(4).preview(0, 3).isEmpty());
+    }
+}
@@ -0,0 +1,208 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AlarmSyncTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.disconnect();
+        }
+        if (simulatedSwitch != null) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    @Test
+    public void diff_keepsMatchingAlarms_andTogglesInsteadOfReplacing() {
+        List<DeviceState.Alarm> current = Arrays.asList(
+                alarm(0, 6, 30, Command.RELAY_ON, true),
+                alarm(1, 22, 0, Command.RELAY_OFF, true),
+                alarm(2, 12, 0, Command.RELAY_TOGGLE, false));
+        List<DeviceState.Alarm> desired = Arrays.asList(
+                alarm(-1, 12, 0, Command.RELAY_TOGGLE, true),
+                alarm(-1, 6, 30, Command.RELAY_ON, true),
+                alarm(-1, 8, 0, Command.RELAY_OFF, true));
+
+        AlarmSync.Plan plan = AlarmSync.diff(current, desired);
+        assertEquals(Arrays.asList(current.get(1)), plan.deletes);
+        assertEquals(Arrays.asList(alarm(2, 12, 0, Command.RELAY_TOGGLE, true)), plan.toggles);
+        assertEquals(Arrays.asList(desired.get(2)), plan.adds);
+
+        List<byte[]> chunks = AlarmSync.pack(plan);
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new byte[] {
+                ProtocolV2.BATCH_DELETE, 1,
+                ProtocolV2.BATCH_ENABLE, 2, 1,
+                ProtocolV2.BATCH_ADD, 8, 0, 0, 2, 1}, chunks.get(0));
+
+        assertTrue(AlarmSync.diff(current, current).isEmpty());
+    }
+
+    @Test
+    public void pack_splitsAtDeviceFrameLimit() {
+        List<DeviceState.Alarm> desired = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            desired.add(alarm(-1, i, 0, Command.RELAY_ON, true));
+        }
+        List<byte[]> chunks = AlarmSync.pack(AlarmSync.diff(new ArrayList<DeviceState.Alarm>(), desired));
+        assertEquals(2, chunks.size());
+        assertEquals(60, chunks.get(0).length);
+        assertEquals(6, chunks.get(1).length);
+    }
+
+    @Test
+    public void batchedSync_sendsOnlyTheDelta_andWritesFlashOnce() throws Exception {
+        connect(true);
+        CommandCodec codec = service.getCodec();
+        for (int hour = 6; hour < 11; hour++) {
+            service.send(codec.addAlarm(hour, 0, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+        }
+        // 二进制 GET_ALARMS 不截断，读一次后闹钟表完整缓存
+        assertEquals(5, service.getDeviceState().readAlarms().get(1, TimeUnit.SECONDS).size());
+        int flashBefore = simulatedSwitch.getFlashWrites();
+        long framesBefore = simulatedSwitch.getFramesReceived();
+
+        List<DeviceState.Alarm> desired = new ArrayList<>();
+        desired.add(alarm(-1, 6, 0, Command.RELAY_ON, true));
+        desired.add(alarm(-1, 7, 0, Command.RELAY_ON, false));
+        desired.add(alarm(-1, 9, 0, Command.RELAY_ON, true));
+        desired.add(alarm(-1, 10, 0, Command.RELAY_ON, true));
+        desired.add(alarm(-1, 23, 0, Command.RELAY_OFF, true));
+        desired.add(alarm(-1, 23, 30, Command.RESTART, true));
+
+        AlarmSync.Result result = new AlarmSync(service).sync(desired).get(1, TimeUnit.SECONDS);
+        assertTrue(result.isBatched());
+        assertEquals(2, result.getAdded());
+        assertEquals(1, result.getDeleted());
+        assertEquals(1, result.getToggled());
+        assertEquals(1, result.getFrames());
+        // 闹钟表已在缓存中，只发送一个批量帧，只写一次 FLASH
+        assertEquals(framesBefore + 1, simulatedSwitch.getFramesReceived());
+        assertEquals(flashBefore + 1, simulatedSwitch.getFlashWrites());
+        assertEquals(6, result.getAlarms().size());
+        assertEquals(5, simulatedSwitch.getAlarmCount());
+        assertDeviceMatches(result.getAlarms());
+
+        AlarmSync.Result again = new AlarmSync(service).sync(desired).get(1, TimeUnit.SECONDS);
+        assertEquals(0, again.getFrames());
+        assertEquals(flashBefore + 1, simulatedSwitch.getFlashWrites());
+    }
+
+    @Test
+    public void batchedSync_rewritesTable_whenFreeSlotsAreFragmented() throws Exception {
+        connect(true);
+        List<DeviceState.Alarm> desired = new ArrayList<>();
+        for (int i = 0; i < SimulatedSwitch.MAX_ALARMS; i++) {
+            desired.add(alarm(-1, i / 2, i % 2 * 30, Command.RELAY_ON, true));
+        }
+        AlarmSync sync = new AlarmSync(service);
+        AlarmSync.Result initial = sync.sync(desired).get(1, TimeUnit.SECONDS);
+        // 每帧最多 10 个新增，只有最后一帧提交
+        assertEquals(4, initial.getFrames());
+        assertEquals(1, simulatedSwitch.getFlashWrites());
+        assertEquals(SimulatedSwitch.MAX_ALARMS, simulatedSwitch.getAlarmCount());
+
+        // 删除开头的闹钟，固件不回收中间的槽位
+        desired.set(0, alarm(-1, 20, 0, Command.RELAY_OFF, true));
+        desired.set(1, alarm(-1, 21, 0, Command.RELAY_OFF, true));
+        AlarmSync.Result result = sync.sync(desired).get(1, TimeUnit.SECONDS);
+
+        // 失败的批量帧回滚，再清空重写
+        assertEquals(1 + 4, result.getFrames());
+        assertEquals(2, simulatedSwitch.getFlashWrites());
+        assertEquals(SimulatedSwitch.MAX_ALARMS, result.getAlarms().size());
+        assertDeviceMatches(result.getAlarms());
+    }
+
+    @Test
+    public void readAlarms_pagesThroughTableLargerThanOneFrame() throws Exception {
+        connect(true);
+        List<DeviceState.Alarm> desired = new ArrayList<>();
+        for (int i = 0; i < SimulatedSwitch.MAX_ALARMS; i++) {
+            desired.add(alarm(-1, i / 2, i % 2 * 30, Command.RELAY_OFF, true));
+        }
+        new AlarmSync(service).sync(desired).get(1, TimeUnit.SECONDS);
+
+        DeviceState state = service.getDeviceState();
+        state.invalidateAlarms();
+        long framesBefore = simulatedSwitch.getFramesReceived();
+        List<DeviceState.Alarm> alarms = state.readAlarms().get(1, TimeUnit.SECONDS);
+        // 每页最多 12 个闹钟
+        assertEquals(framesBefore + 3, simulatedSwitch.getFramesReceived());
+        assertEquals(SimulatedSwitch.MAX_ALARMS, alarms.size());
+        assertEquals(alarm(31, 15, 30, Command.RELAY_OFF, true), alarms.get(31));
+        assertFalse(state.isAlarmsStale());
+    }
+
+    @Test
+    public void legacyFirmware_fallsBackToSingleCommands() throws Exception {
+        connect(false);
+        service.send(service.getCodec().addAlarm(6, 0, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+        service.send(service.getCodec().addAlarm(7, 0, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+
+        List<DeviceState.Alarm> desired = Arrays.asList(
+                alarm(-1, 6, 0, Command.RELAY_ON, true),
+                alarm(-1, 8, 0, Command.RELAY_OFF, false));
+        AlarmSync.Result result = new AlarmSync(service).sync(desired).get(1, TimeUnit.SECONDS);
+
+        assertFalse(result.isBatched());
+        // 删除 #1、新增、禁用新增的闹钟
+        assertEquals(3, result.getFrames());
+        assertEquals(Arrays.asList(
+                alarm(0, 6, 0, Command.RELAY_ON, true),
+                alarm(1, 8, 0, Command.RELAY_OFF, false)), result.getAlarms());
+    }
+
+    private void connect(boolean binary) throws Exception {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        if (binary) {
+            service.setPreferredProtocolVersion(ProtocolV2.VERSION);
+        }
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+        if (binary) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (service.getDeviceFeatures() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue((service.getDeviceFeatures() & ProtocolV2.FEATURE_ALARM_BATCH) != 0);
+        }
+    }
+
+    // 设备上启用的闹钟与同步结果一致（分页读取完整列表）
+    private void assertDeviceMatches(List<DeviceState.Alarm> expected) throws Exception {
+        StringBuilder text = new StringBuilder("ALARM_LIST:");
+        int next = 0;
+        do {
+            String page = service.send(ProtocolV2.getAlarmsPage(next)).get(1, TimeUnit.SECONDS).getText();
+            String entries = page.substring(page.indexOf("ALARM_LIST:") + "ALARM_LIST:".length());
+            if (!entries.equals("EMPTY")) {
+                text.append(text.charAt(text.length() - 1) == ':' ? "" : ";").append(entries);
+            }
+            next = DeviceState.parseInt(DeviceState.field(page, "NEXT="));
+        } while (next != ProtocolV2.PAGE_END);
+        StringBuilder listed = new StringBuilder();
+        for (DeviceState.Alarm alarm : expected) {
+            if (alarm.isEnabled()) {
+                listed.append(listed.length() == 0 ? "" : ";").append(alarm);
+            }
+        }
+        assertEquals("ALARM_LIST:" + listed, text.toString());
+    }
+
+    private static DeviceState.Alarm alarm(int id, int hour, int minute, Command task, boolean enabled) {
+        return new DeviceState.Alarm(id, hour, minute, 0, task, enabled);
+    }
+}
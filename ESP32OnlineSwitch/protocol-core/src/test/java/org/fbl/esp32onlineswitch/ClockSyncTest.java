@@ -0,0 +1,88 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟设备的 RTC 上电从 00:00:00 开始走，与手机时间相差任意值
+ */
+public class ClockSyncTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @Before
+    public void setUp() {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(
+                new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+    }
+
+    @After
+    public void tearDown() {
+        service.getClockSync().stop();
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Test
+    public void sync_setsClockThenOnlyVerifies() throws Exception {
+        ClockSync clockSync = service.getClockSync();
+        clockSync.setAccuracyMs(25);
+        assertNull(clockSync.getLastResult());
+
+        ClockSync.Result first = clockSync.sync().get(10, TimeUnit.SECONDS);
+        assertTrue(first.isAdjusted());
+        assertTrue(first.getUncertaintyMs() <= 25);
+        assertTrue(first.getProbes() <= ClockSync.DEFAULT_MAX_PROBES);
+
+        // 先验附近只需少量探测，偏差在阈值内不再设置
+        ClockSync.Result second = clockSync.sync().get(10, TimeUnit.SECONDS);
+        assertFalse(second.toString(), second.isAdjusted());
+        assertTrue(second.toString(), Math.abs(second.getOffsetMs()) <= ClockSync.DEFAULT_THRESHOLD_MS);
+        assertTrue(second.toString(), second.getProbes() < first.getProbes());
+        assertSame(second, clockSync.getLastResult());
+    }
+
+    @Test
+    public void sync_whileRunning_returnsSameFuture() throws Exception {
+        ClockSync clockSync = service.getClockSync();
+        // 第二次探测要等到设备秒边界，第一次的响应到达后同步仍在进行
+        clockSync.setMaxProbes(2);
+        clockSync.setThresholdMs(ClockSync.DAY_MS);
+        assertSame(clockSync.sync(), clockSync.sync());
+
+        ClockSync.Result result = clockSync.sync().get(5, TimeUnit.SECONDS);
+        assertFalse(result.isAdjusted());
+        assertEquals(2, result.getProbes());
+        // 两个样本只把一秒的区间减半
+        assertTrue(result.toString(), result.getUncertaintyMs() >= 200);
+    }
+
+    @Test
+    public void timeRecvAlarm_syncsClock() throws Exception {
+        // 设备时钟从 00:00:00 开始，两秒后闹钟请求主机时间
+        assertTrue(service.send(service.getCodec().addAlarm(0, 0, 2, Command.TIME_RECV))
+                .get(1, TimeUnit.SECONDS).getText().startsWith("ADD_ALARM_OK"));
+
+        ClockSync clockSync = service.getClockSync();
+        long deadline = System.currentTimeMillis() + 8000;
+        while (clockSync.getLastResult() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNotNull(clockSync.getLastResult());
+        assertTrue(clockSync.getLastResult().isAdjusted());
+    }
+
+    @Test
+    public void wrap_keepsOffsetWithinHalfDay() {
+        assertEquals(-1000, ClockSync.wrap(ClockSync.DAY_MS - 1000, 0));
+        assertEquals(1000, ClockSync.wrap(1000 - 3 * ClockSync.DAY_MS, 0));
+        assertEquals(ClockSync.DAY_MS / 2 + 10, ClockSync.wrap(-ClockSync.DAY_MS / 2 + 10, ClockSync.DAY_MS / 2));
+    }
+}
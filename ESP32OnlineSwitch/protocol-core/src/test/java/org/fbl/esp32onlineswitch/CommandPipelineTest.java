@@ -0,0 +1,157 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class CommandPipelineTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<Command> written = new ArrayList<>();
+    private final CommandPipeline pipeline = new CommandPipeline(new CommandPipeline.FrameSink() {
+        @Override
+        public boolean write(OutgoingFrame frame) {
+            synchronized (written) {
+                written.add(frame.getCommand());
+            }
+            frame.release();
+            return true;
+        }
+    }, timer);
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void window_limitsCommandsInFlight() {
+        pipeline.setMaxInFlight(2);
+        pipeline.send(FrameEncoder.encode(Command.GET_STATUS));
+        pipeline.send(FrameEncoder.encode(Command.GET_TIME));
+        pipeline.send(FrameEncoder.encode(Command.GET_ALARMS));
+        assertEquals(2, written.size());
+        assertEquals(1, pipeline.getWaitingCount());
+
+        respond("STATUS:RELAY=OFF");
+        assertEquals(3, written.size());
+        assertEquals(Command.GET_ALARMS, written.get(2));
+    }
+
+    @Test
+    public void laterResponse_failsSkippedCommand() throws Exception {
+        CompletableFuture<Response> lost = pipeline.send(FrameEncoder.encode(Command.RELAY_ON));
+        CompletableFuture<Response> time = pipeline.send(FrameEncoder.encode(Command.GET_TIME));
+
+        assertTrue(respond("TIME:01:02:03"));
+        assertEquals("TIME:01:02:03", time.get().getText());
+        try {
+            lost.get();
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+        }
+    }
+
+    @Test
+    public void unsolicitedFrame_isNotConsumed() {
+        pipeline.send(FrameEncoder.encode(Command.GET_STATUS));
+        assertFalse(respond("ALARM_TIME_SEND:08:00:00"));
+        assertEquals(1, pipeline.getInFlightCount());
+    }
+
+    @Test
+    public void missingResponse_timesOut() throws Exception {
+        CompletableFuture<Response> status = pipeline.send(FrameEncoder.encode(Command.GET_STATUS), 50);
+        try {
+            status.get(2, TimeUnit.SECONDS);
+            fail("应当超时");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    @Test
+    public void suspend_replaysIdempotentCommandsAfterResume() throws Exception {
+        CompletableFuture<Response> status = pipeline.send(FrameEncoder.encode(Command.GET_STATUS));
+        CompletableFuture<Response> toggle = pipeline.send(FrameEncoder.encode(Command.RELAY_TOGGLE));
+        pipeline.suspend();
+
+        // 切换命令可能已执行，不能重发
+        try {
+            toggle.get();
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+        }
+
+        // 暂停期间新命令只排队
+        CompletableFuture<Response> time = pipeline.send(FrameEncoder.encode(Command.GET_TIME));
+        assertEquals(2, written.size());
+        assertEquals(2, pipeline.getWaitingCount());
+
+        pipeline.resume();
+        assertEquals(4, written.size());
+        assertEquals(Command.GET_STATUS, written.get(2));
+        assertEquals(Command.GET_TIME, written.get(3));
+        respond("STATUS:RELAY=ON");
+        respond("TIME:01:02:03");
+        assertEquals("STATUS:RELAY=ON", status.get().getText());
+        assertEquals("TIME:01:02:03", time.get().getText());
+    }
+
+    @Test
+    public void interactiveCommand_skipsQueuedSyncTraffic() {
+        pipeline.setMaxInFlight(2);
+        for (int i = 0; i < 5; i++) {
+            pipeline.send(FrameEncoder.encode(Command.GET_ALARMS));
+        }
+        assertEquals(2, written.size());
+        assertEquals(3, pipeline.getWaitingCount(CommandPriority.BACKGROUND));
+
+        // 窗口已满，交互命令使用余量立即写出
+        pipeline.send(FrameEncoder.encode(Command.RELAY_OFF));
+        assertEquals(3, written.size());
+        assertEquals(Command.RELAY_OFF, written.get(2));
+
+        // 设置命令排在剩余的轮询之前
+        pipeline.send(FrameEncoder.addAlarm(8, 0, 0, Command.RELAY_ON));
+        respond("ALARMS_COUNT:0");
+        assertEquals(3, written.size());
+        respond("ALARMS_COUNT:0");
+        assertEquals(4, written.size());
+        assertEquals(Command.ADD_ALARM, written.get(3));
+        assertEquals(0, pipeline.getAgedDispatches());
+    }
+
+    @Test
+    public void aging_promotesLongWaitingCommands() throws Exception {
+        pipeline.setMaxInFlight(1);
+        pipeline.setAgingMs(20);
+        pipeline.send(FrameEncoder.encode(Command.GET_STATUS));
+        pipeline.send(FrameEncoder.encode(Command.GET_ALARMS));
+        Thread.sleep(60);
+        pipeline.send(FrameEncoder.addAlarm(8, 0, 0, Command.RELAY_ON));
+
+        respond("STATUS:RELAY=OFF");
+        assertEquals(2, written.size());
+        assertEquals(Command.GET_ALARMS, written.get(1));
+        assertEquals(1, pipeline.getAgedDispatches());
+    }
+
+    private boolean respond(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return pipeline.onFrame(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,132 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fbl.esp32onlineswitch.BluetoothSerialService.*;
+import static org.junit.Assert.*;
+
+public class ConnectionStateMachineTest {
+
+    @Test
+    public void transitions_followLifecycle() {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        assertEquals(STATE_NONE, machine.get());
+        assertFalse(machine.transition(STATE_NONE, STATE_CONNECTED));
+        assertTrue(machine.transition(STATE_NONE, STATE_CONNECTING));
+        // 起始状态不符
+        assertFalse(machine.transition(STATE_NONE, STATE_CONNECTING));
+        assertTrue(machine.transition(STATE_CONNECTING, STATE_CONNECTED));
+        assertFalse(machine.transition(STATE_CONNECTED, STATE_ERROR));
+        assertTrue(machine.transition(STATE_CONNECTED, STATE_CONNECTING));
+        assertEquals(STATE_CONNECTING, machine.moveTo(STATE_DISCONNECTED));
+        // 重复断开不再转换
+        assertEquals(-1, machine.moveTo(STATE_DISCONNECTED));
+        assertEquals(STATE_DISCONNECTED, machine.get());
+    }
+
+    @Test
+    public void concurrentConnects_onlyOneWins() throws Exception {
+        final ConnectionStateMachine machine = new ConnectionStateMachine();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger winners = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (machine.transition(STATE_NONE, STATE_CONNECTING)) {
+                        winners.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        assertEquals(1, winners.get());
+        assertEquals(STATE_CONNECTING, machine.get());
+    }
+
+    @Test
+    public void listeners_allObserveStateAndData() throws Exception {
+        SimulatedSwitch simulatedSwitch = new SimulatedSwitch();
+        BluetoothSerialService service = new BluetoothSerialService(
+                new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        final List<Integer> states = new ArrayList<>();
+        final List<String> first = new ArrayList<>();
+        final List<String> second = new ArrayList<>();
+        final int[] results = {0};
+        service.addConnectionListener(new BluetoothSerialService.ConnectionCallback() {
+            @Override
+            public void onConnectionStateChanged(int state) {
+                synchronized (states) {
+                    states.add(state);
+                }
+            }
+
+            @Override
+            public void onDataReceived(byte[] data) {
+                synchronized (first) {
+                    first.add(new String(data));
+                }
+            }
+        });
+        service.addConnectionListener(new BluetoothSerialService.ConnectionCallback() {
+            @Override
+            public void onConnectionStateChanged(int state) {
+            }
+
+            @Override
+            public void onDataReceived(byte[] data) {
+                synchronized (second) {
+                    second.add(new String(data));
+                }
+            }
+        });
+        service.setConnectionResultCallback(new BluetoothSerialService.ConnectionResultCallback() {
+            @Override
+            public void onConnectionResult(boolean isSuccess) {
+                synchronized (results) {
+                    results[0]++;
+                }
+            }
+        });
+        try {
+            // 同步连接用自己的结果回调，不替换已设置的
+            assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+            service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS);
+            service.disconnect();
+            service.disconnect();
+        } finally {
+            simulatedSwitch.shutdown();
+        }
+
+        synchronized (results) {
+            assertEquals(1, results[0]);
+        }
+        synchronized (states) {
+            assertEquals(Arrays.asList(STATE_CONNECTING, STATE_CONNECTED, STATE_DISCONNECTED), states);
+        }
+        synchronized (first) {
+            assertEquals(Arrays.asList("RELAY_ON_OK"), first);
+        }
+        synchronized (second) {
+            assertEquals(first, second);
+        }
+    }
+}
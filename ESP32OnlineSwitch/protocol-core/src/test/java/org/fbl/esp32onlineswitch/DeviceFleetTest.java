@@ -0,0 +1,128 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 三台模拟开关通过回环传输通道组成设备组，地址不存在的设备模拟连接失败
+ */
+public class DeviceFleetTest {
+    private static final String[] ADDRESSES = {"00:00:00:00:00:01", "00:00:00:00:00:02", "00:00:00:00:00:03"};
+    private static final String MISSING = "00:00:00:00:00:99";
+
+    private final Map<String, SimulatedSwitch> switches = new HashMap<>();
+    private final DeviceFleet fleet;
+
+    public DeviceFleetTest() {
+        for (String address : ADDRESSES) {
+            switches.put(address, new SimulatedSwitch());
+        }
+        // 按地址把回环连接路由到对应的模拟开关
+        final LoopbackTransport.Factory loopback = new LoopbackTransport.Factory(new LoopbackTransport.Endpoint() {
+            @Override
+            public void attach(SerialTransport deviceSide) {
+                switches.get(deviceSide.getAddress()).attach(deviceSide);
+            }
+        });
+        fleet = new DeviceFleet(new SerialTransport.Factory() {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public SerialTransport create(String address) throws IOException {
+                if (!switches.containsKey(address)) {
+                    throw new IOException("找不到指定MAC地址的设备: " + address);
+                }
+                return loopback.create(address);
+            }
+        }, DispatchExecutors.direct());
+    }
+
+    @After
+    public void tearDown() {
+        fleet.disconnectAll();
+        for (SimulatedSwitch simulatedSwitch : switches.values()) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    @Test
+    public void broadcast_connectsOnDemandAndReachesEveryDevice() throws Exception {
+        for (String address : ADDRESSES) {
+            fleet.add(address);
+        }
+
+        FleetResult result = fleet.broadcast(Command.RELAY_ON).get(3, TimeUnit.SECONDS);
+
+        assertTrue(result.isAllSuccess());
+        assertEquals(3, result.getSuccessCount());
+        for (String address : ADDRESSES) {
+            FleetResult.DeviceResult device = result.get(address);
+            assertEquals("RELAY_ON_OK", device.getResponse().getText());
+            assertTrue(device.getLatencyNanos() <= result.getElapsedNanos());
+            assertTrue(switches.get(address).isRelayOn());
+            assertTrue(fleet.get(address).isConnected());
+        }
+    }
+
+    @Test
+    public void overlappingBroadcasts_shareOneConnectAttempt() throws Exception {
+        for (String address : ADDRESSES) {
+            fleet.add(address);
+        }
+
+        // 第二次群发时设备仍在连接中，不能作废第一次的尝试
+        CompletableFuture<FleetResult> on = fleet.broadcast(Command.RELAY_ON);
+        CompletableFuture<FleetResult> status = fleet.broadcast(Command.GET_STATUS);
+
+        assertTrue(on.get(3, TimeUnit.SECONDS).isAllSuccess());
+        assertTrue(status.get(3, TimeUnit.SECONDS).isAllSuccess());
+        for (String address : ADDRESSES) {
+            assertEquals(1, fleet.get(address).getMetrics().getConnectAttempts());
+            assertEquals(0, fleet.get(address).getMetrics().getConnectFailures());
+        }
+    }
+
+    @Test
+    public void perDeviceFrames_andFailuresAreIsolated() throws Exception {
+        FleetResult result = fleet.broadcast(Arrays.asList(ADDRESSES[0], ADDRESSES[1], MISSING),
+                new DeviceFleet.FrameSupplier() {
+                    @Override
+                    public OutgoingFrame frameFor(String address) {
+                        // 每台设备设置不同的闹钟
+                        int minute = address.equals(ADDRESSES[0]) ? 15 : 30;
+                        return FrameEncoder.addAlarm(7, minute, 0, Command.RELAY_ON);
+                    }
+                }).get(3, TimeUnit.SECONDS);
+
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, result.getFailureCount());
+        assertFalse(result.get(MISSING).isSuccess());
+        assertTrue(result.get(ADDRESSES[0]).getResponse().getText().contains("TIME=7:15:0"));
+        assertTrue(result.get(ADDRESSES[1]).getResponse().getText().contains("TIME=7:30:0"));
+        assertEquals(1, switches.get(ADDRESSES[0]).getAlarmCount());
+        assertEquals(0, switches.get(ADDRESSES[2]).getAlarmCount());
+    }
+
+    @Test
+    public void connectAll_reportsPerDeviceResult() throws Exception {
+        fleet.add(ADDRESSES[2]);
+        fleet.add(MISSING);
+
+        Map<String, Boolean> connected = fleet.connectAll().get(3, TimeUnit.SECONDS);
+
+        assertTrue(connected.get(ADDRESSES[2]));
+        assertFalse(connected.get(MISSING));
+    }
+}
@@ -0,0 +1,144 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeviceStateTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+    private DeviceState state;
+
+    @Before
+    public void setUp() {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+        state = service.getDeviceState();
+    }
+
+    @After
+    public void tearDown() {
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Test
+    public void acknowledgements_updateMirror_andReadsAreServedFromMemory() throws Exception {
+        assertNull(state.getRelayState());
+        service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS);
+        assertEquals(Boolean.TRUE, state.getRelayState());
+
+        long framesBefore = simulatedSwitch.getFramesReceived();
+        CompletableFuture<Boolean> relay = state.readRelayState();
+        assertTrue(relay.isDone());
+        assertTrue(relay.get());
+        assertEquals(framesBefore, simulatedSwitch.getFramesReceived());
+
+        service.send(service.getCodec().setTime(7, 30, 0)).get(1, TimeUnit.SECONDS);
+        int seconds = state.readDeviceSecondOfDay().get();
+        assertTrue(seconds >= 7 * 3600 + 30 * 60 && seconds <= 7 * 3600 + 30 * 60 + 2);
+        assertEquals(framesBefore + 1, simulatedSwitch.getFramesReceived());
+    }
+
+    @Test
+    public void staleReads_areCoalescedIntoOneQuery() throws Exception {
+        long framesBefore = simulatedSwitch.getFramesReceived();
+        CompletableFuture<Boolean> relay = state.readRelayState();
+        CompletableFuture<Integer> time = state.readDeviceSecondOfDay();
+        CompletableFuture<Boolean> again = state.readRelayState();
+
+        assertFalse(relay.get(1, TimeUnit.SECONDS));
+        assertTrue(time.get(1, TimeUnit.SECONDS) >= 0);
+        assertFalse(again.get(1, TimeUnit.SECONDS));
+        assertEquals(framesBefore + 1, simulatedSwitch.getFramesReceived());
+        assertFalse(state.isRelayStale());
+
+        state.invalidate();
+        assertTrue(state.isRelayStale());
+        assertEquals(Boolean.FALSE, state.getRelayState());
+    }
+
+    @Test
+    public void alarmTable_tracksAddEnableAndDelete() throws Exception {
+        CommandCodec codec = service.getCodec();
+        service.send(codec.addAlarm(6, 30, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+        service.send(codec.addAlarm(22, 0, 0, Command.RELAY_OFF)).get(1, TimeUnit.SECONDS);
+        service.send(codec.enableAlarm(1, false)).get(1, TimeUnit.SECONDS);
+
+        // 固件列表只含启用的闹钟，禁用的保留在镜像中
+        List<DeviceState.Alarm> alarms = state.readAlarms().get(1, TimeUnit.SECONDS);
+        assertEquals(2, alarms.size());
+        assertEquals(new DeviceState.Alarm(0, 6, 30, 0, Command.RELAY_ON, true), alarms.get(0));
+        assertEquals(new DeviceState.Alarm(1, 22, 0, 0, Command.RELAY_OFF, false), alarms.get(1));
+        assertTrue(state.hasAlarms());
+        assertTrue(state.readAlarms().isDone());
+
+        service.send(codec.deleteAlarm(0)).get(1, TimeUnit.SECONDS);
+        assertEquals(1, state.getAlarms().size());
+        service.send(Command.CLEAR_ALARMS).get(1, TimeUnit.SECONDS);
+        assertTrue(state.getAlarms().isEmpty());
+    }
+
+    @Test
+    public void alarmEvent_updatesRelayWithoutQuery() throws Exception {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicInteger firedId = new AtomicInteger(-1);
+        state.setListener(new DeviceState.Listener() {
+            @Override
+            public void onAlarmFired(int alarmId, Command task) {
+                firedId.set(alarmId);
+                fired.countDown();
+            }
+        });
+
+        CommandCodec codec = service.getCodec();
+        service.send(codec.setTime(7, 44, 59)).get(1, TimeUnit.SECONDS);
+        service.send(codec.addAlarm(7, 45, 0, Command.RELAY_TOGGLE)).get(1, TimeUnit.SECONDS);
+        assertNull(state.getRelayState());
+
+        assertTrue(fired.await(3, TimeUnit.SECONDS));
+        assertEquals(0, firedId.get());
+        assertEquals(Boolean.TRUE, state.getRelayState());
+        assertTrue(simulatedSwitch.isRelayOn());
+
+        // 事件不会被当作在途命令的响应
+        assertEquals("RELAY_OFF_OK", service.send(Command.RELAY_OFF).get(1, TimeUnit.SECONDS).getText());
+        assertEquals(Boolean.FALSE, state.getRelayState());
+    }
+
+    @Test
+    public void previewAlarms_followsDeviceClock() throws Exception {
+        assertTrue(state.previewAlarms(3).isEmpty());
+
+        CommandCodec codec = service.getCodec();
+        service.send(codec.setTime(12, 0, 0)).get(1, TimeUnit.SECONDS);
+        service.send(codec.addAlarm(6, 0, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+        service.send(codec.addAlarm(22, 0, 0, Command.RELAY_OFF)).get(1, TimeUnit.SECONDS);
+        service.send(codec.addAlarm(8, 0, 0, Command.RELAY_ON)).get(1, TimeUnit.SECONDS);
+        service.send(codec.enableAlarm(2, false)).get(1, TimeUnit.SECONDS);
+
+        List<AlarmScheduler.Firing> firings = state.previewAlarms(3);
+        assertEquals(3, firings.size());
+        assertEquals(1, firings.get(0).getAlarmId());
+        assertEquals(0, firings.get(1).getAlarmId());
+        assertEquals(AlarmScheduler.SECONDS_PER_DAY + 6 * 3600, firings.get(1).getTime());
+        assertEquals(1, firings.get(2).getAlarmId());
+    }
+
+    @Test
+    public void parseTime_acceptsFirmwareFormats() {
+        assertEquals(7 * 3600 + 30 * 60, DeviceState.parseTime("07:30:00"));
+        assertEquals(7 * 3600 + 30 * 60, DeviceState.parseTime("7:30:0 TOTAL_SEC:12"));
+        assertEquals(-1, DeviceState.parseTime("24:00:00"));
+        assertEquals(-1, DeviceState.parseTime("7:30"));
+    }
+}
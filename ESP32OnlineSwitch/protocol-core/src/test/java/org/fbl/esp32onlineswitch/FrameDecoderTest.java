@@ -0,0 +1,89 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final List<String> frames = new ArrayList<>();
+    private final FrameDecoder.FrameListener listener = new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            frames.add(new String(buffer, offset, length, StandardCharsets.US_ASCII));
+        }
+    };
+
+    @Test
+    public void frameSplitAcrossReads_isReassembled() {
+        byte[] frame = SimulatedSwitchTest.frame("RELAY_ON_OK");
+        decoder.feed(frame, 0, 5, listener);
+        assertTrue(frames.isEmpty());
+        decoder.feed(frame, 5, frame.length - 5, listener);
+        assertEquals(1, frames.size());
+        assertEquals("RELAY_ON_OK", frames.get(0));
+        assertEquals(0, decoder.getBufferedBytes());
+    }
+
+    @Test
+    public void twoFramesInOneRead_areSeparated() {
+        byte[] first = SimulatedSwitchTest.frame("RELAY_OFF_OK");
+        byte[] second = SimulatedSwitchTest.frame("TIME:08:00:00");
+        byte[] chunk = new byte[first.length + second.length];
+        System.arraycopy(first, 0, chunk, 0, first.length);
+        System.arraycopy(second, 0, chunk, first.length, second.length);
+
+        decoder.feed(chunk, 0, chunk.length, listener);
+        assertEquals(2, frames.size());
+        assertEquals("RELAY_OFF_OK", frames.get(0));
+        assertEquals("TIME:08:00:00", frames.get(1));
+    }
+
+    @Test
+    public void garbageAndBadChecksum_areCountedAndSkipped() {
+        byte[] bad = SimulatedSwitchTest.frame("RELAY_ON_OK");
+        bad[bad.length - 1]++;
+        byte[] good = SimulatedSwitchTest.frame("STATUS:RELAY=ON");
+        byte[] noise = {0x01, (byte) 0xAA, 0x02};
+
+        decoder.feed(noise, 0, noise.length, listener);
+        decoder.feed(bad, 0, bad.length, listener);
+        decoder.feed(good, 0, good.length, listener);
+
+        assertEquals(1, frames.size());
+        assertEquals("STATUS:RELAY=ON", frames.get(0));
+        assertEquals(1, decoder.getChecksumFailures());
+        assertEquals(2, decoder.getResyncCount());
+        assertEquals(1, decoder.getFramesDecoded());
+    }
+
+    @Test
+    public void emptyPlainFrame_isTreatedAsNoise() {
+        byte[] noise = {(byte) 0xAA, 0x55, 0x00, 0x00};
+        byte[] good = SimulatedSwitchTest.frame("RELAY_ON_OK");
+
+        decoder.feed(noise, 0, noise.length, listener);
+        decoder.feed(good, 0, good.length, listener);
+
+        assertEquals(1, frames.size());
+        assertEquals("RELAY_ON_OK", frames.get(0));
+        assertEquals(1, decoder.getResyncCount());
+        assertEquals(1, decoder.getFramesDecoded());
+    }
+
+    @Test
+    public void framesWrappingTheRingBuffer_areIntact() {
+        byte[] frame = SimulatedSwitchTest.frame("ALARMS_COUNT:1 LIST:ALARM_LIST:#0=8:0:0-RELAY_OFF-ENABLED");
+        for (int i = 0; i < 100; i++) {
+            decoder.feed(frame, 0, frame.length, listener);
+        }
+        assertEquals(100, frames.size());
+        for (String text : frames) {
+            assertEquals("ALARMS_COUNT:1 LIST:ALARM_LIST:#0=8:0:0-RELAY_OFF-ENABLED", text);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FrameEncoderTest {
+
+    @Test
+    public void fixedFrames_matchHandCodedBytes() {
+        // 与原先 MainActivity 中手工计算的开灯/关灯帧一致
+        assertArrayEquals(new byte[] {
+                (byte) 0xAA, 0x55, 0x08, 'R', 'E', 'L', 'A', 'Y', '_', 'O', 'N', 0x79
+        }, FrameEncoder.encode(Command.RELAY_ON).toByteArray());
+        assertArrayEquals(new byte[] {
+                (byte) 0xAA, 0x55, 0x09, 'R', 'E', 'L', 'A', 'Y', '_', 'O', 'F', 'F', (byte) 0xB7
+        }, FrameEncoder.encode(Command.RELAY_OFF).toByteArray());
+        assertSame(FrameEncoder.encode(Command.GET_STATUS), FrameEncoder.encode(Command.GET_STATUS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parameterizedCommand_hasNoFixedFrame() {
+        FrameEncoder.encode(Command.SET_TIME);
+    }
+
+    @Test
+    public void parameterizedFrames_matchCrcTool() throws IOException {
+        assertFrame("SET_TIME=03,07,00", 0x39, FrameEncoder.setTime(3, 7, 0));
+        assertFrame("ADD_ALARM=00,10,00,RELAY_ON", 0xF0, FrameEncoder.addAlarm(0, 10, 0, Command.RELAY_ON));
+        assertFrame("ENABLE_ALARM=0,DISABLE", 0x00, FrameEncoder.enableAlarm(0, false));
+        assertFrame("DELETE_ALARM=12", 0x1F, FrameEncoder.deleteAlarm(12));
+    }
+
+    @Test
+    public void releasedBuffers_areReused() {
+        FrameBuffer first = FrameEncoder.setTime(1, 2, 3);
+        first.release();
+        FrameBuffer second = FrameEncoder.deleteAlarm(1);
+        assertSame(first, second);
+        second.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonAlarmTask_isRejected() {
+        FrameEncoder.addAlarm(8, 0, 0, Command.GET_STATUS);
+    }
+
+    private static void assertFrame(String payload, int checksum, FrameBuffer frame) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeTo(out);
+        frame.release();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals(payload.length() + 4, bytes.length);
+        assertEquals(0xAA, bytes[0] & 0xFF);
+        assertEquals(0x55, bytes[1] & 0xFF);
+        assertEquals(payload.length(), bytes[2] & 0xFF);
+        assertEquals(payload, new String(bytes, 3, payload.length(), "US-ASCII"));
+        assertEquals(checksum, bytes[bytes.length - 1] & 0xFF);
+    }
+}
@@ -0,0 +1,164 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameWriterTest {
+
+    @Test
+    public void queuedFrames_areCoalescedIntoOneWrite() throws Exception {
+        final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final int[] flushes = {0};
+
+        // 第一次写出阻塞，模拟忙碌的 RFCOMM 链路
+        FrameWriter writer = new FrameWriter(new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                firstWriteStarted.countDown();
+                try {
+                    releaseFirstWrite.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sink.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+                synchronized (flushes) {
+                    flushes[0]++;
+                }
+            }
+        }, new FrameWriter.ErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        writer.start(new IoExecutor("test-io", 2));
+
+        EncodedFrame relayOn = FrameEncoder.encode(Command.RELAY_ON);
+        assertTrue(writer.enqueue(relayOn));
+        assertTrue(firstWriteStarted.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(writer.enqueue(FrameEncoder.addAlarm(8, i, 0, Command.RELAY_OFF)));
+        }
+        releaseFirstWrite.countDown();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (writer.getFramesWritten() < 11 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        assertEquals(11, writer.getFramesWritten());
+        assertEquals(2, writer.getBatchesWritten());
+        assertEquals(0, writer.getQueuedFrames());
+        synchronized (flushes) {
+            assertEquals(2, flushes[0]);
+        }
+        assertEquals(relayOn.length() + 10 * 32, sink.size());
+    }
+
+    @Test
+    public void executorMode_writesInOrderOnPooledTasks() throws Exception {
+        IoExecutor executor = new IoExecutor("test-io", 4);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(sink, new FrameWriter.ErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        writer.start(executor);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            OutgoingFrame frame = FrameEncoder.addAlarm(i % 24, i % 60, 0, Command.RELAY_ON);
+            frame.writeTo(expected);
+            assertTrue(writer.enqueue(frame));
+        }
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (writer.getFramesWritten() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        assertEquals(100, writer.getFramesWritten());
+        assertEquals(0, writer.getQueuedFrames());
+        // 同一时刻最多一个发送任务，帧按入队顺序写出
+        assertArrayEquals(expected.toByteArray(), sink.toByteArray());
+    }
+
+    @Test
+    public void rejectedTask_keepsFramesQueuedAndRetriesOnPool() throws Exception {
+        // 两个线程都被占用，发送任务提交被拒绝
+        IoExecutor executor = new IoExecutor("test-io", 2);
+        final CountDownLatch busy = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    busy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(busy.await(1, TimeUnit.SECONDS));
+
+        final String[] writerThread = {null};
+        ByteArrayOutputStream sink = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writerThread[0] = Thread.currentThread().getName();
+                super.write(b, off, len);
+            }
+        };
+        FrameWriter writer = new FrameWriter(sink, new FrameWriter.ErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        writer.start(executor);
+        assertTrue(writer.enqueue(FrameEncoder.encode(Command.RELAY_ON)));
+        assertTrue(writer.enqueue(FrameEncoder.encode(Command.RELAY_OFF)));
+        // 不在调用线程上写
+        Thread.sleep(3 * FrameWriter.RETRY_DELAY_MS);
+        assertEquals(0, sink.size());
+        assertEquals(2, writer.getQueuedFrames());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (writer.getFramesWritten() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.close();
+
+        assertEquals(2, writer.getFramesWritten());
+        synchronized (sink) {
+            assertTrue(writerThread[0], writerThread[0].startsWith("test-io"));
+        }
+    }
+
+    @Test
+    public void closedWriter_rejectsFrames() {
+        FrameWriter writer = new FrameWriter(new ByteArrayOutputStream(), null);
+        writer.close();
+        assertFalse(writer.enqueue(FrameEncoder.encode(Command.GET_STATUS)));
+    }
+}
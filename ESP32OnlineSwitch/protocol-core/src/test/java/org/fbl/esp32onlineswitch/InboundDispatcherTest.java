@@ -0,0 +1,165 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InboundDispatcherTest {
+    // 手动执行的执行器，模拟繁忙的主线程
+    private final ArrayDeque<Runnable> posted = new ArrayDeque<>();
+    private final Executor manual = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            posted.add(command);
+        }
+    };
+    private final List<List<String>> batches = new ArrayList<>();
+    private final InboundDispatcher dispatcher = new InboundDispatcher(manual, new InboundDispatcher.Consumer() {
+        @Override
+        public void onFrames(FrameBatch batch) {
+            List<String> frames = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                frames.add(batch.toString(i));
+            }
+            batches.add(frames);
+        }
+    });
+
+    @Test
+    public void slowConsumer_getsOnePostAndMergedBatches() {
+        add("RELAY_ON_OK");
+        dispatcher.flush();
+        add("STATUS:RELAY=ON");
+        dispatcher.flush();
+        add("TIME:08:00:00");
+        add("CLEAR_ALARMS_OK");
+        dispatcher.flush();
+
+        // 消费者还没运行，只有一个分发任务在排队
+        assertEquals(1, posted.size());
+        assertEquals(4, dispatcher.getPendingFrames());
+
+        posted.poll().run();
+        assertTrue(posted.isEmpty());
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals("CLEAR_ALARMS_OK", batches.get(1).get(2));
+        assertEquals(4, dispatcher.getFramesDispatched());
+        assertEquals(0, dispatcher.getPendingFrames());
+    }
+
+    @Test
+    public void directExecutor_deliversOnCallingThread() {
+        dispatcher.setExecutor(DispatchExecutors.direct());
+        add("RELAY_OFF_OK");
+        dispatcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals("RELAY_OFF_OK", batches.get(0).get(0));
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFrames() {
+        dispatcher.setCapacity(3, InboundDispatcher.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            add("EVENT:" + i);
+        }
+        assertEquals(3, dispatcher.getPendingFrames());
+        assertEquals(2, dispatcher.getFramesDropped());
+        dispatcher.flush();
+        posted.poll().run();
+        assertEquals(Arrays.asList("EVENT:2", "EVENT:3", "EVENT:4"), batches.get(0));
+    }
+
+    @Test
+    public void coalesceStatus_replacesOlderStatusFrames() {
+        dispatcher.setCapacity(3, InboundDispatcher.OverflowPolicy.COALESCE_STATUS);
+        add("STATUS:RELAY=ON,TIME=08:00:00");
+        add("RELAY_OFF_OK");
+        add("STATUS:RELAY=OFF,TIME=08:00:01");
+        add("STATUS:RELAY=OFF,TIME=08:00:02");
+        add("EVENT:1");
+        assertEquals(2, dispatcher.getFramesCoalesced());
+        assertEquals(0, dispatcher.getFramesDropped());
+        // 只剩一条状态帧时新的非状态帧挤掉最早的帧
+        add("EVENT:2");
+        assertEquals(1, dispatcher.getFramesDropped());
+        assertEquals(3, dispatcher.getMaxPendingFrames());
+        dispatcher.flush();
+        posted.poll().run();
+        assertEquals(Arrays.asList("STATUS:RELAY=OFF,TIME=08:00:02", "EVENT:1", "EVENT:2"), batches.get(0));
+    }
+
+    @Test
+    public void block_waitsForConsumerAndLosesNothing() throws Exception {
+        final List<String> received = new ArrayList<>();
+        final CountDownLatch consumerBusy = new CountDownLatch(1);
+        final CountDownLatch releaseConsumer = new CountDownLatch(1);
+        final InboundDispatcher blocking = new InboundDispatcher(DispatchExecutors.background("test-consumer"),
+                new InboundDispatcher.Consumer() {
+                    @Override
+                    public void onFrames(FrameBatch batch) {
+                        consumerBusy.countDown();
+                        try {
+                            releaseConsumer.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        synchronized (received) {
+                            for (int i = 0; i < batch.size(); i++) {
+                                received.add(batch.toString(i));
+                            }
+                        }
+                    }
+                });
+        blocking.setCapacity(2, InboundDispatcher.OverflowPolicy.BLOCK);
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    byte[] bytes = ("EVENT:" + i).getBytes(StandardCharsets.US_ASCII);
+                    blocking.add(bytes, 0, bytes.length);
+                    blocking.flush();
+                }
+            }
+        });
+        reader.start();
+        assertTrue(consumerBusy.await(1, TimeUnit.SECONDS));
+        // 消费者阻塞时读线程停在 add 上，积压不超过上限
+        long deadline = System.currentTimeMillis() + 1000;
+        while (reader.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, reader.getState());
+        assertTrue(blocking.getPendingFrames() <= 3);
+
+        releaseConsumer.countDown();
+        reader.join(1000);
+        deadline = System.currentTimeMillis() + 1000;
+        while (blocking.getFramesDispatched() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(10, blocking.getFramesDispatched());
+        assertEquals(0, blocking.getFramesDropped());
+        assertTrue(blocking.getBlockedNanos() > 0);
+        synchronized (received) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("EVENT:" + i, received.get(i));
+            }
+        }
+    }
+
+    private void add(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        dispatcher.add(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,202 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多条回环链路共用一个有界 I/O 线程池
+ */
+public class IoExecutorTest {
+    private final List<SimulatedSwitch> switches = new ArrayList<>();
+    private final List<BluetoothSerialService> services = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (BluetoothSerialService service : services) {
+            service.disconnect();
+        }
+        for (SimulatedSwitch simulatedSwitch : switches) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    private BluetoothSerialService newService(IoExecutor executor) {
+        SimulatedSwitch simulatedSwitch = new SimulatedSwitch();
+        switches.add(simulatedSwitch);
+        BluetoothSerialService service = new BluetoothSerialService(
+                new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        service.setIoExecutor(executor);
+        services.add(service);
+        return service;
+    }
+
+    @Test
+    public void reconnects_reuseIdleThreads() throws Exception {
+        IoExecutor executor = new IoExecutor("test-io", 32);
+        for (int i = 0; i < 6; i++) {
+            BluetoothSerialService service = newService(executor);
+            assertTrue(service.connectToDeviceSync("00:00:00:00:00:0" + i, 1000));
+            service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS);
+        }
+        // 每条链路的读任务各占一个线程
+        assertTrue(executor.getActiveCount() >= services.size());
+        int threads = executor.getLargestThreadCount();
+
+        BluetoothSerialService first = services.get(0);
+        for (int i = 0; i < 20; i++) {
+            first.disconnect();
+            assertTrue(first.connectToDeviceSync("00:00:00:00:00:00", 1000));
+            assertEquals("RELAY_OFF_OK", first.send(Command.RELAY_OFF).get(1, TimeUnit.SECONDS).getText());
+        }
+        // 连接尝试和发送复用空闲线程，线程数不随连接次数增长
+        assertTrue(executor.getLargestThreadCount() <= threads + 3);
+    }
+
+    @Test
+    public void fullPool_failsConnectWithoutLeakingTransport() throws Exception {
+        IoExecutor executor = new IoExecutor("test-io", 2);
+        BluetoothSerialService first = newService(executor);
+        assertTrue(first.connectToDeviceSync("00:00:00:00:00:01", 1000));
+
+        // 两个线程只允许一条在线链路，另一个留给连接和发送
+        BluetoothSerialService second = newService(executor);
+        assertFalse(second.connectToDeviceSync("00:00:00:00:00:02", 1000));
+        assertEquals(BluetoothSerialService.STATE_ERROR, second.getConnectionState());
+        assertFalse(second.isConnected());
+        assertTrue(first.isConnected());
+        assertEquals("RELAY_ON_OK", first.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS).getText());
+    }
+
+    @Test
+    public void linkLimit_rejectsExtraLinksAndKeepsWritersRunning() throws Exception {
+        IoExecutor executor = new IoExecutor("test-io", 4);
+        assertEquals(3, executor.getMaxLinks());
+        for (int i = 0; i < executor.getMaxLinks(); i++) {
+            awaitIdleWorkers(executor);
+            assertTrue(newService(executor).connectToDeviceSync("00:00:00:00:00:0" + i, 1000));
+        }
+        assertEquals(3, executor.getLinkCount());
+
+        BluetoothSerialService extra = newService(executor);
+        awaitIdleWorkers(executor);
+        assertFalse(extra.connectToDeviceSync("00:00:00:00:00:09", 1000));
+        assertEquals(BluetoothSerialService.STATE_ERROR, extra.getConnectionState());
+
+        // 留出的线程仍可执行已连接链路的发送
+        for (int i = 0; i < 3; i++) {
+            assertEquals("RELAY_ON_OK", services.get(i).send(Command.RELAY_ON).get(1, TimeUnit.SECONDS).getText());
+        }
+
+        // 断开后名额归还
+        services.get(0).disconnect();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (executor.getLinkCount() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        awaitIdleWorkers(executor);
+        assertTrue(extra.connectToDeviceSync("00:00:00:00:00:09", 1000));
+    }
+
+    // 只剩读循环占用线程：协商等发送批次刚结束时线程还没回到池中，小线程池的连接任务可能被拒绝
+    private static void awaitIdleWorkers(IoExecutor executor) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (executor.getActiveCount() > executor.getLinkCount() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void cancelConnect_closesBlockedTransport() throws Exception {
+        final HangingTransport hanging = new HangingTransport();
+        final int[] results = {0};
+        BluetoothSerialService service = new BluetoothSerialService(new SerialTransport.Factory() {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public SerialTransport create(String address) {
+                return hanging;
+            }
+        }, DispatchExecutors.direct());
+        services.add(service);
+        service.setIoExecutor(new IoExecutor("test-io", 2));
+        assertTrue(service.connectToDeviceAsync("00:00:00:00:00:01", new BluetoothSerialService.ConnectionResultCallback() {
+            @Override
+            public void onConnectionResult(boolean isSuccess) {
+                synchronized (results) {
+                    results[0]++;
+                }
+            }
+        }));
+        assertTrue(hanging.connecting.await(1, TimeUnit.SECONDS));
+        assertEquals(BluetoothSerialService.STATE_CONNECTING, service.getConnectionState());
+
+        assertTrue(service.cancelConnect());
+        assertTrue(hanging.returned.await(1, TimeUnit.SECONDS));
+        assertEquals(BluetoothSerialService.STATE_DISCONNECTED, service.getConnectionState());
+        assertFalse(service.cancelConnect());
+        // 作废的尝试不再改变状态，也不回调结果
+        Thread.sleep(50);
+        assertEquals(BluetoothSerialService.STATE_DISCONNECTED, service.getConnectionState());
+        synchronized (results) {
+            assertEquals(0, results[0]);
+        }
+    }
+
+    // connect() 一直阻塞到被关闭，模拟不在范围内的 RFCOMM 设备
+    private static final class HangingTransport implements SerialTransport {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch returned = new CountDownLatch(1);
+
+        @Override
+        public void connect() throws IOException {
+            connecting.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                returned.countDown();
+            }
+            throw new IOException("连接已关闭");
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            throw new IOException("未连接");
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("未连接");
+        }
+
+        @Override
+        public boolean isConnected() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        @Override
+        public String getAddress() {
+            return "00:00:00:00:00:01";
+        }
+    }
+}
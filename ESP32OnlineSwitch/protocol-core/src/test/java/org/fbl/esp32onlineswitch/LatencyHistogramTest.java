@@ -0,0 +1,66 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1ms ~ 100ms 均匀分布
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000000L, histogram.getMin());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50500000.0, histogram.getMean(), 1);
+        assertWithin(50000000L, histogram.getValueAtPercentile(50));
+        assertWithin(99000000L, histogram.getValueAtPercentile(99));
+        assertEquals(100000000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void bucketIndex_roundTrips() {
+        long[] values = {0, 1, 15, 16, 17, 1000, 123456789L, (1L << 36) - 1};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(9999, histogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // 子桶相对误差不超过 1/16
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,56 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LinkMetricsTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @Before
+    public void setUp() {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+    }
+
+    @After
+    public void tearDown() {
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Test
+    public void commands_recordRoundTripAndTraffic() throws Exception {
+        service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS);
+        service.send(Command.GET_STATUS).get(1, TimeUnit.SECONDS);
+        try {
+            service.send(FrameEncoder.deleteAlarm(200)).get(1, TimeUnit.SECONDS);
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+        }
+
+        LinkMetrics metrics = service.getMetrics();
+        assertEquals(1, metrics.getConnectAttempts());
+        assertEquals(1, metrics.getConnectTime().getCount());
+        assertEquals(3, metrics.getRoundTrip().getCount());
+        assertEquals(1, metrics.getRoundTrip(Command.GET_STATUS).getCount());
+        assertEquals(1, metrics.getCommandErrors());
+        assertEquals(3, metrics.getFramesOut().getTotal());
+        assertEquals(3, metrics.getFramesIn().getTotal());
+        assertTrue(metrics.getBytesIn().getTotal() > 0);
+
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"address\":\"00:11:22:33:44:55\""));
+        assertTrue(json.contains("\"GET_STATUS\":{\"count\":1"));
+        assertTrue(json.contains("\"checksumFailures\":0"));
+        assertTrue(json.contains("\"queues\":{\"write\":0"));
+    }
+}
@@ -0,0 +1,124 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProtocolV2Test {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.disconnect();
+        }
+        if (simulatedSwitch != null) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    @Test
+    public void binaryFrames_areSmallerThanAscii() {
+        assertEquals(12, FrameEncoder.encode(Command.RELAY_ON).length());
+        assertEquals(5, ProtocolV2.encode(Command.RELAY_ON).length());
+
+        FrameBuffer ascii = FrameEncoder.addAlarm(8, 0, 0, Command.RELAY_TOGGLE);
+        FrameBuffer binary = ProtocolV2.addAlarm(8, 0, 0, Command.RELAY_TOGGLE);
+        assertEquals(35, ascii.length());
+        assertEquals(9, binary.length());
+        assertEquals(ProtocolV2.OP_ADD_ALARM, binary.byteAt(3));
+        assertEquals(3, binary.byteAt(7));
+        ascii.release();
+        binary.release();
+    }
+
+    @Test
+    public void negotiatedBinary_givesSameResponsesAsAscii() throws Exception {
+        connect(simulatedSwitch = new SimulatedSwitch());
+        assertEquals(Integer.valueOf(2), service.negotiateProtocol().get(1, TimeUnit.SECONDS));
+        assertSame(ProtocolV2.CODEC, service.getCodec());
+
+        CommandCodec codec = service.getCodec();
+        assertEquals("SET_TIME_OK:07:30:00", text(codec.setTime(7, 30, 0)));
+        assertEquals("ADD_ALARM_OK:ID=0,TIME=7:45:0,TASK=RELAY_ON", text(codec.addAlarm(7, 45, 0, Command.RELAY_ON)));
+        assertEquals("ALARMS_COUNT:1 LIST:ALARM_LIST:#0=7:45:0-RELAY_ON-ENABLED", text(codec.encode(Command.GET_ALARMS)));
+        assertEquals("RELAY_TOGGLE_OK:ON", text(codec.encode(Command.RELAY_TOGGLE)));
+        assertTrue(text(codec.encode(Command.GET_STATUS)).startsWith("STATUS:RELAY=ON,TIME=07:30:0"));
+        assertEquals(1, simulatedSwitch.getFlashWrites());
+
+        // ASCII 命令在同一连接上仍然可用
+        assertEquals("RELAY_OFF_OK", text(FrameEncoder.encode(Command.RELAY_OFF)));
+
+        try {
+            text(codec.deleteAlarm(200));
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+            assertTrue(e.getCause().getMessage().contains("ERROR:Invalid alarm ID"));
+        }
+    }
+
+    @Test
+    public void oldFirmware_fallsBackToAscii() throws Exception {
+        // 只认识 ASCII 命令的旧固件：所有二进制帧都回复未知命令
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(new LoopbackTransport.Endpoint() {
+            @Override
+            public void attach(final SerialTransport deviceSide) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        answerUnknown(deviceSide);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }), DispatchExecutors.direct());
+        service.setPreferredProtocolVersion(ProtocolV2.VERSION);
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+
+        assertEquals(Integer.valueOf(1), service.negotiateProtocol().get(1, TimeUnit.SECONDS));
+        assertSame(FrameEncoder.CODEC, service.getCodec());
+    }
+
+    private void connect(SimulatedSwitch target) {
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(target), DispatchExecutors.direct());
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+    }
+
+    private String text(OutgoingFrame frame) throws Exception {
+        return service.send(frame).get(1, TimeUnit.SECONDS).getText();
+    }
+
+    private static void answerUnknown(SerialTransport deviceSide) {
+        try {
+            InputStream in = deviceSide.getInputStream();
+            final OutputStream out = deviceSide.getOutputStream();
+            FrameDecoder decoder = new FrameDecoder();
+            byte[] buffer = new byte[256];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                decoder.feed(buffer, 0, n, new FrameDecoder.FrameListener() {
+                    @Override
+                    public void onFrame(byte[] frame, int offset, int length) {
+                        try {
+                            FrameBuffer error = FrameEncoder.text("ERROR:Unknown command: ?");
+                            error.writeTo(out);
+                            error.release();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                });
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
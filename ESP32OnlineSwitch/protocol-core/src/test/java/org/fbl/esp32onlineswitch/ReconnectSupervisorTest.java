@@ -0,0 +1,124 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 关闭设备端回环通道模拟链路中断
+ */
+public class ReconnectSupervisorTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+    private volatile SerialTransport deviceSide;
+    private volatile boolean reachable = true;
+    private volatile String connectThread;
+    private final CountDownLatch reconnected = new CountDownLatch(1);
+    private final CountDownLatch gaveUp = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        simulatedSwitch = new SimulatedSwitch();
+        final LoopbackTransport.Factory loopback = new LoopbackTransport.Factory(new LoopbackTransport.Endpoint() {
+            @Override
+            public void attach(SerialTransport transport) {
+                deviceSide = transport;
+                simulatedSwitch.attach(transport);
+            }
+        });
+        service = new BluetoothSerialService(new SerialTransport.Factory() {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public SerialTransport create(String address) throws IOException {
+                connectThread = Thread.currentThread().getName();
+                if (!reachable) {
+                    throw new IOException("设备不在范围内");
+                }
+                return loopback.create(address);
+            }
+        }, DispatchExecutors.direct());
+        service.getReconnectSupervisor().setListener(new ReconnectSupervisor.Listener() {
+            @Override
+            public void onReconnected(int attempts, long downtimeMs) {
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onGaveUp(int attempts) {
+                gaveUp.countDown();
+            }
+        });
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+    }
+
+    @After
+    public void tearDown() {
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Test
+    public void transientDrop_resumesAndReplaysSubscriptions() throws Exception {
+        service.getReconnectSupervisor().addResumeCommand(Command.RELAY_ON);
+        deviceSide.close();
+
+        assertTrue(reconnected.await(1, TimeUnit.SECONDS));
+        assertTrue(service.getReconnectSupervisor().getLastDowntimeMs() < 1000);
+        assertEquals(1, service.getReconnectSupervisor().getReconnectCount());
+        assertTrue(service.isConnected());
+        assertEquals("STATUS:RELAY=ON", service.send(Command.GET_STATUS).get(1, TimeUnit.SECONDS)
+                .getText().substring(0, "STATUS:RELAY=ON".length()));
+    }
+
+    @Test
+    public void reconnectAttempts_runOnConnectionIoExecutor() throws Exception {
+        service.setIoExecutor(new IoExecutor("test-io", 4));
+        deviceSide.close();
+
+        assertTrue(reconnected.await(1, TimeUnit.SECONDS));
+        assertTrue(connectThread, connectThread.startsWith("test-io"));
+        assertTrue(service.isConnected());
+    }
+
+    @Test
+    public void unreachableDevice_givesUpAndFailsQueuedCommands() throws Exception {
+        service.getReconnectSupervisor().setBackoff(10, 20, 100);
+        reachable = false;
+        deviceSide.close();
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!service.getCommandPipeline().isSuspended() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<Response> queued = service.send(Command.GET_STATUS);
+        assertFalse(queued.isDone());
+
+        assertTrue(gaveUp.await(2, TimeUnit.SECONDS));
+        try {
+            queued.get(1, TimeUnit.SECONDS);
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+        }
+        assertFalse(service.isConnected());
+    }
+
+    @Test
+    public void userDisconnect_doesNotReconnect() throws Exception {
+        service.disconnect();
+        assertFalse(reconnected.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(service.isConnected());
+    }
+}
@@ -0,0 +1,255 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReliableLinkTest {
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+    // 设备收到的字节（app -> 设备）
+    private final NoisyStream toDevice = new NoisyStream();
+    // 设备发出的字节（设备 -> app）
+    private final NoisyStream toApp = new NoisyStream();
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.disconnect();
+        }
+        if (simulatedSwitch != null) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    @Test
+    public void crc16_matchesCcittFalseCheckValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, Crc16.compute(data, 0, data.length));
+    }
+
+    @Test
+    public void decoder_verifiesCrcOfReliableFrames() {
+        byte[] frame = {(byte) 0xAA, 0x56, 2, 5, 7, 'O', 'K', 0, 0};
+        int crc = Crc16.compute(frame, 2, 5);
+        frame[7] = (byte) (crc >>> 8);
+        frame[8] = (byte) crc;
+
+        final StringBuilder events = new StringBuilder();
+        FrameDecoder.FrameListener listener = new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(byte[] buffer, int offset, int length) {
+                fail("可靠帧应走 onReliableFrame");
+            }
+
+            @Override
+            public void onReliableFrame(int seq, int ack, byte[] buffer, int offset, int length) {
+                events.append(seq).append('/').append(ack).append('/')
+                        .append(new String(buffer, offset, length, StandardCharsets.US_ASCII)).append(' ');
+            }
+
+            @Override
+            public void onCorruptFrame() {
+                events.append("corrupt ");
+            }
+        };
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.feed(frame, 0, frame.length, listener);
+        frame[6] ^= 0x01;
+        decoder.feed(frame, 0, frame.length, listener);
+
+        assertEquals("5/7/OK corrupt ", events.toString());
+        assertEquals(1, decoder.getChecksumFailures());
+    }
+
+    @Test
+    public void corruptedCommand_isRetransmittedAfterOneNak() throws Exception {
+        ReliableLink link = connectReliable();
+        // 恢复只能靠 NAK，不能等超时
+        link.setRetransmitTimeout(10000);
+
+        // 第一条命令的数据被干扰
+        toDevice.corruptAt(5);
+        long start = System.nanoTime();
+        CompletableFuture<Response> first = service.send(Command.RELAY_ON);
+        CompletableFuture<Response> second = service.send(Command.GET_TIME);
+        CompletableFuture<Response> third = service.send(Command.RELAY_TOGGLE);
+
+        assertEquals("RELAY_ON_OK", first.get(1, TimeUnit.SECONDS).getText());
+        assertTrue(second.get(1, TimeUnit.SECONDS).getText().startsWith("TIME:"));
+        assertEquals("RELAY_TOGGLE_OK:OFF", third.get(1, TimeUnit.SECONDS).getText());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertEquals(1, simulatedSwitch.getChecksumErrors());
+        assertEquals(1, link.getNaksReceived());
+        assertEquals(1, link.getRetransmissions());
+    }
+
+    @Test
+    public void corruptedResponse_isResentByDevice() throws Exception {
+        ReliableLink link = connectReliable();
+        link.setRetransmitTimeout(10000);
+
+        toApp.corruptAt(5);
+        CompletableFuture<Response> first = service.send(Command.RELAY_ON);
+        CompletableFuture<Response> second = service.send(Command.GET_ALARMS);
+
+        assertEquals("RELAY_ON_OK", first.get(1, TimeUnit.SECONDS).getText());
+        assertTrue(second.get(1, TimeUnit.SECONDS).getText().startsWith("ALARMS_COUNT:0"));
+        assertEquals(1, link.getCorruptFrames());
+        assertEquals(1, link.getNaksSent());
+        assertEquals(1, simulatedSwitch.getRetransmissions());
+        assertTrue(simulatedSwitch.isRelayOn());
+    }
+
+    @Test
+    public void lostCommand_isRetransmittedAfterTimeout() throws Exception {
+        ReliableLink link = connectReliable();
+
+        // 整帧丢失，之后没有帧可触发 NAK
+        int frameLength = FrameFormat.RELIABLE_OVERHEAD + "RELAY_ON".length();
+        toDevice.dropNext(frameLength);
+        long start = System.nanoTime();
+        assertEquals("RELAY_ON_OK", service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS).getText());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("耗时 " + elapsedMs + "ms", elapsedMs >= ReliableLink.DEFAULT_RETRANSMIT_TIMEOUT_MS);
+        assertTrue("耗时 " + elapsedMs + "ms", elapsedMs < 1000);
+        assertEquals(1, link.getRetransmissions());
+        assertEquals(0, simulatedSwitch.getChecksumErrors());
+    }
+
+    private ReliableLink connectReliable() throws Exception {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(new LoopbackTransport.Endpoint() {
+            @Override
+            public void attach(SerialTransport deviceSide) {
+                simulatedSwitch.attach(new NoisyTransport(deviceSide));
+            }
+        }), DispatchExecutors.direct());
+        service.setReliableFramingPreferred(true);
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (service.getReliableLink() == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull(service.getReliableLink());
+        // ASCII 编码不变，只换帧格式
+        assertSame(FrameEncoder.CODEC, service.getCodec());
+        return service.getReliableLink();
+    }
+
+    // 按字节计数注入误码或丢弃数据
+    private static final class NoisyStream {
+        private int corruptCountdown = -1;
+        private int dropRemaining = 0;
+
+        synchronized void corruptAt(int index) {
+            corruptCountdown = index;
+        }
+
+        synchronized void dropNext(int count) {
+            dropRemaining = count;
+        }
+
+        /**
+         * @return 处理后保留的字节数
+         */
+        synchronized int apply(byte[] data, int offset, int length) {
+            int kept = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (dropRemaining > 0) {
+                    dropRemaining--;
+                    continue;
+                }
+                byte b = data[i];
+                if (corruptCountdown >= 0 && corruptCountdown-- == 0) {
+                    b ^= 0x10;
+                }
+                data[kept++] = b;
+            }
+            return kept - offset;
+        }
+    }
+
+    private final class NoisyTransport implements SerialTransport {
+        private final SerialTransport inner;
+
+        NoisyTransport(SerialTransport inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            inner.connect();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            final InputStream in = inner.getInputStream();
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    while (true) {
+                        int n = in.read(b, off, len);
+                        if (n <= 0) {
+                            return n;
+                        }
+                        n = toDevice.apply(b, off, n);
+                        if (n > 0) {
+                            return n;
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            final OutputStream out = inner.getOutputStream();
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    byte[] copy = new byte[len];
+                    System.arraycopy(b, off, copy, 0, len);
+                    out.write(copy, 0, toApp.apply(copy, 0, len));
+                }
+            };
+        }
+
+        @Override
+        public boolean isConnected() {
+            return inner.isConnected();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inner.close();
+        }
+
+        @Override
+        public String getAddress() {
+            return inner.getAddress();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResponseParserTest {
+    private final ResponseParser parser = new ResponseParser();
+
+    private boolean parse(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+
+    private boolean parse(byte[] frame) {
+        return parser.parse(frame, 0, frame.length);
+    }
+
+    @Test
+    public void status_asciiAndBinaryGiveSameResult() {
+        assertTrue(parse("STATUS:RELAY=ON,TIME=07:30:00,ALARMS=3,UPTIME=3600s"));
+        assertEquals(ResponseParser.Type.STATUS, parser.getType());
+        assertEquals(1, parser.getRelay());
+        assertEquals(7 * 3600 + 30 * 60, parser.getSecondOfDay());
+        assertEquals(3, parser.getAlarmCount());
+        assertEquals(3600, parser.getUptimeSeconds());
+
+        assertTrue(parse(new byte[] {(byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_STATUS), 0,
+                1, 7, 30, 0, 3, 0x10, 0x0E, 0, 0}));
+        assertEquals(ResponseParser.Type.STATUS, parser.getType());
+        assertEquals(1, parser.getRelay());
+        assertEquals(7 * 3600 + 30 * 60, parser.getSecondOfDay());
+        assertEquals(3, parser.getAlarmCount());
+        assertEquals(3600, parser.getUptimeSeconds());
+    }
+
+    @Test
+    public void relayAndTime() {
+        assertTrue(parse("RELAY_TOGGLE_OK:OFF"));
+        assertEquals(ResponseParser.Type.RELAY, parser.getType());
+        assertEquals(0, parser.getRelay());
+
+        assertTrue(parse("RTC_TIME:7:5:9 TOTAL_SEC:25509"));
+        assertEquals(ResponseParser.Type.TIME, parser.getType());
+        assertEquals(7 * 3600 + 5 * 60 + 9, parser.getSecondOfDay());
+        // 上一次的结果不会残留
+        assertEquals(-1, parser.getRelay());
+
+        assertFalse(parse("TIME:24:00:00"));
+        assertEquals(ResponseParser.Type.UNKNOWN, parser.getType());
+    }
+
+    @Test
+    public void alarmList_readsEntriesAndPage() {
+        assertTrue(parse("ALARMS_COUNT:5 FROM=2 NEXT=4 LIST:ALARM_LIST:#2=6:30:0-RELAY_ON-ENABLED;"
+                + "#3=22:0:0-RELAY_OFF-DISABLED;#x=bad"));
+        assertEquals(ResponseParser.Type.ALARM_LIST, parser.getType());
+        assertEquals(5, parser.getAlarmCount());
+        assertEquals(2, parser.getPageFrom());
+        assertEquals(4, parser.getPageNext());
+        assertEquals(2, parser.getEntryCount());
+        assertEquals(2, parser.getEntryId(0));
+        assertEquals(6 * 3600 + 30 * 60, parser.getEntrySecondOfDay(0));
+        assertEquals(Command.RELAY_ON, parser.getEntryTask(0));
+        assertTrue(parser.isEntryEnabled(0));
+        assertEquals(Command.RELAY_OFF, parser.getEntryTask(1));
+        assertFalse(parser.isEntryEnabled(1));
+
+        assertTrue(parse("ALARMS_COUNT:0 LIST:ALARM_LIST:EMPTY"));
+        assertEquals(0, parser.getEntryCount());
+        assertEquals(-1, parser.getPageFrom());
+    }
+
+    @Test
+    public void alarmList_growsBeyondInitialCapacity() {
+        StringBuilder text = new StringBuilder("ALARMS_COUNT:100 LIST:ALARM_LIST:");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                text.append(';');
+            }
+            text.append('#').append(i).append('=').append(i % 24).append(":0:0-RELAY_TOGGLE-ENABLED");
+        }
+        assertTrue(parse(text.toString()));
+        assertEquals(100, parser.getEntryCount());
+        assertEquals(99, parser.getEntryId(99));
+        assertEquals(99 % 24 * 3600, parser.getEntrySecondOfDay(99));
+
+        byte[] binary = {(byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_GET_ALARMS_PAGE), 0,
+                40, 12, 0, 12, 8, 0, 0, 3};
+        assertTrue(parse(binary));
+        assertEquals(40, parser.getAlarmCount());
+        assertEquals(12, parser.getPageFrom());
+        assertEquals(ProtocolV2.PAGE_END, parser.getPageNext());
+        assertEquals(1, parser.getEntryCount());
+        assertEquals(Command.RELAY_TOGGLE, parser.getEntryTask(0));
+    }
+
+    @Test
+    public void alarmChangesAndEvents() {
+        assertTrue(parse("ADD_ALARM_OK:ID=3,TIME=8:0:0,TASK=RELAY_TOGGLE"));
+        assertEquals(ResponseParser.Type.ALARM_ADDED, parser.getType());
+        assertEquals(3, parser.getAlarmId());
+        assertEquals(8 * 3600, parser.getSecondOfDay());
+        assertEquals(Command.RELAY_TOGGLE, parser.getTask());
+
+        assertTrue(parse("ALARM_DISABLED_OK:ID=3"));
+        assertEquals(ResponseParser.Type.ALARM_ENABLED, parser.getType());
+        assertFalse(parser.isEnabled());
+
+        assertTrue(parse("ALARM_BATCH_OK:APPLIED=3,IDS=4,5"));
+        assertEquals(ResponseParser.Type.ALARM_BATCH, parser.getType());
+        assertEquals(3, parser.getAlarmCount());
+        assertEquals(2, parser.getEntryCount());
+        assertEquals(5, parser.getEntryId(1));
+
+        assertTrue(parse("EVENT:ALARM=2,TASK=RELAY_ON,RELAY=ON,TIME=06:30:00"));
+        assertEquals(ResponseParser.Type.EVENT, parser.getType());
+        assertEquals(2, parser.getAlarmId());
+        assertEquals(Command.RELAY_ON, parser.getTask());
+        assertEquals(1, parser.getRelay());
+        assertEquals(6 * 3600 + 30 * 60, parser.getSecondOfDay());
+    }
+
+    @Test
+    public void errors_mapToStatusCodes() {
+        assertTrue(parse("ERROR:Invalid alarm ID"));
+        assertEquals(ResponseParser.Type.ERROR, parser.getType());
+        assertEquals(ProtocolV2.STATUS_INVALID_ALARM_ID, parser.getErrorCode());
+        assertEquals("Invalid alarm ID", parser.getErrorMessage());
+
+        assertTrue(parse("ERROR:Unknown command: FOO"));
+        assertEquals(ProtocolV2.STATUS_UNKNOWN_OPCODE, parser.getErrorCode());
+
+        assertTrue(parse("ERROR:Something else"));
+        assertEquals(ResponseParser.STATUS_UNKNOWN_ERROR, parser.getErrorCode());
+
+        assertTrue(parse(new byte[] {(byte) (ProtocolV2.RESPONSE_FLAG | ProtocolV2.OP_ADD_ALARM),
+                ProtocolV2.STATUS_LIST_FULL}));
+        assertEquals(ProtocolV2.STATUS_LIST_FULL, parser.getErrorCode());
+        assertEquals("Failed to add alarm: list full", parser.getErrorMessage());
+    }
+
+    @Test
+    public void hello_readsVersionAndFeatures() {
+        assertTrue(parse("HELLO_OK:VERSION=2,FEATURES=7"));
+        assertEquals(ResponseParser.Type.HELLO, parser.getType());
+        assertEquals(2, parser.getVersion());
+        assertEquals(7, parser.getFeatures());
+
+        assertFalse(parse("OK"));
+        assertNull(parser.getErrorMessage());
+    }
+}
@@ -0,0 +1,134 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通过回环传输通道驱动 BluetoothSerialService 与模拟开关通信
+ */
+public class SimulatedSwitchTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() {
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch), DIRECT);
+        service.setConnectionCallback(new BluetoothSerialService.ConnectionCallback() {
+            @Override
+            public void onConnectionStateChanged(int state) {
+            }
+
+            @Override
+            public void onDataReceived(byte[] data) {
+                synchronized (received) {
+                    received.write(data, 0, data.length);
+                    received.notifyAll();
+                }
+            }
+        });
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+    }
+
+    @After
+    public void tearDown() {
+        service.disconnect();
+        simulatedSwitch.shutdown();
+    }
+
+    @Test
+    public void relayOn_isAcknowledged() throws Exception {
+        assertTrue(service.write(FrameEncoder.encode(Command.RELAY_ON)));
+        awaitText("RELAY_ON_OK");
+        assertTrue(simulatedSwitch.isRelayOn());
+    }
+
+    @Test
+    public void addAlarm_isListed() throws Exception {
+        assertTrue(service.write(FrameEncoder.addAlarm(8, 0, 0, Command.RELAY_OFF)));
+        awaitText("ADD_ALARM_OK:ID=0,TIME=8:0:0,TASK=RELAY_OFF");
+        assertTrue(service.write(frame("GET_ALARMS")));
+        awaitText("ALARMS_COUNT:1 LIST:ALARM_LIST:#0=8:0:0-RELAY_OFF-ENABLED");
+        assertEquals(1, simulatedSwitch.getFlashWrites());
+    }
+
+    @Test
+    public void badChecksum_isDropped() throws Exception {
+        byte[] data = frame("RELAY_ON");
+        data[data.length - 1]++;
+        assertTrue(service.write(data));
+        assertTrue(service.write(frame("GET_STATUS")));
+        awaitText("STATUS:RELAY=OFF");
+        assertEquals(1, simulatedSwitch.getChecksumErrors());
+        assertFalse(simulatedSwitch.isRelayOn());
+    }
+
+    @Test
+    public void pipelinedBatch_isCorrelatedInOrder() throws Exception {
+        CompletableFuture<Response> setTime = service.send(FrameEncoder.setTime(7, 30, 0));
+        CompletableFuture<Response> addAlarm = service.send(FrameEncoder.addAlarm(7, 45, 0, Command.RELAY_ON));
+        CompletableFuture<Response> status = service.send(Command.GET_STATUS);
+
+        assertTrue(setTime.get(2, TimeUnit.SECONDS).getText().startsWith("SET_TIME_OK:07:30:0"));
+        assertEquals("ADD_ALARM_OK:ID=0,TIME=7:45:0,TASK=RELAY_ON", addAlarm.get(2, TimeUnit.SECONDS).getText());
+        assertTrue(status.get(2, TimeUnit.SECONDS).getText().contains("ALARMS=1"));
+    }
+
+    @Test
+    public void errorResponse_failsTheCommand() throws Exception {
+        CompletableFuture<Response> delete = service.send(FrameEncoder.deleteAlarm(200));
+        try {
+            delete.get(2, TimeUnit.SECONDS);
+            fail("应当失败");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CommandException);
+            assertTrue(e.getCause().getMessage().contains("ERROR:Invalid alarm ID"));
+        }
+    }
+
+    private void awaitText(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        synchronized (received) {
+            while (!new String(received.toByteArray(), StandardCharsets.ISO_8859_1).contains(expected)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    fail("未收到响应: " + expected);
+                }
+                received.wait(remaining);
+            }
+        }
+    }
+
+    static byte[] frame(String command) {
+        byte[] data = command.getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[data.length + 4];
+        frame[0] = (byte) 0xAA;
+        frame[1] = (byte) 0x55;
+        frame[2] = (byte) data.length;
+        int checksum = 0;
+        for (int i = 0; i < data.length; i++) {
+            frame[3 + i] = data[i];
+            checksum += data[i];
+        }
+        frame[frame.length - 1] = (byte) checksum;
+        return frame;
+    }
+}
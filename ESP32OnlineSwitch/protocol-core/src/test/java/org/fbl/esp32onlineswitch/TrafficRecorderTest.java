@@ -0,0 +1,130 @@
+package org.fbl.esp32onlineswitch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TrafficRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SimulatedSwitch simulatedSwitch;
+    private BluetoothSerialService service;
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.disconnect();
+        }
+        if (simulatedSwitch != null) {
+            simulatedSwitch.shutdown();
+        }
+    }
+
+    private static FrameDecoder.FrameListener collect(final List<String> frames) {
+        return new FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(byte[] buffer, int offset, int length) {
+                synchronized (frames) {
+                    frames.add(new String(buffer, offset, length, StandardCharsets.US_ASCII));
+                }
+            }
+        };
+    }
+
+    @Test
+    public void recordedSession_replaysThroughDecoderAndSimulator() throws Exception {
+        File directory = folder.newFolder("capture");
+        TrafficRecorder recorder = new TrafficRecorder(directory);
+        simulatedSwitch = new SimulatedSwitch();
+        service = new BluetoothSerialService(new LoopbackTransport.Factory(simulatedSwitch), DispatchExecutors.direct());
+        service.setTrafficRecorder(recorder);
+        assertTrue(service.connectToDeviceSync("00:11:22:33:44:55", 1000));
+        service.send(Command.RELAY_ON).get(1, TimeUnit.SECONDS);
+        service.send(Command.GET_STATUS).get(1, TimeUnit.SECONDS);
+        service.disconnect();
+        recorder.close();
+        assertTrue(recorder.awaitTermination(1000));
+        // 两条命令和两条响应，读线程可能把一个响应分几次读到
+        assertTrue(recorder.getRecordsWritten() >= 4);
+        assertEquals(0, recorder.getRecordsDropped());
+
+        TrafficReplayer replayer = new TrafficReplayer(directory);
+        assertEquals(1, replayer.getSegments().size());
+
+        List<String> inbound = new ArrayList<>();
+        assertTrue(replayer.decodeInbound(new FrameDecoder(), collect(inbound),
+                TrafficReplayer.AS_FAST_AS_POSSIBLE) >= 2);
+        assertEquals(2, inbound.size());
+        assertEquals("RELAY_ON_OK", inbound.get(0));
+        assertTrue(inbound.get(1).startsWith("STATUS:RELAY=ON"));
+
+        // 同样的命令写给新的模拟器，得到同样的响应
+        SimulatedSwitch replayed = new SimulatedSwitch();
+        List<String> responses = new ArrayList<>();
+        try {
+            assertTrue(replayer.replayToDevice(replayed, collect(responses), TrafficReplayer.WIRE_SPEED, 100) > 0);
+        } finally {
+            replayed.shutdown();
+        }
+        synchronized (responses) {
+            assertEquals(2, responses.size());
+            assertEquals("RELAY_ON_OK", responses.get(0));
+        }
+        assertTrue(replayed.isRelayOn());
+    }
+
+    @Test
+    public void records_rollOverSegments_andKeepOrder() throws Exception {
+        File directory = folder.newFolder("segments");
+        // 每个分段放得下 3 条 10 字节的记录
+        TrafficRecorder recorder = new TrafficRecorder(directory,
+                TrafficRecorder.SEGMENT_HEADER_LENGTH + 3 * (TrafficRecorder.RECORD_HEADER_LENGTH + 10), 16);
+        byte[] data = new byte[10];
+        for (int i = 0; i < 9; i++) {
+            data[0] = (byte) i;
+            // 等后台线程准备好下一个分段，保证不丢记录
+            while (i > 0 && i % 3 == 0 && recorder.getSegmentsCreated() < i / 3 + 1) {
+                Thread.sleep(1);
+            }
+            recorder.record(i % 2 == 0 ? TrafficRecorder.OUT : TrafficRecorder.IN, data, 0, data.length);
+        }
+        recorder.record(TrafficRecorder.OUT, new byte[200], 0, 200);
+        recorder.close();
+        assertTrue(recorder.awaitTermination(1000));
+        assertEquals(9, recorder.getRecordsWritten());
+        assertEquals(1, recorder.getRecordsDropped());
+
+        TrafficReplayer replayer = new TrafficReplayer(directory);
+        assertEquals(3, replayer.getSegments().size());
+        final List<Integer> order = new ArrayList<>();
+        final long[] lastTime = {-1};
+        assertEquals(9, replayer.replay(new TrafficReplayer.Listener() {
+            @Override
+            public void onRecord(int direction, long timeNanos, byte[] buffer, int offset, int length) {
+                assertEquals(order.size() % 2 == 0 ? TrafficRecorder.OUT : TrafficRecorder.IN, direction);
+                assertTrue(timeNanos >= lastTime[0]);
+                lastTime[0] = timeNanos;
+                order.add((int) buffer[offset]);
+            }
+        }, TrafficReplayer.AS_FAST_AS_POSSIBLE));
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+
+        // 新的记录器不覆盖已有的分段
+        TrafficRecorder next = new TrafficRecorder(directory);
+        next.close();
+        assertTrue(next.awaitTermination(1000));
+        assertEquals(4, new TrafficReplayer(directory).getSegments().size());
+    }
+}
@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "ESP32OnlineSwitch"
 include(":app")
+include(":protocol-core")
+include(":benchmarks")
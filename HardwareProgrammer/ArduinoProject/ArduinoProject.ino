@@ -17,7 +17,40 @@ BluetoothSerial SerialBT;
 #define FRAME_HEADER_1 0xAA
 #define FRAME_HEADER_2 0x55
 #define MAX_DATA_LENGTH 64
-#define MAX_ALARMS 10    // 最大闹钟数量
+#define MAX_ALARMS 32    // 最大闹钟数量
+#define LOOP_MAX_SLEEP_MS 1000       // 没有闹钟到期时主循环最长休眠时间（串口输入最多延迟这么久）
+#define SECONDS_PER_DAY 86400UL
+#define ALARM_MAX_LATENESS_SECONDS 60 // 主循环被阻塞超过这么久的触发不再补执行
+
+// 二进制协议 v2
+// 命令: [操作码][定长参数]，响应: [0x80|操作码][状态码][定长字段]
+// ASCII 命令都以大写字母开头，首字节小于 0x20 的数据帧按二进制命令处理
+#define PROTOCOL_VERSION 2
+#define V2_OPCODE_LIMIT 0x20
+#define V2_RESPONSE_FLAG 0x80
+#define V2_ALARM_ENTRY_LENGTH 5   // GET_ALARMS 每个闹钟: ID 时 分 秒 任务
+
+// 可靠帧: AA 56 [长度] [序号] [确认号] [数据...] [CRC高] [CRC低]
+// CRC-16/CCITT-FALSE 覆盖长度到数据末尾；长度为 0 的是控制帧，序号字段存放 ACK/NAK
+// 收到 CRC 错误或序号跳变的帧立即回 NAK，对端只重传缺失的那一帧
+#define FRAME_HEADER_2_RELIABLE 0x56
+#define RELIABLE_OVERHEAD 7
+#define CONTROL_ACK 0x06
+#define CONTROL_NAK 0x15
+#define ARQ_WINDOW 8              // 与 app 端 ReliableLink.WINDOW 一致
+#define FEATURE_RELIABLE_FRAMING 0x01
+#define FEATURE_ALARM_BATCH 0x02
+#define FEATURE_ALARM_PAGES 0x04
+#define FEATURES (FEATURE_RELIABLE_FRAMING | FEATURE_ALARM_BATCH | FEATURE_ALARM_PAGES)
+#define PAGE_END 0                // GET_ALARMS_PAGE 的下一页起始 ID，0 表示已到末尾
+
+// ALARM_BATCH: [标志][操作...]，一帧内批量修改闹钟，全部成功才生效，带提交标志时只写一次 FLASH
+#define BATCH_FLAG_COMMIT 0x01
+#define BATCH_DELETE 0x01         // [ID]
+#define BATCH_ENABLE 0x02         // [ID][1: 启用 | 0: 禁用]
+#define BATCH_ADD 0x03            // [时][分][秒][任务][1: 启用 | 0: 禁用]
+#define BATCH_CLEAR 0x04
+#define V2_VARIABLE_LENGTH -2     // 变长参数，由处理函数检查
 
 // FLASH存储命名空间
 Preferences preferences;
@@ -34,6 +67,48 @@ typedef enum {
     TASK_TIME_RECV       // 获取主机时间
 } TaskType;
 
+// 二进制命令操作码（与 app 端 ProtocolV2 一致）
+typedef enum {
+    OP_HELLO = 0x01,
+    OP_RELAY_ON,
+    OP_RELAY_OFF,
+    OP_RELAY_TOGGLE,
+    OP_GET_STATUS,
+    OP_RESTART,
+    OP_TIME_SEND,
+    OP_TIME_RECV,
+    OP_SET_TIME,
+    OP_GET_TIME,
+    OP_ADD_ALARM,
+    OP_GET_ALARMS,
+    OP_ENABLE_ALARM,
+    OP_DELETE_ALARM,
+    OP_CLEAR_ALARMS,
+    OP_ALARM_BATCH,
+    OP_GET_ALARMS_PAGE,
+    OP_COUNT
+} Opcode;
+
+// 二进制响应状态码
+typedef enum {
+    V2_OK = 0,
+    V2_ERR_UNKNOWN_OPCODE,
+    V2_ERR_BAD_LENGTH,
+    V2_ERR_INVALID_TIME,
+    V2_ERR_INVALID_ALARM_ID,
+    V2_ERR_LIST_FULL,
+    V2_ERR_INVALID_TASK
+} V2Status;
+
+// 二进制命令处理函数：args 为参数，结果字段写入 out 并设置 outLength，返回状态码
+typedef uint8_t (*BinaryHandler)(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength);
+
+// 二进制命令表项
+typedef struct {
+    int8_t argLength;        // 参数长度，-1 表示未定义的操作码，V2_VARIABLE_LENGTH 表示变长
+    BinaryHandler handler;
+} BinaryCommand;
+
 // ========== 函数声明 ==========
 
 // RTC函数
@@ -41,7 +116,7 @@ void initSimpleRTC();
 void updateSimpleRTC();
 String getSimpleTimeString();
 uint32_t getTotalSeconds();
-uint8_t getRelativeDay();
+uint32_t getRtcSeconds();
 bool setRTCTime(uint8_t hour, uint8_t minute, uint8_t second);
 
 // 闹钟函数
@@ -53,6 +128,8 @@ void clearAllAlarms(bool saveToFlash = true);
 uint8_t getAlarmCount();
 void checkAndExecuteAlarms();
 void executeTask(TaskType taskType, uint8_t alarmId = 255);
+void sendAlarmEvent(uint8_t alarmId, TaskType taskType);
+void setRelay(bool on);
 String taskTypeToString(TaskType taskType);
 String getAlarmListString();
 
@@ -61,11 +138,31 @@ void saveAlarmsToFlash();
 void loadAlarmsFromFlash();
 void resetAlarmsState();
 
+// 闹钟调度函数（按下次触发时间排列的小顶堆，与 app 端 AlarmScheduler 一致）
+void schedSchedule(uint8_t alarmId, uint32_t now);
+void schedCancel(uint8_t alarmId);
+void schedClear();
+void schedRebase(uint32_t now);
+void schedRebuild();
+int32_t schedNextDeadline();
+int schedPoll(uint32_t now);
+static void schedSiftDown(uint8_t index);
+
 // 任务处理函数
 void handleTaskRun(uint8_t* data, uint8_t length);
 void sendResponse(String message);
 void sendErrorResponse(String error);
 void sendDataFrame(const uint8_t* data, uint8_t length);
+void handleBinaryTask(const uint8_t* data, uint8_t length);
+void dispatchPayload(uint8_t* data, uint8_t length);
+
+// 可靠帧函数
+uint16_t crc16Update(uint16_t crc, const uint8_t* data, uint8_t length);
+void handleReliableFrame(const uint8_t* frame, uint8_t length);
+void sendReliableFrame(const uint8_t* data, uint8_t length);
+void sendControlFrame(uint8_t type);
+void writeReliableFrame(uint8_t seq, const uint8_t* data, uint8_t length);
+void arqReset();
 
 // 具体任务实现函数
 void executeRelayOn();
@@ -101,14 +198,12 @@ typedef struct {
 
 // 闹钟任务项
 typedef struct {
-    uint8_t id;            // 闹钟ID (0-9)
+    uint8_t id;            // 闹钟ID (0 ~ MAX_ALARMS-1)
     bool enabled;          // 是否启用
     uint8_t hour;          // 时 0-23
     uint8_t minute;        // 分 0-59
     uint8_t second;        // 秒 0-59
     TaskType taskType;     // 任务类型
-    bool executedToday;    // 今天是否已执行
-    uint8_t lastExecDay;   // 上次执行的日期（相对日期）
 } AlarmTask;
 
 // ========== 全局变量 ==========
@@ -124,6 +219,34 @@ uint8_t rx_index = 0;
 bool frame_started = false;
 uint8_t expected_length = 0;
 
+// 二进制 RESTART 在响应发出后重启
+bool restartPending = false;
+
+// 闹钟调度堆：时间是 RTC 秒数（从 RTC 当天 0 点起算，跨天继续累加）
+// 主循环只比较堆顶，没有到期的闹钟时不遍历闹钟表
+uint8_t schedHeap[MAX_ALARMS];          // 按 (触发时间, ID) 排列的闹钟 ID
+int8_t schedPosition[MAX_ALARMS];       // ID -> 堆中位置，-1 表示未调度
+uint32_t schedFireAt[MAX_ALARMS];       // ID -> 下次触发时间
+uint8_t schedSize = 0;
+
+// 主循环任务句柄，蓝牙收到数据时唤醒
+TaskHandle_t loopTaskHandle = NULL;
+
+// 未提交的批量修改，等带提交标志的 ALARM_BATCH 一次写入 FLASH
+bool alarmsDirty = false;
+
+// 可靠帧 ARQ 状态：按最近一个请求的帧格式回复
+bool reliableMode = false;
+uint8_t arqTxSeq = 0;                           // 下一个发送序号
+uint8_t arqTxBase = 0;                          // 最早未确认序号
+uint8_t arqTxData[ARQ_WINDOW][MAX_DATA_LENGTH]; // 已发送未确认的帧，收到 NAK 时重发
+uint8_t arqTxLength[ARQ_WINDOW];
+uint8_t arqRxExpected = 0;                      // 期望收到的下一个序号
+uint8_t arqRxData[ARQ_WINDOW][MAX_DATA_LENGTH]; // 缺失帧之后先到的帧
+uint8_t arqRxLength[ARQ_WINDOW];
+bool arqRxBuffered[ARQ_WINDOW];
+bool arqNakSent = false;
+
 // ========== RTC函数实现 ==========
 
 // 初始化RTC
@@ -145,6 +268,20 @@ void updateSimpleRTC() {
     uint32_t elapsedMillis = millis() - rtc.startMillis;
     uint32_t totalSeconds = elapsedMillis / 1000;
     
+    // 跨天时起始时间前移一天，RTC 秒数保持在两天以内，millis() 回绕也不影响
+    if (totalSeconds >= SECONDS_PER_DAY) {
+        rtc.startMillis += SECONDS_PER_DAY * 1000UL;
+        totalSeconds -= SECONDS_PER_DAY;
+        // 前一天未处理的触发归零，schedPoll 按超时跳过
+        for (uint8_t i = 0; i < schedSize; i++) {
+            uint8_t id = schedHeap[i];
+            schedFireAt[id] = schedFireAt[id] >= SECONDS_PER_DAY ? schedFireAt[id] - SECONDS_PER_DAY : 0;
+        }
+        for (int i = schedSize / 2 - 1; i >= 0; i--) {
+            schedSiftDown(i);
+        }
+    }
+
     // 计算时、分、秒
     rtc.hour = totalSeconds / 3600;
     rtc.minute = (totalSeconds % 3600) / 60;
@@ -164,9 +301,9 @@ uint32_t getTotalSeconds() {
     return millis() / 1000;
 }
 
-// 获取当前相对日期（从启动开始的天数）
-uint8_t getRelativeDay() {
-    return millis() / (24 * 3600 * 1000UL);  // 每天86400000毫秒
+// RTC 秒数（调度时间基准），updateSimpleRTC 保证小于两天
+uint32_t getRtcSeconds() {
+    return (millis() - rtc.startMillis) / 1000;
 }
 
 // 设置时间
@@ -189,7 +326,7 @@ bool setRTCTime(uint8_t hour, uint8_t minute, uint8_t second) {
     Serial.print(":");
     Serial.println(rtc.second);
     
-    // 设置时间后重置闹钟状态为开启
+    // 设置时间后按新时间重新计算闹钟
     resetAlarmsState();
     
     return true;
@@ -233,6 +370,7 @@ void saveAlarmsToFlash() {
     }
     
     preferences.end();
+    alarmsDirty = false;
     Serial.println("闹钟保存完成");
 }
 
@@ -287,16 +425,138 @@ void loadAlarmsFromFlash() {
 }
 
 void resetAlarmsState() {
-    Serial.println("重置所有闹钟状态为开启");
-    
+    schedRebase(getRtcSeconds());
+    Serial.println("闹钟调度已按当前时间重新计算");
+}
+
+// ========== 闹钟调度函数实现 ==========
+
+// 不早于 now、当天时刻为闹钟时间的第一个 RTC 秒数
+static uint32_t nextOccurrence(uint8_t alarmId, uint32_t now) {
+    uint32_t secondOfDay = alarmList[alarmId].hour * 3600UL
+                         + alarmList[alarmId].minute * 60UL
+                         + alarmList[alarmId].second;
+    uint32_t time = now / SECONDS_PER_DAY * SECONDS_PER_DAY + secondOfDay;
+    return time < now ? time + SECONDS_PER_DAY : time;
+}
+
+// 触发时间相同时 ID 小的在前
+static bool schedBefore(uint8_t a, uint8_t b) {
+    return schedFireAt[a] < schedFireAt[b] || (schedFireAt[a] == schedFireAt[b] && a < b);
+}
+
+static void schedSiftUp(uint8_t index) {
+    uint8_t id = schedHeap[index];
+    while (index > 0) {
+        uint8_t parent = (index - 1) / 2;
+        if (!schedBefore(id, schedHeap[parent])) {
+            break;
+        }
+        schedHeap[index] = schedHeap[parent];
+        schedPosition[schedHeap[index]] = index;
+        index = parent;
+    }
+    schedHeap[index] = id;
+    schedPosition[id] = index;
+}
+
+static void schedSiftDown(uint8_t index) {
+    uint8_t id = schedHeap[index];
+    while (true) {
+        uint8_t child = 2 * index + 1;
+        if (child >= schedSize) {
+            break;
+        }
+        if (child + 1 < schedSize && schedBefore(schedHeap[child + 1], schedHeap[child])) {
+            child++;
+        }
+        if (!schedBefore(schedHeap[child], id)) {
+            break;
+        }
+        schedHeap[index] = schedHeap[child];
+        schedPosition[schedHeap[index]] = index;
+        index = child;
+    }
+    schedHeap[index] = id;
+    schedPosition[id] = index;
+}
+
+// 新增或修改闹钟，当前这一秒的闹钟也会触发
+void schedSchedule(uint8_t alarmId, uint32_t now) {
+    schedFireAt[alarmId] = nextOccurrence(alarmId, now);
+    if (schedPosition[alarmId] < 0) {
+        schedHeap[schedSize] = alarmId;
+        schedPosition[alarmId] = schedSize;
+        schedSize++;
+        schedSiftUp(schedSize - 1);
+    } else {
+        schedSiftUp(schedPosition[alarmId]);
+        schedSiftDown(schedPosition[alarmId]);
+    }
+}
+
+// 删除或禁用闹钟
+void schedCancel(uint8_t alarmId) {
+    int8_t index = schedPosition[alarmId];
+    if (index < 0) {
+        return;
+    }
+    schedPosition[alarmId] = -1;
+    schedSize--;
+    if (index == schedSize) {
+        return;
+    }
+    schedHeap[index] = schedHeap[schedSize];
+    schedPosition[schedHeap[index]] = index;
+    schedSiftUp(index);
+    schedSiftDown(index);
+}
+
+void schedClear() {
+    for (int i = 0; i < MAX_ALARMS; i++) {
+        schedPosition[i] = -1;
+    }
+    schedSize = 0;
+}
+
+// RTC 被重新设置后，按新的时间重新计算所有闹钟
+void schedRebase(uint32_t now) {
+    for (uint8_t i = 0; i < schedSize; i++) {
+        schedFireAt[schedHeap[i]] = nextOccurrence(schedHeap[i], now);
+    }
+    for (int i = schedSize / 2 - 1; i >= 0; i--) {
+        schedSiftDown(i);
+    }
+}
+
+// 按闹钟表重建（ALARM_BATCH 回滚后）
+void schedRebuild() {
+    schedClear();
+    uint32_t now = getRtcSeconds();
     for (int i = 0; i < MAX_ALARMS; i++) {
         if (alarmList[i].enabled && alarmList[i].taskType != TASK_NONE) {
-            alarmList[i].executedToday = false;
-            alarmList[i].lastExecDay = getRelativeDay();
+            schedSchedule(i, now);
         }
     }
-    
-    Serial.println("闹钟状态已重置");
+}
+
+// 最早的触发时间，没有闹钟时返回 -1
+int32_t schedNextDeadline() {
+    return schedSize == 0 ? -1 : (int32_t)schedFireAt[schedHeap[0]];
+}
+
+// 取出一个到期的闹钟并顺延到下一天，没有到期的返回 -1
+int schedPoll(uint32_t now) {
+    while (schedSize > 0 && schedFireAt[schedHeap[0]] <= now) {
+        uint8_t id = schedHeap[0];
+        uint32_t late = now - schedFireAt[id];
+        schedFireAt[id] += (late / SECONDS_PER_DAY + 1) * SECONDS_PER_DAY;
+        schedSiftDown(0);
+        if (late <= ALARM_MAX_LATENESS_SECONDS) {
+            return id;
+        }
+    }
+    return -1;
 }
 
 // ========== 闹钟任务列表函数 ==========
@@ -310,17 +570,13 @@ void initAlarmList() {
         alarmList[i].minute = 0;
         alarmList[i].second = 0;
         alarmList[i].taskType = TASK_NONE;
-        alarmList[i].executedToday = false;
-        alarmList[i].lastExecDay = 0;
     }
     nextAlarmId = 0;
+    schedClear();
     
     // 从FLASH加载保存的闹钟
     loadAlarmsFromFlash();
     
-    // 重置闹钟状态为开启
-    resetAlarmsState();
-    
     Serial.println("闹钟任务列表初始化完成");
 }
 
@@ -341,8 +597,7 @@ int addAlarmTask(uint8_t hour, uint8_t minute, uint8_t second, TaskType taskType
     alarmList[nextAlarmId].minute = minute;
     alarmList[nextAlarmId].second = second;
     alarmList[nextAlarmId].taskType = taskType;
-    alarmList[nextAlarmId].executedToday = false;
-    alarmList[nextAlarmId].lastExecDay = getRelativeDay();
+    schedSchedule(nextAlarmId, getRtcSeconds());
     
     Serial.print("添加闹钟任务 #");
     Serial.print(nextAlarmId);
@@ -373,6 +628,11 @@ bool setAlarmEnabled(uint8_t alarmId, bool enabled, bool saveToFlash) {
     }
     
     alarmList[alarmId].enabled = enabled;
+    if (enabled && alarmList[alarmId].taskType != TASK_NONE) {
+        schedSchedule(alarmId, getRtcSeconds());
+    } else {
+        schedCancel(alarmId);
+    }
     Serial.print("闹钟 #");
     Serial.print(alarmId);
     Serial.print(enabled ? " 已启用" : " 已禁用");
@@ -412,6 +672,7 @@ bool deleteAlarm(uint8_t alarmId, bool saveToFlash) {
     
     alarmList[alarmId].enabled = false;
     alarmList[alarmId].taskType = TASK_NONE;
+    schedCancel(alarmId);
     
     // 如果删除的是最后一个闹钟，调整nextAlarmId
     if (alarmId == nextAlarmId - 1) {
@@ -435,12 +696,14 @@ void clearAllAlarms(bool saveToFlash) {
         alarmList[i].taskType = TASK_NONE;
     }
     nextAlarmId = 0;
+    schedClear();
     
     // 保存到FLASH
     if (saveToFlash) {
         preferences.begin("alarms", false);
         preferences.clear();  // 清除所有保存的闹钟
         preferences.end();
+        alarmsDirty = false;
     }
     
     Serial.println("所有闹钟已清除");
@@ -457,97 +720,77 @@ uint8_t getAlarmCount() {
     return count;
 }
 
-// 检查并执行闹钟任务
+// 检查并执行闹钟任务：只检查堆顶，没有到期的闹钟时 O(1)
 void checkAndExecuteAlarms() {
     if (!rtc.isRunning) return;
     
-    uint8_t currentDay = getRelativeDay();
-    
-    for (int i = 0; i < MAX_ALARMS; i++) {
-        if (!alarmList[i].enabled || alarmList[i].taskType == TASK_NONE) {
-            continue;
-        }
+    int alarmId;
+    while ((alarmId = schedPoll(getRtcSeconds())) >= 0) {
+        TaskType taskType = alarmList[alarmId].taskType;
+        Serial.print("闹钟 #");
+        Serial.print(alarmId);
+        Serial.print(" 触发 - 时间: ");
+        Serial.print(rtc.hour);
+        Serial.print(":");
+        Serial.print(rtc.minute);
+        Serial.print(":");
+        Serial.print(rtc.second);
+        Serial.print(" - 任务: ");
+        Serial.println(taskTypeToString(taskType));
         
-        // 检查是否今天已经执行过
-        if (alarmList[i].executedToday && alarmList[i].lastExecDay == currentDay) {
-            continue;
-        }
-        
-        // 检查时间是否匹配
-        if (alarmList[i].hour == rtc.hour &&
-            alarmList[i].minute == rtc.minute &&
-            alarmList[i].second == rtc.second) {
-            
-            // 执行任务
-            executeTask(alarmList[i].taskType, i);
-            
-            // 标记已执行
-            alarmList[i].executedToday = true;
-            alarmList[i].lastExecDay = currentDay;
-            
-            Serial.print("闹钟 #");
-            Serial.print(i);
-            Serial.print(" 触发 - 时间: ");
-            Serial.print(rtc.hour);
-            Serial.print(":");
-            Serial.print(rtc.minute);
-            Serial.print(":");
-            Serial.print(rtc.second);
-            Serial.print(" - 任务: ");
-            Serial.println(taskTypeToString(alarmList[i].taskType));
-        }
-    }
-    
-    // 每天0点重置执行标记
-    if (rtc.hour == 0 && rtc.minute == 0 && rtc.second == 1) {
-        for (int i = 0; i < MAX_ALARMS; i++) {
-            alarmList[i].executedToday = false;
-        }
-        Serial.println("已重置所有闹钟的执行标记");
+        // 执行任务（RESTART 不返回）
+        executeTask(taskType, alarmId);
     }
 }
 
 // 执行任务
+// 闹钟任务不发送命令响应，改为上报一个 EVENT 帧，避免与 app 的在途命令混淆
 void executeTask(TaskType taskType, uint8_t alarmId) {
     switch (taskType) {
         case TASK_RELAY_ON:
-            executeRelayOn();
+            setRelay(true);
             break;
             
         case TASK_RELAY_OFF:
-            executeRelayOff();
+            setRelay(false);
             break;
             
         case TASK_RELAY_TOGGLE:
-            executeRelayToggle();
+            setRelay(!relayState);
             break;
             
         case TASK_RESTART:
-            executeRestart();
-            break;
+            sendAlarmEvent(alarmId, taskType);
+            delay(1000);
+            ESP.restart();
+            return;
             
         case TASK_TIME_SEND:
-            // 发送当前时间（通过蓝牙响应）
-            if (alarmId != 255) {
-                String response = "ALARM_TIME_SEND:" + getSimpleTimeString();
-                sendResponse(response);
-            }
-            Serial.println("执行任务: 发送设备时间");
-            break;
-            
         case TASK_TIME_RECV:
-            // 请求主机时间（通过蓝牙响应）
-            if (alarmId != 255) {
-                String response = "ALARM_TIME_RECV:Request host time";
-                sendResponse(response);
-            }
-            Serial.println("执行任务: 获取主机时间");
+            // 事件中带有设备时间；TIME_RECV 由 app 收到事件后同步时钟（ClockSync：GET_TIME 测偏差，补偿后下发 SET_TIME）
+            Serial.println("执行任务: " + taskTypeToString(taskType));
             break;
             
         default:
             Serial.println("未知任务类型");
-            break;
+            return;
     }
+    sendAlarmEvent(alarmId, taskType);
+}
+
+// 上报闹钟事件: EVENT:ALARM=ID,TASK=任务,RELAY=ON|OFF,TIME=HH:MM:SS
+void sendAlarmEvent(uint8_t alarmId, TaskType taskType) {
+    String event = "EVENT:ALARM=" + String(alarmId);
+    event += ",TASK=" + taskTypeToString(taskType);
+    event += ",RELAY=" + String(relayState ? "ON" : "OFF");
+    event += ",TIME=" + getSimpleTimeString();
+    sendResponse(event);
+}
+
+// 继电器低电平吸合
+void setRelay(bool on) {
+    relayState = on;
+    digitalWrite(RELAY_PIN, on ? LOW : HIGH);
 }
 
 // 任务类型转字符串
@@ -598,6 +841,15 @@ String getAlarmListString() {
 
 // ========== 任务处理函数 ==========
 
+void dispatchPayload(uint8_t* data, uint8_t length) {
+    // 首字节是操作码的为二进制 v2 命令
+    if (length > 0 && data[0] < V2_OPCODE_LIMIT) {
+        handleBinaryTask(data, length);
+    } else {
+        handleTaskRun(data, length);
+    }
+}
+
 void handleTaskRun(uint8_t* data, uint8_t length) {
     if (length == 0) {
         Serial.println("【错误】任务数据为空");
@@ -643,6 +895,10 @@ void handleTaskRun(uint8_t* data, uint8_t length) {
         executeClearAlarms();
     } else if (command == "RESTART") {
         executeRestart();
+    } else if (command == "HELLO") {
+        arqReset();
+        sendResponse("HELLO_OK:VERSION=" + String(PROTOCOL_VERSION)
+                     + ",FEATURES=" + String(FEATURES));
     } else {
         Serial.print("【错误】未知命令: ");
         Serial.println(command);
@@ -831,8 +1087,7 @@ void executeGetTime() {
 // 任务: 打开继电器
 void executeRelayOn() {
     Serial.println("【执行】打开继电器");
-    digitalWrite(RELAY_PIN, LOW);
-    relayState = true;
+    setRelay(true);
     
     String response = "RELAY_ON_OK";
     sendResponse(response);
@@ -841,8 +1096,7 @@ void executeRelayOn() {
 // 任务: 关闭继电器
 void executeRelayOff() {
     Serial.println("【执行】关闭继电器");
-    digitalWrite(RELAY_PIN, HIGH);
-    relayState = false;
+    setRelay(false);
     
     String response = "RELAY_OFF_OK";
     sendResponse(response);
@@ -851,8 +1105,7 @@ void executeRelayOff() {
 // 任务: 切换继电器
 void executeRelayToggle() {
     Serial.println("【执行】切换继电器");
-    relayState = !relayState;
-    digitalWrite(RELAY_PIN, relayState ? HIGH : LOW);
+    setRelay(!relayState);
     
     String response = "RELAY_TOGGLE_OK:" + String(relayState ? "ON" : "OFF");
     sendResponse(response);
@@ -882,6 +1135,303 @@ void executeRestart() {
     ESP.restart();
 }
 
+// ========== 二进制 v2 任务实现 ==========
+
+static void putUInt32(uint8_t* out, uint32_t value) {
+    out[0] = value & 0xFF;
+    out[1] = (value >> 8) & 0xFF;
+    out[2] = (value >> 16) & 0xFF;
+    out[3] = (value >> 24) & 0xFF;
+}
+
+static uint8_t putTime(uint8_t* out) {
+    out[0] = rtc.hour;
+    out[1] = rtc.minute;
+    out[2] = rtc.second;
+    return 3;
+}
+
+// [客户端版本] -> [固件版本][最大闹钟数][功能位]
+uint8_t binHello(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    arqReset();
+    out[0] = PROTOCOL_VERSION;
+    out[1] = MAX_ALARMS;
+    out[2] = FEATURES;
+    *outLength = 3;
+    return V2_OK;
+}
+
+uint8_t binRelayOn(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    setRelay(true);
+    return V2_OK;
+}
+
+uint8_t binRelayOff(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    setRelay(false);
+    return V2_OK;
+}
+
+// -> [继电器状态]
+uint8_t binRelayToggle(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    setRelay(!relayState);
+    out[0] = relayState ? 1 : 0;
+    *outLength = 1;
+    return V2_OK;
+}
+
+// -> [继电器][时][分][秒][闹钟数][运行秒数 uint32 小端]
+uint8_t binGetStatus(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    out[0] = relayState ? 1 : 0;
+    putTime(out + 1);
+    out[4] = getAlarmCount();
+    putUInt32(out + 5, getTotalSeconds());
+    *outLength = 9;
+    return V2_OK;
+}
+
+uint8_t binRestart(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    restartPending = true;
+    return V2_OK;
+}
+
+// -> [时][分][秒][运行秒数 uint32 小端]
+uint8_t binTimeSend(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    putTime(out);
+    putUInt32(out + 3, getTotalSeconds());
+    *outLength = 7;
+    return V2_OK;
+}
+
+uint8_t binTimeRecv(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    return V2_OK;
+}
+
+// [时][分][秒] -> [时][分][秒]
+uint8_t binSetTime(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    if (!setRTCTime(args[0], args[1], args[2])) {
+        return V2_ERR_INVALID_TIME;
+    }
+    *outLength = putTime(out);
+    return V2_OK;
+}
+
+// -> [时][分][秒]
+uint8_t binGetTime(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    *outLength = putTime(out);
+    return V2_OK;
+}
+
+// [时][分][秒][任务] -> [ID][时][分][秒][任务]
+uint8_t binAddAlarm(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    if (args[3] == TASK_NONE || args[3] > TASK_TIME_RECV) {
+        return V2_ERR_INVALID_TASK;
+    }
+    if (args[0] > 23 || args[1] > 59 || args[2] > 59) {
+        return V2_ERR_INVALID_TIME;
+    }
+    int alarmId = addAlarmTask(args[0], args[1], args[2], (TaskType)args[3], true);
+    if (alarmId < 0) {
+        return V2_ERR_LIST_FULL;
+    }
+    out[0] = alarmId;
+    memcpy(out + 1, args, 4);
+    *outLength = 5;
+    return V2_OK;
+}
+
+// 从 firstId 起写入启用的闹钟直到响应装满，返回下一页起始 ID（写完为 PAGE_END）
+static uint8_t putAlarmEntries(uint8_t firstId, uint8_t* out, uint8_t* outLength) {
+    uint8_t length = *outLength;
+    for (int i = firstId; i < MAX_ALARMS; i++) {
+        if (!alarmList[i].enabled || alarmList[i].taskType == TASK_NONE) {
+            continue;
+        }
+        if (2 + length + V2_ALARM_ENTRY_LENGTH > MAX_DATA_LENGTH) {
+            *outLength = length;
+            return i;
+        }
+        out[length++] = i;
+        out[length++] = alarmList[i].hour;
+        out[length++] = alarmList[i].minute;
+        out[length++] = alarmList[i].second;
+        out[length++] = (uint8_t)alarmList[i].taskType;
+    }
+    *outLength = length;
+    return PAGE_END;
+}
+
+// -> [数量]{[ID][时][分][秒][任务]}...，装不下的闹钟用 GET_ALARMS_PAGE 读取
+uint8_t binGetAlarms(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    out[0] = getAlarmCount();
+    *outLength = 1;
+    putAlarmEntries(0, out, outLength);
+    return V2_OK;
+}
+
+// [起始 ID] -> [数量][起始 ID][下一页起始 ID]{[ID][时][分][秒][任务]}...
+uint8_t binGetAlarmsPage(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    out[0] = getAlarmCount();
+    out[1] = args[0];
+    *outLength = 3;
+    out[2] = putAlarmEntries(args[0], out, outLength);
+    return V2_OK;
+}
+
+// [ID][1: 启用 | 0: 禁用] -> [ID][状态]
+uint8_t binEnableAlarm(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    if (!setAlarmEnabled(args[0], args[1] != 0, true)) {
+        return V2_ERR_INVALID_ALARM_ID;
+    }
+    out[0] = args[0];
+    out[1] = args[1] != 0 ? 1 : 0;
+    *outLength = 2;
+    return V2_OK;
+}
+
+// [ID] -> [ID]
+uint8_t binDeleteAlarm(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    if (!deleteAlarm(args[0], true)) {
+        return V2_ERR_INVALID_ALARM_ID;
+    }
+    out[0] = args[0];
+    *outLength = 1;
+    return V2_OK;
+}
+
+uint8_t binClearAlarms(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    clearAllAlarms(true);
+    return V2_OK;
+}
+
+// 批量操作的长度（含操作类型字节），未知操作返回 0
+static uint8_t batchOpLength(uint8_t op) {
+    switch (op) {
+        case BATCH_DELETE: return 2;
+        case BATCH_ENABLE: return 3;
+        case BATCH_ADD: return 6;
+        case BATCH_CLEAR: return 1;
+        default: return 0;
+    }
+}
+
+static uint8_t applyBatchOp(const uint8_t* op, uint8_t* out, uint8_t* outLength) {
+    switch (op[0]) {
+        case BATCH_DELETE:
+            return deleteAlarm(op[1], false) ? V2_OK : V2_ERR_INVALID_ALARM_ID;
+        case BATCH_ENABLE:
+            return setAlarmEnabled(op[1], op[2] != 0, false) ? V2_OK : V2_ERR_INVALID_ALARM_ID;
+        case BATCH_ADD: {
+            if (op[4] == TASK_NONE || op[4] > TASK_TIME_RECV) {
+                return V2_ERR_INVALID_TASK;
+            }
+            if (op[1] > 23 || op[2] > 59 || op[3] > 59) {
+                return V2_ERR_INVALID_TIME;
+            }
+            int alarmId = addAlarmTask(op[1], op[2], op[3], (TaskType)op[4], false);
+            if (alarmId < 0) {
+                return V2_ERR_LIST_FULL;
+            }
+            if (op[5] == 0) {
+                setAlarmEnabled(alarmId, false, false);
+            }
+            out[(*outLength)++] = alarmId;
+            return V2_OK;
+        }
+        case BATCH_CLEAR:
+            clearAllAlarms(false);
+            return V2_OK;
+        default:
+            return V2_ERR_BAD_LENGTH;
+    }
+}
+
+// [标志][操作...] -> [已执行操作数][新增闹钟 ID...]
+// 任一操作失败时恢复执行前的闹钟表，不写 FLASH
+uint8_t binAlarmBatch(const uint8_t* args, uint8_t argLength, uint8_t* out, uint8_t* outLength) {
+    static AlarmTask snapshot[MAX_ALARMS];
+    if (argLength < 1) {
+        return V2_ERR_BAD_LENGTH;
+    }
+    memcpy(snapshot, alarmList, sizeof(alarmList));
+    uint8_t savedNextId = nextAlarmId;
+
+    uint8_t status = V2_OK;
+    uint8_t applied = 0;
+    *outLength = 1;
+    for (uint8_t i = 1; i < argLength && status == V2_OK; ) {
+        uint8_t opLength = batchOpLength(args[i]);
+        if (opLength == 0 || i + opLength > argLength) {
+            status = V2_ERR_BAD_LENGTH;
+            break;
+        }
+        status = applyBatchOp(args + i, out, outLength);
+        i += opLength;
+        applied++;
+    }
+
+    if (status != V2_OK) {
+        memcpy(alarmList, snapshot, sizeof(alarmList));
+        nextAlarmId = savedNextId;
+        schedRebuild();
+        return status;
+    }
+    out[0] = applied;
+    if (applied > 0) {
+        alarmsDirty = true;
+    }
+    if ((args[0] & BATCH_FLAG_COMMIT) && alarmsDirty) {
+        saveAlarmsToFlash();
+    }
+    return V2_OK;
+}
+
+// 按操作码直接索引，不再逐个比较字符串
+const BinaryCommand binaryCommands[OP_COUNT] = {
+    {-1, NULL},              // 0x00 未定义
+    {1, binHello},           // OP_HELLO
+    {0, binRelayOn},         // OP_RELAY_ON
+    {0, binRelayOff},        // OP_RELAY_OFF
+    {0, binRelayToggle},     // OP_RELAY_TOGGLE
+    {0, binGetStatus},       // OP_GET_STATUS
+    {0, binRestart},         // OP_RESTART
+    {0, binTimeSend},        // OP_TIME_SEND
+    {0, binTimeRecv},        // OP_TIME_RECV
+    {3, binSetTime},         // OP_SET_TIME
+    {0, binGetTime},         // OP_GET_TIME
+    {4, binAddAlarm},        // OP_ADD_ALARM
+    {0, binGetAlarms},       // OP_GET_ALARMS
+    {2, binEnableAlarm},     // OP_ENABLE_ALARM
+    {1, binDeleteAlarm},     // OP_DELETE_ALARM
+    {0, binClearAlarms},     // OP_CLEAR_ALARMS
+    {V2_VARIABLE_LENGTH, binAlarmBatch}, // OP_ALARM_BATCH
+    {1, binGetAlarmsPage}    // OP_GET_ALARMS_PAGE
+};
+
+void handleBinaryTask(const uint8_t* data, uint8_t length) {
+    uint8_t opcode = data[0];
+    uint8_t response[MAX_DATA_LENGTH];
+    uint8_t outLength = 0;
+    uint8_t status;
+
+    if (opcode >= OP_COUNT || binaryCommands[opcode].handler == NULL) {
+        status = V2_ERR_UNKNOWN_OPCODE;
+    } else if (binaryCommands[opcode].argLength != V2_VARIABLE_LENGTH
+               && length - 1 != binaryCommands[opcode].argLength) {
+        status = V2_ERR_BAD_LENGTH;
+    } else {
+        status = binaryCommands[opcode].handler(data + 1, length - 1, response + 2, &outLength);
+    }
+
+    response[0] = opcode | V2_RESPONSE_FLAG;
+    response[1] = status;
+    sendDataFrame(response, status == V2_OK ? 2 + outLength : 2);
+
+    if (restartPending) {
+        delay(1000);
+        ESP.restart();
+    }
+}
+
 // ========== 辅助函数 ==========
 
 // 发送响应
@@ -907,6 +1457,11 @@ void sendErrorResponse(String error) {
 
 // 发送数据帧
 void sendDataFrame(const uint8_t* data, uint8_t length) {
+    if (reliableMode) {
+        sendReliableFrame(data, length);
+        return;
+    }
+
     uint8_t frame[4 + MAX_DATA_LENGTH + 1];
     uint8_t idx = 0;
     
@@ -931,10 +1486,149 @@ void sendDataFrame(const uint8_t* data, uint8_t length) {
     SerialBT.flush();
 }
 
+// ========== 可靠帧 ARQ ==========
+
+// CRC-16/CCITT-FALSE（多项式 0x1021，初值 0xFFFF），与 app 端 Crc16 一致
+uint16_t crc16Update(uint16_t crc, const uint8_t* data, uint8_t length) {
+    for (uint8_t i = 0; i < length; i++) {
+        crc ^= (uint16_t)data[i] << 8;
+        for (uint8_t bit = 0; bit < 8; bit++) {
+            crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+        }
+    }
+    return crc;
+}
+
+// HELLO 时双方从序号 0 重新开始
+void arqReset() {
+    reliableMode = false;
+    arqTxSeq = 0;
+    arqTxBase = 0;
+    arqRxExpected = 0;
+    arqNakSent = false;
+    for (uint8_t i = 0; i < ARQ_WINDOW; i++) {
+        arqRxBuffered[i] = false;
+    }
+}
+
+// 同一个缺口只 NAK 一次，app 端超时后会再 NAK
+static void arqRequestRetransmit() {
+    if (!arqNakSent) {
+        arqNakSent = true;
+        sendControlFrame(CONTROL_NAK);
+    }
+}
+
+// 累计确认：ack 之前的帧都已送达
+static void arqOnAck(uint8_t ack) {
+    if ((uint8_t)(ack - arqTxBase) <= (uint8_t)(arqTxSeq - arqTxBase)) {
+        arqTxBase = ack;
+    }
+}
+
+static void arqTransmit(uint8_t seq) {
+    uint8_t slot = seq % ARQ_WINDOW;
+    writeReliableFrame(seq, arqTxData[slot], arqTxLength[slot]);
+}
+
+void handleReliableFrame(const uint8_t* frame, uint8_t length) {
+    uint16_t crc = crc16Update(0xFFFF, frame + 2, length + 3);
+    if (crc != (((uint16_t)frame[5 + length] << 8) | frame[6 + length])) {
+        Serial.println("CRC错误，请求重传");
+        arqRequestRetransmit();
+        return;
+    }
+
+    reliableMode = true;
+    uint8_t seq = frame[3];
+    arqOnAck(frame[4]);
+    if (length == 0) {
+        // 控制帧：NAK 只重传对端缺失的那一帧
+        if (seq == CONTROL_NAK && (uint8_t)(frame[4] - arqTxBase) < (uint8_t)(arqTxSeq - arqTxBase)) {
+            arqTransmit(frame[4]);
+        }
+        return;
+    }
+
+    uint8_t distance = seq - arqRxExpected;
+    if (distance == 0) {
+        // 先推进期望序号，响应帧捎带的确认号才包含这一帧
+        arqRxExpected++;
+        arqNakSent = false;
+        dispatchPayload((uint8_t*)frame + 5, length);
+        // 补齐后处理先到的后续帧
+        uint8_t slot = arqRxExpected % ARQ_WINDOW;
+        while (arqRxBuffered[slot]) {
+            arqRxBuffered[slot] = false;
+            arqRxExpected++;
+            dispatchPayload(arqRxData[slot], arqRxLength[slot]);
+            slot = arqRxExpected % ARQ_WINDOW;
+        }
+    } else if (distance < ARQ_WINDOW) {
+        // 前面有帧丢失：暂存并立即请求重传
+        uint8_t slot = seq % ARQ_WINDOW;
+        memcpy(arqRxData[slot], frame + 5, length);
+        arqRxLength[slot] = length;
+        arqRxBuffered[slot] = true;
+        arqRequestRetransmit();
+    } else {
+        // 重复帧：对端没收到响应，重发所有未确认的帧
+        if (arqTxBase == arqTxSeq) {
+            sendControlFrame(CONTROL_ACK);
+        }
+        for (uint8_t s = arqTxBase; s != arqTxSeq; s++) {
+            arqTransmit(s);
+        }
+    }
+}
+
+// 发送的帧保留在窗口中，收到 NAK 或重复帧时重发
+void sendReliableFrame(const uint8_t* data, uint8_t length) {
+    if ((uint8_t)(arqTxSeq - arqTxBase) >= ARQ_WINDOW) {
+        // 窗口已满，放弃最旧的未确认帧
+        arqTxBase++;
+    }
+    uint8_t slot = arqTxSeq % ARQ_WINDOW;
+    memcpy(arqTxData[slot], data, length);
+    arqTxLength[slot] = length;
+    arqTransmit(arqTxSeq++);
+}
+
+void sendControlFrame(uint8_t type) {
+    writeReliableFrame(type, NULL, 0);
+}
+
+void writeReliableFrame(uint8_t seq, const uint8_t* data, uint8_t length) {
+    uint8_t frame[RELIABLE_OVERHEAD + MAX_DATA_LENGTH];
+    frame[0] = FRAME_HEADER_1;
+    frame[1] = FRAME_HEADER_2_RELIABLE;
+    frame[2] = length;
+    frame[3] = seq;
+    frame[4] = arqRxExpected;
+    if (length > 0) {
+        memcpy(frame + 5, data, length);
+    }
+    uint16_t crc = crc16Update(0xFFFF, frame + 2, length + 3);
+    frame[5 + length] = crc >> 8;
+    frame[6 + length] = crc & 0xFF;
+
+    SerialBT.write(frame, RELIABLE_OVERHEAD + length);
+    SerialBT.flush();
+}
+
 // ========== 主程序 ==========
 
+// 蓝牙收到数据时唤醒休眠中的主循环
+void onBluetoothEvent(esp_spp_cb_event_t event, esp_spp_cb_param_t* param) {
+    if (event == ESP_SPP_DATA_IND_EVT && loopTaskHandle != NULL) {
+        xTaskNotifyGive(loopTaskHandle);
+    }
+}
+
 void setup() {
     Serial.begin(115200);
+    loopTaskHandle = xTaskGetCurrentTaskHandle();
+    SerialBT.register_callback(onBluetoothEvent);
     SerialBT.begin("FBL-BedLight-Switch");
     
     // 初始化引脚
@@ -965,6 +1659,11 @@ void setup() {
     Serial.println("    ENABLE_ALARM=ID,STATE - 启用/禁用闹钟");
     Serial.println("    DELETE_ALARM=ID - 删除闹钟");
     Serial.println("    CLEAR_ALARMS - 清除所有闹钟");
+    Serial.println("  协议:");
+    Serial.println("    HELLO - 查询协议版本（二进制 v2 命令见 binaryCommands）");
+    Serial.println("    可靠帧 AA 56 - CRC-16 + 序号，出错时 NAK 选择重传");
+    Serial.println("    ALARM_BATCH (二进制 0x10) - 批量增删/启停闹钟，只写一次 FLASH");
+    Serial.println("    GET_ALARMS_PAGE (二进制 0x11) - 分页读取闹钟表");
     Serial.println("========================");
 }
 
@@ -1000,6 +1699,14 @@ void loop() {
         
         // 简化处理：直接调用帧处理函数
         if (processReceivedData(byte)) {
+            if (rx_buffer[1] == FRAME_HEADER_2_RELIABLE) {
+                handleReliableFrame(rx_buffer, expected_length);
+                rx_index = 0;
+                frame_started = false;
+                expected_length = 0;
+                continue;
+            }
+
             // 帧处理逻辑
             uint8_t dataLength = rx_buffer[2];
             uint8_t* data_ptr = &rx_buffer[3];
@@ -1012,7 +1719,9 @@ void loop() {
             }
             
             if (calculated_checksum == received_checksum) {
-                handleTaskRun(data_ptr, dataLength);
+                // 按请求的帧格式回复
+                reliableMode = false;
+                dispatchPayload(data_ptr, dataLength);
             } else {
                 Serial.println("校验和错误");
             }
@@ -1024,7 +1733,17 @@ void loop() {
         }
     }
     
-    delay(10);
+    // 休眠到下一个闹钟到期（最长 LOOP_MAX_SLEEP_MS），蓝牙收到数据时提前唤醒
+    uint32_t waitMs = LOOP_MAX_SLEEP_MS;
+    int32_t deadline = schedNextDeadline();
+    if (deadline >= 0) {
+        uint32_t elapsedMs = millis() - rtc.startMillis;
+        uint32_t deadlineMs = (uint32_t)deadline * 1000UL;
+        waitMs = deadlineMs <= elapsedMs ? 0 : min(waitMs, deadlineMs - elapsedMs);
+    }
+    if (waitMs > 0 && !SerialBT.available()) {
+        ulTaskNotifyTake(pdTRUE, pdMS_TO_TICKS(waitMs));
+    }
 }
 
 // 处理接收数据
@@ -1034,7 +1753,7 @@ bool processReceivedData(uint8_t byte) {
         if (byte == FRAME_HEADER_1) {
             rx_buffer[0] = byte;
             rx_index = 1;
-        } else if (rx_index == 1 && byte == FRAME_HEADER_2) {
+        } else if (rx_index == 1 && (byte == FRAME_HEADER_2 || byte == FRAME_HEADER_2_RELIABLE)) {
             rx_buffer[1] = byte;
             rx_index = 2;
             frame_started = true;
@@ -1057,6 +1776,11 @@ bool processReceivedData(uint8_t byte) {
         }
     }
     
+    // 可靠帧允许长度为 0（控制帧）
+    if (rx_buffer[1] == FRAME_HEADER_2_RELIABLE) {
+        return rx_index == RELIABLE_OVERHEAD + expected_length;
+    }
+
     // 检查是否完整
     if (rx_index >= 4 && expected_length > 0) {
         uint8_t total_length = 4 + expected_length;